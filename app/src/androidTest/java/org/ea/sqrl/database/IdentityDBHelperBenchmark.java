@@ -0,0 +1,130 @@
+package org.ea.sqrl.database;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the identity lookups against a separate database with 10, 100 and 1000 identities.
+ * The numbers are written to logcat, the asserts only make sure the queries still answer
+ * the same thing as before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IdentityDBHelperBenchmark {
+    private static final String TAG = "IdentityDBBenchmark";
+    private static final String DATABASE_NAME = "SQRLIdentitiesBenchmark.db";
+    private static final int ROUNDS = 200;
+
+    private Context context;
+    private IdentityDBHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmark10Identities() {
+        runBenchmark(10);
+    }
+
+    @Test
+    public void benchmark100Identities() {
+        runBenchmark(100);
+    }
+
+    @Test
+    public void benchmark1000Identities() {
+        runBenchmark(1000);
+    }
+
+    @Test
+    public void duplicateNamesGetNumbered() {
+        long first = dbHelper.newIdentity(context, new byte[] {1});
+        long second = dbHelper.newIdentity(context, new byte[] {2});
+        dbHelper.updateIdentityName(context, first, "Test");
+        dbHelper.updateIdentityName(context, second, "Test");
+
+        assertEquals("Test", dbHelper.getIdentityName(first));
+        assertEquals("Test 2", dbHelper.getIdentityName(second));
+        assertFalse(dbHelper.checkUnique(second, "Test"));
+        assertTrue(dbHelper.checkUnique(first, "Test"));
+
+        long third = dbHelper.newIdentity(context, new byte[] {3});
+        dbHelper.updateIdentityName(context, third, "Test");
+        assertEquals("Test 3", dbHelper.getIdentityName(third));
+
+        dbHelper.updateIdentityName(context, second, "Test 2");
+        assertEquals("Test 2", dbHelper.getIdentityName(second));
+    }
+
+    private void runBenchmark(int identityCount) {
+        long startTime = System.nanoTime();
+        List<Long> ids = new ArrayList<>();
+        for(int i = 0; i < identityCount; i++) {
+            ids.add(dbHelper.newIdentity(context, new byte[] {(byte) i}));
+        }
+        long insertTime = System.nanoTime() - startTime;
+
+        assertEquals(identityCount, dbHelper.getIdentityCount());
+        assertEquals(identityCount, dbHelper.getIdentities().size());
+
+        startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            assertTrue(dbHelper.hasIdentities());
+        }
+        long hasIdentitiesTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            long id = ids.get(i % ids.size());
+            assertTrue(dbHelper.getIdentityName(id) != null);
+        }
+        long nameTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            long id = ids.get(i % ids.size());
+            assertEquals(1, dbHelper.getIdentityData(id).length);
+        }
+        long dataTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        long id = ids.get(0);
+        dbHelper.updateIdentityName(context, id, "Renamed");
+        dbHelper.updateIdentityName(context, ids.get(ids.size() - 1), "Renamed");
+        long renameTime = System.nanoTime() - startTime;
+
+        Log.i(TAG, String.format(Locale.US,
+                "%d identities: insert %.3f ms/id, hasIdentities %.3f ms, getIdentityName %.3f ms, " +
+                        "getIdentityData %.3f ms, conflicting rename %.3f ms",
+                identityCount,
+                insertTime / 1_000_000.0 / identityCount,
+                hasIdentitiesTime / 1_000_000.0 / ROUNDS,
+                nameTime / 1_000_000.0 / ROUNDS,
+                dataTime / 1_000_000.0 / ROUNDS,
+                renameTime / 1_000_000.0));
+    }
+}
@@ -0,0 +1,175 @@
+package org.ea.sqrl.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.ea.sqrl.database.IdentityContract.IdentityEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Creates databases the way version 1 of the app did and makes sure they are upgraded
+ * without losing any identities.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IdentityMigrationsTest {
+    private static final String DATABASE_NAME = "SQRLIdentitiesMigrationTest.db";
+
+    private static final String SQL_CREATE_VERSION_1 =
+            "CREATE TABLE identities (_id INTEGER PRIMARY KEY, name TEXT, data BLOB)";
+
+    private Context context;
+    private IdentityDBHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (dbHelper != null) dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    private void createVersion1Database(String[] names, byte[][] data) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(
+                context.getDatabasePath(DATABASE_NAME), null);
+        db.execSQL(SQL_CREATE_VERSION_1);
+        for (int i = 0; i < names.length; i++) {
+            ContentValues values = new ContentValues();
+            values.put("name", names[i]);
+            values.put("data", data[i]);
+            db.insert("identities", null, values);
+        }
+        db.setVersion(1);
+        db.close();
+    }
+
+    @Test
+    public void upgradeKeepsIdentities() {
+        byte[][] data = {{1, 2, 3}, {4, 5, 6, 7}};
+        createVersion1Database(new String[] {"First", "Second"}, data);
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        assertEquals(IdentityDBHelper.DATABASE_VERSION, dbHelper.getReadableDatabase().getVersion());
+        assertEquals(2, dbHelper.getIdentityCount());
+        assertEquals("First", dbHelper.getIdentityName(1));
+        assertEquals("Second", dbHelper.getIdentityName(2));
+        assertArrayEquals(data[0], dbHelper.getIdentityData(1));
+        assertArrayEquals(data[1], dbHelper.getIdentityData(2));
+    }
+
+    @Test
+    public void upgradeFillsMetadata() {
+        byte[][] data = {{1, 2, 3}, {4, 5, 6, 7}};
+        createVersion1Database(new String[] {"First", "Second"}, data);
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        List<IdentityInfo> infos = dbHelper.getIdentityInfos(IdentityEntry._ID, true);
+        assertEquals(2, infos.size());
+        for (int i = 0; i < infos.size(); i++) {
+            IdentityInfo info = infos.get(i);
+            assertEquals(data[i].length, info.getDataSize());
+            assertArrayEquals(IdentityDBHelper.digestData(data[i]), info.getDataDigest());
+            assertTrue(info.getCreated() > 0);
+            assertEquals(0, info.getLastUsed());
+            assertEquals(0, info.getUsageCount());
+        }
+    }
+
+    @Test
+    public void upgradeRenamesDuplicateNames() {
+        createVersion1Database(new String[] {"Same", "Same", null}, new byte[][] {{1}, {2}, {3}});
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        assertEquals("Same", dbHelper.getIdentityName(1));
+        assertEquals("Same 2", dbHelper.getIdentityName(2));
+        assertEquals("ID 3", dbHelper.getIdentityName(3));
+
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND name = ?",
+                new String[] {IdentityEntry.INDEX_NAME});
+        assertTrue(cursor.moveToFirst());
+        cursor.close();
+    }
+
+    @Test
+    public void upgradeSkipsNamesThatAreTaken() {
+        createVersion1Database(new String[] {"Same", "Same 2", "Same", "Same"},
+                new byte[][] {{1}, {2}, {3}, {4}});
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        assertEquals("Same", dbHelper.getIdentityName(1));
+        assertEquals("Same 2", dbHelper.getIdentityName(2));
+        assertEquals("Same 3", dbHelper.getIdentityName(3));
+        assertEquals("Same 4", dbHelper.getIdentityName(4));
+    }
+
+    @Test
+    public void usageAndDataUpdatesAreTracked() {
+        createVersion1Database(new String[] {"First"}, new byte[][] {{1}});
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        dbHelper.markIdentityUsed(1);
+        dbHelper.markIdentityUsed(1);
+        byte[] newData = {9, 8, 7, 6, 5};
+        dbHelper.updateIdentityData(1, newData);
+
+        IdentityInfo info = dbHelper.getIdentityInfos(IdentityEntry._ID, true).get(0);
+        assertEquals(2, info.getUsageCount());
+        assertTrue(info.getLastUsed() > 0);
+        assertEquals(newData.length, info.getDataSize());
+        assertArrayEquals(IdentityDBHelper.digestData(newData), info.getDataDigest());
+    }
+
+    @Test
+    public void upgradeAddsLoginHistory() {
+        createVersion1Database(new String[] {"First"}, new byte[][] {{1}});
+
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        byte[] popularSite = {1, 1, 1};
+        byte[] otherSite = {2, 2, 2};
+        dbHelper.recordLogin(1, popularSite, new byte[] {9}, true, 100);
+        dbHelper.recordLogin(1, popularSite, null, true, 300);
+        dbHelper.recordLogin(1, popularSite, null, false, 500);
+        dbHelper.recordLogin(1, otherSite, new byte[] {8}, true, 50);
+
+        List<SiteUsage> sites = dbHelper.getTopSites(1, 10);
+        assertEquals(2, sites.size());
+        SiteUsage popular = sites.get(0);
+        assertArrayEquals(popularSite, popular.getDomainHash());
+        assertArrayEquals(new byte[] {9}, popular.getSealedDomain());
+        assertEquals(2, popular.getLoginCount());
+        assertEquals(1, popular.getFailureCount());
+        assertEquals(300.0, popular.getAverageLatency(), 0.001);
+        assertEquals(3, dbHelper.getIdentityInfos(IdentityEntry._ID, true).get(0).getUsageCount());
+
+        dbHelper.deleteIdentity(1);
+        assertTrue(dbHelper.getTopSites(1, 10).isEmpty());
+    }
+
+    @Test
+    public void newDatabaseHasLatestSchema() {
+        dbHelper = new IdentityDBHelper(context, DATABASE_NAME);
+        long id = dbHelper.newIdentity(context, new byte[] {1, 2});
+
+        IdentityInfo info = dbHelper.getIdentityInfos(IdentityEntry.COLUMN_NAME_CREATED, false).get(0);
+        assertEquals(id, info.getId());
+        assertEquals(2, info.getDataSize());
+        assertTrue(info.getCreated() > 0);
+    }
+}
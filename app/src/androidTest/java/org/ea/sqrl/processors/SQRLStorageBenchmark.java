@@ -0,0 +1,119 @@
+package org.ea.sqrl.processors;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Times reading an identity into the storage and writing it out again, for an identity without
+ * previous keys and for one with all four. The identity is made up, none of the blocks are
+ * decrypted. The numbers are written to logcat, the asserts only make sure the identity comes
+ * out the same as it went in.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SQRLStorageBenchmark {
+    private static final String TAG = "SQRLStorageBenchmark";
+    private static final int ROUNDS = 200;
+
+    private SQRLStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = SQRLStorage.getInstance(InstrumentationRegistry.getTargetContext());
+    }
+
+    @After
+    public void tearDown() {
+        storage.cleanIdentity();
+    }
+
+    @Test
+    public void benchmarkWithoutPreviousKeys() throws Exception {
+        runBenchmark(0);
+    }
+
+    @Test
+    public void benchmarkWithFourPreviousKeys() throws Exception {
+        runBenchmark(4);
+    }
+
+    /**
+     * Builds an S4 identity with a password block, a rescue block and, if there are any, a block
+     * of previous keys. Everything but the block headers is random.
+     */
+    private static byte[] createIdentity(int previousKeys) {
+        Random random = new Random(previousKeys);
+        int previousLength = previousKeys > 0 ? 6 + 32 * previousKeys + 16 : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 125 + 73 + previousLength).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(SQRLStorage.STORAGE_HEADER.getBytes());
+
+        buffer.putShort((short) 125).putShort((short) 1).putShort((short) 45);
+        buffer.put(randomBytes(random, 12 + 16));
+        buffer.put((byte) 9).putInt(100).putShort((short) 0x1f3);
+        buffer.put((byte) 4).put((byte) 5).putShort((short) 15);
+        buffer.put(randomBytes(random, 32 + 32 + 16));
+
+        buffer.putShort((short) 73).putShort((short) 2);
+        buffer.put(randomBytes(random, 16));
+        buffer.put((byte) 9).putInt(150);
+        buffer.put(randomBytes(random, 32 + 16));
+
+        if(previousKeys > 0) {
+            buffer.putShort((short) previousLength).putShort((short) 3).putShort((short) previousKeys);
+            buffer.put(randomBytes(random, 32 * previousKeys + 16));
+        }
+        return buffer.array();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private void runBenchmark(int previousKeys) throws Exception {
+        byte[] identity = createIdentity(previousKeys);
+        byte[] base64Identity = (SQRLStorage.STORAGE_HEADER_BASE64 + Base64.encodeToString(
+                Arrays.copyOfRange(identity, 8, identity.length),
+                Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP)).getBytes();
+
+        long startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            storage.read(identity);
+        }
+        long readTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            storage.read(base64Identity);
+        }
+        long readBase64Time = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for(int i = 0; i < ROUNDS; i++) {
+            assertArrayEquals(identity, storage.createSaveData());
+        }
+        long saveTime = System.nanoTime() - startTime;
+
+        Log.i(TAG, String.format(Locale.US,
+                "%d previous keys: read %.3f ms, read base64 %.3f ms, createSaveData %.3f ms",
+                previousKeys,
+                readTime / 1_000_000.0 / ROUNDS,
+                readBase64Time / 1_000_000.0 / ROUNDS,
+                saveTime / 1_000_000.0 / ROUNDS));
+    }
+}
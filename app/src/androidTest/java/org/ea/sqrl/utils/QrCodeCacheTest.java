@@ -0,0 +1,78 @@
+package org.ea.sqrl.utils;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.nayuki.qrcodegen.QrCode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Makes sure the same export data is only encoded and rendered once, and that memory
+ * pressure releases what the cache holds.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QrCodeCacheTest {
+    private QrCodeCache cache;
+
+    @Before
+    public void setUp() {
+        cache = QrCodeCache.getInstance();
+        cache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+    }
+
+    private static byte[] exportData(int seed) {
+        byte[] data = new byte[200];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + seed);
+        }
+        return data;
+    }
+
+    @Test
+    public void sameDataIsEncodedOnce() {
+        QrCode qrCode = cache.getQrCode(exportData(1));
+        assertSame(qrCode, cache.getQrCode(exportData(1)));
+        assertNotSame(qrCode, cache.getQrCode(exportData(2)));
+
+        Bitmap image = cache.getImage(exportData(1), 3);
+        assertSame(image, cache.getImage(exportData(1), 3));
+        assertEquals(qrCode.getImageSize(3, 0), image.getWidth());
+        assertNotSame(image, cache.getImage(exportData(1), 2));
+    }
+
+    @Test
+    public void oldestEntryIsEvicted() {
+        QrCode first = cache.getQrCode(exportData(1));
+        cache.getQrCode(exportData(2));
+        cache.getQrCode(exportData(3));
+        assertEquals(2, cache.size());
+        assertNotSame(first, cache.getQrCode(exportData(1)));
+    }
+
+    @Test
+    public void trimMemoryReleasesImagesThenCodes() {
+        QrCode qrCode = cache.getQrCode(exportData(1));
+        Bitmap image = cache.getImage(exportData(1), 3);
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertSame(qrCode, cache.getQrCode(exportData(1)));
+        assertNotSame(image, cache.getImage(exportData(1), 3));
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,66 @@
+package org.ea.sqrl.utils;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import io.nayuki.qrcodegen.QrCode;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Times drawing the QR codes the app shows into bitmaps, which needs the device. Encoding them
+ * runs on any JVM and is timed for every version by the QrCodeBenchmark of the benchmarks
+ * module. An exported identity with a rescue block and a few previous keys is a couple of
+ * hundred bytes, the larger size is there to show how drawing scales towards the highest
+ * versions. The numbers are written to logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QrCodeUtilsBenchmark {
+    private static final String TAG = "QrCodeUtilsBenchmark";
+    private static final int ROUNDS = 20;
+    private static final int SCALE = 4;
+
+    @Test
+    public void benchmark64Bytes() {
+        runBenchmark(64);
+    }
+
+    @Test
+    public void benchmark214Bytes() {
+        runBenchmark(214);
+    }
+
+    @Test
+    public void benchmark1024Bytes() {
+        runBenchmark(1024);
+    }
+
+    private void runBenchmark(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        for(QrCode.Ecc ecc : QrCode.Ecc.values()) {
+            QrCode qrCode = QrCode.encodeBinary(data, ecc);
+
+            long startTime = System.nanoTime();
+            for(int i = 0; i < ROUNDS; i++) {
+                Bitmap image = QrCodeUtils.toImage(qrCode, SCALE, 0, Bitmap.Config.RGB_565);
+                assertEquals(qrCode.getImageSize(SCALE, 0), image.getWidth());
+                image.recycle();
+            }
+            long imageTime = System.nanoTime() - startTime;
+
+            Log.i(TAG, String.format(Locale.US,
+                    "%d bytes, %s: version %d, toImage %.3f ms",
+                    size, ecc, qrCode.version,
+                    imageTime / 1_000_000.0 / ROUNDS));
+        }
+    }
+}
@@ -49,6 +49,7 @@ public class LoginActivity extends LoginBaseActivity {
     private IdentitySelector mIdentitySelector = null;
     private Matcher mSqrlMatcher;
     private RescueCodeInputHelper mRescueCodeInputHelper;
+    private CancellationSignal mKdfCancellation = new CancellationSignal();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -164,6 +165,12 @@ public class LoginActivity extends LoginBaseActivity {
         LoginActivity.this.finish();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mIdentitySelector != null) mIdentitySelector.unregisterLayout();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -188,6 +195,7 @@ public class LoginActivity extends LoginBaseActivity {
         super.onStop();
 
         if(progressPopupWindow.isShowing()) {
+            mKdfCancellation.cancel();
             hideProgressPopup();
         }
     }
@@ -363,9 +371,13 @@ public class LoginActivity extends LoginBaseActivity {
         showProgressPopup();
         closeKeyboard();
 
+        // Made before the work starts, so leaving the screen cancels it however soon that is.
+        final CancellationSignal kdfCancellation = new CancellationSignal();
+        mKdfCancellation = kdfCancellation;
+
         new Thread(() -> {
             if (needsDecryption) {
-                if (!decryptIdentityInternal(storage, useQuickpass)) {
+                if (!decryptIdentityInternal(storage, useQuickpass, kdfCancellation)) {
                     return;
                 }
             }
@@ -410,14 +422,15 @@ public class LoginActivity extends LoginBaseActivity {
         }).start();
     }
 
-    private boolean decryptIdentityInternal(SQRLStorage storage, boolean useQuickPass) {
+    private boolean decryptIdentityInternal(SQRLStorage storage, boolean useQuickPass, CancellationSignal kdfCancellation) {
         final RadioGroup radgrpAccountOptions = findViewById(R.id.radgrpAccountOptions);
 
         if (radgrpAccountOptions.getCheckedRadioButtonId() == R.id.radEnableAccount ||
                 radgrpAccountOptions.getCheckedRadioButtonId() == R.id.radRemoveAccount) {
 
             try {
-                if (!storage.decryptUnlockKey(mRescueCodeInputHelper.getRescueCodeInput())) {
+                if (!storage.decryptUnlockKey(mRescueCodeInputHelper.getRescueCodeInput(), kdfCancellation)) {
+                    if (kdfCancellation.isCanceled()) return false;
                     showErrorMessage(R.string.decrypt_identity_fail);
                     handler.post(() -> hideProgressPopup());
                     return false;
@@ -435,7 +448,11 @@ public class LoginActivity extends LoginBaseActivity {
                 handler.post(() -> mRescueCodeInputHelper.clearForm());
             }
         } else {
-            if(!storage.decryptIdentityKey(txtLoginPassword.getText().toString(), entropyHarvester, useQuickPass)) {
+            if(!storage.decryptIdentityKey(txtLoginPassword.getText().toString(), entropyHarvester, useQuickPass, kdfCancellation)) {
+                if (kdfCancellation.isCanceled()) {
+                    storage.clear();
+                    return false;
+                }
                 showErrorMessage(R.string.decrypt_identity_fail);
                 handler.post(() -> {
                     txtLoginPassword.setHint(R.string.login_identity_password);
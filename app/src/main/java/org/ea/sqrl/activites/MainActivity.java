@@ -58,6 +58,12 @@ public class MainActivity extends LoginBaseActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mIdentitySelector.unregisterLayout();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
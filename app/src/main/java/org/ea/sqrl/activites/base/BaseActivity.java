@@ -44,6 +44,7 @@ import org.ea.sqrl.activites.identity.IdentityManagementActivity;
 import org.ea.sqrl.activites.LanguageActivity;
 import org.ea.sqrl.activites.IntroductionActivity;
 import org.ea.sqrl.database.IdentityDBHelper;
+import org.ea.sqrl.processors.ConversationStats;
 import org.ea.sqrl.processors.EntropyHarvester;
 import org.ea.sqrl.processors.ProgressionUpdater;
 import org.ea.sqrl.processors.SQRLStorage;
@@ -52,6 +53,8 @@ import org.ea.sqrl.services.ClearIdentityService;
 import org.ea.sqrl.utils.SqrlApplication;
 
 import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * This base activity is inherited by all other activities that need logic used for menus,
@@ -188,6 +191,13 @@ public class BaseActivity extends CommonBaseActivity {
                         .setPositiveButton(android.R.string.ok, (dialog, which) -> {
                             dialog.dismiss();
                         })
+                        .setNeutralButton(R.string.about_share_timing_report, (dialog, which) -> {
+                            Intent shareIntent = new Intent();
+                            shareIntent.setAction(Intent.ACTION_SEND);
+                            shareIntent.putExtra(Intent.EXTRA_TEXT, ConversationStats.getInstance().createReport());
+                            shareIntent.setType("text/plain");
+                            startActivity(Intent.createChooser(shareIntent, getResources().getText(R.string.about_share_timing_report)));
+                        })
                         .setIcon(android.R.drawable.ic_dialog_info)
                         .show();
 
@@ -344,6 +354,22 @@ public class BaseActivity extends CommonBaseActivity {
         );
     }
 
+    /**
+     * Runs nextAction on the main thread once the write has reached the database. If the write
+     * failed the user is told first, and nextAction runs when the message is dismissed.
+     */
+    public void afterIdentityWrite(Future<?> write, Runnable nextAction) {
+        new Thread(() -> {
+            try {
+                write.get();
+                handler.post(nextAction);
+            } catch (ExecutionException | InterruptedException e) {
+                Log.e(TAG, e.getMessage(), e);
+                showErrorMessage(R.string.save_identity_fail, nextAction);
+            }
+        }).start();
+    }
+
     public void showProgressPopup() {
         progressPopupWindow.showAtLocation(progressPopupWindow.getContentView(), Gravity.CENTER, 0, 0);
         lockRotation();
@@ -8,6 +8,7 @@ import android.widget.TextView;
 
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.base.CommonBaseActivity;
+import org.ea.sqrl.processors.KdfProfile;
 import org.ea.sqrl.processors.SQRLStorage;
 
 /**
@@ -26,6 +27,7 @@ public class CreateIdentityActivity extends CommonBaseActivity {
         setContentView(R.layout.activity_create_identity);
 
         SQRLStorage.getInstance(CreateIdentityActivity.this.getApplicationContext()).cleanIdentity();
+        KdfProfile.getInstance(this).calibrateInBackground(KdfProfile.DEFAULT_LOG_N_FACTOR);
 
         final TextView txtCreateIdentityMessage = findViewById(R.id.txtCreateIdentityMessage);
         txtCreateIdentityMessage.setMovementMethod(LinkMovementMethod.getInstance());
@@ -2,25 +2,24 @@ package org.ea.sqrl.activites.create;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.hardware.Camera;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
-import android.view.SurfaceHolder;
-import android.view.SurfaceView;
 import android.widget.Button;
 import android.widget.FrameLayout;
 import android.widget.ProgressBar;
+import android.widget.Toast;
 
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.base.CommonBaseActivity;
+import org.ea.sqrl.processors.Camera2EntropySource;
 import org.ea.sqrl.processors.EntropyHarvester;
-
-import java.io.IOException;
+import org.ea.sqrl.processors.EntropySource;
+import org.ea.sqrl.processors.LegacyCameraEntropySource;
 
 /**
  *
@@ -31,11 +30,12 @@ public class EntropyGatherActivity extends CommonBaseActivity {
 
     private final int REQUEST_PERMISSION_CAMERA = 1;
 
-    private Camera mCamera;
-    private CameraPreview mPreview;
+    private EntropySource mEntropySource;
     private FrameLayout mPreviewLayout;
     private EntropyHarvester entropyHarvester;
     private ProgressBar progressBar;
+    private Button btnEntropyGatherNext;
+    private boolean degenerateHintShown = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,21 +55,14 @@ public class EntropyGatherActivity extends CommonBaseActivity {
     protected void onPause() {
         super.onPause();
 
-        if (mCamera != null) {
-            mCamera.stopPreview();
-            mCamera.setPreviewCallback(null);
-            mCamera.release();
-            mCamera = null;
-        }
-
-        if (mPreview != null) {
-            mPreviewLayout.removeView(mPreview);
-            mPreview = null;
+        if (mEntropySource != null) {
+            mEntropySource.stop();
         }
     }
 
     private void initCameraUsage() {
-        final Button btnEntropyGatherNext = findViewById(R.id.btnEntropyGatherNext);
+        btnEntropyGatherNext = findViewById(R.id.btnEntropyGatherNext);
+        btnEntropyGatherNext.setEnabled(false);
         btnEntropyGatherNext.setOnClickListener(v -> {
             entropyHarvester.digestEntropy();
             startActivity(new Intent(this, RescueCodeShowActivity.class));
@@ -80,20 +73,48 @@ public class EntropyGatherActivity extends CommonBaseActivity {
         try {
             entropyHarvester = EntropyHarvester.getInstance();
             entropyHarvester.startGather();
+            degenerateHintShown = false;
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
         }
 
-        if (mCamera == null) {
-            mCamera = getCameraInstance();
+        if (mEntropySource == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP &&
+                    Camera2EntropySource.isSupported(this)) {
+                mEntropySource = new Camera2EntropySource(this, entropyHarvester, progressBar);
+            } else {
+                mEntropySource = new LegacyCameraEntropySource(this, entropyHarvester, progressBar);
+            }
         }
 
-        if (mPreview == null) {
-            mPreview = new CameraPreview(this, mCamera, entropyHarvester);
-            mPreviewLayout.addView(mPreview);
+        if (!mEntropySource.start(mPreviewLayout, this::updateGatherState)) {
+            Log.e(TAG, "Unable to open the camera");
+            showCameraUnavailable();
         }
+    }
 
-        mCamera.startPreview();
+    /**
+     * The camera only adds to the system random number generator, so the user may go on without
+     * it, or go back.
+     */
+    private void showCameraUnavailable() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.error_dialog_title)
+                .setMessage(R.string.entropy_gather_no_camera)
+                .setPositiveButton(R.string.entropy_gather_no_camera_continue,
+                        (dialog, which) -> btnEntropyGatherNext.setEnabled(true))
+                .setNegativeButton(android.R.string.cancel, (dialog, which) -> finish())
+                .setCancelable(false)
+                .show();
+    }
+
+    private void updateGatherState() {
+        if (entropyHarvester.isGatherComplete()) {
+            btnEntropyGatherNext.setEnabled(true);
+        } else if (entropyHarvester.isSourceDegenerate() && !degenerateHintShown) {
+            degenerateHintShown = true;
+            Toast.makeText(this, R.string.entropy_gather_degenerate, Toast.LENGTH_LONG).show();
+        }
     }
 
     private void showPhoneStatePermission() {
@@ -140,48 +161,4 @@ public class EntropyGatherActivity extends CommonBaseActivity {
                 .setPositiveButton(android.R.string.ok, (dialog, id) -> requestPermission());
         builder.create().show();
     }
-
-
-    /** A safe way to get an instance of the Camera object. */
-    public static Camera getCameraInstance(){
-        Camera c = null;
-        try {
-            c = Camera.open();
-        } catch (Exception e){}
-        return c;
-    }
-
-    /** A basic Camera preview class */
-    private class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
-        private SurfaceHolder mHolder;
-        private Camera mCamera;
-        private EntropyHarvester mEntropyHarvester;
-
-        public CameraPreview(Context context, Camera camera, EntropyHarvester entropyHarvester) {
-            super(context);
-            mCamera = camera;
-            mEntropyHarvester = entropyHarvester;
-            mHolder = getHolder();
-            mHolder.addCallback(this);
-        }
-
-        public void surfaceCreated(SurfaceHolder holder) {
-            try {
-                if(mCamera != null) {
-                    mCamera.setPreviewDisplay(holder);
-                    mCamera.setPreviewCallback((data, camera) -> {
-                        mEntropyHarvester.addEntropy(progressBar, data);
-                    });
-                }
-            } catch (IOException e) {
-                Log.d(TAG, "Error setting camera preview: " + e.getMessage());
-            }
-        }
-
-        public void surfaceDestroyed(SurfaceHolder holder) {
-            holder.removeCallback(this);
-        }
-
-        public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) { }
-    }
 }
@@ -8,6 +8,7 @@ import android.widget.TextView;
 
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.base.CommonBaseActivity;
+import org.ea.sqrl.processors.KdfProfile;
 import org.ea.sqrl.processors.SQRLStorage;
 
 /**
@@ -23,6 +24,7 @@ public class RekeyIdentityActivity extends CommonBaseActivity {
         setContentView(R.layout.activity_rekey_identity);
 
         SQRLStorage.getInstance(RekeyIdentityActivity.this.getApplicationContext()).clear();
+        KdfProfile.getInstance(this).calibrateInBackground(KdfProfile.DEFAULT_LOG_N_FACTOR);
 
         final TextView txtRekeyIdentityMessage = findViewById(R.id.txtRekeyIdentityMessage);
         txtRekeyIdentityMessage.setMovementMethod(LinkMovementMethod.getInstance());
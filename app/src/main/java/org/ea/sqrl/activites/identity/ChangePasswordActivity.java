@@ -10,6 +10,8 @@ import org.ea.sqrl.processors.SQRLStorage;
 import org.ea.sqrl.utils.PasswordStrengthMeter;
 import org.ea.sqrl.utils.SqrlApplication;
 
+import java.util.concurrent.Future;
+
 public class ChangePasswordActivity extends BaseActivity {
 
     @Override
@@ -76,9 +78,9 @@ public class ChangePasswordActivity extends BaseActivity {
 
                 long currentId = SqrlApplication.getCurrentId(this.getApplication());
 
-                mDbHelper.updateIdentityData(currentId, storage.createSaveData());
+                Future<Void> write = mDbHelper.updateIdentityDataAsync(currentId, storage.createSaveData());
 
-                handler.post(() -> {
+                afterIdentityWrite(write, () -> {
                     txtCurrentPassword.setText("");
                     txtNewPassword.setText("");
                     txtRetypePassword.setText("");
@@ -44,6 +44,12 @@ public class IdentityManagementActivity extends BaseActivity {
         mIdentitySelector.registerLayout(findViewById(R.id.identitySelector));
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mIdentitySelector.unregisterLayout();
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -19,6 +19,8 @@ import org.ea.sqrl.utils.IdentitySelector;
 import org.ea.sqrl.utils.SqrlApplication;
 import org.ea.sqrl.utils.Utils;
 
+import java.util.concurrent.Future;
+
 /**
  *
  * @author Daniel Persson
@@ -91,6 +93,12 @@ public class IdentitySettingsActivity extends BaseActivity implements TextWatche
         );
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mIdentitySelector.unregisterLayout();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
@@ -233,9 +241,9 @@ public class IdentitySettingsActivity extends BaseActivity implements TextWatche
             storage.clearQuickPass();
 
             long currentId = SqrlApplication.getCurrentId(this.getApplication());
-            mDbHelper.updateIdentityData(currentId, storage.createSaveData());
+            Future<Void> write = mDbHelper.updateIdentityDataAsync(currentId, storage.createSaveData());
 
-            handler.post(() -> {
+            afterIdentityWrite(write, () -> {
                 txtPassword.setText("");
                 hideProgressPopup();
                 IdentitySettingsActivity.this.finish();
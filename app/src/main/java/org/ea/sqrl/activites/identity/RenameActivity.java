@@ -12,6 +12,8 @@ import org.ea.sqrl.activites.MainActivity;
 import org.ea.sqrl.activites.base.BaseActivity;
 import org.ea.sqrl.utils.SqrlApplication;
 
+import java.util.concurrent.Future;
+
 public class RenameActivity extends BaseActivity {
     private EditText txtIdentityName = null;
 
@@ -60,12 +62,17 @@ public class RenameActivity extends BaseActivity {
     private void doRename() {
         final long currentId = SqrlApplication.getCurrentId(this.getApplication());
 
+        hideKeyboard();
         if(currentId != 0) {
-            mDbHelper.updateIdentityName(RenameActivity.this, currentId,
+            Future<Void> write = mDbHelper.updateIdentityNameAsync(RenameActivity.this, currentId,
                     txtIdentityName.getText().toString());
+            afterIdentityWrite(write, this::showNextActivity);
+        } else {
+            showNextActivity();
         }
+    }
 
-        hideKeyboard();
+    private void showNextActivity() {
         RenameActivity.this.finishAffinity();
         startActivity(getNextActivity());
     }
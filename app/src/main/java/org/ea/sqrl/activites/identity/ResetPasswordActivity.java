@@ -16,6 +16,8 @@ import org.ea.sqrl.utils.PasswordStrengthMeter;
 import org.ea.sqrl.utils.RescueCodeInputHelper;
 import org.ea.sqrl.utils.SqrlApplication;
 
+import java.util.concurrent.Future;
+
 public class ResetPasswordActivity extends BaseActivity {
 
     @Override
@@ -93,9 +95,11 @@ public class ResetPasswordActivity extends BaseActivity {
                     long currentId = SqrlApplication.getCurrentId(this.getApplication());
 
                     if(currentId != 0) {
-                        mDbHelper.updateIdentityData(currentId, storage.createSaveData());
+                        Future<Void> write = mDbHelper.updateIdentityDataAsync(currentId, storage.createSaveData());
+                        afterIdentityWrite(write, ResetPasswordActivity.this::finish);
+                    } else {
+                        handler.post(() -> ResetPasswordActivity.this.finish());
                     }
-                    handler.post(() -> ResetPasswordActivity.this.finish());
                 } else {
                     long newIdentityId = mDbHelper.newIdentity(
                             ResetPasswordActivity.this, storage.createSaveData());
@@ -11,10 +11,9 @@ import android.widget.TextView;
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.base.BaseActivity;
 import org.ea.sqrl.processors.SQRLStorage;
+import org.ea.sqrl.utils.QrCodeCache;
 import org.ea.sqrl.utils.SqrlApplication;
 
-import io.nayuki.qrcodegen.QrCode;
-
 /**
  * This activity shows an identity. Both the QRCode you can scan to export the identity to another
  * device and it also shows the rescue data used by the rescue code in order to restore identity.
@@ -67,7 +66,6 @@ public class ShowIdentityActivity extends BaseActivity {
 
         ImageView imageView = findViewById(R.id.imgQRCode);
 
-        QrCode qrCode = QrCode.encodeBinary(saveData, QrCode.Ecc.MEDIUM);
-        imageView.setImageBitmap(qrCode.toImage(3, 0));
+        imageView.setImageBitmap(QrCodeCache.getInstance().getImage(saveData, 3));
     }
 }
@@ -0,0 +1,168 @@
+package org.ea.sqrl.database;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps the id and name of every identity in memory so the UI can list them without asking the
+ * database each time. The list is loaded once, by the application on the write queue when it
+ * starts, and then kept up to date by IdentityDBHelper when an identity is added, renamed or
+ * removed. Whoever asks before that load is done loads it on their own thread. The data blob of the latest identity read is kept
+ * as well, since we tend to read the same one over and over.
+ *
+ * Listeners are always called on the main thread.
+ */
+public class IdentityCatalog {
+
+    public interface CatalogChangedListener {
+        void onCatalogChanged();
+    }
+
+    private final IdentityDBHelper mDbHelper;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<CatalogChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    private TreeMap<Long, String> mIdentities = null;
+    private long mCachedDataId = -1;
+    private byte[] mCachedData = null;
+    private long mDataVersion = 0;
+
+    public static IdentityCatalog getInstance(Context context) {
+        return IdentityDBHelper.getInstance(context).getCatalog();
+    }
+
+    IdentityCatalog(IdentityDBHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    public void addCatalogChangedListener(CatalogChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeCatalogChangedListener(CatalogChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void ensureLoaded() {
+        if (mIdentities == null) {
+            mIdentities = new TreeMap<>(mDbHelper.getIdentities());
+        }
+    }
+
+    /**
+     * Loads the list if nobody has yet, and tells the listeners once it is there. This is done
+     * on the write queue, so it is never read while a queued write is halfway done.
+     */
+    void load() {
+        Map<Long, String> identities = mDbHelper.getIdentities();
+        synchronized (this) {
+            if (mIdentities != null) return;
+            mIdentities = new TreeMap<>(identities);
+        }
+        notifyListeners();
+    }
+
+    /**
+     * @return  True if the list is in memory, so asking for it doesn't touch the database.
+     */
+    public synchronized boolean isLoaded() {
+        return mIdentities != null;
+    }
+
+    /**
+     * @return  A copy of all identity names by id, in the order they were created.
+     */
+    public synchronized Map<Long, String> getIdentities() {
+        ensureLoaded();
+        return Collections.unmodifiableMap(new TreeMap<>(mIdentities));
+    }
+
+    public synchronized boolean hasIdentities() {
+        ensureLoaded();
+        return !mIdentities.isEmpty();
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return mIdentities.size();
+    }
+
+    /**
+     * @return  The id of the first identity, or -1 if there are no identities.
+     */
+    public synchronized long getFirstId() {
+        ensureLoaded();
+        return mIdentities.isEmpty() ? -1 : mIdentities.firstKey();
+    }
+
+    public synchronized String getIdentityName(long id) {
+        ensureLoaded();
+        return mIdentities.get(id);
+    }
+
+    synchronized byte[] getCachedData(long id) {
+        if (mCachedData == null || mCachedDataId != id) return null;
+        return mCachedData.clone();
+    }
+
+    /**
+     * @return  Counter that changes every time identity data is updated or removed.
+     */
+    synchronized long getDataVersion() {
+        return mDataVersion;
+    }
+
+    /**
+     * Caches the data read from the database, unless the data has changed since the read
+     * started, since the read could then have returned the old data.
+     */
+    synchronized void cacheData(long id, byte[] data, long dataVersion) {
+        if (dataVersion != mDataVersion) return;
+        mCachedDataId = id;
+        mCachedData = data.clone();
+    }
+
+    void identityUpdated(long id, String name) {
+        synchronized (this) {
+            if (mIdentities == null) return;
+            mIdentities.put(id, name != null ? name : "ID " + id);
+        }
+        notifyListeners();
+    }
+
+    void identityDataUpdated(long id) {
+        synchronized (this) {
+            mDataVersion++;
+            if (mCachedDataId != id) return;
+            mCachedDataId = -1;
+            mCachedData = null;
+        }
+    }
+
+    void identityRemoved(long id) {
+        synchronized (this) {
+            mDataVersion++;
+            if (mCachedDataId == id) {
+                mCachedDataId = -1;
+                mCachedData = null;
+            }
+            if (mIdentities == null) return;
+            mIdentities.remove(id);
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        mMainHandler.post(() -> {
+            for (CatalogChangedListener listener : mListeners) {
+                listener.onCatalogChanged();
+            }
+        });
+    }
+}
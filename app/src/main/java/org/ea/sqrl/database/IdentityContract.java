@@ -14,5 +14,28 @@ public class IdentityContract {
         public static final String TABLE_NAME = "identities";
         public static final String COLUMN_NAME_NAME = "name";
         public static final String COLUMN_NAME_DATA = "data";
+        public static final String COLUMN_NAME_CREATED = "created";
+        public static final String COLUMN_NAME_LAST_USED = "last_used";
+        public static final String COLUMN_NAME_DATA_DIGEST = "data_digest";
+        public static final String COLUMN_NAME_DATA_SIZE = "data_size";
+        public static final String COLUMN_NAME_USAGE_COUNT = "usage_count";
+        public static final String INDEX_NAME = "identities_name_idx";
+    }
+
+    /**
+     * One row for every site an identity has signed in to. The site is stored as a keyed hash
+     * of the crypt domain and the domain itself is sealed with a key derived from the identity,
+     * so neither can be read without unlocking the identity.
+     */
+    public static class LoginHistoryEntry implements BaseColumns {
+        public static final String TABLE_NAME = "login_history";
+        public static final String COLUMN_NAME_IDENTITY_ID = "identity_id";
+        public static final String COLUMN_NAME_DOMAIN_HASH = "domain_hash";
+        public static final String COLUMN_NAME_SEALED_DOMAIN = "sealed_domain";
+        public static final String COLUMN_NAME_LOGIN_COUNT = "login_count";
+        public static final String COLUMN_NAME_FAILURE_COUNT = "failure_count";
+        public static final String COLUMN_NAME_LAST_USED = "last_used";
+        public static final String COLUMN_NAME_AVERAGE_LATENCY = "average_latency";
+        public static final String INDEX_NAME = "login_history_site_idx";
     }
 }
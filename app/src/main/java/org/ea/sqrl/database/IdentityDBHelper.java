@@ -5,13 +5,25 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
 
 import org.ea.sqrl.R;
 import org.ea.sqrl.database.IdentityContract.IdentityEntry;
+import org.ea.sqrl.database.IdentityContract.LoginHistoryEntry;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * This little database handle makes it possible to create a new data store and save identities with
@@ -21,20 +33,108 @@ import java.util.Map;
  * @author Daniel Persson
  */
 public class IdentityDBHelper extends SQLiteOpenHelper {
+    private static final String TAG = "IdentityDBHelper";
+
     private static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + IdentityEntry.TABLE_NAME + " (" +
                     IdentityEntry._ID + " INTEGER PRIMARY KEY," +
                     IdentityEntry.COLUMN_NAME_NAME + " TEXT," +
-                    IdentityEntry.COLUMN_NAME_DATA + " BLOB)";
+                    IdentityEntry.COLUMN_NAME_DATA + " BLOB," +
+                    IdentityEntry.COLUMN_NAME_CREATED + " INTEGER," +
+                    IdentityEntry.COLUMN_NAME_LAST_USED + " INTEGER," +
+                    IdentityEntry.COLUMN_NAME_DATA_DIGEST + " BLOB," +
+                    IdentityEntry.COLUMN_NAME_DATA_SIZE + " INTEGER NOT NULL DEFAULT 0," +
+                    IdentityEntry.COLUMN_NAME_USAGE_COUNT + " INTEGER NOT NULL DEFAULT 0)";
+
+    private static final String SQL_HAS_IDENTITIES =
+            "SELECT EXISTS (SELECT 1 FROM " + IdentityEntry.TABLE_NAME + ")";
+
+    private static final String SQL_COUNT_IDENTITIES =
+            "SELECT COUNT(*) FROM " + IdentityEntry.TABLE_NAME;
+
+    private static final String SQL_NAME_BY_ID =
+            "SELECT " + IdentityEntry.COLUMN_NAME_NAME + " FROM " + IdentityEntry.TABLE_NAME +
+                    " WHERE " + IdentityEntry._ID + " = ?";
+
+    private static final String SQL_NAME_TAKEN =
+            "SELECT EXISTS (SELECT 1 FROM " + IdentityEntry.TABLE_NAME +
+                    " WHERE " + IdentityEntry.COLUMN_NAME_NAME + " = ? AND " + IdentityEntry._ID + " != ?)";
+
+    /*
+     * The names that could be in the way of the given name, the name itself and the name with
+     * a number after it. Both the name and the pattern are bound, the pattern escapes % and _.
+     */
+    private static final String SQL_NAMES_LIKE =
+            "SELECT " + IdentityEntry.COLUMN_NAME_NAME + " FROM " + IdentityEntry.TABLE_NAME +
+                    " WHERE (" + IdentityEntry.COLUMN_NAME_NAME + " = ? OR " +
+                    IdentityEntry.COLUMN_NAME_NAME + " LIKE ? ESCAPE '\\')" +
+                    " AND " + IdentityEntry._ID + " != ?";
+
+    private static final String SQL_UPDATE_NAME =
+            "UPDATE " + IdentityEntry.TABLE_NAME + " SET " + IdentityEntry.COLUMN_NAME_NAME + " = ?" +
+                    " WHERE " + IdentityEntry._ID + " = ?";
 
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXISTS " + IdentityEntry.TABLE_NAME;
+    private static final String SQL_UPDATE_DATA =
+            "UPDATE " + IdentityEntry.TABLE_NAME + " SET " +
+                    IdentityEntry.COLUMN_NAME_DATA + " = ?, " +
+                    IdentityEntry.COLUMN_NAME_DATA_DIGEST + " = ?, " +
+                    IdentityEntry.COLUMN_NAME_DATA_SIZE + " = ?" +
+                    " WHERE " + IdentityEntry._ID + " = ?";
 
-    public static final int DATABASE_VERSION = 1;
+    private static final String SQL_MARK_USED =
+            "UPDATE " + IdentityEntry.TABLE_NAME + " SET " +
+                    IdentityEntry.COLUMN_NAME_LAST_USED + " = ?, " +
+                    IdentityEntry.COLUMN_NAME_USAGE_COUNT + " = " + IdentityEntry.COLUMN_NAME_USAGE_COUNT + " + 1" +
+                    " WHERE " + IdentityEntry._ID + " = ?";
+
+    private static final String SQL_DELETE_IDENTITY =
+            "DELETE FROM " + IdentityEntry.TABLE_NAME + " WHERE " + IdentityEntry._ID + " = ?";
+
+    private static final String SQL_DELETE_LOGIN_HISTORY =
+            "DELETE FROM " + LoginHistoryEntry.TABLE_NAME +
+                    " WHERE " + LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID + " = ?";
+
+    /*
+     * The right hand side of an update always sees the old values, so the average is
+     * calculated on the count before this login.
+     */
+    private static final String SQL_UPDATE_LOGIN_HISTORY =
+            "UPDATE " + LoginHistoryEntry.TABLE_NAME + " SET " +
+                    LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " = " + LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " + ?, " +
+                    LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT + " = " + LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT + " + ?, " +
+                    LoginHistoryEntry.COLUMN_NAME_LAST_USED + " = ?, " +
+                    LoginHistoryEntry.COLUMN_NAME_SEALED_DOMAIN + " = COALESCE(?, " + LoginHistoryEntry.COLUMN_NAME_SEALED_DOMAIN + "), " +
+                    LoginHistoryEntry.COLUMN_NAME_AVERAGE_LATENCY + " = (" +
+                    LoginHistoryEntry.COLUMN_NAME_AVERAGE_LATENCY + " * (" +
+                    LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " + " + LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT + ") + ?) / (" +
+                    LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " + " + LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT + " + 1)" +
+                    " WHERE " + LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID + " = ?" +
+                    " AND " + LoginHistoryEntry.COLUMN_NAME_DOMAIN_HASH + " = ?";
+
+    public static final int DATABASE_VERSION = IdentityMigrations.LATEST_VERSION;
     public static final String DATABASE_NAME = "SQRLIdentities.db";
 
     private static IdentityDBHelper mIdentityDbHelper;
 
+    private final IdentityCatalog mCatalog = new IdentityCatalog(this);
+    private final IdentityWriteQueue mWriteQueue = new IdentityWriteQueue(this);
+
+    /*
+     * Statements are compiled once for the open database and reused, they are not thread safe
+     * so every method using them is synchronized.
+     */
+    private SQLiteDatabase mStatementDb;
+    private SQLiteStatement mHasIdentitiesStatement;
+    private SQLiteStatement mCountIdentitiesStatement;
+    private SQLiteStatement mNameByIdStatement;
+    private SQLiteStatement mNameTakenStatement;
+    private SQLiteStatement mUpdateNameStatement;
+    private SQLiteStatement mUpdateDataStatement;
+    private SQLiteStatement mDeleteIdentityStatement;
+    private SQLiteStatement mMarkUsedStatement;
+    private SQLiteStatement mDeleteLoginHistoryStatement;
+    private SQLiteStatement mUpdateLoginHistoryStatement;
+
     public static IdentityDBHelper getInstance(Context context) {
         if (mIdentityDbHelper == null) {
             mIdentityDbHelper = new IdentityDBHelper(context);
@@ -43,28 +143,80 @@ public class IdentityDBHelper extends SQLiteOpenHelper {
     }
 
     private IdentityDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
     }
+
+    /**
+     * Opens a helper on a database file of its own, the instrumented tests and benchmarks use
+     * this so they never touch the identities of the user.
+     */
+    @VisibleForTesting
+    public IdentityDBHelper(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+
+        /*
+         * With write ahead logging readers don't wait for the writer, so drawing a list of
+         * identities doesn't stall while the write queue saves new data.
+         */
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * @return  The in memory list of identities that this helper keeps up to date.
+     */
+    public IdentityCatalog getCatalog() {
+        return mCatalog;
+    }
+
+    /**
+     * Loads the list of identities into the catalog on the write queue, so the first screen
+     * doesn't have to read it on the main thread.
+     */
+    public Future<Void> loadCatalogAsync() {
+        return mWriteQueue.loadCatalog();
+    }
+
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(IdentityMigrations.SQL_CREATE_NAME_INDEX);
+        db.execSQL(IdentityMigrations.SQL_CREATE_LOGIN_HISTORY);
+        db.execSQL(IdentityMigrations.SQL_CREATE_LOGIN_HISTORY_INDEX);
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        /*
-         * Might need to look into upgrade and downgrade strategies if we change
-         * this but probably not.
-         */
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        IdentityMigrations.migrate(db, oldVersion, newVersion);
     }
 
+    /**
+     * An older version of the app only reads the columns it knows about, so we keep the data
+     * as it is instead of throwing the identities away.
+     */
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    private void prepareStatements() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        if (db == mStatementDb) return;
+
+        mStatementDb = db;
+        mHasIdentitiesStatement = db.compileStatement(SQL_HAS_IDENTITIES);
+        mCountIdentitiesStatement = db.compileStatement(SQL_COUNT_IDENTITIES);
+        mNameByIdStatement = db.compileStatement(SQL_NAME_BY_ID);
+        mNameTakenStatement = db.compileStatement(SQL_NAME_TAKEN);
+        mUpdateNameStatement = db.compileStatement(SQL_UPDATE_NAME);
+        mUpdateDataStatement = db.compileStatement(SQL_UPDATE_DATA);
+        mDeleteIdentityStatement = db.compileStatement(SQL_DELETE_IDENTITY);
+        mMarkUsedStatement = db.compileStatement(SQL_MARK_USED);
+        mDeleteLoginHistoryStatement = db.compileStatement(SQL_DELETE_LOGIN_HISTORY);
+        mUpdateLoginHistoryStatement = db.compileStatement(SQL_UPDATE_LOGIN_HISTORY);
     }
 
     public long newIdentity(Context context, byte[] data) {
         ContentValues values = new ContentValues();
-        values.put(IdentityContract.IdentityEntry.COLUMN_NAME_DATA, data);
+        values.put(IdentityEntry.COLUMN_NAME_DATA, data);
+        values.put(IdentityEntry.COLUMN_NAME_DATA_DIGEST, digestData(data));
+        values.put(IdentityEntry.COLUMN_NAME_DATA_SIZE, data.length);
+        values.put(IdentityEntry.COLUMN_NAME_CREATED, System.currentTimeMillis());
         long id = this.getWritableDatabase().insert(
                     IdentityEntry.TABLE_NAME,
                     null,
@@ -78,11 +230,18 @@ public class IdentityDBHelper extends SQLiteOpenHelper {
     }
 
     public byte[] getIdentityData(long id) {
+        byte[] pendingData = mWriteQueue.getPendingData(id);
+        if (pendingData != null) return pendingData;
+
+        byte[] cachedData = mCatalog.getCachedData(id);
+        if (cachedData != null) return cachedData;
+
+        long dataVersion = mCatalog.getDataVersion();
         Cursor cursor = this.getWritableDatabase().query(
                 IdentityEntry.TABLE_NAME,
                 new String[] {IdentityEntry.COLUMN_NAME_DATA},
-                IdentityEntry._ID + " = " + id,
-                null,
+                IdentityEntry._ID + " = ?",
+                new String[] {String.valueOf(id)},
                 null,
                 null,
                 null
@@ -91,6 +250,7 @@ public class IdentityDBHelper extends SQLiteOpenHelper {
         byte[] returnVal = new byte[] {};
         if (cursor.moveToFirst()) {
             returnVal = cursor.getBlob(0);
+            mCatalog.cacheData(id, returnVal, dataVersion);
         }
         cursor.close();
         return returnVal;
@@ -120,67 +280,260 @@ public class IdentityDBHelper extends SQLiteOpenHelper {
         return identities;
     }
 
-    public void deleteIdentity(long id) {
-        this.getWritableDatabase().delete(
-                IdentityEntry.TABLE_NAME,
-                IdentityEntry._ID + " = " + id,
-                null
-        );
+    public synchronized void deleteIdentity(long id) {
+        prepareStatements();
+        mDeleteIdentityStatement.bindLong(1, id);
+        mDeleteIdentityStatement.executeUpdateDelete();
+        mDeleteLoginHistoryStatement.bindLong(1, id);
+        mDeleteLoginHistoryStatement.executeUpdateDelete();
+        mCatalog.identityRemoved(id);
     }
 
-    public boolean checkUnique(long id, String name) {
-        for(Map.Entry<Long, String> entry : getIdentities().entrySet()) {
-            if(entry.getKey() != id && entry.getValue().equals(name)) {
-                return false;
-            }
-        }
-        return true;
+    public synchronized boolean checkUnique(long id, String name) {
+        prepareStatements();
+        mNameTakenStatement.bindString(1, name);
+        mNameTakenStatement.bindLong(2, id);
+        return mNameTakenStatement.simpleQueryForLong() == 0;
     }
 
-    public void updateIdentityName(Context context, long id, String name) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
+    /**
+     * Sets the name of an identity. If another identity already has the name we add the first
+     * number that isn't taken to it.
+     */
+    public synchronized void updateIdentityName(Context context, long id, String name) {
         if (name == null || name.isEmpty()) {
             name = context.getResources().getString(R.string.default_identity_name);
         }
-        String newName = name;
+        prepareStatements();
+
+        String newName = findFreeName(mStatementDb, id, name);
+        mUpdateNameStatement.bindString(1, newName);
+        mUpdateNameStatement.bindLong(2, id);
+        if (mUpdateNameStatement.executeUpdateDelete() > 0) {
+            mCatalog.identityUpdated(id, newName);
+        }
+    }
+
+    /**
+     * Reads the names that start with the given name once and returns the name, or the name
+     * followed by the lowest number from 2 up, that no other identity has.
+     */
+    static String findFreeName(SQLiteDatabase db, long id, String name) {
+        String pattern = name.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_") + " %";
+        Cursor cursor = db.rawQuery(SQL_NAMES_LIKE,
+                new String[] {name, pattern, String.valueOf(id)});
+        Set<String> takenNames = new HashSet<>();
+        while (cursor.moveToNext()) {
+            takenNames.add(cursor.getString(0));
+        }
+        cursor.close();
 
-        int i = 2;
-        while(!checkUnique(id, newName)) {
+        String newName = name;
+        for (int i = 2; takenNames.contains(newName); i++) {
             newName = name + " " + i;
-            i++;
         }
+        return newName;
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(IdentityEntry.COLUMN_NAME_NAME, newName);
+    public synchronized void updateIdentityData(long id, byte[] data) {
+        prepareStatements();
+        mUpdateDataStatement.bindBlob(1, data);
+        mUpdateDataStatement.bindBlob(2, digestData(data));
+        mUpdateDataStatement.bindLong(3, data.length);
+        mUpdateDataStatement.bindLong(4, id);
+        mUpdateDataStatement.executeUpdateDelete();
+        mCatalog.identityDataUpdated(id);
+    }
 
-        db.update(
-                IdentityEntry.TABLE_NAME,
-                values,
-                IdentityEntry._ID + " = " + id,
-                null);
+    /**
+     * Saves the identity data on the write queue, getIdentityData will return the new data
+     * right away even if it hasn't reached the database yet.
+     */
+    public Future<Void> updateIdentityDataAsync(long id, byte[] data) {
+        return mWriteQueue.updateIdentityData(id, data);
     }
 
-    public void updateIdentityData(long id, byte[] data) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    public Future<Void> updateIdentityNameAsync(Context context, long id, String name) {
+        return mWriteQueue.updateIdentityName(context, id, name);
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(IdentityEntry.COLUMN_NAME_DATA, data);
+    public Future<Void> deleteIdentityAsync(long id) {
+        return mWriteQueue.deleteIdentity(id);
+    }
+
+    /**
+     * Records that the identity was used to talk to a site.
+     */
+    public synchronized void markIdentityUsed(long id) {
+        prepareStatements();
+        mMarkUsedStatement.bindLong(1, System.currentTimeMillis());
+        mMarkUsedStatement.bindLong(2, id);
+        mMarkUsedStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Adds a conversation with a site to the login history of the identity. A successful
+     * login also counts as a use of the identity.
+     *
+     * @param identityId    The identity used.
+     * @param domainHash    From SQRLStorage.getHistoryDomainHash.
+     * @param sealedDomain  From SQRLStorage.sealHistoryDomain, or null to keep the one we have.
+     * @param successful    True if the login went through.
+     * @param latency       Time in milliseconds the conversation took.
+     */
+    public synchronized void recordLogin(long identityId, byte[] domainHash, byte[] sealedDomain,
+                                         boolean successful, long latency) {
+        prepareStatements();
+        long now = System.currentTimeMillis();
+
+        mUpdateLoginHistoryStatement.clearBindings();
+        mUpdateLoginHistoryStatement.bindLong(1, successful ? 1 : 0);
+        mUpdateLoginHistoryStatement.bindLong(2, successful ? 0 : 1);
+        mUpdateLoginHistoryStatement.bindLong(3, now);
+        if (sealedDomain != null) {
+            mUpdateLoginHistoryStatement.bindBlob(4, sealedDomain);
+        } else {
+            mUpdateLoginHistoryStatement.bindNull(4);
+        }
+        mUpdateLoginHistoryStatement.bindLong(5, latency);
+        mUpdateLoginHistoryStatement.bindLong(6, identityId);
+        mUpdateLoginHistoryStatement.bindBlob(7, domainHash);
+
+        if (mUpdateLoginHistoryStatement.executeUpdateDelete() == 0) {
+            ContentValues values = new ContentValues();
+            values.put(LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID, identityId);
+            values.put(LoginHistoryEntry.COLUMN_NAME_DOMAIN_HASH, domainHash);
+            values.put(LoginHistoryEntry.COLUMN_NAME_SEALED_DOMAIN, sealedDomain);
+            values.put(LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT, successful ? 1 : 0);
+            values.put(LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT, successful ? 0 : 1);
+            values.put(LoginHistoryEntry.COLUMN_NAME_LAST_USED, now);
+            values.put(LoginHistoryEntry.COLUMN_NAME_AVERAGE_LATENCY, (double) latency);
+            this.getWritableDatabase().insert(LoginHistoryEntry.TABLE_NAME, null, values);
+        }
+
+        if (successful) {
+            markIdentityUsed(identityId);
+        }
+    }
+
+    /**
+     * Same as recordLogin but done on the write queue.
+     */
+    public Future<Void> recordLoginAsync(long identityId, byte[] domainHash, byte[] sealedDomain,
+                                         boolean successful, long latency) {
+        return mWriteQueue.recordLogin(identityId, domainHash, sealedDomain, successful, latency);
+    }
+
+    /**
+     * @return  The sites the identity has signed in to the most, most used first.
+     */
+    public List<SiteUsage> getTopSites(long identityId, int limit) {
+        Cursor cursor = this.getWritableDatabase().query(
+                LoginHistoryEntry.TABLE_NAME,
+                new String[] {
+                        LoginHistoryEntry.COLUMN_NAME_DOMAIN_HASH,
+                        LoginHistoryEntry.COLUMN_NAME_SEALED_DOMAIN,
+                        LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT,
+                        LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT,
+                        LoginHistoryEntry.COLUMN_NAME_LAST_USED,
+                        LoginHistoryEntry.COLUMN_NAME_AVERAGE_LATENCY
+                },
+                LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID + " = ?",
+                new String[] {String.valueOf(identityId)},
+                null,
+                null,
+                LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " DESC, " +
+                        LoginHistoryEntry.COLUMN_NAME_LAST_USED + " DESC",
+                String.valueOf(limit)
+        );
 
-        db.update(
+        List<SiteUsage> sites = new ArrayList<>();
+        while(cursor.moveToNext()) {
+            sites.add(new SiteUsage(
+                    cursor.getBlob(0),
+                    cursor.isNull(1) ? null : cursor.getBlob(1),
+                    cursor.getInt(2),
+                    cursor.getInt(3),
+                    cursor.isNull(4) ? 0 : cursor.getLong(4),
+                    cursor.getDouble(5)
+            ));
+        }
+        cursor.close();
+        return sites;
+    }
+
+    /**
+     * Lists the identities with their metadata without reading the identity data.
+     *
+     * @param orderBy   Column to sort on, one of the IdentityEntry columns.
+     * @param ascending True for ascending order, false for descending.
+     */
+    public List<IdentityInfo> getIdentityInfos(String orderBy, boolean ascending) {
+        Cursor cursor = this.getWritableDatabase().query(
                 IdentityEntry.TABLE_NAME,
-                values,
-                IdentityEntry._ID + " = " + id,
-                null);
+                new String[] {
+                        IdentityEntry._ID,
+                        IdentityEntry.COLUMN_NAME_NAME,
+                        IdentityEntry.COLUMN_NAME_CREATED,
+                        IdentityEntry.COLUMN_NAME_LAST_USED,
+                        IdentityEntry.COLUMN_NAME_DATA_DIGEST,
+                        IdentityEntry.COLUMN_NAME_DATA_SIZE,
+                        IdentityEntry.COLUMN_NAME_USAGE_COUNT
+                },
+                null,
+                null,
+                null,
+                null,
+                orderBy + (ascending ? " ASC" : " DESC") + ", " + IdentityEntry._ID
+        );
+
+        List<IdentityInfo> infos = new ArrayList<>();
+        while(cursor.moveToNext()) {
+            long id = cursor.getLong(0);
+            String name = cursor.getString(1);
+            infos.add(new IdentityInfo(
+                    id,
+                    name != null ? name : "ID " + id,
+                    cursor.isNull(2) ? 0 : cursor.getLong(2),
+                    cursor.isNull(3) ? 0 : cursor.getLong(3),
+                    cursor.getBlob(4),
+                    cursor.getInt(5),
+                    cursor.getInt(6)
+            ));
+        }
+        cursor.close();
+        return infos;
     }
 
-    public boolean hasIdentities() {
-        Map<Long, String> identities = getIdentities();
-        return identities.size() > 0;
+    static byte[] digestData(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public synchronized boolean hasIdentities() {
+        prepareStatements();
+        return mHasIdentitiesStatement.simpleQueryForLong() != 0;
     }
 
-    public String getIdentityName(long currentId) {
-        Map<Long, String> identities = this.getIdentities();
-        return identities.get(currentId);
+    public synchronized long getIdentityCount() {
+        prepareStatements();
+        return mCountIdentitiesStatement.simpleQueryForLong();
+    }
+
+    public synchronized String getIdentityName(long currentId) {
+        prepareStatements();
+        mNameByIdStatement.bindLong(1, currentId);
+        try {
+            String name = mNameByIdStatement.simpleQueryForString();
+            return name != null ? name : "ID " + currentId;
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,63 @@
+package org.ea.sqrl.database;
+
+/**
+ * The metadata we keep about an identity, everything but the identity data itself.
+ */
+public class IdentityInfo {
+    private final long id;
+    private final String name;
+    private final long created;
+    private final long lastUsed;
+    private final byte[] dataDigest;
+    private final int dataSize;
+    private final int usageCount;
+
+    IdentityInfo(long id, String name, long created, long lastUsed,
+                 byte[] dataDigest, int dataSize, int usageCount) {
+        this.id = id;
+        this.name = name;
+        this.created = created;
+        this.lastUsed = lastUsed;
+        this.dataDigest = dataDigest;
+        this.dataSize = dataSize;
+        this.usageCount = usageCount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return  Time in milliseconds when the identity was added, or when the database was
+     *          upgraded for identities added before we kept track of it.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return  Time in milliseconds of the last use, or 0 if it has never been used.
+     */
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return  SHA-256 of the identity data.
+     */
+    public byte[] getDataDigest() {
+        return dataDigest;
+    }
+
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    public int getUsageCount() {
+        return usageCount;
+    }
+}
@@ -0,0 +1,172 @@
+package org.ea.sqrl.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.ea.sqrl.database.IdentityContract.IdentityEntry;
+import org.ea.sqrl.database.IdentityContract.LoginHistoryEntry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Steps that take the identity database from one schema version to the next. Every step only
+ * knows about the version before it, so a database of any older version is upgraded by running
+ * the steps in order. SQLiteOpenHelper runs all of this inside one transaction, so if a step
+ * fails the database is left as it was.
+ *
+ * Never change a step that has been released, add a new one and bump the database version.
+ */
+class IdentityMigrations {
+    private IdentityMigrations() {}
+
+    private interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    /**
+     * MIGRATIONS[n] upgrades a database from version n + 1 to version n + 2.
+     */
+    private static final Migration[] MIGRATIONS = {
+            IdentityMigrations::migrateToVersion2,
+            IdentityMigrations::migrateToVersion3
+    };
+
+    static final int LATEST_VERSION = MIGRATIONS.length + 1;
+
+    static final String SQL_CREATE_NAME_INDEX =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + IdentityEntry.INDEX_NAME +
+                    " ON " + IdentityEntry.TABLE_NAME + " (" + IdentityEntry.COLUMN_NAME_NAME + ")";
+
+    private static final String SQL_FIND_DUPLICATE_NAMES =
+            "SELECT " + IdentityEntry._ID + ", " + IdentityEntry.COLUMN_NAME_NAME +
+                    " FROM " + IdentityEntry.TABLE_NAME + " a" +
+                    " WHERE EXISTS (SELECT 1 FROM " + IdentityEntry.TABLE_NAME + " b" +
+                    " WHERE b." + IdentityEntry.COLUMN_NAME_NAME + " = a." + IdentityEntry.COLUMN_NAME_NAME +
+                    " AND b." + IdentityEntry._ID + " < a." + IdentityEntry._ID + ")" +
+                    " ORDER BY " + IdentityEntry._ID;
+
+    static final String SQL_CREATE_LOGIN_HISTORY =
+            "CREATE TABLE IF NOT EXISTS " + LoginHistoryEntry.TABLE_NAME + " (" +
+                    LoginHistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                    LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID + " INTEGER NOT NULL," +
+                    LoginHistoryEntry.COLUMN_NAME_DOMAIN_HASH + " BLOB NOT NULL," +
+                    LoginHistoryEntry.COLUMN_NAME_SEALED_DOMAIN + " BLOB," +
+                    LoginHistoryEntry.COLUMN_NAME_LOGIN_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                    LoginHistoryEntry.COLUMN_NAME_FAILURE_COUNT + " INTEGER NOT NULL DEFAULT 0," +
+                    LoginHistoryEntry.COLUMN_NAME_LAST_USED + " INTEGER," +
+                    LoginHistoryEntry.COLUMN_NAME_AVERAGE_LATENCY + " REAL NOT NULL DEFAULT 0)";
+
+    static final String SQL_CREATE_LOGIN_HISTORY_INDEX =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + LoginHistoryEntry.INDEX_NAME +
+                    " ON " + LoginHistoryEntry.TABLE_NAME + " (" +
+                    LoginHistoryEntry.COLUMN_NAME_IDENTITY_ID + ", " +
+                    LoginHistoryEntry.COLUMN_NAME_DOMAIN_HASH + ")";
+
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - 1].migrate(db);
+        }
+    }
+
+    /**
+     * Version 2 adds the metadata we need to list and sort identities without reading the
+     * identity data, and a unique index on the name.
+     */
+    private static void migrateToVersion2(SQLiteDatabase db) {
+        Set<String> columns = getColumns(db);
+        addColumn(db, columns, IdentityEntry.COLUMN_NAME_CREATED, "INTEGER");
+        addColumn(db, columns, IdentityEntry.COLUMN_NAME_LAST_USED, "INTEGER");
+        addColumn(db, columns, IdentityEntry.COLUMN_NAME_DATA_DIGEST, "BLOB");
+        addColumn(db, columns, IdentityEntry.COLUMN_NAME_DATA_SIZE, "INTEGER NOT NULL DEFAULT 0");
+        addColumn(db, columns, IdentityEntry.COLUMN_NAME_USAGE_COUNT, "INTEGER NOT NULL DEFAULT 0");
+
+        /*
+         * We don't know when the old identities were created, so we use the time of the
+         * upgrade. The digest is calculated here, it's only done once for every identity.
+         */
+        long now = System.currentTimeMillis();
+        Cursor cursor = db.query(
+                IdentityEntry.TABLE_NAME,
+                new String[] {IdentityEntry._ID, IdentityEntry.COLUMN_NAME_DATA},
+                null, null, null, null, null
+        );
+        while (cursor.moveToNext()) {
+            byte[] data = cursor.isNull(1) ? new byte[] {} : cursor.getBlob(1);
+            ContentValues values = new ContentValues();
+            values.put(IdentityEntry.COLUMN_NAME_CREATED, now);
+            values.put(IdentityEntry.COLUMN_NAME_DATA_DIGEST, IdentityDBHelper.digestData(data));
+            values.put(IdentityEntry.COLUMN_NAME_DATA_SIZE, data.length);
+            db.update(IdentityEntry.TABLE_NAME, values, IdentityEntry._ID + " = ?",
+                    new String[] {String.valueOf(cursor.getLong(0))});
+        }
+        cursor.close();
+
+        /*
+         * Version 1 never stopped two identities from having the same name, so we rename
+         * those before adding the index.
+         */
+        try {
+            db.execSQL(SQL_CREATE_NAME_INDEX);
+        } catch (SQLiteConstraintException e) {
+            renameDuplicates(db);
+            db.execSQL(SQL_CREATE_NAME_INDEX);
+        }
+    }
+
+    /**
+     * Version 3 adds the login history.
+     */
+    private static void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_LOGIN_HISTORY);
+        db.execSQL(SQL_CREATE_LOGIN_HISTORY_INDEX);
+    }
+
+    private static Set<String> getColumns(SQLiteDatabase db) {
+        Set<String> columns = new HashSet<>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + IdentityEntry.TABLE_NAME + ")", null);
+        int nameIndex = cursor.getColumnIndex("name");
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(nameIndex));
+        }
+        cursor.close();
+        return columns;
+    }
+
+    /**
+     * Adds the column unless it's already there, a database that has been downgraded and then
+     * upgraded again will already have it.
+     */
+    private static void addColumn(SQLiteDatabase db, Set<String> columns, String name, String type) {
+        if (columns.contains(name)) return;
+        db.execSQL("ALTER TABLE " + IdentityEntry.TABLE_NAME + " ADD COLUMN " + name + " " + type);
+    }
+
+    /**
+     * The oldest identity keeps the name, the others get a number added the same way a new
+     * identity does. Each new name is looked up after the ones before it have been written, so
+     * two renamed identities never end up with the same name.
+     */
+    private static void renameDuplicates(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery(SQL_FIND_DUPLICATE_NAMES, null);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+            names.add(cursor.getString(1));
+        }
+        cursor.close();
+
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            ContentValues values = new ContentValues();
+            values.put(IdentityEntry.COLUMN_NAME_NAME, IdentityDBHelper.findFreeName(db, id, names.get(i)));
+            db.update(IdentityEntry.TABLE_NAME, values, IdentityEntry._ID + " = ?",
+                    new String[] {String.valueOf(id)});
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.ea.sqrl.database;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs all the asynchronous writes of IdentityDBHelper on one background thread, so there is
+ * only ever one writer and the calling thread never waits for the disk.
+ *
+ * If a write to the data or name of an identity is still waiting when a new one comes in we
+ * replace the value of the waiting write instead of queueing another one, and both callers get
+ * the same future back. Only the latest value would have been left in the database anyway.
+ */
+class IdentityWriteQueue {
+
+    private static class PendingWrite<T> {
+        private T value;
+        private Future<Void> future;
+
+        private PendingWrite(T value) {
+            this.value = value;
+        }
+    }
+
+    private final IdentityDBHelper mDbHelper;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "IdentityWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, PendingWrite<byte[]>> mPendingData = new HashMap<>();
+    private final Map<Long, PendingWrite<byte[]>> mRunningData = new HashMap<>();
+    private final Map<Long, PendingWrite<String>> mPendingNames = new HashMap<>();
+
+    IdentityWriteQueue(IdentityDBHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    synchronized Future<Void> loadCatalog() {
+        return mExecutor.submit(() -> {
+            mDbHelper.getCatalog().load();
+            return null;
+        });
+    }
+
+    synchronized Future<Void> updateIdentityData(long id, byte[] data) {
+        PendingWrite<byte[]> pending = mPendingData.get(id);
+        if (pending != null) {
+            pending.value = data.clone();
+            return pending.future;
+        }
+
+        final PendingWrite<byte[]> write = new PendingWrite<>(data.clone());
+        mPendingData.put(id, write);
+        write.future = mExecutor.submit(() -> {
+            /*
+             * Once started the write can't take new data, so the next update gets a write of
+             * its own. Readers still get this data until it has reached the database.
+             */
+            byte[] latestData;
+            synchronized (IdentityWriteQueue.this) {
+                mPendingData.remove(id);
+                mRunningData.put(id, write);
+                latestData = write.value;
+            }
+            try {
+                mDbHelper.updateIdentityData(id, latestData);
+            } finally {
+                synchronized (IdentityWriteQueue.this) {
+                    mRunningData.remove(id);
+                }
+            }
+            return null;
+        });
+        return write.future;
+    }
+
+    synchronized Future<Void> updateIdentityName(Context context, long id, String name) {
+        PendingWrite<String> pending = mPendingNames.get(id);
+        if (pending != null) {
+            pending.value = name;
+            return pending.future;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final PendingWrite<String> write = new PendingWrite<>(name);
+        mPendingNames.put(id, write);
+        write.future = mExecutor.submit(() -> {
+            String latestName;
+            synchronized (IdentityWriteQueue.this) {
+                mPendingNames.remove(id);
+                latestName = write.value;
+            }
+            mDbHelper.updateIdentityName(appContext, id, latestName);
+            return null;
+        });
+        return write.future;
+    }
+
+    synchronized Future<Void> deleteIdentity(long id) {
+        return mExecutor.submit(() -> {
+            mDbHelper.deleteIdentity(id);
+            return null;
+        });
+    }
+
+    synchronized Future<Void> recordLogin(long identityId, byte[] domainHash, byte[] sealedDomain,
+                                          boolean successful, long latency) {
+        return mExecutor.submit(() -> {
+            mDbHelper.recordLogin(identityId, domainHash, sealedDomain, successful, latency);
+            return null;
+        });
+    }
+
+    /**
+     * @return  The data of a write that hasn't reached the database yet, or null if there is none.
+     */
+    synchronized byte[] getPendingData(long id) {
+        PendingWrite<byte[]> pending = mPendingData.get(id);
+        if (pending == null) pending = mRunningData.get(id);
+        return pending != null ? pending.value.clone() : null;
+    }
+}
@@ -0,0 +1,53 @@
+package org.ea.sqrl.database;
+
+/**
+ * Login history of one identity on one site.
+ */
+public class SiteUsage {
+    private final byte[] domainHash;
+    private final byte[] sealedDomain;
+    private final int loginCount;
+    private final int failureCount;
+    private final long lastUsed;
+    private final double averageLatency;
+
+    SiteUsage(byte[] domainHash, byte[] sealedDomain, int loginCount, int failureCount,
+              long lastUsed, double averageLatency) {
+        this.domainHash = domainHash;
+        this.sealedDomain = sealedDomain;
+        this.loginCount = loginCount;
+        this.failureCount = failureCount;
+        this.lastUsed = lastUsed;
+        this.averageLatency = averageLatency;
+    }
+
+    public byte[] getDomainHash() {
+        return domainHash;
+    }
+
+    /**
+     * @return  The crypt domain sealed by SQRLStorage.sealHistoryDomain, or null if we don't have it.
+     */
+    public byte[] getSealedDomain() {
+        return sealedDomain;
+    }
+
+    public int getLoginCount() {
+        return loginCount;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return  Average time in milliseconds of a conversation with the site, failed ones included.
+     */
+    public double getAverageLatency() {
+        return averageLatency;
+    }
+}
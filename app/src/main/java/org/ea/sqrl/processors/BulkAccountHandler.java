@@ -0,0 +1,369 @@
+package org.ea.sqrl.processors;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.ea.sqrl.R;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+/**
+ * Runs the same account operation (lock, unlock or remove) against a list of sites. Every site
+ * gets its own conversation so they can run in parallel, while the number of connections open
+ * at the same time is bounded. The per-site keys are derived once by SQRLStorage and reused for
+ * every request in a conversation.
+ *
+ * The identity needs to be decrypted before a job is started, and for unlock and remove the
+ * rescue code needs to be decrypted as well, just as for the single site operations.
+ */
+public class BulkAccountHandler {
+    private static final String TAG = "BulkAccountHandler";
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    public enum Operation {
+        LOCK,
+        UNLOCK,
+        REMOVE
+    }
+
+    public enum Status {
+        DONE,
+        ALREADY_DONE,
+        ACCOUNT_MISSING,
+        FAILED
+    }
+
+    /**
+     * Told about every site as soon as it is done. It is called on the threads of the pool that
+     * runs the sites, so it has to be thread safe and post to the main thread to touch the UI.
+     */
+    public interface SiteDoneListener {
+        void onSiteDone(SiteResult result, int sitesDone, int sitesTotal);
+    }
+
+    /**
+     * Runs the conversation with a single site, only replaced by the unit tests.
+     */
+    interface SiteRunner {
+        SiteResult runSite(String sqrlUrl, Operation operation);
+    }
+
+    public static class SiteResult {
+        private final String sqrlUrl;
+        private Status status = Status.FAILED;
+        private int tif = -1;
+        private String errorMessage;
+        private long timeInMilliSeconds;
+
+        SiteResult(String sqrlUrl) {
+            this.sqrlUrl = sqrlUrl;
+        }
+
+        SiteResult(String sqrlUrl, Status status, String errorMessage) {
+            this.sqrlUrl = sqrlUrl;
+            this.status = status;
+            this.errorMessage = errorMessage;
+        }
+
+        public String getSqrlUrl() {
+            return sqrlUrl;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isSuccessful() {
+            return status == Status.DONE || status == Status.ALREADY_DONE;
+        }
+
+        public int getTif() {
+            return tif;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        public long getTimeInMilliSeconds() {
+            return timeInMilliSeconds;
+        }
+    }
+
+    public static class Report {
+        private final List<SiteResult> results;
+        private final long totalTimeInMilliSeconds;
+
+        private Report(List<SiteResult> results, long totalTimeInMilliSeconds) {
+            this.results = Collections.unmodifiableList(results);
+            this.totalTimeInMilliSeconds = totalTimeInMilliSeconds;
+        }
+
+        public List<SiteResult> getResults() {
+            return results;
+        }
+
+        public long getTotalTimeInMilliSeconds() {
+            return totalTimeInMilliSeconds;
+        }
+
+        public long getAccumulatedSiteTimeInMilliSeconds() {
+            long sum = 0;
+            for(SiteResult result : results) {
+                sum += result.getTimeInMilliSeconds();
+            }
+            return sum;
+        }
+
+        public long getSlowestSiteTimeInMilliSeconds() {
+            long max = 0;
+            for(SiteResult result : results) {
+                max = Math.max(max, result.getTimeInMilliSeconds());
+            }
+            return max;
+        }
+
+        public int getCount(Status status) {
+            int count = 0;
+            for(SiteResult result : results) {
+                if(result.getStatus() == status) count++;
+            }
+            return count;
+        }
+
+        public int getSuccessfulCount() {
+            return getCount(Status.DONE) + getCount(Status.ALREADY_DONE);
+        }
+    }
+
+    private interface RequestBuilder {
+        String build() throws Exception;
+    }
+
+    /**
+     * Keeps the server data and query link between the requests to one site, the same way
+     * CommunicationFlowHandler does for the single site flow.
+     */
+    private static class Conversation {
+        private final CommunicationHandler commHandler;
+        private String serverData;
+        private String queryLink;
+
+        private Conversation(CommunicationHandler commHandler, String serverData, String queryLink) {
+            this.commHandler = commHandler;
+            this.serverData = serverData;
+            this.queryLink = queryLink;
+        }
+
+        private void post(RequestBuilder builder, boolean unlockServerKey) throws Exception {
+            postInternal(builder, unlockServerKey);
+
+            /*
+             * A transient error means the server wants us to try again with the new nut,
+             * we only do this once so a broken server can't keep us going.
+             */
+            if(commHandler.isTIFBitSet(CommunicationHandler.TIF_TRANSIENT_ERROR) && !queryLink.isEmpty()) {
+                commHandler.clearLastResponse();
+                postInternal(builder, unlockServerKey);
+            }
+        }
+
+        private void postInternal(RequestBuilder builder, boolean unlockServerKey) throws Exception {
+            long buildStartTime = ConversationTimer.now();
+            String postData = commHandler.createPostParams(builder.build(), serverData, unlockServerKey);
+            commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
+            commHandler.postRequest(queryLink, postData);
+            serverData = commHandler.getResponse();
+            queryLink = commHandler.getQueryLink();
+        }
+    }
+
+    private final Context context;
+    private final int maxConcurrency;
+    private final SiteRunner siteRunner;
+    private SiteDoneListener siteDoneListener;
+
+    public BulkAccountHandler(Context context) {
+        this(context, DEFAULT_CONCURRENCY);
+    }
+
+    public BulkAccountHandler(Context context, int maxConcurrency) {
+        if(maxConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency needs to be at least 1");
+        }
+        this.context = context;
+        this.maxConcurrency = maxConcurrency;
+        this.siteRunner = this::runSite;
+    }
+
+    BulkAccountHandler(SiteRunner siteRunner, int maxConcurrency) {
+        this.context = null;
+        this.maxConcurrency = maxConcurrency;
+        this.siteRunner = siteRunner;
+    }
+
+    public void setSiteDoneListener(SiteDoneListener siteDoneListener) {
+        this.siteDoneListener = siteDoneListener;
+    }
+
+    /**
+     * Runs the operation against every site in the list and waits for all of them to finish.
+     * A site that ends with an unexpected exception gets a failed result with its message.
+     *
+     * @param sqrlUrls      SQRL links (sqrl:// or qrl://) for the sites, one per site.
+     * @param operation     The operation to run against every site.
+     * @return              Result for every site in the same order as the links, and the timing.
+     */
+    public Report run(List<String> sqrlUrls, Operation operation) throws InterruptedException {
+        long startTime = System.currentTimeMillis();
+        List<SiteResult> results = new ArrayList<>();
+        if(sqrlUrls.isEmpty()) {
+            return new Report(results, 0);
+        }
+
+        final int sitesTotal = sqrlUrls.size();
+        final AtomicInteger sitesDone = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxConcurrency, sitesTotal));
+        try {
+            List<Future<SiteResult>> futures = new ArrayList<>();
+            for(String sqrlUrl : sqrlUrls) {
+                futures.add(executor.submit(() -> {
+                    SiteResult result = siteRunner.runSite(sqrlUrl, operation);
+                    if(siteDoneListener != null) {
+                        siteDoneListener.onSiteDone(result, sitesDone.incrementAndGet(), sitesTotal);
+                    }
+                    return result;
+                }));
+            }
+
+            for(int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    Log.e(TAG, e.getMessage(), e);
+                    results.add(new SiteResult(sqrlUrls.get(i), Status.FAILED, e.getCause().getMessage()));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Report(results, System.currentTimeMillis() - startTime);
+    }
+
+    private SiteResult runSite(String sqrlUrl, Operation operation) {
+        long startTime = System.currentTimeMillis();
+        SiteResult result = new SiteResult(sqrlUrl);
+        CommunicationHandler commHandler = CommunicationHandler.newConversation(context);
+
+        try {
+            Matcher sqrlMatcher = CommunicationHandler.sqrlPattern.matcher(sqrlUrl);
+            if(!sqrlMatcher.matches()) {
+                throw new Exception(context.getString(R.string.scan_incorrect));
+            }
+
+            commHandler.setUseSSL(sqrlUrl.startsWith("sqrl://"));
+            commHandler.setDomain(sqrlMatcher.group(1), sqrlMatcher.group(2));
+
+            /*
+             * Like the single site flow we offer the previous identities one at a time until the
+             * site knows one of them. Every conversation keeps its own index, the one in the
+             * storage is shared by all the sites in the job.
+             */
+            int previousKeyCount = SQRLStorage.getInstance(context).getPreviousKeyCount();
+            if(previousKeyCount > 0) {
+                commHandler.setPreviousKeyIndex(1);
+            }
+
+            Conversation conversation = new Conversation(commHandler, sqrlUrl, sqrlMatcher.group(2));
+            boolean requestServerUnlockKey = operation != Operation.LOCK;
+            conversation.post(() -> commHandler.createClientQuery(true, requestServerUnlockKey), false);
+
+            if(!checkResponse(commHandler, result)) {
+                return result;
+            }
+
+            for(int keyIndex = 2; keyIndex <= previousKeyCount; keyIndex++) {
+                if(commHandler.isIdentityKnown(false) || commHandler.isIdentityKnown(true)) break;
+                commHandler.setPreviousKeyIndex(keyIndex);
+                conversation.post(() -> commHandler.createClientQuery(true, requestServerUnlockKey), false);
+
+                if(!checkResponse(commHandler, result)) {
+                    return result;
+                }
+            }
+
+            switch (operation) {
+                case LOCK:
+                    if(commHandler.isIdentityKnown(true)) {
+                        result.status = Status.ALREADY_DONE;
+                        return result;
+                    }
+                    if(!commHandler.isIdentityKnown(false)) {
+                        result.status = Status.ACCOUNT_MISSING;
+                        return result;
+                    }
+                    conversation.post(() -> commHandler.createClientDisable(true, false), true);
+                    break;
+                case UNLOCK:
+                    if(commHandler.isIdentityKnown(false)) {
+                        result.status = Status.ALREADY_DONE;
+                        return result;
+                    }
+                    if(!commHandler.isIdentityKnown(true)) {
+                        result.status = Status.ACCOUNT_MISSING;
+                        return result;
+                    }
+                    conversation.post(() -> commHandler.createClientEnable(true, false), true);
+                    break;
+                case REMOVE:
+                    if(!commHandler.isIdentityKnown(false) && !commHandler.isIdentityKnown(true)) {
+                        result.status = Status.ACCOUNT_MISSING;
+                        return result;
+                    }
+                    if(commHandler.isIdentityKnown(false)) {
+                        conversation.post(() -> commHandler.createClientDisable(true, false), true);
+                        if(!checkResponse(commHandler, result)) {
+                            return result;
+                        }
+                    }
+                    conversation.post(() -> commHandler.createClientRemove(true, false), true);
+                    break;
+            }
+
+            if(checkResponse(commHandler, result)) {
+                result.status = Status.DONE;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            result.status = Status.FAILED;
+            if("CONN_ERROR".equalsIgnoreCase(e.getMessage())) {
+                result.errorMessage = context.getString(R.string.connection_error);
+            } else {
+                result.errorMessage = e.getMessage();
+            }
+        } finally {
+            result.timeInMilliSeconds = System.currentTimeMillis() - startTime;
+            commHandler.getTimer().finishConversation();
+        }
+        return result;
+    }
+
+    private boolean checkResponse(CommunicationHandler commHandler, SiteResult result) {
+        result.tif = commHandler.getTif();
+        if(commHandler.isIdentitySuperseded() || commHandler.hasErrorMessage(false)) {
+            result.status = Status.FAILED;
+            result.errorMessage = context.getString(R.string.error_message_login_failed);
+            return false;
+        }
+        return true;
+    }
+}
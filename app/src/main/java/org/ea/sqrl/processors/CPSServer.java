@@ -88,6 +88,7 @@ public class CPSServer {
                             }
                         } else {
                             send302Redirect(socket, mCommFlowHandler.getCommHandler().getCPSUrl());
+                            mCommFlowHandler.getCommHandler().getTimer().markEnd(ConversationTimer.Phase.CPS_REDIRECT);
                         }
                         done = true;
                     }
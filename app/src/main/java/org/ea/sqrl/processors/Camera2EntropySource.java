@@ -0,0 +1,338 @@
+package org.ea.sqrl.processors;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+
+import java.util.Arrays;
+
+/**
+ * Entropy source using Camera2, which delivers the frames through an ImageReader. Only the Y
+ * plane of every image is hashed, straight from the direct buffer the camera wrote it to, so no
+ * frame is ever copied into the Java heap. The image goes back to the reader once it has been
+ * hashed, and while the harvester is busy the older images are skipped.
+ *
+ * The camera runs on a thread of its own, so neither the preview nor the reader waits for the
+ * main thread. It is opened once the preview surface has the frame size, and closed again with
+ * the surface.
+ */
+@RequiresApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2EntropySource implements EntropySource {
+    private static final String TAG = "Camera2Entropy";
+    private static final int MAX_IMAGES = 4;
+    private static final int MAX_FRAME_PIXELS = 1280 * 720;
+
+    private final Context context;
+    private final EntropyHarvester entropyHarvester;
+    private final ProgressBar progressBar;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private String cameraId;
+    private Size frameSize;
+    private SurfaceView previewView;
+    private ViewGroup previewLayout;
+    private Listener listener;
+    private Capture capture;
+
+    public Camera2EntropySource(Context context, EntropyHarvester entropyHarvester, ProgressBar progressBar) {
+        this.context = context;
+        this.entropyHarvester = entropyHarvester;
+        this.progressBar = progressBar;
+    }
+
+    /**
+     * @return  True if there is a back facing camera, or any camera, with better than legacy
+     *          Camera2 support. Legacy devices run Camera2 on top of the old API and copy every
+     *          frame anyway.
+     */
+    public static boolean isSupported(Context context) {
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String id = findCameraId(manager);
+            if(id == null) return false;
+            Integer level = manager.getCameraCharacteristics(id)
+                    .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static String findCameraId(CameraManager manager) throws CameraAccessException {
+        String[] ids = manager.getCameraIdList();
+        for(String id : ids) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if(facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        return ids.length > 0 ? ids[0] : null;
+    }
+
+    /**
+     * Picks the largest YUV size up to 720p. Larger frames only cost more hashing, there is noise
+     * enough in every one of them.
+     */
+    private static Size chooseFrameSize(StreamConfigurationMap map) {
+        Size best = null;
+        for(Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            int pixels = size.getWidth() * size.getHeight();
+            if(pixels > MAX_FRAME_PIXELS) continue;
+            if(best == null || pixels > best.getWidth() * best.getHeight()) {
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean start(ViewGroup previewLayout, Listener listener) {
+        if(previewView != null) {
+            return true;
+        }
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            cameraId = findCameraId(manager);
+            if(cameraId == null) return false;
+            StreamConfigurationMap map = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            frameSize = map != null ? chooseFrameSize(map) : null;
+            if(frameSize == null) return false;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+
+        this.listener = listener;
+        this.previewLayout = previewLayout;
+        previewView = new SurfaceView(context);
+        previewView.getHolder().addCallback(previewCallback);
+        previewLayout.addView(previewView);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if(previewView == null) {
+            return;
+        }
+        previewView.getHolder().removeCallback(previewCallback);
+        previewLayout.removeView(previewView);
+        previewView = null;
+        listener = null;
+        if(capture != null) {
+            capture.close();
+            capture = null;
+        }
+    }
+
+    private final SurfaceHolder.Callback previewCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            holder.setFixedSize(frameSize.getWidth(), frameSize.getHeight());
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            if(width != frameSize.getWidth() || height != frameSize.getHeight() || capture != null) {
+                return;
+            }
+            capture = new Capture(holder.getSurface(), listener);
+            capture.open();
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            if(capture != null) {
+                capture.close();
+                capture = null;
+            }
+        }
+    };
+
+    /**
+     * One run of the camera, from opening it to closing it again. Apart from the constructor,
+     * close and the release of hashed images, everything here happens on its own camera thread,
+     * which keeps running until the camera is closed even if that is asked for while the camera
+     * is still being opened.
+     */
+    private class Capture {
+        private final Surface previewSurface;
+        private final Listener listener;
+        private final HandlerThread thread = new HandlerThread("EntropyCamera");
+        private final Handler handler;
+        private final ImageReader imageReader;
+
+        private CameraDevice cameraDevice;
+        private CameraCaptureSession captureSession;
+        private boolean opening = false;
+        private boolean closed = false;
+        /*
+         * Images handed to the harvester and not yet released. Their buffers belong to the
+         * reader, so the last one released closes the reader if the capture is closed by then.
+         * Guarded by imageReader.
+         */
+        private int imagesHashing = 0;
+
+        private Capture(Surface previewSurface, Listener listener) {
+            this.previewSurface = previewSurface;
+            this.listener = listener;
+            thread.start();
+            handler = new Handler(thread.getLooper());
+            imageReader = ImageReader.newInstance(
+                    frameSize.getWidth(), frameSize.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+            imageReader.setOnImageAvailableListener(this::onImageAvailable, handler);
+        }
+
+        private void open() {
+            handler.post(this::openCamera);
+        }
+
+        /**
+         * Closes the camera after any callback still queued. The reader is closed then as well,
+         * or once the last image still being hashed is released.
+         */
+        private void close() {
+            handler.post(() -> {
+                boolean readerFree;
+                synchronized (imageReader) {
+                    closed = true;
+                    readerFree = imagesHashing == 0;
+                }
+                imageReader.setOnImageAvailableListener(null, null);
+                if(captureSession != null) captureSession.close();
+                if(cameraDevice != null) cameraDevice.close();
+                if(readerFree) imageReader.close();
+                if(!opening) thread.quitSafely();
+            });
+        }
+
+        private void onImageAvailable(ImageReader reader) {
+            Image image;
+            synchronized (imageReader) {
+                if(closed) return;
+                try {
+                    image = reader.acquireLatestImage();
+                } catch (IllegalStateException e) {
+                    return;
+                }
+                if(image == null) return;
+                imagesHashing++;
+            }
+
+            entropyHarvester.addFrame(progressBar, image.getPlanes()[0].getBuffer(), () -> {
+                boolean closeReader;
+                synchronized (imageReader) {
+                    image.close();
+                    closeReader = --imagesHashing == 0 && closed;
+                }
+                if(closeReader) imageReader.close();
+
+                mainHandler.post(() -> {
+                    // stop() clears the listener on the main thread, so this can't come late.
+                    if(listener != null && Camera2EntropySource.this.listener == listener) {
+                        listener.onFrameDone();
+                    }
+                });
+            });
+        }
+
+        @SuppressLint("MissingPermission")
+        private void openCamera() {
+            if(closed) return;
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            try {
+                manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                    @Override
+                    public void onOpened(CameraDevice camera) {
+                        opening = false;
+                        if(closed) {
+                            camera.close();
+                            thread.quitSafely();
+                            return;
+                        }
+                        cameraDevice = camera;
+                        createSession(camera);
+                    }
+
+                    @Override
+                    public void onDisconnected(CameraDevice camera) {
+                        onClosedUnexpectedly(camera);
+                    }
+
+                    @Override
+                    public void onError(CameraDevice camera, int error) {
+                        Log.e(TAG, "Camera error " + error);
+                        onClosedUnexpectedly(camera);
+                    }
+                }, handler);
+                opening = true;
+            } catch (CameraAccessException | SecurityException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+
+        private void onClosedUnexpectedly(CameraDevice camera) {
+            camera.close();
+            cameraDevice = null;
+            if(opening && closed) {
+                thread.quitSafely();
+            }
+            opening = false;
+        }
+
+        private void createSession(CameraDevice camera) {
+            try {
+                CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                request.addTarget(previewSurface);
+                request.addTarget(imageReader.getSurface());
+                camera.createCaptureSession(Arrays.asList(previewSurface, imageReader.getSurface()),
+                        new CameraCaptureSession.StateCallback() {
+                    @Override
+                    public void onConfigured(CameraCaptureSession session) {
+                        if(closed) {
+                            session.close();
+                            return;
+                        }
+                        captureSession = session;
+                        try {
+                            session.setRepeatingRequest(request.build(), null, handler);
+                        } catch (CameraAccessException | IllegalStateException e) {
+                            Log.e(TAG, e.getMessage(), e);
+                        }
+                    }
+
+                    @Override
+                    public void onConfigureFailed(CameraCaptureSession session) {
+                        Log.e(TAG, "Unable to configure capture session");
+                    }
+                }, handler);
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.e(TAG, e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -16,7 +16,9 @@ import android.widget.TextView;
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.CPSMissingActivity;
 import org.ea.sqrl.activites.identity.SupersededIdentityActivity;
+import org.ea.sqrl.database.IdentityDBHelper;
 import org.ea.sqrl.services.AskDialogService;
+import org.ea.sqrl.utils.SqrlApplication;
 
 import java.util.ArrayDeque;
 import java.util.Deque;
@@ -61,6 +63,8 @@ public class CommunicationFlowHandler {
     private boolean shouldRunServer = false;
     private boolean cpsServerStarted = false;
     private Activity currentActivity;
+    private boolean loginAttempted = false;
+    private long conversationStartTime = 0;
 
     private CommunicationFlowHandler(Activity currentActivity, Handler handler) {
         try {
@@ -159,9 +163,14 @@ public class CommunicationFlowHandler {
     }
 
     private void runAction(Action a) throws Exception {
+        if(conversationStartTime == 0) {
+            conversationStartTime = System.currentTimeMillis();
+        }
+
         switch (a) {
             case LOGIN:
             case LOGIN_CPS:
+                loginAttempted = true;
                 if(commHandler.isTIFBitSet(CommunicationHandler.TIF_SQRL_DISABLED))
                     throw new Exception(currentActivity.getString(R.string.communication_sqrl_disabled));
                 break;
@@ -259,6 +268,8 @@ public class CommunicationFlowHandler {
     }
 
     private void done() {
+        commHandler.getTimer().finishConversation();
+        recordLoginHistory(true);
         shouldRunServer = false;
         hasRetried = false;
         cpsServerStarted = false;
@@ -266,6 +277,8 @@ public class CommunicationFlowHandler {
     }
 
     private void error() {
+        commHandler.getTimer().finishConversation();
+        recordLoginHistory(false);
         if(shouldRunServer && cpsServerStarted) {
             cpsServer.setCancelCPS(true);
         }
@@ -279,6 +292,32 @@ public class CommunicationFlowHandler {
         new Thread(errorAction).start();
     }
 
+    /**
+     * Adds the conversation to the login history of the current identity if we tried to
+     * sign in. The database write is done in the background.
+     */
+    private void recordLoginHistory(boolean successful) {
+        boolean shouldRecord = loginAttempted && conversationStartTime != 0;
+        long latency = System.currentTimeMillis() - conversationStartTime;
+        loginAttempted = false;
+        conversationStartTime = 0;
+        if(!shouldRecord) return;
+
+        long currentId = SqrlApplication.getCurrentId(currentActivity);
+        byte[] domain = commHandler.getDomain();
+        if(currentId <= 0 || domain == null) return;
+
+        try {
+            SQRLStorage storage = SQRLStorage.getInstance(currentActivity);
+            byte[] domainHash = storage.getHistoryDomainHash(domain);
+            byte[] sealedDomain = storage.sealHistoryDomain(domainHash, domain);
+            IdentityDBHelper.getInstance(currentActivity)
+                    .recordLoginAsync(currentId, domainHash, sealedDomain, successful, latency);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
     public void addAction(Action a) {
         switch (a) {
             case CREATE_ACCOUNT_CPS:
@@ -314,7 +353,9 @@ public class CommunicationFlowHandler {
 
 
     private void postQueryInternal(CommunicationHandler commHandler, boolean noiptest, boolean requestServerUnlockKey) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(commHandler.createClientQuery(noiptest, requestServerUnlockKey), serverData);
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
@@ -322,10 +363,12 @@ public class CommunicationFlowHandler {
     }
 
     protected void postCreateAccount(CommunicationHandler commHandler, boolean noiptest, boolean clientProvidedSession) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(
                 commHandler.createClientCreateAccount(entropyHarvester, noiptest, clientProvidedSession),
                 serverData
         );
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
@@ -333,11 +376,13 @@ public class CommunicationFlowHandler {
     }
 
     protected void postLogin(CommunicationHandler commHandler, boolean noiptest, boolean clientProvidedSession) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(
                 commHandler.createClientLogin(entropyHarvester, noiptest, clientProvidedSession),
                 serverData,
                 commHandler.isPreviousKeyValid()
         );
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
@@ -345,7 +390,9 @@ public class CommunicationFlowHandler {
     }
 
     protected void postDisableAccount(CommunicationHandler commHandler, boolean noiptest, boolean clientProvidedSession) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(commHandler.createClientDisable(noiptest, clientProvidedSession), serverData, true);
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
@@ -353,7 +400,9 @@ public class CommunicationFlowHandler {
     }
 
     protected void postEnableAccount(CommunicationHandler commHandler, boolean noiptest, boolean clientProvidedSession) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(commHandler.createClientEnable(noiptest, clientProvidedSession), serverData, true);
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
@@ -361,7 +410,9 @@ public class CommunicationFlowHandler {
     }
 
     protected void postRemoveAccount(CommunicationHandler commHandler, boolean noiptest, boolean clientProvidedSession) throws Exception {
+        long buildStartTime = ConversationTimer.now();
         String postData = commHandler.createPostParams(commHandler.createClientRemove(noiptest, clientProvidedSession), serverData, true);
+        commHandler.getTimer().record(ConversationTimer.Phase.REQUEST_BUILD_AND_SIGN, buildStartTime);
         commHandler.postRequest(queryLink, postData);
         serverData = commHandler.getResponse();
         queryLink = commHandler.getQueryLink();
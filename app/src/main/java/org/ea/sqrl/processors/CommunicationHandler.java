@@ -5,10 +5,14 @@ import android.content.Context;
 import android.util.Log;
 
 import org.ea.sqrl.R;
+import org.ea.sqrl.core.identity.UnlockKeys;
+import org.ea.sqrl.core.protocol.ClientParameters;
+import org.ea.sqrl.core.protocol.CryptDomain;
+import org.ea.sqrl.core.protocol.PostBody;
+import org.ea.sqrl.core.protocol.ServerResponse;
 import org.ea.sqrl.services.AskDialogService;
 import org.ea.sqrl.utils.EncryptionUtils;
-import org.ea.sqrl.utils.Utils;
-import org.libsodium.jni.Sodium;
+import org.ea.sqrl.utils.SodiumCrypto;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
@@ -21,7 +25,6 @@ import java.net.URL;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -41,31 +44,32 @@ import javax.net.ssl.X509TrustManager;
  */
 public class CommunicationHandler {
     private static final String TAG = "CommunicationHandler";
-    public static final Pattern sqrlPattern = Pattern.compile("^s*qrl://([^?/]+)(.*)$");
-    private static final Pattern sqrlQueryPattern = Pattern.compile("^([^?]+)\\?.*x=([0-9]+).*$");
+    public static final Pattern sqrlPattern = CryptDomain.sqrlPattern;
 
 
     private static CommunicationHandler instance = null;
     private final Context context;
     private String communicationDomain;
     private byte[] cryptDomain;
-    private Map<String, String> lastResponse = new HashMap<>();
+    private CryptDomain domain;
+    private ServerResponse lastResponse = ServerResponse.empty();
     private String askButton;
     private AskDialogService askDialogService;
-    private String response;
     private boolean useSSL;
     private boolean urlBasedLogin = false;
-
-    public static final int TIF_CURRENT_ID_MATCH = 0;
-    public static final int TIF_PREVIOUS_ID_MATCH = 1;
-    public static final int TIF_IP_MATCHED = 2;
-    public static final int TIF_SQRL_DISABLED = 3;
-    public static final int TIF_FUNCTION_NOT_SUPPORTED = 4;
-    public static final int TIF_TRANSIENT_ERROR = 5;
-    public static final int TIF_COMMAND_FAILED = 6;
-    public static final int TIF_CLIENT_FAILURE = 7;
-    public static final int TIF_BAD_ID_ASSOCIATION = 8;
-    public static final int TIF_SUPERSEDED_IDENTITY = 9;
+    private int previousKeyIndex = -1;
+    private final ConversationTimer timer = new ConversationTimer();
+
+    public static final int TIF_CURRENT_ID_MATCH = ServerResponse.TIF_CURRENT_ID_MATCH;
+    public static final int TIF_PREVIOUS_ID_MATCH = ServerResponse.TIF_PREVIOUS_ID_MATCH;
+    public static final int TIF_IP_MATCHED = ServerResponse.TIF_IP_MATCHED;
+    public static final int TIF_SQRL_DISABLED = ServerResponse.TIF_SQRL_DISABLED;
+    public static final int TIF_FUNCTION_NOT_SUPPORTED = ServerResponse.TIF_FUNCTION_NOT_SUPPORTED;
+    public static final int TIF_TRANSIENT_ERROR = ServerResponse.TIF_TRANSIENT_ERROR;
+    public static final int TIF_COMMAND_FAILED = ServerResponse.TIF_COMMAND_FAILED;
+    public static final int TIF_CLIENT_FAILURE = ServerResponse.TIF_CLIENT_FAILURE;
+    public static final int TIF_BAD_ID_ASSOCIATION = ServerResponse.TIF_BAD_ID_ASSOCIATION;
+    public static final int TIF_SUPERSEDED_IDENTITY = ServerResponse.TIF_SUPERSEDED_IDENTITY;
 
     private CommunicationHandler(Context context) {
         this.context = context;
@@ -76,6 +80,45 @@ public class CommunicationHandler {
             instance = new CommunicationHandler(context);
         }
 
+        setupConnectionDefaults();
+        return instance;
+    }
+
+    /**
+     * Creates a handler with its own conversation state, separate from the shared instance.
+     * This is used when we talk to several servers at the same time, like in a bulk job.
+     *
+     * @param context   The context of the caller.
+     * @return          A new handler that isn't shared with the rest of the application.
+     */
+    public static CommunicationHandler newConversation(Context context) {
+        setupConnectionDefaults();
+        return new CommunicationHandler(context);
+    }
+
+    /**
+     * Makes this conversation offer the given previous identity instead of the one the storage
+     * is at. The index in the storage is shared, so conversations that run at the same time
+     * need their own.
+     *
+     * @param previousKeyIndex  Which previous identity, 1 is the latest one.
+     */
+    public void setPreviousKeyIndex(int previousKeyIndex) {
+        this.previousKeyIndex = previousKeyIndex;
+    }
+
+    /**
+     * @return  The timer of the conversation this handler has with the server.
+     */
+    public ConversationTimer getTimer() {
+        return timer;
+    }
+
+    private int getPreviousKeyIndex(SQRLStorage storage) {
+        return previousKeyIndex >= 0 ? previousKeyIndex : storage.getPreviousKeyIndex();
+    }
+
+    private static void setupConnectionDefaults() {
         try {
             TrustManager[] victimizedManager = new TrustManager[]{
 
@@ -110,8 +153,6 @@ public class CommunicationHandler {
         } catch (Exception e) {
             e.printStackTrace();
         }
-
-        return instance;
     }
 
     public void setUrlBasedLogin(boolean urlBasedLogin) {
@@ -123,7 +164,7 @@ public class CommunicationHandler {
     }
 
     public void clearLastResponse() {
-        this.lastResponse = new HashMap<>();
+        this.lastResponse = ServerResponse.empty();
     }
 
     public void setUseSSL(boolean useSSL) {
@@ -132,148 +173,93 @@ public class CommunicationHandler {
 
     public void setDomain(String domain, String queryLink) throws Exception {
         this.communicationDomain = domain;
-        int atSignIndex = domain.indexOf("@");
-        int portColon = domain.indexOf(":");
-        if (atSignIndex != -1) {
-            domain = domain.substring(atSignIndex + 1);
-            portColon = domain.indexOf(":");
-        }
-        if (portColon != -1) {
-            domain = domain.substring(0, portColon);
-        }
-
-        atSignIndex = domain.indexOf("@");
-        portColon = domain.indexOf(":");
-        if (atSignIndex != -1 || portColon != -1) {
-            throw new Exception("Incorrect cryptDomain " + domain);
-        }
-
-        this.cryptDomain = domain.toLowerCase().getBytes();
-
-        Matcher queryMatcher = sqrlQueryPattern.matcher(queryLink);
-        if(queryMatcher.find()) {
-            String path = queryMatcher.group(1);
-            int sizeOfPath = Utils.getInteger(queryMatcher.group(2));
-            sizeOfPath = sizeOfPath < path.length() ? sizeOfPath : path.length();
-            if(sizeOfPath > 0) {
-                this.cryptDomain = EncryptionUtils.combine(
-                    this.cryptDomain,
-                    path.substring(0, sizeOfPath).getBytes()
-                );
-            }
-        }
+        this.domain = CryptDomain.create(domain, queryLink);
+        this.cryptDomain = this.domain.getBytes();
     }
 
     private String getAskButtonAnswer() {
-        if(askButton == null) return "";
-        String askResponse = "btn=" + askButton + "\r\n";
+        String askResponse = askButton;
         askButton = null;
         return askResponse;
     }
 
-    public String createClientQuery(boolean noiptest, boolean requestServerUnlockKey) throws Exception {
+    private byte[] getSecretIndex(SQRLStorage storage) throws Exception {
+        return storage.getSecretIndex(cryptDomain, lastResponse.getSecretIndex());
+    }
+
+    private byte[] getPreviousSecretIndex(SQRLStorage storage) throws Exception {
+        return storage.getPreviousSecretIndex(cryptDomain, lastResponse.getSecretIndex(), getPreviousKeyIndex(storage));
+    }
+
+    private ClientParameters createClientParameters(SQRLStorage storage, String command, boolean noiptest,
+                                                    boolean clientProvidedSession, boolean requestServerUnlockKey) throws Exception {
+        storage.prepareSiteKeys(cryptDomain, getPreviousKeyIndex(storage), timer);
+        return new ClientParameters(command)
+                .button(getAskButtonAnswer())
+                .options(storage.isNoByPass(), storage.isSQRLOnly(), noiptest, clientProvidedSession, requestServerUnlockKey)
+                .secretIndex(getSecretIndex(storage), getPreviousSecretIndex(storage));
+    }
+
+    private void addUnlockKeys(ClientParameters params, SQRLStorage storage, EntropyHarvester entropyHarvester) {
+        UnlockKeys keys = storage.getUnlockKeys(entropyHarvester);
+        if(keys == null) return;
+        params.unlockKeys(keys.getServerUnlock(), keys.getVerifyUnlock());
+        keys.clear();
+    }
+
+    private String createClientCommand(String command, boolean noiptest, boolean clientProvidedSession) throws Exception {
         SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=query\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, requestServerUnlockKey, false));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
+        ClientParameters params = createClientParameters(storage, command, noiptest, clientProvidedSession, false)
+                .identityKey(storage.getPublicKey(cryptDomain));
         if(storage.hasPreviousKeys()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
+            params.previousIdentityKey(storage.getPreviousPublicKey(cryptDomain, getPreviousKeyIndex(storage)));
         }
-        return sb.toString();
+        return params.toString();
     }
 
-    public String createClientDisable(boolean noiptest, boolean clientProvidedSession) throws Exception {
+    public String createClientQuery(boolean noiptest, boolean requestServerUnlockKey) throws Exception {
         SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=disable\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, false, clientProvidedSession));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
+        ClientParameters params = createClientParameters(storage, ClientParameters.CMD_QUERY, noiptest, false, requestServerUnlockKey)
+                .identityKey(storage.getPublicKey(cryptDomain));
         if(storage.hasPreviousKeys()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
+            params.previousIdentityKey(storage.getPreviousPublicKey(cryptDomain, getPreviousKeyIndex(storage)));
         }
-        return sb.toString();
+        return params.toString();
+    }
+
+    public String createClientDisable(boolean noiptest, boolean clientProvidedSession) throws Exception {
+        return createClientCommand(ClientParameters.CMD_DISABLE, noiptest, clientProvidedSession);
     }
 
     public String createClientEnable(boolean noiptest, boolean clientProvidedSession) throws Exception {
-        SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=enable\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, false, clientProvidedSession));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
-        if(storage.hasPreviousKeys()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
-        }
-        return sb.toString();
+        return createClientCommand(ClientParameters.CMD_ENABLE, noiptest, clientProvidedSession);
     }
 
     public String createClientRemove(boolean noiptest, boolean clientProvidedSession) throws Exception {
-        SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=remove\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, false, clientProvidedSession));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
-        if(storage.hasPreviousKeys()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
-        }
-        return sb.toString();
+        return createClientCommand(ClientParameters.CMD_REMOVE, noiptest, clientProvidedSession);
     }
 
 
     public String createClientCreateAccount(EntropyHarvester entropyHarvester, boolean noiptest, boolean clientProvidedSession) throws Exception {
         SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=ident\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, false, clientProvidedSession));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append(storage.getServerUnlockKey(entropyHarvester));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
+        ClientParameters params = createClientParameters(storage, ClientParameters.CMD_IDENT, noiptest, clientProvidedSession, false);
+        addUnlockKeys(params, storage, entropyHarvester);
+        params.identityKey(storage.getPublicKey(cryptDomain));
         if(storage.hasPreviousKeys()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
+            params.previousIdentityKey(storage.getPreviousPublicKey(cryptDomain, getPreviousKeyIndex(storage)));
         }
-        return sb.toString();
+        return params.toString();
     }
 
     public String createClientLogin(EntropyHarvester entropyHarvester, boolean noiptest, boolean clientProvidedSession) throws Exception {
         SQRLStorage storage = SQRLStorage.getInstance(context);
-        StringBuilder sb = new StringBuilder();
-        sb.append("ver=1\r\n");
-        sb.append("cmd=ident\r\n");
-        sb.append(getAskButtonAnswer());
-        sb.append(storage.getOptions(noiptest, false, clientProvidedSession));
-        sb.append(storage.getSecretIndex(cryptDomain, lastResponse.get("sin")));
-        sb.append("idk=" + EncryptionUtils.encodeUrlSafe(storage.getPublicKey(cryptDomain)));
-        sb.append("\r\n");
+        ClientParameters params = createClientParameters(storage, ClientParameters.CMD_IDENT, noiptest, clientProvidedSession, false)
+                .identityKey(storage.getPublicKey(cryptDomain));
         if(storage.willLoginWithPreviousKey()) {
-            sb.append("pidk=" + EncryptionUtils.encodeUrlSafe(storage.getPreviousPublicKey(cryptDomain)));
-            sb.append("\r\n");
-            sb.append(storage.getServerUnlockKey(entropyHarvester));
+            params.previousIdentityKey(storage.getPreviousPublicKey(cryptDomain, getPreviousKeyIndex(storage)));
+            addUnlockKeys(params, storage, entropyHarvester);
         }
-        return sb.toString();
+        return params.toString();
     }
 
     public String createPostParams(String client, String server) throws Exception {
@@ -284,55 +270,20 @@ public class CommunicationHandler {
         SQRLStorage storage = SQRLStorage.getInstance(context);
         storage.setProgressState(R.string.progress_state_prepare_query);
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("client=");
-        sb.append(EncryptionUtils.encodeUrlSafe(client.getBytes()));
-
-        sb.append("&server=");
-        sb.append(EncryptionUtils.encodeUrlSafe(server.getBytes()));
-
-        byte[] message = EncryptionUtils.combine(
-                EncryptionUtils.encodeUrlSafe(client.getBytes()).getBytes(),
-                EncryptionUtils.encodeUrlSafe(server.getBytes()).getBytes()
-                );
-
-        byte[] signed_message = new byte[Sodium.crypto_sign_bytes() + message.length];
-        int[] signed_message_len = new int[1];
-
-        Sodium.crypto_sign(
-                signed_message,
-                signed_message_len,
-                message,
-                message.length,
-                storage.getPrivateKey(cryptDomain)
-        );
-        sb.append("&ids=");
-        sb.append(EncryptionUtils.encodeUrlSafe(Arrays.copyOfRange(signed_message, 0, Sodium.crypto_sign_bytes())));
+        SodiumCrypto crypto = SodiumCrypto.getInstance();
+        PostBody body = new PostBody(client, server)
+                .identitySignature(crypto, storage.getPrivateKey(cryptDomain));
 
         if(storage.hasPreviousKeys()) {
-            Sodium.crypto_sign(
-                    signed_message,
-                    signed_message_len,
-                    message,
-                    message.length,
-                    storage.getPreviousPrivateKey(cryptDomain)
-            );
-            sb.append("&pids=");
-            sb.append(EncryptionUtils.encodeUrlSafe(Arrays.copyOfRange(signed_message, 0, Sodium.crypto_sign_bytes())));
+            body.previousIdentitySignature(crypto, storage.getPreviousPrivateKey(cryptDomain, getPreviousKeyIndex(storage)));
         }
 
         if(unlockServerKey && hasServerUnlockKey()) {
-            Sodium.crypto_sign(
-                    signed_message,
-                    signed_message_len,
-                    message,
-                    message.length,
-                    storage.getUnlockRequestSigningKey(getServerUnlockKey(), this.isPreviousKeyValid())
-            );
-            sb.append("&urs=");
-            sb.append(EncryptionUtils.encodeUrlSafe(Arrays.copyOfRange(signed_message, 0, Sodium.crypto_sign_bytes())));
+            body.unlockRequestSignature(crypto,
+                    storage.getUnlockRequestSigningKey(getServerUnlockKey(),
+                            this.isPreviousKeyValid() ? getPreviousKeyIndex(storage) : -1));
         }
-        return sb.toString();
+        return body.toString();
     }
 
     public void postRequest(String link, String data) throws Exception {
@@ -357,6 +308,15 @@ public class CommunicationHandler {
             con.setDoOutput(true);
             con.setDoInput(true);
 
+            /*
+             * Connect explicitly so the name lookup and handshake can be timed on their own,
+             * getOutputStream would otherwise do it for us.
+             */
+            long connectStartTime = ConversationTimer.now();
+            con.connect();
+            timer.record(ConversationTimer.Phase.CONNECT, connectStartTime);
+
+            long serverStartTime = ConversationTimer.now();
             output = new DataOutputStream(con.getOutputStream());
             output.writeBytes(data);
             output.close();
@@ -376,10 +336,14 @@ public class CommunicationHandler {
                 flag = true;
             }
             input.close();
+            timer.record(ConversationTimer.Phase.SERVER, serverStartTime);
 
             setResponseData(result.toString());
+            if(hasCPSUrl()) {
+                timer.markStart(ConversationTimer.Phase.CPS_REDIRECT);
+            }
 
-            if(!lastResponse.containsKey("tif")) {
+            if(!lastResponse.hasTif()) {
                 throw new Exception("CONN_ERROR");
             }
 
@@ -411,17 +375,11 @@ public class CommunicationHandler {
     }
 
     private void setResponseData(String responseData) throws Exception {
-        this.response = new String(EncryptionUtils.decodeUrlSafe(responseData));
-        this.lastResponse = new HashMap<>();
-        for(String param : response.split("\r\n")) {
-            int firstEqualSign = param.indexOf("=");
-            if(firstEqualSign == -1) continue;
-            this.lastResponse.put(param.substring(0, firstEqualSign), param.substring(firstEqualSign+1));
-        }
+        this.lastResponse = ServerResponse.parse(responseData);
     }
 
     public void printParams() {
-        for(Map.Entry<String, String> entry : lastResponse.entrySet()) {
+        for(Map.Entry<String, String> entry : lastResponse.getParameters().entrySet()) {
             Log.i(TAG, entry.getKey() + "=" + entry.getValue());
         }
     }
@@ -438,22 +396,19 @@ public class CommunicationHandler {
     }
 
     public String getResponse() {
-        return response;
+        return lastResponse.getResponse();
     }
 
     public int getTif() {
-        if(!lastResponse.containsKey("tif")) return -1;
-        return Integer.parseInt(lastResponse.get("tif"), 16);
+        return lastResponse.getTif();
     }
 
     public boolean isTIFBitSet(int k) {
-        if(!lastResponse.containsKey("tif")) return false;
-        int tif = Integer.parseInt(lastResponse.get("tif"), 16);
-        return (tif & 1 << k) != 0;
+        return lastResponse.isTifBitSet(k);
     }
 
     public boolean hasErrorMessage(boolean shouldUseCPSServer) {
-        return lastResponse.containsKey("tif") &&
+        return lastResponse.hasTif() &&
             (
                 shouldUseCPSServer &&
                 !isTIFBitSet(CommunicationHandler.TIF_IP_MATCHED)
@@ -469,7 +424,7 @@ public class CommunicationHandler {
 
     public String getErrorMessage(Activity a, boolean shouldUseCPSServer) {
         StringBuilder sb = new StringBuilder();
-        if(!lastResponse.containsKey("tif")) {
+        if(!lastResponse.hasTif()) {
             return a.getString(R.string.communication_incorrect_response);
         } else if(shouldUseCPSServer && !isTIFBitSet(CommunicationHandler.TIF_IP_MATCHED)) {
             sb.append(a.getString(R.string.communication_ip_mismatch));
@@ -554,21 +509,15 @@ public class CommunicationHandler {
     }
 
     public String getQueryLink() {
-        if(!lastResponse.containsKey("qry")) {
-            return "";
-        }
-        return lastResponse.get("qry");
+        return lastResponse.getQueryLink();
     }
 
     public boolean hasServerUnlockKey() {
-        return lastResponse.containsKey("suk") && !lastResponse.get("suk").isEmpty();
+        return lastResponse.hasServerUnlockKey();
     }
 
     public byte[] getServerUnlockKey() throws Exception{
-        if(!lastResponse.containsKey("suk")) {
-            return new byte[32];
-        }
-        return EncryptionUtils.decodeUrlSafe(lastResponse.get("suk"));
+        return lastResponse.getServerUnlockKey();
     }
 
     public void setAskButton(String askButton) {
@@ -585,13 +534,12 @@ public class CommunicationHandler {
     }
 
     public boolean hasAskQuestion() {
-        return this.lastResponse.containsKey("ask") &&
-                !this.lastResponse.get("ask").isEmpty();
+        return this.lastResponse.hasAskQuestion();
     }
 
     public void showAskDialog() {
         if(hasAskQuestion()) {
-            this.askDialogService.showDialog(this.lastResponse.get("ask"));
+            this.askDialogService.showDialog(this.lastResponse.getAskQuestion());
         } else {
             this.askDialogService.activateAskButton();
         }
@@ -602,11 +550,11 @@ public class CommunicationHandler {
     }
 
     public boolean hasCPSUrl() {
-        return this.lastResponse.containsKey("url");
+        return this.lastResponse.hasCPSUrl();
     }
 
     public String getCPSUrl() {
-        return this.lastResponse.get("url");
+        return this.lastResponse.getCPSUrl();
     }
 
     public byte[] getDomain() {
@@ -616,11 +564,8 @@ public class CommunicationHandler {
     public void setAlternativeId(String alternativeId) {
         if(alternativeId == null || alternativeId.isEmpty()) return;
 
-        this.cryptDomain = EncryptionUtils.combine(this.cryptDomain, (byte)0);
-        this.cryptDomain = EncryptionUtils.combine(
-            this.cryptDomain,
-            alternativeId.replaceAll("[^A-Za-z0-9]", "").getBytes()
-        );
+        this.domain = this.domain.withAlternativeId(alternativeId);
+        this.cryptDomain = this.domain.getBytes();
     }
 
     public void loginWithPreviousKey() {
@@ -0,0 +1,152 @@
+package org.ea.sqrl.processors;
+
+import android.util.Log;
+
+import org.ea.sqrl.processors.ConversationTimer.Phase;
+import org.ea.sqrl.processors.ConversationTimer.Sample;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the finished conversations of every {@link ConversationTimer}. Every phase is kept
+ * in a rolling window of the latest samples, so we can see the spread on real devices and not
+ * just a single measurement. Nothing is persisted, the report is only built when someone asks
+ * for it.
+ */
+public class ConversationStats {
+    private static final String TAG = "ConversationStats";
+    private static final int WINDOW_SIZE = 128;
+    private static final int BUCKETS = 14;
+
+    /**
+     * Ring buffer with the latest samples of a phase in nanoseconds.
+     */
+    private static class PhaseHistogram {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int nextIndex = 0;
+        private int size = 0;
+        private long totalCount = 0;
+
+        private void add(long timeInNanos) {
+            samples[nextIndex] = timeInNanos;
+            nextIndex = (nextIndex + 1) % WINDOW_SIZE;
+            if(size < WINDOW_SIZE) size++;
+            totalCount++;
+        }
+
+        private long[] sortedWindow() {
+            long[] window = Arrays.copyOf(samples, size);
+            Arrays.sort(window);
+            return window;
+        }
+    }
+
+    private static ConversationStats instance = null;
+
+    private final PhaseHistogram[] histograms = new PhaseHistogram[Phase.values().length];
+    private final long[] lastConversation = new long[Phase.values().length];
+    private long conversationCount = 0;
+
+    private ConversationStats() {
+        for(int i = 0; i < histograms.length; i++) {
+            histograms[i] = new PhaseHistogram();
+        }
+    }
+
+    public static synchronized ConversationStats getInstance() {
+        if(instance == null) {
+            instance = new ConversationStats();
+        }
+        return instance;
+    }
+
+    /**
+     * Records the time since startTime for a phase that isn't part of a conversation, like
+     * unlocking the identity.
+     *
+     * @param phase       The phase that just ended.
+     * @param startTime   The value of {@link ConversationTimer#now()} when the phase started.
+     */
+    public synchronized void record(Phase phase, long startTime) {
+        histograms[phase.ordinal()].add(System.nanoTime() - startTime);
+    }
+
+    synchronized void addConversation(long[] phaseTotals, List<Sample> samples) {
+        for(Sample sample : samples) {
+            histograms[sample.phase.ordinal()].add(sample.timeInNanos);
+        }
+        System.arraycopy(phaseTotals, 0, lastConversation, 0, phaseTotals.length);
+        conversationCount++;
+        Log.d(TAG, createReport());
+    }
+
+    public synchronized void reset() {
+        for(int i = 0; i < histograms.length; i++) {
+            histograms[i] = new PhaseHistogram();
+        }
+        Arrays.fill(lastConversation, 0);
+        conversationCount = 0;
+    }
+
+    /**
+     * Creates a plain text report of the last conversation and the distribution of every
+     * phase over the latest samples. Bucket n counts the samples between 2^(n-1) and 2^n ms.
+     */
+    public synchronized String createReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Conversations: ").append(conversationCount).append("\n\n");
+
+        sb.append("Last conversation (ms)\n");
+        for(Phase phase : Phase.values()) {
+            sb.append(String.format(Locale.US, "%-24s %10.1f%n",
+                    phase.label, toMilliSeconds(lastConversation[phase.ordinal()])));
+        }
+
+        sb.append("\nLatest ").append(WINDOW_SIZE).append(" samples per phase (ms)\n");
+        sb.append(String.format(Locale.US, "%-24s %6s %8s %8s %8s %8s %8s%n",
+                "Phase", "count", "min", "p50", "p90", "p99", "max"));
+        for(Phase phase : Phase.values()) {
+            PhaseHistogram histogram = histograms[phase.ordinal()];
+            long[] window = histogram.sortedWindow();
+            if(window.length == 0) {
+                sb.append(String.format(Locale.US, "%-24s %6d%n", phase.label, 0));
+                continue;
+            }
+            sb.append(String.format(Locale.US, "%-24s %6d %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                    phase.label,
+                    histogram.totalCount,
+                    toMilliSeconds(window[0]),
+                    toMilliSeconds(percentile(window, 50)),
+                    toMilliSeconds(percentile(window, 90)),
+                    toMilliSeconds(percentile(window, 99)),
+                    toMilliSeconds(window[window.length - 1])));
+        }
+
+        sb.append("\nHistogram buckets (<1, <2, <4 ... ms)\n");
+        for(Phase phase : Phase.values()) {
+            int[] buckets = new int[BUCKETS];
+            for(long sample : histograms[phase.ordinal()].sortedWindow()) {
+                buckets[bucketIndex(sample)]++;
+            }
+            sb.append(String.format(Locale.US, "%-24s %s%n", phase.label, Arrays.toString(buckets)));
+        }
+        return sb.toString();
+    }
+
+    private static int bucketIndex(long timeInNanos) {
+        long timeInMilliSeconds = timeInNanos / 1_000_000;
+        int index = 64 - Long.numberOfLeadingZeros(timeInMilliSeconds);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    private static long percentile(long[] sortedWindow, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sortedWindow.length) - 1;
+        return sortedWindow[Math.max(0, Math.min(index, sortedWindow.length - 1))];
+    }
+
+    private static double toMilliSeconds(long timeInNanos) {
+        return timeInNanos / 1_000_000.0;
+    }
+}
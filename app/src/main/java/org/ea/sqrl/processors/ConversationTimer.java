@@ -0,0 +1,94 @@
+package org.ea.sqrl.processors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps track of where the time goes in one conversation with a server. Every conversation has
+ * a timer of its own, so conversations that run at the same time, like the sites of a bulk job,
+ * don't add to each other. When the conversation is done the samples are handed over to
+ * {@link ConversationStats}, which keeps the distribution over all of them.
+ */
+public class ConversationTimer {
+    public enum Phase {
+        KDF_UNLOCK("KDF unlock"),
+        KEY_DERIVATION("Key derivation"),
+        REQUEST_BUILD_AND_SIGN("Request build and sign"),
+        CONNECT("DNS/connect/TLS"),
+        SERVER("Server time"),
+        CPS_REDIRECT("CPS redirect");
+
+        final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    static class Sample {
+        final Phase phase;
+        final long timeInNanos;
+
+        private Sample(Phase phase, long timeInNanos) {
+            this.phase = phase;
+            this.timeInNanos = timeInNanos;
+        }
+    }
+
+    private final long[] phaseStart = new long[Phase.values().length];
+    private final long[] phaseTotals = new long[Phase.values().length];
+    private final List<Sample> samples = new ArrayList<>();
+
+    /**
+     * @return  Current time to pass into {@link #record(Phase, long)} when the phase is done.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since startTime for the phase.
+     *
+     * @param phase       The phase that just ended.
+     * @param startTime   The value of {@link #now()} when the phase started.
+     */
+    public synchronized void record(Phase phase, long startTime) {
+        long timeInNanos = System.nanoTime() - startTime;
+        samples.add(new Sample(phase, timeInNanos));
+        phaseTotals[phase.ordinal()] += timeInNanos;
+    }
+
+    /**
+     * Marks the start of a phase that ends on another thread, like the CPS redirect which is
+     * started by the flow handler and ended by the CPS server.
+     */
+    public synchronized void markStart(Phase phase) {
+        phaseStart[phase.ordinal()] = System.nanoTime();
+    }
+
+    public synchronized void markEnd(Phase phase) {
+        long startTime = phaseStart[phase.ordinal()];
+        if(startTime == 0) return;
+        phaseStart[phase.ordinal()] = 0;
+        record(phase, startTime);
+    }
+
+    /**
+     * Hands the conversation over to the stats and starts over, so the next recorded phase
+     * belongs to a new conversation.
+     */
+    public void finishConversation() {
+        long[] totals;
+        List<Sample> finishedSamples;
+        synchronized (this) {
+            if(samples.isEmpty()) return;
+            totals = phaseTotals.clone();
+            finishedSamples = new ArrayList<>(samples);
+            samples.clear();
+            Arrays.fill(phaseTotals, 0);
+            Arrays.fill(phaseStart, 0);
+        }
+        ConversationStats.getInstance().addConversation(totals, finishedSamples);
+    }
+}
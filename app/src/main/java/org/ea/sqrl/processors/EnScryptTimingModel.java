@@ -0,0 +1,115 @@
+package org.ea.sqrl.processors;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.ea.sqrl.utils.SqrlApplication;
+
+/**
+ * Remembers how long one EnScrypt iteration takes on this device, for every logN factor seen,
+ * so the time left of a decryption can be shown right from the start. Every timed iteration
+ * moves an exponential moving average, which is stored in the app preferences at the end of a
+ * run. A logN factor never timed falls back on the sustained speed of the KdfProfile, when it
+ * is calibrated.
+ *
+ * The first iteration of a run pays for loading the native code and allocating the scrypt
+ * memory, so it is never part of the average.
+ */
+public class EnScryptTimingModel {
+    private static final String PREFERENCE_PREFIX = "enscrypt_iteration_ns_";
+    private static final int MAX_LOG_N_FACTOR = 31;
+    static final double SMOOTHING = 0.2;
+    static final int PRIOR_WEIGHT = 8;
+
+    private static EnScryptTimingModel instance = null;
+
+    private final SharedPreferences preferences;
+    private final KdfProfile kdfProfile;
+    private final long[] iterationNanos = new long[MAX_LOG_N_FACTOR + 1];
+    private boolean changed = false;
+
+    public static synchronized EnScryptTimingModel getInstance(Context context) {
+        if(instance == null) {
+            instance = new EnScryptTimingModel(context.getApplicationContext()
+                    .getSharedPreferences(SqrlApplication.APPS_PREFERENCES, Context.MODE_PRIVATE),
+                    KdfProfile.getInstance(context));
+        }
+        return instance;
+    }
+
+    /**
+     * @param preferences   Preferences to keep the averages in, or null to keep them in memory.
+     * @param kdfProfile    Profile to fall back on for logN factors never timed, or null.
+     */
+    EnScryptTimingModel(SharedPreferences preferences, KdfProfile kdfProfile) {
+        this.preferences = preferences;
+        this.kdfProfile = kdfProfile;
+        if(preferences != null) {
+            for(int logN = 0; logN <= MAX_LOG_N_FACTOR; logN++) {
+                iterationNanos[logN] = preferences.getLong(PREFERENCE_PREFIX + logN, 0);
+            }
+        }
+    }
+
+    /**
+     * @param logNFactor    The scrypt memory cost used.
+     * @return              Average time of one iteration in nanoseconds, the sustained time of
+     *                      the KdfProfile if never timed, or 0 if neither is known.
+     */
+    public long getIterationNanos(int logNFactor) {
+        if(logNFactor < 0 || logNFactor > MAX_LOG_N_FACTOR) return 0;
+        synchronized (this) {
+            if(iterationNanos[logNFactor] != 0) return iterationNanos[logNFactor];
+        }
+        KdfProfile.Entry entry = kdfProfile != null ? kdfProfile.getEntry(logNFactor) : null;
+        return entry != null ? entry.sustainedNanos : 0;
+    }
+
+    /**
+     * Adds the time of one iteration, not being the first one of a run, to the average.
+     */
+    public synchronized void addIteration(int logNFactor, long nanos) {
+        if(logNFactor < 0 || logNFactor > MAX_LOG_N_FACTOR || nanos <= 0) return;
+
+        long average = iterationNanos[logNFactor];
+        iterationNanos[logNFactor] = average == 0 ? nanos : Math.round(average + SMOOTHING * (nanos - average));
+        changed = true;
+    }
+
+    /**
+     * Stores the averages changed since the last save, without waiting for the disk.
+     */
+    public synchronized void save() {
+        if(!changed || preferences == null) return;
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for(int logN = 0; logN <= MAX_LOG_N_FACTOR; logN++) {
+            if(iterationNanos[logN] != 0) {
+                editor.putLong(PREFERENCE_PREFIX + logN, iterationNanos[logN]);
+            }
+        }
+        editor.apply();
+        changed = false;
+    }
+
+    /**
+     * Estimates the time of the next iteration of a run from the stored average and the
+     * iterations timed so far. The stored average counts as PRIOR_WEIGHT iterations, so a run
+     * on a busier device than usual takes over after a few iterations.
+     *
+     * @param priorNanos        The stored average or profiled time, or 0 if there is none.
+     * @param runNanos          Total time of the iterations timed in this run.
+     * @param runCount          Number of iterations timed in this run.
+     * @param warmUpNanos       Time of the first iteration of this run, or 0 if it is not done.
+     * @return                  Estimated time of one iteration in nanoseconds, or 0 if unknown.
+     */
+    public static long estimateIterationNanos(long priorNanos, long runNanos, int runCount, long warmUpNanos) {
+        if(priorNanos > 0) {
+            return (priorNanos * PRIOR_WEIGHT + runNanos) / (PRIOR_WEIGHT + runCount);
+        }
+        if(runCount > 0) {
+            return runNanos / runCount;
+        }
+        return warmUpNanos;
+    }
+}
@@ -0,0 +1,270 @@
+package org.ea.sqrl.processors;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates how much entropy camera frames carry, so gathering can be measured in bits instead of
+ * in bytes hashed. A fixed number of evenly spread positions is sampled from every frame, and each
+ * sample is the change of that position since the previous frame. A still or covered camera gives
+ * the same changes over and over, while sensor noise and movement don't. The samples are fed to
+ * the tests in a scattered order, so a dark corner or a flat colour plane of the frame doesn't look
+ * like a stuck source by itself.
+ *
+ * The samples run through the two continuous health tests of NIST SP 800-90B (repetition count
+ * and adaptive proportion), and every frame gets a most common value min-entropy estimate (90B
+ * section 6.3.1). A frame is only credited when the health tests pass, and never with more than
+ * the claimed entropy per sample.
+ */
+public class EntropyEstimator {
+    public static final int DEFAULT_SAMPLES_PER_FRAME = 1024;
+    public static final double DEFAULT_CLAIMED_ENTROPY = 0.5;
+    public static final int DEGENERATE_FRAME_COUNT = 8;
+
+    private static final int APT_WINDOW_SIZE = 512;
+    private static final double FALSE_POSITIVE_EXPONENT = 20;  // alpha = 2^-20
+    private static final double Z_ALPHA = 2.576;  // 99% upper bound used by the estimators in 90B
+
+    private final int samplesPerFrame;
+    private final double claimedEntropy;
+    private final int sampleStride;
+    private final int rctCutoff;
+    private final int aptCutoff;
+
+    private byte[] previousSamples = null;
+    private int previousFrameLength = -1;
+    private double entropyBits = 0;
+    private int healthFailures = 0;
+    private int failedFramesInRow = 0;
+
+    private int rctValue = -1;
+    private int rctCount = 0;
+    private int aptValue = -1;
+    private int aptCount = 0;
+    private int aptSeen = 0;
+
+    public EntropyEstimator() {
+        this(DEFAULT_SAMPLES_PER_FRAME, DEFAULT_CLAIMED_ENTROPY);
+    }
+
+    /**
+     * @param samplesPerFrame   Number of positions sampled from every frame.
+     * @param claimedEntropy    Entropy per sample, in bits, that the health tests guard.
+     */
+    public EntropyEstimator(int samplesPerFrame, double claimedEntropy) {
+        if(samplesPerFrame < 2 || claimedEntropy <= 0 || claimedEntropy > 8) {
+            throw new IllegalArgumentException("Value out of range");
+        }
+        this.samplesPerFrame = samplesPerFrame;
+        this.claimedEntropy = claimedEntropy;
+        this.sampleStride = scatterStride(samplesPerFrame);
+        this.rctCutoff = 1 + (int) Math.ceil(FALSE_POSITIVE_EXPONENT / claimedEntropy);
+        this.aptCutoff = aptCutoff(APT_WINDOW_SIZE, claimedEntropy);
+    }
+
+    /**
+     * Samples a frame, runs the health tests on it and credits its estimated entropy.
+     *
+     * @param frame     Raw frame data. Frames of another length than the previous one start over.
+     * @return          Entropy credited for this frame, in bits.
+     */
+    public double addFrame(byte[] frame) {
+        return addFrame(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Samples the remaining bytes of a frame, without moving its position, like
+     * {@link #addFrame(byte[])}.
+     *
+     * @param frame     Frame data, which may be a direct buffer.
+     * @return          Entropy credited for this frame, in bits.
+     */
+    public synchronized double addFrame(ByteBuffer frame) {
+        int offset = frame.position();
+        int length = frame.remaining();
+        if(length < samplesPerFrame) {
+            return 0;
+        }
+
+        byte[] samples = new byte[samplesPerFrame];
+        for(int i = 0; i < samplesPerFrame; i++) {
+            samples[i] = frame.get(offset + (int) ((long) i * length / samplesPerFrame));
+        }
+
+        byte[] previous = previousSamples;
+        boolean sameSize = previousFrameLength == length;
+        previousSamples = samples;
+        previousFrameLength = length;
+        if(previous == null || !sameSize) {
+            return 0;
+        }
+
+        int[] counts = new int[256];
+        boolean healthy = true;
+        for(int i = 0, j = 0; i < samplesPerFrame; i++, j = (j + sampleStride) % samplesPerFrame) {
+            int delta = (samples[j] - previous[j]) & 0xFF;
+            counts[delta]++;
+            healthy &= repetitionCountTest(delta);
+            healthy &= adaptiveProportionTest(delta);
+        }
+
+        if(!healthy) {
+            healthFailures++;
+            failedFramesInRow++;
+            return 0;
+        }
+        failedFramesInRow = 0;
+
+        double credit = samplesPerFrame * Math.min(claimedEntropy, mostCommonValueEstimate(counts, samplesPerFrame));
+        entropyBits += credit;
+        return credit;
+    }
+
+    /**
+     * @return  Total entropy credited since the last reset, in bits.
+     */
+    public synchronized double getEntropyBits() {
+        return entropyBits;
+    }
+
+    /**
+     * @return  Number of frames that failed a health test since the last reset.
+     */
+    public synchronized int getHealthFailures() {
+        return healthFailures;
+    }
+
+    /**
+     * @return  True when the latest frames all failed the health tests, like a covered or frozen camera.
+     */
+    public synchronized boolean isDegenerate() {
+        return failedFramesInRow >= DEGENERATE_FRAME_COUNT;
+    }
+
+    public synchronized void reset() {
+        previousSamples = null;
+        previousFrameLength = -1;
+        entropyBits = 0;
+        healthFailures = 0;
+        failedFramesInRow = 0;
+        rctValue = -1;
+        rctCount = 0;
+        aptValue = -1;
+        aptCount = 0;
+        aptSeen = 0;
+    }
+
+    public int getRepetitionCountCutoff() {
+        return rctCutoff;
+    }
+
+    public int getAdaptiveProportionCutoff() {
+        return aptCutoff;
+    }
+
+    /**
+     * Repetition count test, 90B section 4.4.1. Fails when the same sample repeats cutoff times.
+     */
+    private boolean repetitionCountTest(int sample) {
+        if(sample == rctValue) {
+            rctCount++;
+            if(rctCount >= rctCutoff) {
+                rctCount = 1;
+                return false;
+            }
+        } else {
+            rctValue = sample;
+            rctCount = 1;
+        }
+        return true;
+    }
+
+    /**
+     * Adaptive proportion test, 90B section 4.4.2. Fails when the first sample of a window shows
+     * up cutoff times in that window.
+     */
+    private boolean adaptiveProportionTest(int sample) {
+        if(aptSeen == 0) {
+            aptValue = sample;
+            aptCount = 1;
+            aptSeen = 1;
+            return true;
+        }
+
+        boolean passed = true;
+        if(sample == aptValue) {
+            aptCount++;
+            if(aptCount >= aptCutoff) {
+                passed = false;
+            }
+        }
+        aptSeen++;
+        if(aptSeen >= APT_WINDOW_SIZE || !passed) {
+            aptSeen = 0;
+        }
+        return passed;
+    }
+
+    /**
+     * A step close to the golden ratio of the sample count, without a common divisor with it so
+     * that stepping through the samples visits every one of them once.
+     */
+    static int scatterStride(int sampleCount) {
+        int stride = (int) (sampleCount * 0.618) | 1;
+        while(gcd(stride, sampleCount) != 1) {
+            stride += 2;
+        }
+        return stride;
+    }
+
+    private static int gcd(int a, int b) {
+        while(b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Most common value estimate, 90B section 6.3.1: the min-entropy of the upper bound of the
+     * probability of the most common sample.
+     */
+    static double mostCommonValueEstimate(int[] counts, int sampleCount) {
+        int max = 0;
+        for(int count : counts) {
+            max = Math.max(max, count);
+        }
+        double p = (double) max / sampleCount;
+        double upper = Math.min(1.0, p + Z_ALPHA * Math.sqrt(p * (1.0 - p) / (sampleCount - 1)));
+        return -Math.log(upper) / Math.log(2);
+    }
+
+    /**
+     * The cutoff from 90B section 4.4.2, 1 + CRITBINOM(W, 2^-H, 1 - alpha): one more than the
+     * smallest count k where more than k matches in a window have a probability of at most alpha.
+     */
+    static int aptCutoff(int windowSize, double claimedEntropy) {
+        double p = Math.pow(2, -claimedEntropy);
+        double alpha = Math.pow(2, -FALSE_POSITIVE_EXPONENT);
+
+        // Sum the binomial tail from the top down, in logs as the terms get tiny
+        double logP = Math.log(p);
+        double logQ = Math.log1p(-p);
+        double tail = 0;
+        for(int k = windowSize; k > 0; k--) {
+            tail += Math.exp(logChoose(windowSize, k) + k * logP + (windowSize - k) * logQ);
+            if(tail > alpha) {
+                return k + 1;
+            }
+        }
+        return 1;
+    }
+
+    private static double logChoose(int n, int k) {
+        double result = 0;
+        for(int i = 0; i < k; i++) {
+            result += Math.log(n - i) - Math.log(i + 1);
+        }
+        return result;
+    }
+}
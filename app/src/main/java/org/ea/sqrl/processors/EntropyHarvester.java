@@ -1,26 +1,95 @@
 package org.ea.sqrl.processors;
 
 import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 import android.widget.ProgressBar;
 
-import java.math.BigInteger;
+import org.ea.sqrl.utils.EncryptionUtils;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The point of this class is to be the one and only place to fetch your entropy from. It will
  * probably keep up a good amount of random sources and fetch data in order to give high entropy
  * random bits back when asked.
  *
+ * Camera frames are hashed on a worker thread of their own, so the preview never waits for
+ * SHA-512. The caller owns its frame buffers, either a small ring of arrays or the planes of
+ * camera images, and gets every one back once it has been hashed. Frames given as a direct
+ * ByteBuffer are hashed where they are, without copying them into the Java heap. When the
+ * worker falls behind, new frames are dropped right away instead of queued, which keeps both
+ * the memory and the latency bounded.
+ *
+ * Progress is measured in estimated entropy rather than in bytes hashed. Every frame goes through
+ * an EntropyEstimator, which credits nothing for frames failing its health tests, so a covered or
+ * frozen camera never moves the progress bar. Gathering is complete once TARGET_ENTROPY_BITS have
+ * been credited, which a noisy sensor reaches quickly.
+ *
+ * Random bytes come from an HMAC_DRBG per thread, so callers never wait on each other or on the
+ * system source. Each one is seeded from the strong source and reseeded after a number of
+ * requests, after some time, and whenever new camera entropy has been digested, which is then
+ * mixed in as additional input.
+ *
  * @author Daniel Persson
  */
 public class EntropyHarvester {
     private static final String TAG = "EntropyHarvester";
+    private static final int MAX_FRAMES_IN_FLIGHT = 2;
+    public static final int TARGET_ENTROPY_BITS = 8192;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+    private static final int SEED_BYTES = 48;
+    private static final int NONCE_BYTES = 16;
+    private static final long RESEED_REQUESTS = 1 << 16;
+    private static final long RESEED_INTERVAL_MS = 10 * 60 * 1000;
+
+    /**
+     * Gets back a frame buffer handed to {@link #addFrame(ProgressBar, byte[], FrameRecycler)} when
+     * it is no longer used. This may be called on any thread.
+     */
+    public interface FrameRecycler {
+        void recycle(byte[] frame);
+    }
 
     private final SecureRandom sr;
     private final MessageDigest md;
     private static EntropyHarvester instance;
-    private BigInteger numberOfBytesGathered;
+    private long numberOfBytesGathered;
+    private final EntropyEstimator estimator = new EntropyEstimator();
+    private volatile boolean gathering = false;
+    private volatile boolean gatherComplete = false;
+    private volatile boolean sourceDegenerate = false;
+
+    private final ExecutorService hashExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "EntropyHasher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger framesInFlight = new AtomicInteger();
+
+    private static class ThreadDrbg {
+        private final HmacDrbg drbg;
+        private long seedTime;
+        private int seedGeneration;
+
+        private ThreadDrbg(HmacDrbg drbg, int seedGeneration) {
+            this.drbg = drbg;
+            this.seedTime = SystemClock.elapsedRealtime();
+            this.seedGeneration = seedGeneration;
+        }
+    }
+
+    private final ThreadLocal<ThreadDrbg> drbgs = new ThreadLocal<>();
+    private volatile byte[] harvestedEntropy = null;
+    private volatile int harvestGeneration = 0;
+    private int postedProgress = -1;
+    private long postedProgressTime = 0;
 
     public static EntropyHarvester getInstance() throws Exception {
         if(instance == null) {
@@ -37,27 +106,170 @@ public class EntropyHarvester {
         }
 
         md = MessageDigest.getInstance("SHA-512");
-        this.numberOfBytesGathered = BigInteger.ZERO;
+        this.numberOfBytesGathered = 0;
     }
 
     public void fetchRandom(byte[] buffer) {
-        sr.nextBytes(buffer);
+        try {
+            getDrbg().generate(buffer, null);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, e.getMessage(), e);
+            sr.nextBytes(buffer);
+        }
+    }
+
+    private HmacDrbg getDrbg() throws GeneralSecurityException {
+        ThreadDrbg state = drbgs.get();
+        int generation = harvestGeneration;
+        byte[] harvested = harvestedEntropy;
+        if(state == null) {
+            byte[] personalization = ByteBuffer.allocate(16)
+                    .putLong(Thread.currentThread().getId())
+                    .putLong(System.nanoTime())
+                    .array();
+            if(harvested != null) {
+                personalization = EncryptionUtils.combine(personalization, harvested);
+            }
+            state = new ThreadDrbg(new HmacDrbg(seed(SEED_BYTES), seed(NONCE_BYTES), personalization), generation);
+            drbgs.set(state);
+        } else if(state.drbg.getReseedCounter() > RESEED_REQUESTS ||
+                SystemClock.elapsedRealtime() - state.seedTime > RESEED_INTERVAL_MS ||
+                state.seedGeneration != generation) {
+            state.drbg.reseed(seed(SEED_BYTES), harvested);
+            state.seedTime = SystemClock.elapsedRealtime();
+            state.seedGeneration = generation;
+        }
+        return state.drbg;
+    }
+
+    private byte[] seed(int length) {
+        byte[] seed = new byte[length];
+        sr.nextBytes(seed);
+        return seed;
     }
 
     public void startGather() {
-        this.numberOfBytesGathered = BigInteger.ZERO;
+        synchronized (md) {
+            this.numberOfBytesGathered = 0;
+            this.estimator.reset();
+            this.gathering = true;
+            this.gatherComplete = false;
+            this.sourceDegenerate = false;
+        }
     }
 
     public void addEntropy(ProgressBar progressBar, byte[] bytes) {
-        md.update(bytes);
-        numberOfBytesGathered = numberOfBytesGathered.add(BigInteger.valueOf(bytes.length));
+        int progress;
+        synchronized (md) {
+            md.update(bytes);
+            numberOfBytesGathered += bytes.length;
+            progress = estimate(ByteBuffer.wrap(bytes));
+        }
         if(progressBar != null) {
-            progressBar.setProgress(Math.round(numberOfBytesGathered.longValue() / 1_000_000));
+            progressBar.setProgress(progress);
+        }
+    }
+
+    /**
+     * Hands a camera frame over to be hashed on the worker thread. Frames that arrive while the
+     * worker is still busy with earlier ones, or when nothing is being gathered, are not hashed
+     * and go straight back to the recycler. Frames still get hashed after gathering is complete,
+     * they just don't move the progress any further.
+     *
+     * @param progressBar   Progress bar to update on the main thread, at most every 100 ms.
+     * @param frame         Frame data, not to be touched until it is recycled.
+     * @param recycler      Gets the frame back once it is no longer used.
+     * @return              True if the frame is going to be hashed.
+     */
+    public boolean addFrame(ProgressBar progressBar, byte[] frame, FrameRecycler recycler) {
+        return addFrame(progressBar, ByteBuffer.wrap(frame), () -> recycler.recycle(frame));
+    }
+
+    /**
+     * Hands the remaining bytes of a camera frame over to be hashed on the worker thread, like
+     * {@link #addFrame(ProgressBar, byte[], FrameRecycler)}.
+     *
+     * @param progressBar   Progress bar to update on the main thread, at most every 100 ms.
+     * @param frame         Frame data, not to be touched until it is released.
+     * @param release       Run once the frame is no longer used, on any thread.
+     * @return              True if the frame is going to be hashed.
+     */
+    public boolean addFrame(ProgressBar progressBar, ByteBuffer frame, Runnable release) {
+        if(!gathering) {
+            release.run();
+            return false;
+        }
+        if(framesInFlight.incrementAndGet() > MAX_FRAMES_IN_FLIGHT) {
+            framesInFlight.decrementAndGet();
+            release.run();
+            return false;
         }
+
+        hashExecutor.execute(() -> {
+            try {
+                int progress;
+                synchronized (md) {
+                    if(!gathering) return;
+                    numberOfBytesGathered += frame.remaining();
+                    progress = estimate(frame);
+                    md.update(frame);
+                }
+                postProgress(progressBar, progress);
+            } finally {
+                framesInFlight.decrementAndGet();
+                release.run();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Credits the estimated entropy of the data, must be called holding the md lock.
+     *
+     * @return  Progress towards TARGET_ENTROPY_BITS, in percent.
+     */
+    private int estimate(ByteBuffer data) {
+        estimator.addFrame(data);
+        sourceDegenerate = estimator.isDegenerate();
+        double bits = estimator.getEntropyBits();
+        if(bits >= TARGET_ENTROPY_BITS) {
+            gatherComplete = true;
+        }
+        return (int) Math.min(100, bits * 100 / TARGET_ENTROPY_BITS);
+    }
+
+    /**
+     * @return  True once enough entropy has been estimated since the last startGather.
+     */
+    public boolean isGatherComplete() {
+        return gatherComplete;
+    }
+
+    /**
+     * @return  True while the latest frames fail the health tests, like a covered or frozen camera.
+     */
+    public boolean isSourceDegenerate() {
+        return sourceDegenerate;
+    }
+
+    private void postProgress(ProgressBar progressBar, int progress) {
+        long now = SystemClock.elapsedRealtime();
+        if(progressBar == null || progress == postedProgress || now - postedProgressTime < PROGRESS_INTERVAL_MS) {
+            return;
+        }
+        postedProgress = progress;
+        postedProgressTime = now;
+        progressBar.post(() -> progressBar.setProgress(progress));
     }
 
     public void digestEntropy() {
-        byte[] entropyBytes = md.digest();
+        byte[] entropyBytes;
+        synchronized (md) {
+            gathering = false;
+            entropyBytes = md.digest();
+        }
         sr.setSeed(entropyBytes);
+        harvestedEntropy = entropyBytes;
+        harvestGeneration++;
     }
 }
@@ -0,0 +1,31 @@
+package org.ea.sqrl.processors;
+
+import android.view.ViewGroup;
+
+/**
+ * A camera feeding its frames to the EntropyHarvester while showing a preview of what it sees.
+ * Both implementations open the camera when started and release it again when stopped, so they
+ * follow the resume and pause of the activity showing them.
+ */
+public interface EntropySource {
+    /**
+     * Called on the main thread every time a frame has been handed back by the harvester.
+     */
+    interface Listener {
+        void onFrameDone();
+    }
+
+    /**
+     * Adds the preview to the layout, opens the camera and starts passing frames on.
+     *
+     * @param previewLayout     Layout to show the preview in.
+     * @param listener          Told about every frame done with.
+     * @return                  False if no camera could be opened.
+     */
+    boolean start(ViewGroup previewLayout, Listener listener);
+
+    /**
+     * Stops passing frames on, releases the camera and removes the preview again.
+     */
+    void stop();
+}
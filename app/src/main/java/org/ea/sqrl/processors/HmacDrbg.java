@@ -0,0 +1,139 @@
+package org.ea.sqrl.processors;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HMAC_DRBG with HMAC-SHA-512 as specified in NIST SP 800-90A, without prediction resistance.
+ * Producing bytes is only a few HMAC calls and never waits for the system, all the entropy comes
+ * in through the seed and reseeds. An instance is not thread safe, EntropyHarvester keeps one per
+ * thread.
+ */
+public class HmacDrbg {
+    private static final String ALGORITHM = "HmacSHA512";
+    public static final int SECURITY_STRENGTH_BYTES = 32;
+    public static final int MAX_BYTES_PER_REQUEST = 1 << 16;
+    public static final long RESEED_INTERVAL = 1L << 48;
+
+    private final Mac mac;
+    private final byte[] key;
+    private final byte[] value;
+    private long reseedCounter;
+
+    /**
+     * @param entropy           At least 32 bytes of entropy from an approved source.
+     * @param nonce             At least 16 bytes, which must not repeat for the same entropy.
+     * @param personalization   Optional data making this instance unique, may be null.
+     */
+    public HmacDrbg(byte[] entropy, byte[] nonce, byte[] personalization) throws GeneralSecurityException {
+        if(entropy.length < SECURITY_STRENGTH_BYTES) {
+            throw new IllegalArgumentException("Not enough entropy");
+        }
+        mac = Mac.getInstance(ALGORITHM);
+        key = new byte[mac.getMacLength()];
+        value = new byte[mac.getMacLength()];
+        Arrays.fill(value, (byte) 0x01);
+        update(entropy, nonce, personalization);
+        reseedCounter = 1;
+    }
+
+    /**
+     * @return  True when the instance has produced as many requests as it may on one seed.
+     */
+    public boolean needsReseed() {
+        return reseedCounter > RESEED_INTERVAL;
+    }
+
+    public long getReseedCounter() {
+        return reseedCounter;
+    }
+
+    /**
+     * Mixes new entropy into the state and starts a new reseed interval.
+     *
+     * @param entropy       At least 32 bytes of entropy from an approved source.
+     * @param additional    Optional additional input, may be null.
+     */
+    public void reseed(byte[] entropy, byte[] additional) {
+        if(entropy.length < SECURITY_STRENGTH_BYTES) {
+            throw new IllegalArgumentException("Not enough entropy");
+        }
+        update(entropy, additional, null);
+        reseedCounter = 1;
+    }
+
+    /**
+     * Fills the buffer with pseudo random bytes. Buffers longer than MAX_BYTES_PER_REQUEST are
+     * filled using several requests.
+     *
+     * @param buffer        Buffer to fill.
+     * @param additional    Optional additional input, may be null.
+     * @throws IllegalStateException  If the instance needs to be reseeded first.
+     */
+    public void generate(byte[] buffer, byte[] additional) {
+        for(int offset = 0; offset < buffer.length; offset += MAX_BYTES_PER_REQUEST) {
+            generate(buffer, offset, Math.min(MAX_BYTES_PER_REQUEST, buffer.length - offset), additional);
+        }
+    }
+
+    private void generate(byte[] buffer, int offset, int length, byte[] additional) {
+        if(needsReseed()) {
+            throw new IllegalStateException("Reseed required");
+        }
+        if(additional != null && additional.length > 0) {
+            update(additional, null, null);
+        }
+        int produced = 0;
+        while(produced < length) {
+            hmac(value, null, null, null, value);
+            int count = Math.min(value.length, length - produced);
+            System.arraycopy(value, 0, buffer, offset + produced, count);
+            produced += count;
+        }
+        update(additional, null, null);
+        reseedCounter++;
+    }
+
+    /**
+     * The HMAC_DRBG update function, with the provided data given as up to three parts that
+     * are concatenated.
+     */
+    private void update(byte[] data1, byte[] data2, byte[] data3) {
+        boolean hasData = length(data1) + length(data2) + length(data3) > 0;
+        updateRound((byte) 0x00, data1, data2, data3);
+        if(hasData) {
+            updateRound((byte) 0x01, data1, data2, data3);
+        }
+    }
+
+    private void updateRound(byte separator, byte[] data1, byte[] data2, byte[] data3) {
+        byte[] prefix = new byte[value.length + 1];
+        System.arraycopy(value, 0, prefix, 0, value.length);
+        prefix[value.length] = separator;
+        hmac(prefix, data1, data2, data3, key);
+        hmac(value, null, null, null, value);
+        Arrays.fill(prefix, (byte) 0);
+    }
+
+    private void hmac(byte[] data0, byte[] data1, byte[] data2, byte[] data3, byte[] result) {
+        try {
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            mac.update(data0);
+            if(data1 != null) mac.update(data1);
+            if(data2 != null) mac.update(data2);
+            if(data3 != null) mac.update(data3);
+            mac.doFinal(result, 0);
+        } catch (InvalidKeyException | ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int length(byte[] data) {
+        return data == null ? 0 : data.length;
+    }
+}
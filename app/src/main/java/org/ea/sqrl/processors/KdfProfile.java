@@ -0,0 +1,228 @@
+package org.ea.sqrl.processors;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import org.ea.sqrl.utils.SqrlApplication;
+import org.libsodium.jni.Sodium;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What scrypt costs on this device, for every logN factor calibrated. A calibration runs EnScrypt
+ * iterations for a few seconds and keeps two numbers:
+ *
+ * - cold, the first iteration, which loads the native code and allocates the scrypt memory.
+ * - sustained, the mean iteration at the end of the run, after any thermal throttling.
+ *
+ * With a profile, encryption turns its budget in seconds into an iteration count up front. The
+ * progress then counts iterations, and the unlock time is known before the first one. Encrypting
+ * by time, without a profile, still teaches the profile the sustained speed. The sustained speed
+ * is also what the EnScryptTimingModel estimates the time left of a decryption from, until it
+ * has timed one itself. The profile belongs to the build of the device and is dropped when the
+ * system is updated.
+ */
+public class KdfProfile {
+    private static final String TAG = "KdfProfile";
+    private static final String PREFERENCE_PREFIX = "kdf_profile_";
+    private static final String PREFERENCE_FINGERPRINT = "kdf_profile_fingerprint";
+    private static final int MAX_LOG_N_FACTOR = 31;
+    private static final long CALIBRATION_NANOS = 3_000_000_000L;
+    private static final int MAX_CALIBRATION_ITERATIONS = 1000;
+    static final double SMOOTHING = 0.3;
+
+    public static final int DEFAULT_LOG_N_FACTOR = 9;
+
+    /**
+     * Iteration times of one logN factor, in nanoseconds.
+     */
+    static class Entry {
+        final long coldNanos;
+        final long sustainedNanos;
+
+        Entry(long coldNanos, long sustainedNanos) {
+            this.coldNanos = coldNanos;
+            this.sustainedNanos = sustainedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return coldNanos + "," + sustainedNanos;
+        }
+
+        static Entry parse(String value) {
+            if(value == null) return null;
+            String[] parts = value.split(",");
+            if(parts.length != 2) return null;
+            try {
+                return new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static KdfProfile instance = null;
+
+    private final SharedPreferences preferences;
+    private final Entry[] entries = new Entry[MAX_LOG_N_FACTOR + 1];
+    private final ExecutorService calibrationExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "KdfCalibration");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean calibrationCancelled = false;
+    private boolean calibrating = false;
+
+    public static synchronized KdfProfile getInstance(Context context) {
+        if(instance == null) {
+            instance = new KdfProfile(context.getApplicationContext()
+                    .getSharedPreferences(SqrlApplication.APPS_PREFERENCES, Context.MODE_PRIVATE));
+        }
+        return instance;
+    }
+
+    /**
+     * @param preferences   Preferences to keep the profile in, or null to keep it in memory.
+     */
+    KdfProfile(SharedPreferences preferences) {
+        this.preferences = preferences;
+        if(preferences != null && Build.FINGERPRINT != null &&
+                Build.FINGERPRINT.equals(preferences.getString(PREFERENCE_FINGERPRINT, null))) {
+            for(int logN = 0; logN <= MAX_LOG_N_FACTOR; logN++) {
+                entries[logN] = Entry.parse(preferences.getString(PREFERENCE_PREFIX + logN, null));
+            }
+        }
+    }
+
+    public synchronized boolean isCalibrated(int logNFactor) {
+        return getEntry(logNFactor) != null;
+    }
+
+    synchronized Entry getEntry(int logNFactor) {
+        if(logNFactor < 0 || logNFactor > MAX_LOG_N_FACTOR) return null;
+        return entries[logNFactor];
+    }
+
+    /**
+     * Calibrates the logN factor on a background thread, unless it already is calibrated or a
+     * calibration is running. The calibration stops early when cancelled.
+     */
+    public synchronized void calibrateInBackground(int logNFactor) {
+        if(calibrating || isCalibrated(logNFactor)) return;
+        calibrating = true;
+        calibrationCancelled = false;
+
+        calibrationExecutor.execute(() -> {
+            try {
+                Entry entry = calibrate(logNFactor);
+                if(entry != null) {
+                    setEntry(logNFactor, entry);
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, e.getMessage(), e);
+            } finally {
+                synchronized (this) {
+                    calibrating = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops a running calibration, so it doesn't compete with real work for the CPU.
+     */
+    public void cancelCalibration() {
+        calibrationCancelled = true;
+    }
+
+    private Entry calibrate(int logNFactor) {
+        byte[] password = new byte[32];
+        byte[] salt = new byte[16];
+        byte[] key = new byte[32];
+        long[] nanos = new long[MAX_CALIBRATION_ITERATIONS];
+
+        int count = 0;
+        long start = System.nanoTime();
+        long last = start;
+        while(count < nanos.length && last - start < CALIBRATION_NANOS) {
+            if(calibrationCancelled) return null;
+            Sodium.crypto_pwhash_scryptsalsa208sha256_ll(password, password.length, salt, salt.length, 1 << logNFactor, 256, 1, key, key.length);
+            long now = System.nanoTime();
+            nanos[count++] = now - last;
+            last = now;
+            salt = key.clone();
+        }
+        return summarize(nanos, count);
+    }
+
+    /**
+     * Turns the iteration times of a calibration into an entry. The first iteration is the cold
+     * one and the sustained one is the mean of the last quarter.
+     */
+    static Entry summarize(long[] nanos, int count) {
+        if(count < 2) return null;
+
+        int quarter = Math.max(1, (count - 1) / 4);
+        long sustained = 0;
+        for(int i = count - quarter; i < count; i++) {
+            sustained += nanos[i];
+        }
+        return new Entry(nanos[0], sustained / quarter);
+    }
+
+    /**
+     * Learns the sustained speed from an EnScrypt run made by time.
+     *
+     * @param logNFactor    The scrypt memory cost used.
+     * @param iterations    Number of iterations done, including the first one.
+     * @param millis        Time the run took.
+     */
+    public void addTimedRun(int logNFactor, int iterations, long millis) {
+        if(iterations < 2 || millis <= 0) return;
+
+        long nanos = millis * 1_000_000 / iterations;
+        Entry entry = getEntry(logNFactor);
+        if(entry == null) {
+            setEntry(logNFactor, new Entry(nanos, nanos));
+        } else {
+            long sustained = Math.round(entry.sustainedNanos + SMOOTHING * (nanos - entry.sustainedNanos));
+            setEntry(logNFactor, new Entry(entry.coldNanos, sustained));
+        }
+    }
+
+    /**
+     * @param logNFactor    The scrypt memory cost to use.
+     * @param seconds       Time the EnScrypt run should take on this device.
+     * @return              Number of iterations filling the time, or 0 if not calibrated.
+     */
+    public int getIterationCount(int logNFactor, int seconds) {
+        return iterationCount(getEntry(logNFactor), seconds);
+    }
+
+    /**
+     * The first iteration is paid at the cold cost, and all of the others at the sustained one,
+     * as a run long enough to matter ends up throttled as much as the calibration did.
+     */
+    static int iterationCount(Entry entry, int seconds) {
+        if(entry == null || entry.sustainedNanos <= 0) return 0;
+
+        long budget = seconds * 1_000_000_000L - entry.coldNanos;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, 1 + budget / entry.sustainedNanos));
+    }
+
+    private synchronized void setEntry(int logNFactor, Entry entry) {
+        if(logNFactor < 0 || logNFactor > MAX_LOG_N_FACTOR) return;
+        entries[logNFactor] = entry;
+
+        if(preferences != null) {
+            preferences.edit()
+                    .putString(PREFERENCE_FINGERPRINT, Build.FINGERPRINT)
+                    .putString(PREFERENCE_PREFIX + logNFactor, entry.toString())
+                    .apply();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.ea.sqrl.processors;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+
+import java.io.IOException;
+
+/**
+ * Entropy source using the old camera API, for devices before Lollipop or with only legacy
+ * Camera2 support. The preview callback fills a few buffers of our own, which go back to the
+ * camera once the harvester has hashed them.
+ */
+public class LegacyCameraEntropySource implements EntropySource {
+    private static final String TAG = "LegacyCameraEntropy";
+    private static final int FRAME_BUFFER_COUNT = 3;
+
+    private final Context context;
+    private final EntropyHarvester entropyHarvester;
+    private final ProgressBar progressBar;
+
+    private Camera mCamera;
+    private CameraPreview mPreview;
+    private ViewGroup mPreviewLayout;
+
+    public LegacyCameraEntropySource(Context context, EntropyHarvester entropyHarvester, ProgressBar progressBar) {
+        this.context = context;
+        this.entropyHarvester = entropyHarvester;
+        this.progressBar = progressBar;
+    }
+
+    @Override
+    public boolean start(ViewGroup previewLayout, Listener listener) {
+        if (mCamera == null) {
+            mCamera = getCameraInstance();
+        }
+        if (mCamera == null) {
+            return false;
+        }
+
+        if (mPreview == null) {
+            mPreviewLayout = previewLayout;
+            mPreview = new CameraPreview(context, mCamera, listener);
+            mPreviewLayout.addView(mPreview);
+        }
+
+        mCamera.startPreview();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+            mCamera.setPreviewCallback(null);
+            mCamera.release();
+            mCamera = null;
+        }
+
+        if (mPreview != null) {
+            mPreviewLayout.removeView(mPreview);
+            mPreview = null;
+        }
+    }
+
+    /** A safe way to get an instance of the Camera object. */
+    private static Camera getCameraInstance(){
+        Camera c = null;
+        try {
+            c = Camera.open();
+        } catch (Exception e){}
+        return c;
+    }
+
+    /** A basic Camera preview class */
+    private class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
+        private SurfaceHolder mHolder;
+        private Camera mCamera;
+        private Listener mListener;
+
+        public CameraPreview(Context context, Camera camera, Listener listener) {
+            super(context);
+            mCamera = camera;
+            mListener = listener;
+            mHolder = getHolder();
+            mHolder.addCallback(this);
+        }
+
+        public void surfaceCreated(SurfaceHolder holder) {
+            try {
+                if(mCamera != null) {
+                    mCamera.setPreviewDisplay(holder);
+
+                    /*
+                     * Let the camera fill a few buffers of our own instead of allocating a new
+                     * one for every frame. The harvester hashes them on its own thread and hands
+                     * them back, and while all of them are busy the camera skips frames.
+                     */
+                    Camera.Parameters parameters = mCamera.getParameters();
+                    Camera.Size previewSize = parameters.getPreviewSize();
+                    int frameSize = previewSize.width * previewSize.height *
+                            ImageFormat.getBitsPerPixel(parameters.getPreviewFormat()) / 8;
+                    for (int i = 0; i < FRAME_BUFFER_COUNT; i++) {
+                        mCamera.addCallbackBuffer(new byte[frameSize]);
+                    }
+                    mCamera.setPreviewCallbackWithBuffer((data, camera) -> {
+                        entropyHarvester.addFrame(progressBar, data, this::recycleFrame);
+                    });
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Error setting camera preview: " + e.getMessage());
+            }
+        }
+
+        private void recycleFrame(byte[] frame) {
+            post(() -> {
+                if (mCamera != null && mCamera == LegacyCameraEntropySource.this.mCamera) {
+                    mCamera.addCallbackBuffer(frame);
+                }
+                mListener.onFrameDone();
+            });
+        }
+
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            holder.removeCallback(this);
+        }
+
+        public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) { }
+    }
+}
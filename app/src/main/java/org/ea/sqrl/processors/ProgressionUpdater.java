@@ -2,35 +2,65 @@ package org.ea.sqrl.processors;
 
 import android.graphics.Color;
 import android.os.Handler;
+import android.view.Choreographer;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import org.ea.sqrl.R;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Locale;
-import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Small class to handle the progression of a decryption process. We show the time and
  * progress bar to the user so they know the application are working on their identity.
  *
+ * The KDF reports every iteration, which can be thousands a second. Those calls only update
+ * the state below and ask for a redraw if none is pending yet, so they never wait for the UI.
+ * The views are updated once per display frame at most, from the latest state, and the text is
+ * only formatted again when the number of seconds shown changes.
+ *
+ * The time left of an iteration count run comes from the EnScryptTimingModel, or the KdfProfile
+ * before the model has timed the logN factor, mixed with the iterations timed during the run, so
+ * it is known before the first iteration is done and gets better while the run goes on.
+ *
  * @author Daniel Persson
  */
 public class ProgressionUpdater {
     private static final String TAG = "ProgressionUpdater";
 
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    private static final int TEXT_NONE = 0;
+    private static final int TEXT_TIME_LEFT = 1;
+    private static final int TEXT_TIME_ELAPSED = 2;
+
     private Handler handler;
     private ProgressBar progressBar;
     private TextView progressTitle;
     private TextView progressText;
-    private int max;
-    private long startTime;
-    private long endTime;
+    private EnScryptTimingModel timingModel;
+    private volatile int max;
+    private volatile int timedLogNFactor = -1;
+    private long lastIterationTime;
+    private volatile long warmUpNanos;
+    private volatile long runNanos;
+    private volatile int runCount;
+    private volatile long timeDone;
+    private volatile int textMode = TEXT_NONE;
+    private final AtomicInteger progress = new AtomicInteger();
+    private final AtomicBoolean frameRequested = new AtomicBoolean();
     private boolean dummy = false;
 
+    private int shownMax = -1;
+    private int shownProgress = -1;
+    private int shownTextMode = -1;
+    private long shownSeconds = -1;
+
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> {
+        frameRequested.set(false);
+        render();
+    };
+
     public ProgressionUpdater() {
         dummy = true;
     }
@@ -41,12 +71,28 @@ public class ProgressionUpdater {
         this.progressBar = progressBar;
         this.progressTitle = progressTitle;
         this.progressText = progressText;
+        this.timingModel = EnScryptTimingModel.getInstance(progressText.getContext());
     }
 
     public String getTimeLeft() {
-        sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-        long timeLeftInMilliSeconds = (endTime - startTime) * (max - progressBar.getProgress());
-        return sdf.format(new Date(timeLeftInMilliSeconds));
+        return formatTime(getTimeLeftInMilliSeconds());
+    }
+
+    private long getTimeLeftInMilliSeconds() {
+        int logNFactor = timedLogNFactor;
+        if(logNFactor < 0) return 0;
+
+        long iterationNanos = EnScryptTimingModel.estimateIterationNanos(
+                timingModel.getIterationNanos(logNFactor), runNanos, runCount, warmUpNanos);
+        return Math.max(0, iterationNanos * (max - progress.get()) / 1_000_000);
+    }
+
+    /**
+     * Formats a time as HH:mm:ss, like the clock the progress used to be shown with.
+     */
+    private static String formatTime(long timeInMilliSeconds) {
+        long seconds = timeInMilliSeconds / 1000;
+        return String.format(Locale.US, "%02d:%02d:%02d", (seconds / 3600) % 24, (seconds / 60) % 60, seconds % 60);
     }
 
     public String getString(int res, String s) {
@@ -56,13 +102,10 @@ public class ProgressionUpdater {
     public void setTimeDone(long timeInMilliSeconds) {
         if(dummy) return;
 
-        int timeInSeconds = Math.round(timeInMilliSeconds / 1000f);
-        handler.post(() -> {
-            sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
-            progressText.setTextColor(Color.GRAY);
-            progressText.setText(getString(R.string.progress_time_elapsed, sdf.format(new Date(timeInMilliSeconds))));
-            progressBar.setProgress(timeInSeconds);
-        });
+        timeDone = timeInMilliSeconds;
+        progress.set(Math.round(timeInMilliSeconds / 1000f));
+        textMode = TEXT_TIME_ELAPSED;
+        requestFrame();
     }
 
     public void setState(int state) {
@@ -73,43 +116,113 @@ public class ProgressionUpdater {
 
     public void incrementProgress() {
         if(dummy) return;
-        handler.post(() -> {
-            progressBar.incrementProgressBy(1);
-            progressText.setTextColor(Color.GRAY);
-            progressText.setText(getString(R.string.progress_time_left, getTimeLeft()));
-        });
+
+        timeIteration();
+        progress.incrementAndGet();
+        textMode = TEXT_TIME_LEFT;
+        requestFrame();
     }
 
-    public void startTimer() {
-        this.startTime = System.currentTimeMillis();
+    /**
+     * Starts timing the iterations of a run, each ending with a call to incrementProgress.
+     *
+     * @param logNFactor    The scrypt memory cost of the run.
+     */
+    public void startTimer(int logNFactor) {
+        if(dummy) return;
+
+        lastIterationTime = System.nanoTime();
+        warmUpNanos = 0;
+        runNanos = 0;
+        runCount = 0;
+        timedLogNFactor = logNFactor;
+        requestFrame();
     }
 
-    public void endTimer() {
-        this.endTime = System.currentTimeMillis();
+    /**
+     * Times the iteration just done, and stores the timing model when the run is done.
+     */
+    private void timeIteration() {
+        int logNFactor = timedLogNFactor;
+        if(logNFactor < 0) return;
+
+        long now = System.nanoTime();
+        long nanos = now - lastIterationTime;
+        lastIterationTime = now;
+        if(warmUpNanos == 0) {
+            warmUpNanos = nanos;
+        } else {
+            timingModel.addIteration(logNFactor, nanos);
+            runNanos += nanos;
+            runCount++;
+        }
+        if(progress.get() + 1 >= max) {
+            timingModel.save();
+        }
     }
 
     public void setMax(int max) {
         if(dummy) return;
-        this.max = max;
 
-        handler.post(() -> {
-            progressBar.setMax(max);
-            progressBar.setProgress(0);
-            progressText.setTextColor(Color.GRAY);
-            progressText.setText(getString(R.string.progress_time_left, getTimeLeft()));
-        });
+        this.max = max;
+        this.timedLogNFactor = -1;
+        progress.set(0);
+        textMode = TEXT_TIME_LEFT;
+        requestFrame();
     }
 
     public void clear() {
         if(dummy) return;
 
         this.max = 1;
+        this.timedLogNFactor = -1;
+        progress.set(0);
+        textMode = TEXT_NONE;
+        requestFrame();
+    }
+
+    /**
+     * Asks for the views to be updated on the next display frame, unless that is already asked
+     * for. Only the first call after a frame costs a post to the main thread.
+     */
+    private void requestFrame() {
+        if(frameRequested.compareAndSet(false, true)) {
+            handler.post(() -> Choreographer.getInstance().postFrameCallback(frameCallback));
+        }
+    }
 
-        handler.post(() -> {
-            progressBar.setMax(1);
-            progressBar.setProgress(0);
-            progressText.setTextColor(Color.GRAY);
+    /**
+     * Shows the latest state, touching only the views that changed. Runs on the main thread.
+     */
+    private void render() {
+        int max = this.max;
+        int progress = this.progress.get();
+        int textMode = this.textMode;
+
+        if(max != shownMax) {
+            progressBar.setMax(max);
+            shownMax = max;
+        }
+        if(progress != shownProgress) {
+            progressBar.setProgress(progress);
+            shownProgress = progress;
+        }
+
+        long time = textMode == TEXT_TIME_ELAPSED ? timeDone : getTimeLeftInMilliSeconds();
+        long seconds = textMode == TEXT_NONE ? 0 : time / 1000;
+        if(textMode == shownTextMode && seconds == shownSeconds) {
+            return;
+        }
+        shownTextMode = textMode;
+        shownSeconds = seconds;
+
+        progressText.setTextColor(Color.GRAY);
+        if(textMode == TEXT_TIME_ELAPSED) {
+            progressText.setText(getString(R.string.progress_time_elapsed, formatTime(time)));
+        } else if(textMode == TEXT_TIME_LEFT) {
+            progressText.setText(getString(R.string.progress_time_left, formatTime(time)));
+        } else {
             progressText.setText("");
-        });
+        }
     }
 }
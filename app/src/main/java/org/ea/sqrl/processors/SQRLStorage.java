@@ -4,40 +4,48 @@ import android.app.NotificationManager;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.preference.PreferenceManager;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
-import android.util.Base64;
 import android.util.Log;
 
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.base.BaseActivity;
-import org.ea.sqrl.jni.Grc_aesgcm;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.IdentityData;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.identity.UnlockKeys;
+import org.ea.sqrl.database.IdentityDBHelper;
+import org.ea.sqrl.database.SiteUsage;
 import org.ea.sqrl.utils.EncryptionUtils;
+import org.ea.sqrl.utils.SodiumCrypto;
 import org.ea.sqrl.utils.SqrlApplication;
-import org.libsodium.jni.NaCl;
 import org.libsodium.jni.Sodium;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.Key;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.spec.RSAKeyGenParameterSpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import static java.security.spec.RSAKeyGenParameterSpec.F4;
@@ -51,17 +59,16 @@ import static java.security.spec.RSAKeyGenParameterSpec.F4;
  */
 public class SQRLStorage {
     private static final String TAG = "SQRLStorage";
-    public static final String STORAGE_HEADER = "sqrldata";
-    public static final String STORAGE_HEADER_BASE64 = "SQRLDATA";
+    public static final String STORAGE_HEADER = IdentityData.HEADER;
+    public static final String STORAGE_HEADER_BASE64 = IdentityData.HEADER_BASE64;
     public static final String NEW_IDENTITY = "new_identity";
     private static final int PASSWORD_PBKDF = 1;
     private static final int RESCUECODE_PBKDF = 2;
     private static final int PREVIOUS_IDENTITY_KEYS = 3;
-    private static final int HEADER_LENGTH = 8;
     private static final int BLOCK_LENGTH_SIZE = 2;
     private final Context context;
+    private final SqrlCrypto crypto;
     private ProgressionUpdater progressionUpdater;
-    private int passwordBlockLength = 0;
     private static SQRLStorage instance = null;
 
     private byte[] tempRescueCode;
@@ -74,8 +81,7 @@ public class SQRLStorage {
 
     private SQRLStorage(Context context) {
         this.context = context;
-        Grc_aesgcm.gcm_initialize();
-        NaCl.sodium();
+        this.crypto = SodiumCrypto.getInstance();
     }
 
     public static SQRLStorage getInstance(Context context) {
@@ -93,6 +99,14 @@ public class SQRLStorage {
         previousKeyIndex++;
     }
 
+    public int getPreviousKeyIndex() {
+        return previousKeyIndex;
+    }
+
+    public int getPreviousKeyCount() {
+        return previousCountOfKeys;
+    }
+
     public void loginWithPreviousKey() {
         this.loginWithPreviousKey = true;
     }
@@ -164,79 +178,25 @@ public class SQRLStorage {
         return !Arrays.equals(identityData, oldData);
     }
 
+    /**
+     * Reads the identity with the parser in the core library, so we parse identities the same
+     * way as the tools that run outside of the app.
+     */
     public void read(byte[] input) throws Exception {
         this.cleanIdentity();
-        String header = new String(Arrays.copyOfRange(input, 0, 8));
+        IdentityData identity = IdentityData.read(input);
 
-        hasIdentityBlock = false;
-        hasRescueBlock = false;
-        hasPreviousBlock = false;
-        passwordBlockLength = 0;
-
-        if (STORAGE_HEADER_BASE64.equals(header)) {
-            input = base64UrlDecodeIdentity(input);
-            if (input == null) throw new Exception("Invalid base64 identity format");
-            header = new String(Arrays.copyOfRange(input, 0, 8));
-        }
-        if (!STORAGE_HEADER.equals(header)) throw new Exception("Incorrect header");
-        int readOffset = 8;
-        int readLen = readOffset + 2;
-        while (input.length > readLen) {
-            int headerFix = readOffset > 0 ? 0 : 8;
-            int len = getIntFromTwoBytes(input, readOffset + headerFix);
-            if (readOffset + len > input.length)
-                throw new Exception(
-                        "Incorrect length of block offset " + readOffset + " len " + len + " input len "+input.length
-                );
-
-            handleBlock(Arrays.copyOfRange(input, readOffset + headerFix, readOffset + len - headerFix));
-            readOffset += len;
-            readLen = readOffset + 2;
+        if(identity.getPasswordBlock() != null) {
+            handleIdentityBlock(identity.getPasswordBlock());
         }
-
-        String inputString = EncryptionUtils.encodeBase56(Arrays.copyOfRange(input, HEADER_LENGTH + passwordBlockLength, input.length));
-        verifyingRecoveryBlock = fixString(inputString);
-    }
-
-    /**
-     * Decodes a SQRL identity which was base64-url encoded, which is signalled by the
-     * uppercase header 'SQRLDATA'
-     *
-     * @param input The full base64-url encoded identity data, including the plaintext header.
-     * @return The identity data decoded to the standard SQRL binary format, or null on error.
-     */
-    public byte[] base64UrlDecodeIdentity(byte[] input) {
-        if (input.length < HEADER_LENGTH) return null;
-        String header = new String(Arrays.copyOfRange(input, 0, 8));
-        if (!header.equals(STORAGE_HEADER_BASE64)) return null;
-
-        byte[] data = Arrays.copyOfRange(input, HEADER_LENGTH, input.length);
-        if (data.length < 1) return null;
-
-        // The SQRL spec allows for the base64url-illegal characters CR, LF, TAB and SPACE
-        // to be present in the input data and specifies that they should be silently ignored
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        for (int i=0; i<data.length; i++) {
-            if (data[i] == 10 || // LF
-                data[i] == 13 || // CR
-                data[i] == 9  || // TAB
-                data[i] == 11 )  // SPACE
-                continue;
-            bos.write(data[i]);
+        if(identity.getRescueBlock() != null) {
+            handleRecoveryBlock(identity.getRescueBlock());
         }
-
-        byte[] decodedData = Base64.decode(bos.toByteArray(), Base64.URL_SAFE);
-
-        try {
-            bos = new ByteArrayOutputStream();
-            bos.write(STORAGE_HEADER.getBytes()); // lowercase header
-            bos.write(decodedData);
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
+        if(identity.getPreviousKeysBlock() != null) {
+            handlePreviousIdentityBlock(identity.getPreviousKeysBlock());
         }
 
-        return bos.toByteArray();
+        verifyingRecoveryBlock = fixString(EncryptionUtils.encodeBase56(identity.getTextualBytes()));
     }
 
     /**
@@ -259,21 +219,20 @@ public class SQRLStorage {
     private byte[] identityMasterKey;
     private byte[] identityLockKey;
 
-    public void handleIdentityBlock(byte[] input) {
-        passwordBlockLength = input.length;
-        identityPlaintextLength = getIntFromTwoBytes(input, 4);
-        identityPlaintext = Arrays.copyOfRange(input, 0, identityPlaintextLength);
-        initializationVector = Arrays.copyOfRange(input, 6, 18);
-        randomSalt = Arrays.copyOfRange(input, 18, 34);
-        logNFactor = input[34];
-        iterationCount = getIntFromFourBytes(input, 35);
-        optionFlags = getIntFromTwoBytes(input, 39);
-        hintLength = input[41];
-        timeInSecondsToRunPWEnScryptOnPassword = input[42];
-        idleTimoutInMinutes = getIntFromTwoBytes(input, 43);
-        identityMasterKeyEncrypted = Arrays.copyOfRange(input, 45, 77);
-        identityLockKeyEncrypted = Arrays.copyOfRange(input, 77, 109);
-        identityVerificationTag = Arrays.copyOfRange(input, 109, 125);
+    private void handleIdentityBlock(IdentityData.PasswordBlock block) {
+        identityPlaintextLength = block.getPlaintextLength();
+        identityPlaintext = block.getPlaintext();
+        initializationVector = block.getInitializationVector();
+        randomSalt = block.getSalt();
+        logNFactor = (byte) block.getLogNFactor();
+        iterationCount = block.getIterationCount();
+        optionFlags = block.getOptionFlags();
+        hintLength = (byte) block.getHintLength();
+        timeInSecondsToRunPWEnScryptOnPassword = (byte) block.getPasswordVerifySeconds();
+        idleTimoutInMinutes = block.getIdleTimeoutMinutes();
+        identityMasterKeyEncrypted = block.getIdentityMasterKeyEncrypted();
+        identityLockKeyEncrypted = block.getIdentityLockKeyEncrypted();
+        identityVerificationTag = block.getVerificationTag();
         hasIdentityBlock = true;
     }
 
@@ -294,13 +253,13 @@ public class SQRLStorage {
         return verifyingRecoveryBlock;
     }
 
-    public void handleRecoveryBlock(byte[] input) throws Exception {
-        rescuePlaintext = Arrays.copyOfRange(input, 0, 25);
-        rescueRandomSalt = Arrays.copyOfRange(input, 4, 20);
-        rescueLogNFactor = input[20];
-        rescueIterationCount = getIntFromFourBytes(input, 21);
-        rescueIdentityUnlockKeyEncrypted = Arrays.copyOfRange(input, 25, 57);
-        rescueVerificationTag = Arrays.copyOfRange(input, 57, 73);
+    private void handleRecoveryBlock(IdentityData.RescueBlock block) {
+        rescuePlaintext = block.getPlaintext();
+        rescueRandomSalt = block.getSalt();
+        rescueLogNFactor = (byte) block.getLogNFactor();
+        rescueIterationCount = block.getIterationCount();
+        rescueIdentityUnlockKeyEncrypted = block.getIdentityUnlockKeyEncrypted();
+        rescueVerificationTag = block.getVerificationTag();
 
         hasRescueBlock = true;
     }
@@ -317,49 +276,31 @@ public class SQRLStorage {
     private byte[] previousKey4;
     private byte[] previousVerificationTag;
 
-    public void handlePreviousIdentityBlock(byte[] input) {
-        previousPlaintext = Arrays.copyOfRange(input, 0, 6);
-        previousCountOfKeys = getIntFromTwoBytes(input, 4);
+    private void handlePreviousIdentityBlock(IdentityData.PreviousKeysBlock block) {
+        previousPlaintext = block.getPlaintext();
+        previousCountOfKeys = block.getKeyCount();
 
-        int startValue = 6;
-        previousKey1Encrypted = Arrays.copyOfRange(input, startValue, startValue + 32);
-        startValue += 32;
+        if(previousCountOfKeys > 0) {
+            previousKey1Encrypted = block.getKeyEncrypted(0);
+        }
         if(previousCountOfKeys > 1) {
-            previousKey2Encrypted = Arrays.copyOfRange(input, startValue, startValue + 32);
-            startValue += 32;
+            previousKey2Encrypted = block.getKeyEncrypted(1);
         }
         if(previousCountOfKeys > 2) {
-            previousKey3Encrypted = Arrays.copyOfRange(input, startValue, startValue + 32);
-            startValue += 32;
+            previousKey3Encrypted = block.getKeyEncrypted(2);
         }
         if(previousCountOfKeys > 3) {
-            previousKey4Encrypted = Arrays.copyOfRange(input, startValue, startValue + 32);
-            startValue += 32;
+            previousKey4Encrypted = block.getKeyEncrypted(3);
         }
-        previousVerificationTag = Arrays.copyOfRange(input, startValue, startValue + 16);
+        previousVerificationTag = block.getVerificationTag();
 
         hasPreviousBlock = true;
     }
 
-    public void handleBlock(byte[] input) throws Exception {
-        int type = getIntFromTwoBytes(input, 2);
-
-        switch (type) {
-            case PASSWORD_PBKDF:
-                handleIdentityBlock(input);
-                break;
-            case RESCUECODE_PBKDF:
-                handleRecoveryBlock(input);
-                break;
-            case PREVIOUS_IDENTITY_KEYS:
-                handlePreviousIdentityBlock(input);
-                break;
-            default:
-                throw new Exception("Unknown type "+type);
-        }
-    }
-
     public void cleanIdentity() {
+        this.cancelPrecompute();
+        this.clearSiteKeys(siteKeys);
+        this.clearSiteKeys(previousSiteKeys);
         this.previousKeyIndex = 0;
         this.loginWithPreviousKey = false;
         this.identityPlaintextLength = -1;
@@ -419,10 +360,6 @@ public class SQRLStorage {
         this.hasPreviousBlock = false;
     }
 
-    private int getIntFromTwoBytes(byte[] input, int offset) {
-        return (input[offset] & 0xff) | ((input[offset + 1] & 0xff) << 8);
-    }
-
     private int getIntFromFourBytes(byte[] input, int offset) {
         return (input[offset] & 0xff) | ((input[offset + 1] & 0xff) << 8) | (input[offset + 2] & 0xff) << 16 | ((input[offset + 3] & 0xff) << 24);
     }
@@ -436,6 +373,30 @@ public class SQRLStorage {
         return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(input).array();
     }
 
+    /**
+     * Runs EnScrypt for about the given time on this device. With a calibrated KdfProfile the
+     * time is turned into an iteration count up front, otherwise it runs by the clock and the
+     * profile learns from it.
+     *
+     * @return  The iteration count as four bytes, followed by the key, like EncryptionUtils.enSCryptTime.
+     */
+    private byte[] enSCryptProfiled(String password, byte[] salt, int logNFactor, byte secondsToRun) throws Exception {
+        KdfProfile kdfProfile = KdfProfile.getInstance(context);
+        kdfProfile.cancelCalibration();
+
+        int profileIterationCount = kdfProfile.getIterationCount(logNFactor, secondsToRun & 0xFF);
+        if(profileIterationCount > 0) {
+            this.progressionUpdater.setMax(profileIterationCount);
+            byte[] key = EncryptionUtils.enSCryptIterations(password, salt, logNFactor, 32, profileIterationCount, this.progressionUpdater, null);
+            return EncryptionUtils.combine(getIntToFourBytes(profileIterationCount), key);
+        }
+
+        long startTime = System.currentTimeMillis();
+        byte[] encResult = EncryptionUtils.enSCryptTime(password, salt, logNFactor, 32, secondsToRun, this.progressionUpdater, null);
+        kdfProfile.addTimedRun(logNFactor, getIntFromFourBytes(encResult, 0), System.currentTimeMillis() - startTime);
+        return encResult;
+    }
+
     public boolean decryptIdentityKeyBiometric(Cipher cypher) throws Exception {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         String biometricKeyStringData = sharedPreferences.getString("biometricKey", null);
@@ -447,7 +408,7 @@ public class SQRLStorage {
         return decryptIdentityKeyInternal(key);
     }
 
-    private byte[] decryptIdentityKeyQuickPass(String password) {
+    private byte[] decryptIdentityKeyQuickPass(String password, CancellationSignal cancellationSignal) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
         String quickPassStringData = sharedPreferences.getString("quickpass", null);
         if(quickPassStringData == null) return null;
@@ -467,34 +428,12 @@ public class SQRLStorage {
         byte[] quickPassKey = null;
 
         try {
-            byte[] key = EncryptionUtils.enSCryptIterations(password, quickPassRandomSalt, logNFactor, 32, quickPassIterationCount, this.progressionUpdater);
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(key, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, quickPassInitializationVector);
-                cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
-                cipher.update(quickPassKeyEncrypted);
-                try {
-                    quickPassKey = cipher.doFinal(quickPassVerificationTag);
-                } catch (AEADBadTagException badTag) {
-                    return quickPassKey;
-                }
-            } else {
-                byte[] emptyPlainText = new byte[0];
-                quickPassKey = new byte[32];
-
-                Grc_aesgcm.gcm_setkey(key, key.length);
-                int res = Grc_aesgcm.gcm_auth_decrypt(
-                        quickPassInitializationVector, quickPassInitializationVector.length,
-                        emptyPlainText, emptyPlainText.length,
-                        quickPassKeyEncrypted, quickPassKey, quickPassKeyEncrypted.length,
-                        quickPassVerificationTag, quickPassVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return quickPassKey;
-            }
+            byte[] key = EncryptionUtils.enSCryptIterations(password, quickPassRandomSalt, logNFactor, 32, quickPassIterationCount, this.progressionUpdater, cancellationSignal);
+
+            quickPassKey = crypto.aesGcmDecrypt(key, quickPassInitializationVector, new byte[0], quickPassKeyEncrypted, quickPassVerificationTag);
+            if(quickPassKey == null) return null;
+        } catch (OperationCanceledException e) {
+            throw e;
         } catch (Exception e) {
             Log.e(SQRLStorage.TAG, e.getMessage(), e);
             return quickPassKey;
@@ -504,39 +443,17 @@ public class SQRLStorage {
 
     public boolean decryptIdentityKeyInternal(byte[] key) throws Exception{
         byte[] identityKeys = EncryptionUtils.combine(identityMasterKeyEncrypted, identityLockKeyEncrypted);
-        byte[] decryptionResult = new byte[identityKeys.length];
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            Key keySpec = new SecretKeySpec(key, "AES");
-            Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-            GCMParameterSpec params = new GCMParameterSpec(128, initializationVector);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
-            cipher.updateAAD(identityPlaintext);
-            cipher.update(identityKeys);
-            try {
-                decryptionResult = cipher.doFinal(identityVerificationTag);
-            } catch (AEADBadTagException badTag) {
-                return false;
-            }
-        } else {
-            Grc_aesgcm.gcm_setkey(key, key.length);
-            int res = Grc_aesgcm.gcm_auth_decrypt(
-                    initializationVector, initializationVector.length,
-                    identityPlaintext, identityPlaintextLength,
-                    identityKeys, decryptionResult, identityKeys.length,
-                    identityVerificationTag, identityVerificationTag.length
-            );
-            Grc_aesgcm.gcm_zero_ctx();
-
-            if (res == 0x55555555) return false;
-        }
+        byte[] decryptionResult = crypto.aesGcmDecrypt(key, initializationVector, identityPlaintext, identityKeys, identityVerificationTag);
+        if(decryptionResult == null) return false;
 
+        this.clearSiteKeys(siteKeys);
         identityMasterKey = Arrays.copyOfRange(decryptionResult, 0, 32);
         identityLockKey = Arrays.copyOfRange(decryptionResult, 32, 64);
 
-        if(hasPreviousBlock) {
-            return decryptPreviousBlock();
+        if(hasPreviousBlock && !decryptPreviousBlock()) {
+            return false;
         }
+        startPrecompute();
         return true;
     }
 
@@ -548,20 +465,38 @@ public class SQRLStorage {
      * @param password  Password used to unlock the master key.
      */
     public boolean decryptIdentityKey(String password, EntropyHarvester entropyHarvester, boolean quickPass) {
+        return decryptIdentityKey(password, entropyHarvester, quickPass, null);
+    }
+
+    /**
+     * @param cancellationSignal    Stops the KDF within one iteration, after which this returns
+     *                              false, or null. Make it before the work goes to another thread,
+     *                              so a cancel can't come before the run has it.
+     */
+    public boolean decryptIdentityKey(String password, EntropyHarvester entropyHarvester, boolean quickPass,
+                                      CancellationSignal cancellationSignal) {
         this.progressionUpdater.setState(R.string.progress_state_descrypting_identity);
         this.progressionUpdater.setMax(iterationCount);
         try {
+            long kdfStartTime = ConversationTimer.now();
             byte[] key = null;
             if(quickPass) {
-                key = this.decryptIdentityKeyQuickPass(password);
+                key = this.decryptIdentityKeyQuickPass(password, cancellationSignal);
             }
             if(key == null) {
-                key = EncryptionUtils.enSCryptIterations(password, randomSalt, logNFactor, 32, iterationCount, this.progressionUpdater);
+                key = EncryptionUtils.enSCryptIterations(password, randomSalt, logNFactor, 32, iterationCount, this.progressionUpdater, cancellationSignal);
+                ConversationStats.getInstance().record(ConversationTimer.Phase.KDF_UNLOCK, kdfStartTime);
                 this.encryptIdentityKeyQuickPass(password, key, entropyHarvester);
+                if(cancellationSignal != null) cancellationSignal.throwIfCanceled();
                 this.encryptIdentityKeyBiometric(key);
+            } else {
+                ConversationStats.getInstance().record(ConversationTimer.Phase.KDF_UNLOCK, kdfStartTime);
             }
 
             return decryptIdentityKeyInternal(key);
+        } catch (OperationCanceledException e) {
+            this.progressionUpdater.clear();
+            return false;
         } catch (Exception e) {
             Log.e(SQRLStorage.TAG, e.getMessage(), e);
             return false;
@@ -584,36 +519,13 @@ public class SQRLStorage {
                 identityKeys = EncryptionUtils.combine(identityKeys, previousKey4Encrypted);
             }
 
-            byte[] decryptionResult = new byte[identityKeys.length];
-
             byte[] nullBytes = new byte[12];
             Arrays.fill(nullBytes, (byte)0);
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(masterKey, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, nullBytes);
-                cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
-                cipher.updateAAD(previousPlaintext);
-                cipher.update(identityKeys);
-                try {
-                    decryptionResult = cipher.doFinal(previousVerificationTag);
-                } catch (AEADBadTagException badTag) {
-                    return false;
-                }
-            } else {
-                Grc_aesgcm.gcm_setkey(masterKey, masterKey.length);
-                int res = Grc_aesgcm.gcm_auth_decrypt(
-                        nullBytes, nullBytes.length,
-                        previousPlaintext, previousPlaintext.length,
-                        identityKeys, decryptionResult, identityKeys.length,
-                        previousVerificationTag, previousVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return false;
-            }
+            byte[] decryptionResult = crypto.aesGcmDecrypt(masterKey, nullBytes, previousPlaintext, identityKeys, previousVerificationTag);
+            if(decryptionResult == null) return false;
 
+            this.clearSiteKeys(previousSiteKeys);
             previousKey1 = Arrays.copyOfRange(decryptionResult, 0, 32);
             if(previousCountOfKeys > 1) {
                 previousKey2 = Arrays.copyOfRange(decryptionResult, 32, 64);
@@ -638,43 +550,32 @@ public class SQRLStorage {
      * @param rescueCode    Special rescueCode printed on paper in the format of 0000-0000-0000-0000-0000-0000
      */
     public boolean decryptUnlockKey(String rescueCode) {
+        return decryptUnlockKey(rescueCode, null);
+    }
+
+    /**
+     * @param cancellationSignal    Stops the KDF within one iteration, after which this returns
+     *                              false, or null. Make it before the work goes to another thread,
+     *                              so a cancel can't come before the run has it.
+     */
+    public boolean decryptUnlockKey(String rescueCode, CancellationSignal cancellationSignal) {
         this.progressionUpdater.setState(R.string.progress_state_descrypting_rescuecode_identity);
         this.progressionUpdater.setMax(rescueIterationCount);
         rescueCode = rescueCode.replaceAll("-", "");
 
         try {
-            byte[] key = EncryptionUtils.enSCryptIterations(rescueCode, rescueRandomSalt, rescueLogNFactor, 32, rescueIterationCount, this.progressionUpdater);
+            long kdfStartTime = ConversationTimer.now();
+            byte[] key = EncryptionUtils.enSCryptIterations(rescueCode, rescueRandomSalt, rescueLogNFactor, 32, rescueIterationCount, this.progressionUpdater, cancellationSignal);
+            ConversationStats.getInstance().record(ConversationTimer.Phase.KDF_UNLOCK, kdfStartTime);
 
             byte[] nullBytes = new byte[12];
             Arrays.fill(nullBytes, (byte)0);
 
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(key, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, nullBytes);
-                cipher.init(Cipher.DECRYPT_MODE, keySpec, params);
-                cipher.updateAAD(rescuePlaintext);
-                cipher.update(rescueIdentityUnlockKeyEncrypted);
-                try {
-                    rescueIdentityUnlockKey = cipher.doFinal(rescueVerificationTag);
-                } catch (AEADBadTagException badTag) {
-                    return false;
-                }
-            } else {
-                rescueIdentityUnlockKey = new byte[rescueIdentityUnlockKeyEncrypted.length];
-
-                Grc_aesgcm.gcm_setkey(key, key.length);
-                int res = Grc_aesgcm.gcm_auth_decrypt(
-                        nullBytes, nullBytes.length,
-                        rescuePlaintext, rescuePlaintext.length,
-                        rescueIdentityUnlockKeyEncrypted, rescueIdentityUnlockKey,
-                        rescueIdentityUnlockKeyEncrypted.length,
-                        rescueVerificationTag, rescueVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return false;
-            }
+            rescueIdentityUnlockKey = crypto.aesGcmDecrypt(key, nullBytes, rescuePlaintext, rescueIdentityUnlockKeyEncrypted, rescueVerificationTag);
+            if(rescueIdentityUnlockKey == null) return false;
+        } catch (OperationCanceledException e) {
+            this.progressionUpdater.clear();
+            return false;
         } catch (Exception e) {
             Log.e(SQRLStorage.TAG, e.getMessage(), e);
             return false;
@@ -699,67 +600,246 @@ public class SQRLStorage {
         return HMacSha256.doFinal(domain);
     }
 
-    public byte[] getPrivateKey(byte[] domain) throws Exception {
-        byte[] publicKey = new byte[32];
-        byte[] privateKey = new byte[64];
+    /*
+     * Labels for the keys protecting the login history. They start with a zero byte so they
+     * can never be the same as a crypt domain and give us a site key.
+     */
+    private static final byte[] HISTORY_HASH_LABEL = "\0login history hash".getBytes();
+    private static final byte[] HISTORY_SEAL_LABEL = "\0login history seal".getBytes();
 
-        Sodium.crypto_sign_seed_keypair(publicKey, privateKey, getKeySeed(domain));
-        return privateKey;
+    /**
+     * Hashes the crypt domain with a key derived from the identity master key, so the login
+     * history can't be matched against a list of known sites.
+     */
+    public byte[] getHistoryDomainHash(byte[] domain) throws Exception {
+        byte[] hashKey = getKeySeed(HISTORY_HASH_LABEL);
+        try {
+            final Mac HMacSha256 = Mac.getInstance("HmacSHA256");
+            HMacSha256.init(new SecretKeySpec(hashKey, "HmacSHA256"));
+            return HMacSha256.doFinal(domain);
+        } finally {
+            clearBytes(hashKey);
+        }
     }
 
-    public byte[] getPublicKey(byte[] domain) throws Exception {
-        byte[] publicKey = new byte[32];
-        byte[] privateKey = new byte[64];
+    /**
+     * Encrypts the crypt domain for the login history, so we can derive the site keys of the
+     * most used sites later on. The nonce is taken from the domain hash, which is unique for
+     * every domain.
+     */
+    public byte[] sealHistoryDomain(byte[] domainHash, byte[] domain) throws Exception {
+        byte[] sealKey = getKeySeed(HISTORY_SEAL_LABEL);
+        try {
+            byte[] nonce = Arrays.copyOf(domainHash, Sodium.crypto_secretbox_noncebytes());
+            byte[] sealedDomain = new byte[domain.length + Sodium.crypto_secretbox_macbytes()];
+            Sodium.crypto_secretbox_easy(sealedDomain, domain, domain.length, nonce, sealKey);
+            return sealedDomain;
+        } finally {
+            clearBytes(sealKey);
+        }
+    }
 
-        Sodium.crypto_sign_seed_keypair(publicKey, privateKey, getKeySeed(domain));
-        return publicKey;
+    /**
+     * @return  The crypt domain, or null if it wasn't sealed by this identity.
+     */
+    public byte[] openHistoryDomain(byte[] domainHash, byte[] sealedDomain) throws Exception {
+        int macBytes = Sodium.crypto_secretbox_macbytes();
+        if(sealedDomain == null || sealedDomain.length < macBytes) return null;
+
+        byte[] sealKey = getKeySeed(HISTORY_SEAL_LABEL);
+        try {
+            byte[] nonce = Arrays.copyOf(domainHash, Sodium.crypto_secretbox_noncebytes());
+            byte[] domain = new byte[sealedDomain.length - macBytes];
+            int res = Sodium.crypto_secretbox_open_easy(domain, sealedDomain, sealedDomain.length, nonce, sealKey);
+            return res == 0 ? domain : null;
+        } finally {
+            clearBytes(sealKey);
+        }
     }
 
-    public byte[] getPreviousKeySeed(byte[] domain) throws Exception {
-        byte[] currentPreviousUnlockKey;
+    private final Map<String, SiteKeys> siteKeys = new HashMap<>();
+    private final Map<String, SiteKeys> previousSiteKeys = new HashMap<>();
+
+    private static final int PRECOMPUTE_SITE_COUNT = 5;
+    private final ExecutorService precomputeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SiteKeyPrecompute");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> precomputeFuture = null;
+    private int precomputeGeneration = 0;
+
+    private static final int UNLOCK_KEY_POOL_SIZE = 3;
+    private final Deque<UnlockKeys> unlockKeyPool = new ArrayDeque<>();
 
-        switch (this.previousKeyIndex) {
-            case 1:
-                currentPreviousUnlockKey = this.previousKey1;
-                break;
+    /**
+     * Derives the keypair for a site once and keeps it until the identity is cleared, so a
+     * conversation with several requests to the same site (or many sites in a bulk job)
+     * doesn't redo the HMAC and Ed25519 key generation for every request.
+     */
+    private synchronized SiteKeys getSiteKeys(byte[] domain, ConversationTimer timer) throws Exception {
+        String domainKey = EncryptionUtils.byte2hex(domain);
+        SiteKeys keys = siteKeys.get(domainKey);
+        if(keys == null) {
+            long derivationStartTime = ConversationTimer.now();
+            keys = deriveSiteKeys(domain);
+            siteKeys.put(domainKey, keys);
+            if(timer != null) timer.record(ConversationTimer.Phase.KEY_DERIVATION, derivationStartTime);
+        }
+        return keys;
+    }
+
+    /**
+     * Derives the keys for the site, and for the previous identity if there is one, unless
+     * they are there already. Done before a request is built, so the time it takes is recorded
+     * in the conversation that needed the keys.
+     *
+     * @param previousKeyIndex  Which previous identity the conversation offers.
+     */
+    public synchronized void prepareSiteKeys(byte[] domain, int previousKeyIndex, ConversationTimer timer) throws Exception {
+        getSiteKeys(domain, timer);
+        if(hasPreviousKeys()) {
+            getPreviousSiteKeys(domain, previousKeyIndex, timer);
+        }
+    }
+
+    private SiteKeys deriveSiteKeys(byte[] domain) {
+        return SiteKeys.derive(crypto, this.identityMasterKey, domain);
+    }
+
+    /**
+     * Starts deriving the keys of the sites the current identity uses the most in the
+     * background, so the next login to one of them only needs to sign, and fills the pool
+     * of unlock keys for new accounts. Called when the identity has been unlocked.
+     */
+    private synchronized void startPrecompute() {
+        cancelPrecompute();
+        final long identityId = SqrlApplication.getCurrentId(context);
+        final int generation = precomputeGeneration;
+        precomputeFuture = precomputeExecutor.submit(() -> {
+            if(identityId > 0) {
+                precomputeSiteKeys(identityId, generation);
+            }
+            fillUnlockKeyPool(generation);
+        });
+    }
+
+    /**
+     * Stops the background work and wipes the unlock key pool. Since the background work holds
+     * the lock while it derives keys, nothing is being derived once this returns and nothing
+     * will be added after.
+     */
+    private synchronized void cancelPrecompute() {
+        precomputeGeneration++;
+        if(precomputeFuture != null) {
+            precomputeFuture.cancel(true);
+            precomputeFuture = null;
+        }
+        for(UnlockKeys keys : unlockKeyPool) {
+            keys.clear();
+        }
+        unlockKeyPool.clear();
+    }
+
+    private synchronized void startUnlockKeyPoolRefill() {
+        if(identityLockKey == null || unlockKeyPool.size() >= UNLOCK_KEY_POOL_SIZE) return;
+        final int generation = precomputeGeneration;
+        precomputeExecutor.submit(() -> fillUnlockKeyPool(generation));
+    }
+
+    private void fillUnlockKeyPool(int generation) {
+        try {
+            EntropyHarvester entropyHarvester = EntropyHarvester.getInstance();
+            while(true) {
+                synchronized (this) {
+                    if(Thread.currentThread().isInterrupted()) return;
+                    if(generation != precomputeGeneration || identityLockKey == null) return;
+                    if(unlockKeyPool.size() >= UNLOCK_KEY_POOL_SIZE) return;
+                    unlockKeyPool.add(createUnlockKeys(entropyHarvester));
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    private void precomputeSiteKeys(long identityId, int generation) {
+        List<SiteUsage> sites = IdentityDBHelper.getInstance(context)
+                .getTopSites(identityId, PRECOMPUTE_SITE_COUNT);
+
+        for(SiteUsage site : sites) {
+            synchronized (this) {
+                if(Thread.currentThread().isInterrupted()) return;
+                if(generation != precomputeGeneration || identityMasterKey == null) return;
+                try {
+                    byte[] domain = openHistoryDomain(site.getDomainHash(), site.getSealedDomain());
+                    if(domain == null) continue;
+
+                    String domainKey = EncryptionUtils.byte2hex(domain);
+                    if(!siteKeys.containsKey(domainKey)) {
+                        siteKeys.put(domainKey, deriveSiteKeys(domain));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private synchronized SiteKeys getPreviousSiteKeys(byte[] domain, int keyIndex, ConversationTimer timer) throws Exception {
+        String domainKey = keyIndex + ":" + EncryptionUtils.byte2hex(domain);
+        SiteKeys keys = previousSiteKeys.get(domainKey);
+        if(keys == null) {
+            long derivationStartTime = ConversationTimer.now();
+            keys = SiteKeys.derivePrevious(crypto, getPreviousUnlockKey(keyIndex), domain);
+            previousSiteKeys.put(domainKey, keys);
+            if(timer != null) timer.record(ConversationTimer.Phase.KEY_DERIVATION, derivationStartTime);
+        }
+        return keys;
+    }
+
+    private synchronized void clearSiteKeys(Map<String, SiteKeys> keyCache) {
+        for(SiteKeys keys : keyCache.values()) {
+            keys.clear();
+        }
+        keyCache.clear();
+    }
+
+    public byte[] getPrivateKey(byte[] domain) throws Exception {
+        return getSiteKeys(domain, null).getPrivateKey();
+    }
+
+    public byte[] getPublicKey(byte[] domain) throws Exception {
+        return getSiteKeys(domain, null).getPublicKey();
+    }
+
+    /**
+     * @param keyIndex  Which previous identity, 1 is the latest one. 0 means the latest one too,
+     *                  that's where the index starts before a site has been asked.
+     */
+    private byte[] getPreviousUnlockKey(int keyIndex) {
+        switch (keyIndex) {
             case 2:
-                currentPreviousUnlockKey = this.previousKey2;
-                break;
+                return this.previousKey2;
             case 3:
-                currentPreviousUnlockKey = this.previousKey3;
-                break;
+                return this.previousKey3;
             case 4:
-                currentPreviousUnlockKey = this.previousKey4;
-                break;
+                return this.previousKey4;
             default:
-                currentPreviousUnlockKey = this.previousKey1;
+                return this.previousKey1;
         }
-
-        byte[] currentPreviousKey = EncryptionUtils.enHash(currentPreviousUnlockKey);
-        final Mac HMacSha256 = Mac.getInstance("HmacSHA256");
-        final SecretKeySpec key = new SecretKeySpec(currentPreviousKey, "HmacSHA256");
-        HMacSha256.init(key);
-        return HMacSha256.doFinal(domain);
     }
 
-    public byte[] getPreviousPublicKey(byte[] domain) throws Exception {
-        byte[] publicKey = new byte[32];
-        byte[] privateKey = new byte[64];
-
-        Sodium.crypto_sign_seed_keypair(publicKey, privateKey, getPreviousKeySeed(domain));
-        return publicKey;
+    public byte[] getPreviousPublicKey(byte[] domain, int keyIndex) throws Exception {
+        return getPreviousSiteKeys(domain, keyIndex, null).getPublicKey();
     }
 
     public boolean hasPreviousKeys() {
         return hasPreviousBlock;
     }
 
-    public byte[] getPreviousPrivateKey(byte[] domain) throws Exception {
-        byte[] publicKey = new byte[32];
-        byte[] privateKey = new byte[64];
-
-        Sodium.crypto_sign_seed_keypair(publicKey, privateKey, getPreviousKeySeed(domain));
-        return privateKey;
+    public byte[] getPreviousPrivateKey(byte[] domain, int keyIndex) throws Exception {
+        return getPreviousSiteKeys(domain, keyIndex, null).getPrivateKey();
     }
 
 
@@ -811,10 +891,13 @@ public class SQRLStorage {
     }
 
     public void clear() {
+        this.cancelPrecompute();
         this.previousKeyIndex = 0;
         this.loginWithPreviousKey = false;
 
         try {
+            this.clearSiteKeys(siteKeys);
+            this.clearSiteKeys(previousSiteKeys);
             if(this.identityLockKey != null) {
                 clearBytes(this.identityLockKey);
             }
@@ -920,34 +1003,15 @@ public class SQRLStorage {
         try {
             entropyHarvester.fetchRandom(quickPassRandomSalt);
 
-            byte[] encResult = EncryptionUtils.enSCryptTime(password, quickPassRandomSalt, logNFactor, 32, (byte) 1, this.progressionUpdater);
+            byte[] encResult = enSCryptProfiled(password, quickPassRandomSalt, logNFactor, (byte) 1);
             quickPassIterationCount = getIntFromFourBytes(encResult, 0);
             byte[] key = Arrays.copyOfRange(encResult, 4, 36);
 
             entropyHarvester.fetchRandom(quickPassInitializationVector);
 
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(key, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, quickPassInitializationVector);
-                cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
-                cipher.update(encKey);
-                byte[] encryptionResult = cipher.doFinal();
-
-                quickPassKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
-                quickPassVerificationTag = Arrays.copyOfRange(encryptionResult, 32, 48);
-            } else {
-                byte[] emptyPlainText = new byte[0];
-                Grc_aesgcm.gcm_setkey(key, key.length);
-                int res = Grc_aesgcm.gcm_encrypt_and_tag(
-                        quickPassInitializationVector, quickPassInitializationVector.length,
-                        emptyPlainText, emptyPlainText.length,
-                        encKey, quickPassKeyEncrypted, encKey.length,
-                        quickPassVerificationTag, quickPassVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-                if (res == 0x55555555) return false;
-            }
+            byte[] encryptionResult = crypto.aesGcmEncrypt(key, quickPassInitializationVector, new byte[0], encKey);
+            quickPassKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
+            quickPassVerificationTag = Arrays.copyOfRange(encryptionResult, 32, 48);
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
             return false;
@@ -997,7 +1061,7 @@ public class SQRLStorage {
         try {
             entropyHarvester.fetchRandom(this.randomSalt);
 
-            byte[] encResult = EncryptionUtils.enSCryptTime(password, randomSalt, logNFactor, 32, timeInSecondsToRunPWEnScryptOnPassword, this.progressionUpdater);
+            byte[] encResult = enSCryptProfiled(password, randomSalt, logNFactor, timeInSecondsToRunPWEnScryptOnPassword);
             this.iterationCount = getIntFromFourBytes(encResult, 0);
             byte[] key = Arrays.copyOfRange(encResult, 4, 36);
 
@@ -1007,37 +1071,10 @@ public class SQRLStorage {
 
             this.updateIdentityPlaintext();
 
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(key, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, initializationVector);
-                cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
-                cipher.updateAAD(identityPlaintext);
-                cipher.update(identityKeys);
-                byte[] encryptionResult = cipher.doFinal();
-
-                this.identityMasterKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
-                this.identityLockKeyEncrypted = Arrays.copyOfRange(encryptionResult, 32, 64);
-                this.identityVerificationTag = Arrays.copyOfRange(encryptionResult, 64, 80);
-            } else {
-                byte[] resultVerificationTag = new byte[16];
-                byte[] encryptionResult = new byte[identityKeys.length];
-
-                Grc_aesgcm.gcm_setkey(key, key.length);
-                int res = Grc_aesgcm.gcm_encrypt_and_tag(
-                        initializationVector, initializationVector.length,
-                        identityPlaintext, identityPlaintextLength,
-                        identityKeys, encryptionResult, identityKeys.length,
-                        resultVerificationTag, resultVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return false;
-
-                this.identityMasterKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
-                this.identityLockKeyEncrypted = Arrays.copyOfRange(encryptionResult, 32, 64);
-                this.identityVerificationTag = resultVerificationTag;
-            }
+            byte[] encryptionResult = crypto.aesGcmEncrypt(key, initializationVector, identityPlaintext, identityKeys);
+            this.identityMasterKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
+            this.identityLockKeyEncrypted = Arrays.copyOfRange(encryptionResult, 32, 64);
+            this.identityVerificationTag = Arrays.copyOfRange(encryptionResult, 64, 80);
 
             if(hasPreviousBlock) {
                 return encryptPreviousBlock();
@@ -1068,62 +1105,23 @@ public class SQRLStorage {
 
             this.progressionUpdater.setState(R.string.progress_state_encrypting_previous_identity);
 
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(this.identityMasterKey, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, nullBytes);
-                cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
-                cipher.updateAAD(previousPlaintext);
-                cipher.update(identityKeys);
-                byte[] encryptionResult = cipher.doFinal();
-
-                int nextKeyStart = 0;
-                previousKey1Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
+            byte[] encryptionResult = crypto.aesGcmEncrypt(this.identityMasterKey, nullBytes, previousPlaintext, identityKeys);
+            int nextKeyStart = 0;
+            previousKey1Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
+            nextKeyStart += 32;
+            if(previousCountOfKeys > 1) {
+                previousKey2Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
                 nextKeyStart += 32;
-                if(previousCountOfKeys > 1) {
-                    previousKey2Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                    nextKeyStart += 32;
-                }
-                if(previousCountOfKeys > 2) {
-                    previousKey3Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                    nextKeyStart += 32;
-                }
-                if(previousCountOfKeys > 3) {
-                    previousKey4Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                    nextKeyStart += 32;
-                }
-                this.previousVerificationTag = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 16);
-            } else {
-                byte[] resultVerificationTag = new byte[16];
-                byte[] encryptionResult = new byte[identityKeys.length];
-
-                Grc_aesgcm.gcm_setkey(this.identityMasterKey, this.identityMasterKey.length);
-                int res = Grc_aesgcm.gcm_encrypt_and_tag(
-                        nullBytes, nullBytes.length,
-                        previousPlaintext, previousPlaintext.length,
-                        identityKeys, encryptionResult, identityKeys.length,
-                        resultVerificationTag, resultVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return false;
-
-                int nextKeyStart = 0;
-                previousKey1Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
+            }
+            if(previousCountOfKeys > 2) {
+                previousKey3Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
+                nextKeyStart += 32;
+            }
+            if(previousCountOfKeys > 3) {
+                previousKey4Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
                 nextKeyStart += 32;
-                if(previousCountOfKeys > 1) {
-                    previousKey2Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                    nextKeyStart += 32;
-                }
-                if(previousCountOfKeys > 2) {
-                    previousKey3Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                    nextKeyStart += 32;
-                }
-                if(previousCountOfKeys > 3) {
-                    previousKey4Encrypted = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 32);
-                }
-                previousVerificationTag = resultVerificationTag;
             }
+            this.previousVerificationTag = Arrays.copyOfRange(encryptionResult, nextKeyStart, nextKeyStart + 16);
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
             return false;
@@ -1150,6 +1148,7 @@ public class SQRLStorage {
             }
             this.previousKey1 = identityUnlockKey;
             this.hasPreviousBlock = true;
+            this.clearSiteKeys(previousSiteKeys);
             this.updatePreviousPlaintext();
         }
     }
@@ -1181,7 +1180,7 @@ public class SQRLStorage {
             entropyHarvester.fetchRandom(this.rescueRandomSalt);
             entropyHarvester.fetchRandom(this.rescueIdentityUnlockKey);
 
-            byte[] encResult = EncryptionUtils.enSCryptTime(getTempRescueCode(), rescueRandomSalt, rescueLogNFactor, 32, rescueCodeEncryptionTime, this.progressionUpdater);
+            byte[] encResult = enSCryptProfiled(getTempRescueCode(), rescueRandomSalt, rescueLogNFactor, rescueCodeEncryptionTime);
             this.rescueIterationCount = getIntFromFourBytes(encResult, 0);
             byte[] key = Arrays.copyOfRange(encResult, 4, 36);
 
@@ -1190,35 +1189,9 @@ public class SQRLStorage {
 
             this.updateRescuePlaintext();
 
-            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                Key keySpec = new SecretKeySpec(key, "AES");
-                Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
-                GCMParameterSpec params = new GCMParameterSpec(128, nullBytes);
-                cipher.init(Cipher.ENCRYPT_MODE, keySpec, params);
-                cipher.updateAAD(rescuePlaintext);
-                cipher.update(rescueIdentityUnlockKey);
-                byte[] encryptionResult = cipher.doFinal();
-
-                this.rescueIdentityUnlockKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
-                this.rescueVerificationTag = Arrays.copyOfRange(encryptionResult, 32, 48);
-            } else {
-                byte[] resultVerificationTag = new byte[16];
-                byte[] encryptionResult = new byte[rescueIdentityUnlockKey.length];
-
-                Grc_aesgcm.gcm_setkey(key, key.length);
-                int res = Grc_aesgcm.gcm_encrypt_and_tag(
-                        nullBytes, nullBytes.length,
-                        rescuePlaintext, rescuePlaintext.length,
-                        rescueIdentityUnlockKey, encryptionResult, rescueIdentityUnlockKey.length,
-                        resultVerificationTag, resultVerificationTag.length
-                );
-                Grc_aesgcm.gcm_zero_ctx();
-
-                if (res == 0x55555555) return false;
-
-                this.rescueIdentityUnlockKeyEncrypted = encryptionResult;
-                this.rescueVerificationTag = resultVerificationTag;
-            }
+            byte[] encryptionResult = crypto.aesGcmEncrypt(key, nullBytes, rescuePlaintext, rescueIdentityUnlockKey);
+            this.rescueIdentityUnlockKeyEncrypted = Arrays.copyOfRange(encryptionResult, 0, 32);
+            this.rescueVerificationTag = Arrays.copyOfRange(encryptionResult, 32, 48);
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
             return false;
@@ -1226,40 +1199,6 @@ public class SQRLStorage {
         return true;
     }
 
-    public String getOptions(boolean noiptest, boolean suk, boolean clientProvidedSession) {
-        List<String> options = new ArrayList<>();
-        if(isNoByPass()) {
-            options.add("hardlock");
-        }
-        if(isSQRLOnly()) {
-            options.add("sqrlonly");
-        }
-        if(noiptest) {
-            options.add("noiptest");
-        }
-        if(clientProvidedSession) {
-            options.add("cps");
-        }
-        if(suk) {
-            options.add("suk");
-        }
-
-        StringBuilder sb = new StringBuilder();
-        if(options.size() > 0) {
-            sb.append("opt=");
-            boolean first = true;
-            for (String s : options) {
-                if (!first) {
-                    sb.append("~");
-                }
-                sb.append(s);
-                first = false;
-            }
-            sb.append("\r\n");
-        }
-        return sb.toString();
-    }
-
     private void updateIdentityPlaintext() {
         if(!hasIdentityBlock) return;
         byte[] newPlaintext = getIntToTwoBytes(PASSWORD_PBKDF);
@@ -1325,79 +1264,65 @@ public class SQRLStorage {
     }
 
     public byte[] createSaveData() {
-        updateIdentityPlaintext();
-        updateRescuePlaintext();
-        updatePreviousPlaintext();
-
-        byte[] result = "sqrldata".getBytes();
-        if(hasIdentityBlock) {
-            result = EncryptionUtils.combine(result, identityPlaintext);
-            result = EncryptionUtils.combine(result, identityMasterKeyEncrypted);
-            result = EncryptionUtils.combine(result, identityLockKeyEncrypted);
-            result = EncryptionUtils.combine(result, identityVerificationTag);
-        }
-
-        if(hasRescueBlock) {
-            result = EncryptionUtils.combine(result, rescuePlaintext);
-            result = EncryptionUtils.combine(result, rescueIdentityUnlockKeyEncrypted);
-            result = EncryptionUtils.combine(result, rescueVerificationTag);
-        }
+        return createIdentityData().toBytes();
+    }
 
-        if (hasPreviousBlock && previousCountOfKeys > 0) {
-            result = EncryptionUtils.combine(result, previousPlaintext);
-            result = EncryptionUtils.combine(result, previousKey1Encrypted);
-            if (previousCountOfKeys > 1) {
-                result = EncryptionUtils.combine(result, previousKey2Encrypted);
-            }
-            if (previousCountOfKeys > 2) {
-                result = EncryptionUtils.combine(result, previousKey3Encrypted);
-            }
-            if (previousCountOfKeys > 3) {
-                result = EncryptionUtils.combine(result, previousKey4Encrypted);
-            }
-            result = EncryptionUtils.combine(result, previousVerificationTag);
-        }
+    public byte[] createSaveDataWithoutPassword() {
+        return createIdentityData().toBytes(false);
+    }
 
-        return result;
+    public void createVerifyRecoveryBlock() throws Exception {
+        String inputString = EncryptionUtils.encodeBase56(createIdentityData().getTextualBytes());
+        verifyingRecoveryBlock = fixString(inputString);
     }
 
-    public byte[] createSaveDataWithoutPassword() {
+    /**
+     * Puts the blocks back together in the core format, which knows how to write them.
+     */
+    private IdentityData createIdentityData() {
+        updateIdentityPlaintext();
         updateRescuePlaintext();
         updatePreviousPlaintext();
 
-        byte[] result = "sqrldata".getBytes();
-         if(hasRescueBlock) {
-            result = EncryptionUtils.combine(result, rescuePlaintext);
-            result = EncryptionUtils.combine(result, rescueIdentityUnlockKeyEncrypted);
-            result = EncryptionUtils.combine(result, rescueVerificationTag);
-        }
-
-        if (hasPreviousBlock && previousCountOfKeys > 0) {
-            result = EncryptionUtils.combine(result, previousPlaintext);
-            result = EncryptionUtils.combine(result, previousKey1Encrypted);
-            if (previousCountOfKeys > 1) {
-                result = EncryptionUtils.combine(result, previousKey2Encrypted);
+        IdentityData identity = new IdentityData();
+        try {
+            if(hasIdentityBlock) {
+                byte[] block = EncryptionUtils.combine(identityPlaintext, identityMasterKeyEncrypted);
+                block = EncryptionUtils.combine(block, identityLockKeyEncrypted);
+                block = EncryptionUtils.combine(block, identityVerificationTag);
+                identity.setPasswordBlock(new IdentityData.PasswordBlock(block));
             }
-            if (previousCountOfKeys > 2) {
-                result = EncryptionUtils.combine(result, previousKey3Encrypted);
+
+            if(hasRescueBlock) {
+                byte[] block = EncryptionUtils.combine(rescuePlaintext, rescueIdentityUnlockKeyEncrypted);
+                block = EncryptionUtils.combine(block, rescueVerificationTag);
+                identity.setRescueBlock(new IdentityData.RescueBlock(block));
             }
-            if (previousCountOfKeys > 3) {
-                result = EncryptionUtils.combine(result, previousKey4Encrypted);
+
+            if(hasPreviousBlock && previousCountOfKeys > 0) {
+                byte[] block = EncryptionUtils.combine(previousPlaintext, previousKey1Encrypted);
+                if(previousCountOfKeys > 1) {
+                    block = EncryptionUtils.combine(block, previousKey2Encrypted);
+                }
+                if(previousCountOfKeys > 2) {
+                    block = EncryptionUtils.combine(block, previousKey3Encrypted);
+                }
+                if(previousCountOfKeys > 3) {
+                    block = EncryptionUtils.combine(block, previousKey4Encrypted);
+                }
+                block = EncryptionUtils.combine(block, previousVerificationTag);
+                identity.setPreviousKeysBlock(new IdentityData.PreviousKeysBlock(block));
             }
-            result = EncryptionUtils.combine(result, previousVerificationTag);
+        } catch (Exception e) {
+            throw new IllegalStateException("Identity blocks are damaged", e);
         }
-
-        return result;
-    }
-
-    public void createVerifyRecoveryBlock() throws Exception {
-        byte[] result = createSaveData();
-        String inputString = EncryptionUtils.encodeBase56(Arrays.copyOfRange(result, HEADER_LENGTH + passwordBlockLength, result.length));
-        verifyingRecoveryBlock = fixString(inputString);
+        return identity;
     }
 
     public void reInitializeMasterKeyIdentity() {
         if(this.rescueIdentityUnlockKey != null) {
+            this.cancelPrecompute();
+            this.clearSiteKeys(siteKeys);
             this.identityMasterKey = EncryptionUtils.enHash(this.rescueIdentityUnlockKey);
             this.identityLockKey = new byte[this.identityMasterKey.length];
             Sodium.crypto_scalarmult_base(this.identityLockKey, this.rescueIdentityUnlockKey);
@@ -1408,43 +1333,23 @@ public class SQRLStorage {
         }
     }
 
-    public byte[] getUnlockRequestSigningKey(byte[] serverUnlock, boolean usePreviousKey) {
+    /**
+     * @param previousKeyIndex  The previous identity the site knows, or -1 if it knows the
+     *                          current one.
+     */
+    public byte[] getUnlockRequestSigningKey(byte[] serverUnlock, int previousKeyIndex) {
         /*
         UnlockRequestSigning := SignPrivate( DHKA( ServerUnlock, IdentityUnlock ))
         */
-
-        byte[] bytesToSign = new byte[32];
-        byte[] notImportant = new byte[32];
-        byte[] unlockRequestSign = new byte[64];
-
-        if(usePreviousKey) {
-            byte[] currentPreviousUnlockKey;
-
-            switch (this.previousKeyIndex) {
-                case 1:
-                    currentPreviousUnlockKey = this.previousKey1;
-                    break;
-                case 2:
-                    currentPreviousUnlockKey = this.previousKey2;
-                    break;
-                case 3:
-                    currentPreviousUnlockKey = this.previousKey3;
-                    break;
-                case 4:
-                    currentPreviousUnlockKey = this.previousKey4;
-                    break;
-                default:
-                    currentPreviousUnlockKey = this.previousKey1;
-            }
-            Sodium.crypto_scalarmult(bytesToSign, currentPreviousUnlockKey, serverUnlock);
-        } else {
-            Sodium.crypto_scalarmult(bytesToSign, this.rescueIdentityUnlockKey, serverUnlock);
-        }
-        Sodium.crypto_sign_seed_keypair(notImportant, unlockRequestSign, bytesToSign);
-        return unlockRequestSign;
+        byte[] identityUnlockKey = previousKeyIndex >= 0 ? getPreviousUnlockKey(previousKeyIndex) : this.rescueIdentityUnlockKey;
+        return UnlockKeys.requestSigningKey(crypto, identityUnlockKey, serverUnlock);
     }
 
-    public String getServerUnlockKey(EntropyHarvester entropyHarvester) {
+    /**
+     * @return  Server unlock key and verify unlock key for a new account, or null if they
+     *          couldn't be made.
+     */
+    public UnlockKeys getUnlockKeys(EntropyHarvester entropyHarvester) {
         /*
         VerifyUnlock := 	SignPublic( DHKA( IdentityLock, RandomLock ))
         ServerUnlock := 	MakePublic( RandomLock )
@@ -1463,58 +1368,45 @@ public class SQRLStorage {
         out: public key = VUK
         */
         try {
-            byte[] randomLock = new byte[32];
-            entropyHarvester.fetchRandom(randomLock);
-
-            byte[] bytesToSign = new byte[32];
-            byte[] serverUnlock = new byte[32];
-            byte[] notImportant = new byte[64];
-            byte[] verifyUnlock = new byte[32];
-
-            Sodium.crypto_scalarmult_base(serverUnlock, randomLock);
-            Sodium.crypto_scalarmult(bytesToSign, randomLock, this.identityLockKey);
-            Sodium.crypto_sign_seed_keypair(verifyUnlock, notImportant, bytesToSign);
-
-            StringBuilder sb = new StringBuilder();
-            sb.append("suk=");
-            sb.append(EncryptionUtils.encodeUrlSafe(serverUnlock));
-            sb.append("\r\n");
-            sb.append("vuk=");
-            sb.append(EncryptionUtils.encodeUrlSafe(verifyUnlock));
-            sb.append("\r\n");
-            return sb.toString();
+            UnlockKeys keys;
+            synchronized (this) {
+                keys = unlockKeyPool.poll();
+                if(keys == null) {
+                    keys = createUnlockKeys(entropyHarvester);
+                }
+            }
+            startUnlockKeyPoolRefill();
+            return keys;
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
         }
-        return "";
+        return null;
     }
 
 
-    public byte[] encodeSecretIndex(byte[] secretIndex, byte[] secIndexKey) throws Exception {
-        final Mac HMacSha256 = Mac.getInstance("HmacSHA256");
-        final SecretKeySpec key = new SecretKeySpec(secIndexKey, "HmacSHA256");
-        HMacSha256.init(key);
-        return HMacSha256.doFinal(secretIndex);
-    }
-
-    public String getSecretIndex(byte[] domain, String secretIndex) throws Exception {
-        if(secretIndex == null) return "";
-        StringBuilder sb = new StringBuilder();
-        byte[] secIndexKey = EncryptionUtils.enHash(this.getKeySeed(domain));
-        sb.append("ins=");
-        sb.append(EncryptionUtils.encodeUrlSafe(
-                encodeSecretIndex(secretIndex.getBytes(), secIndexKey)
-        ));
-        sb.append("\r\n");
-        if(this.hasPreviousKeys()) {
-            byte[] previousSecIndexKey = EncryptionUtils.enHash(this.getPreviousKeySeed(domain));
-            sb.append("pins=");
-            sb.append(EncryptionUtils.encodeUrlSafe(
-                    encodeSecretIndex(secretIndex.getBytes(), previousSecIndexKey)
-            ));
-            sb.append("\r\n");
-        }
-        return sb.toString();
+    private UnlockKeys createUnlockKeys(EntropyHarvester entropyHarvester) {
+        byte[] randomLock = new byte[32];
+        entropyHarvester.fetchRandom(randomLock);
+        return UnlockKeys.create(crypto, this.identityLockKey, randomLock);
+    }
+
+    /**
+     * @param secretIndex   The secret index asked for by the site, or null.
+     * @return              The secret index for the current identity, or null if not asked for.
+     */
+    public synchronized byte[] getSecretIndex(byte[] domain, String secretIndex) throws Exception {
+        if(secretIndex == null) return null;
+        return this.getSiteKeys(domain, null).secretIndex(secretIndex);
+    }
+
+    /**
+     * @param keyIndex  Which previous identity, 1 is the latest one.
+     * @return          The secret index for the previous identity, or null if not asked for or
+     *                  there is no previous identity.
+     */
+    public synchronized byte[] getPreviousSecretIndex(byte[] domain, String secretIndex, int keyIndex) throws Exception {
+        if(secretIndex == null || !this.hasPreviousKeys()) return null;
+        return this.getPreviousSiteKeys(domain, keyIndex, null).secretIndex(secretIndex);
     }
 
 
@@ -1,7 +1,6 @@
 package org.ea.sqrl.services;
 
 import android.app.Activity;
-import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Typeface;
@@ -23,6 +22,8 @@ import android.util.Log;
 import org.ea.sqrl.R;
 import org.ea.sqrl.processors.SQRLStorage;
 import org.ea.sqrl.utils.DocumentPrintUtils;
+import org.ea.sqrl.utils.QrCodeCache;
+import org.ea.sqrl.utils.QrCodeUtils;
 import org.ea.sqrl.utils.Utils;
 
 import java.io.FileOutputStream;
@@ -37,6 +38,7 @@ import io.nayuki.qrcodegen.QrCode;
 @RequiresApi(Build.VERSION_CODES.KITKAT)
 public class IdentityPrintDocumentAdapter extends PrintDocumentAdapter {
     private static final String TAG = "IdentityPrint";
+    private static final int QR_MODULE_SIZE = 3;
     private final Activity activity;
     private final String identityName;
     private final boolean withoutPassword;
@@ -146,14 +148,16 @@ public class IdentityPrintDocumentAdapter extends PrintDocumentAdapter {
         }
 
         int canvasMiddle = canvas.getWidth() / 2;
-        QrCode qrCode = QrCode.encodeBinary(saveData, QrCode.Ecc.MEDIUM);
-        Bitmap bitmap = qrCode.toImage(3, 0);
+        QrCode qrCode = QrCodeCache.getInstance().getQrCode(saveData);
 
-        int bitmapWidth = bitmap.getScaledWidth(canvas);
+        /*
+         * Draw the modules as vector shapes, so the printed code is sharp at
+         * any printer resolution and we never allocate a bitmap for it.
+         */
+        int qrCodeWidth = qrCode.size * QR_MODULE_SIZE;
+        QrCodeUtils.draw(qrCode, canvas, canvasMiddle - (qrCodeWidth / 2), lastBlockY + 20, QR_MODULE_SIZE, new Paint());
 
-        canvas.drawBitmap(bitmap, canvasMiddle - (bitmapWidth / 2), lastBlockY + 20, new Paint());
-
-        lastBlockY += bitmap.getScaledHeight(canvas) + 20;
+        lastBlockY += qrCodeWidth + 20;
 
         lastBlockY += DocumentPrintUtils.drawTextBlock(
                 canvas,
@@ -0,0 +1,20 @@
+package org.ea.sqrl.utils;
+
+import android.util.Log;
+
+import org.ea.sqrl.core.utils.Logger;
+
+/**
+ * Sends the log of the SQRL core to logcat.
+ */
+public class AndroidLogger implements Logger {
+    @Override
+    public void d(String tag, String msg) {
+        Log.d(tag, msg);
+    }
+
+    @Override
+    public void e(String tag, String msg, Throwable throwable) {
+        Log.e(tag, msg, throwable);
+    }
+}
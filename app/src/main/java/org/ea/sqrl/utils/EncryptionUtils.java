@@ -1,15 +1,17 @@
 package org.ea.sqrl.utils;
 
-import android.util.Base64;
-import android.util.Log;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 
+import org.ea.sqrl.core.crypto.EnHash;
+import org.ea.sqrl.core.crypto.EnScrypt;
+import org.ea.sqrl.core.utils.Base56;
+import org.ea.sqrl.core.utils.Base64Url;
 import org.ea.sqrl.processors.ProgressionUpdater;
-import org.libsodium.jni.Sodium;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.BitSet;
 
@@ -18,12 +20,6 @@ import java.util.BitSet;
  * @author Daniel Persson
  */
 public class EncryptionUtils {
-    private static final String TAG = "EncryptionUtils";
-    private static final byte[] BASE56_ENCODE = "23456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnpqrstuvwxyz".getBytes();
-    private static final String BASE56_DECODE = "23456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnpqrstuvwxyz";
-    private static final int BASE_INT = 56;
-    private static final int CHARS_PER_LINE = 19;
-    private static final BigInteger BASE = BigInteger.valueOf(BASE_INT);
 
     public static byte[] combine(byte[] a, byte b) {
         return combine(a, new byte[] {b});
@@ -52,136 +48,25 @@ public class EncryptionUtils {
     }
 
     /**
-     * This function will create an base56 string with the least significant byte first.
-     * We use the reverse function every time we need to do math operations on the byte stream
-     * in order to get the correct ordering on the bytes in our big integers.
-     *
-     * The string contains rows that each are 20 chars long. The first 19 characters come from the
-     * base56 encoded byte stream and the last byte is a checksum. So we will take the 19 characters
-     * of the line plus a zero based line number as our 20th character and then use a SHA-256 message
-     * digest in order to get the bytes that we reverse and modulus with 56 in order to get the last
-     * byte of the line.
+     * This function will create an base56 string with the least significant byte first, see
+     * {@link Base56}. Like it always has, it leaves the input reversed, so callers that still need
+     * the data pass a copy.
      *
      * @param data          Input data stream
      * @return              String of base56 encoded with checksum for each line.
-     * @throws Exception    Throws an exception if the platform doesn't support SHA-256.
      */
-    public static String encodeBase56(byte[] data) throws Exception {
-        final int expectedLength = (int) Math.ceil((data.length*8)/(Math.log(BASE_INT)/Math.log(2)));
-
-        data = reverse(data);
-        BigInteger largeNum = new BigInteger(1, data);
-        String resultStr = "";
-        int charsOnLine = 0;
-        byte line = 0;
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        for(int totalLength = 0; totalLength < expectedLength; totalLength++) {
-            if(charsOnLine == CHARS_PER_LINE) {
-                md.update(line);
-                byte[] checksum = reverse(md.digest());
-                BigInteger remainder = new BigInteger(1, checksum).mod(BASE);
-                resultStr += (char)BASE56_ENCODE[remainder.intValue()];
-                md.reset();
-                line++;
-                charsOnLine = 0;
-            }
-
-            if(largeNum.equals(BigInteger.ZERO)) {
-                // pad with "zero"
-                resultStr += (char)BASE56_ENCODE[0];
-                md.update(BASE56_ENCODE[0]);
-            } else {
-                BigInteger[] res = largeNum.divideAndRemainder(BASE);
-                largeNum = res[0];
-                resultStr += (char) BASE56_ENCODE[res[1].intValue()];
-                md.update(BASE56_ENCODE[res[1].intValue()]);
-            }
-            charsOnLine++;
-        }
-
-        md.update(line);
-        byte[] checksum = reverse(md.digest());
-        BigInteger remainder = new BigInteger(1, checksum).mod(BASE);
-        resultStr += (char)BASE56_ENCODE[remainder.intValue()];
-
-        return resultStr;
+    public static String encodeBase56(byte[] data) {
+        String encoded = Base56.encode(data);
+        reverse(data);
+        return encoded;
     }
 
     public static byte[] decodeBase56(String encodedString) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        int charIndexPerLine = 0;
-        int charsRead = 0;
-        byte line = 0;
-        BigInteger largeNum = BigInteger.ZERO;
-        int encodedStringLen = encodedString.length();
-        for(String s : encodedString.split("")) {
-            if(s.isEmpty()) continue;
-            if(
-                charIndexPerLine == CHARS_PER_LINE ||
-                encodedStringLen - 1 == charsRead + line
-            ) {
-                md.update(line);
-                byte[] checksum = reverse(md.digest());
-                BigInteger remainder = new BigInteger(1, checksum).mod(BASE);
-                if(s.getBytes()[0] != BASE56_ENCODE[remainder.intValue()]) {
-                    throw new Exception("" + line + 1);
-                }
-                md.reset();
-                line++;
-                charIndexPerLine = 0;
-            } else {
-                BigInteger newVal = BigInteger.valueOf(BASE56_DECODE.indexOf(s)).multiply(BASE.pow(charsRead));
-                largeNum = largeNum.add(newVal);
-                md.update(s.getBytes());
-                charIndexPerLine++;
-                charsRead++;
-            }
-        }
-        byte[] largeBytes = largeNum.toByteArray();
-        final int expectedNumberOfBytes = (int)((encodedStringLen - line)*(Math.log(BASE_INT)/Math.log(2))/8);
-        largeBytes = reverse(largeBytes);
-        if(largeBytes.length > expectedNumberOfBytes) {
-            largeBytes = Arrays.copyOfRange(largeBytes, 0, expectedNumberOfBytes);
-        } else if (largeBytes.length < expectedNumberOfBytes) {
-            byte[] temp = new byte[expectedNumberOfBytes];
-            System.arraycopy(largeBytes, 0, temp, 0, largeBytes.length);
-            largeBytes = temp;
-        }
-
-        return largeBytes;
+        return Base56.decode(encodedString);
     }
 
     public static int validateBase56(String cleanTextIdentity) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage(), e);
-            return -1;
-        }
-        int i = 0;
-        int n = 0;
-        byte line = 0;
-        int encodedStringLen = cleanTextIdentity.length();
-        for (String s : cleanTextIdentity.split("")) {
-            if (s.isEmpty()) continue;
-            if (i == CHARS_PER_LINE || encodedStringLen - 1 == n + line) {
-                md.update(line);
-                byte[] checksum = reverse(md.digest());
-                BigInteger remainder = new BigInteger(1, checksum).mod(BASE);
-                if (s.getBytes()[0] != BASE56_ENCODE[remainder.intValue()]) {
-                    return line;
-                }
-                md.reset();
-                line++;
-                i = 0;
-            } else {
-                md.update(s.getBytes());
-                i++;
-                n++;
-            }
-        }
-        return -1;
+        return Base56.validate(cleanTextIdentity);
     }
 
     public static byte[] hex2Byte(String str) {
@@ -212,15 +97,15 @@ public class EncryptionUtils {
     }
 
     public static String encodeUrlSafe(byte[] data) throws Exception {
-        return Base64.encodeToString(data, Base64.NO_PADDING + Base64.URL_SAFE + Base64.NO_WRAP);
+        return Base64Url.encode(data);
     }
 
     public static byte[] decodeUrlSafe(String data) throws Exception {
-        return Base64.decode(data, Base64.NO_PADDING + Base64.URL_SAFE + Base64.NO_WRAP);
+        return Base64Url.decode(data);
     }
 
     public static String decodeUrlSafeString(String data) throws Exception {
-        return new String(decodeUrlSafe(data), "UTF-8");
+        return Base64Url.decodeString(data);
     }
 
     /***
@@ -248,70 +133,64 @@ public class EncryptionUtils {
     }
 
     public static byte[] enHash(byte[] bytesToHash) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            bytesToHash = digest.digest(bytesToHash);
-            byte[] xorKey = Arrays.copyOf(bytesToHash, bytesToHash.length);
-
-            for(int i=0; i<15; i++) {
-                bytesToHash = digest.digest(bytesToHash);
-                xorKey = xor(xorKey, bytesToHash);
-            }
-
-            return xorKey;
-
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage(), e);
-            return new byte[0];
-        }
+        return EnHash.hash(bytesToHash);
     }
 
-    public static byte[] enSCryptIterations(String password, byte[] randomSalt, int logNFactor, int dkLen, int iterationCount, ProgressionUpdater progressionUpdater) throws Exception {
-        progressionUpdater.startTimer();
-
-        byte[] key = new byte[dkLen];
-        byte[] pwdBytes = password.getBytes();
-        Sodium.crypto_pwhash_scryptsalsa208sha256_ll(pwdBytes, pwdBytes.length, randomSalt, randomSalt.length, 1 << logNFactor, 256, 1, key, key.length);
-
-        progressionUpdater.endTimer();
-        progressionUpdater.incrementProgress();
+    /**
+     * Runs EnScrypt for a number of iterations. The cancellation signal is checked before every
+     * iteration, so a cancelled run stops within one iteration. The password and intermediate keys
+     * are wiped whether the run completes or not.
+     *
+     * @throws OperationCanceledException   If the signal was cancelled before the run completed.
+     */
+    public static byte[] enSCryptIterations(String password, byte[] randomSalt, int logNFactor, int dkLen, int iterationCount, ProgressionUpdater progressionUpdater, CancellationSignal cancellationSignal) throws Exception {
+        progressionUpdater.startTimer(logNFactor);
 
-        byte[] xorKey = Arrays.copyOf(key, key.length);
-        for(int i = 1; i < iterationCount; i++) {
-            Sodium.crypto_pwhash_scryptsalsa208sha256_ll(pwdBytes, pwdBytes.length, key, key.length, 1 << logNFactor, 256, 1, key, key.length);
-            xorKey = xor(key, xorKey);
-            progressionUpdater.incrementProgress();
+        try {
+            return EnScrypt.iterations(SodiumCrypto.getInstance(), password.getBytes(), randomSalt, logNFactor, dkLen, iterationCount,
+                    (iterationsDone, millisElapsed) -> progressionUpdater.incrementProgress(),
+                    cancellation(cancellationSignal));
+        } catch (EnScrypt.CanceledException e) {
+            throw new OperationCanceledException(e.getMessage());
         }
-
-        return xorKey;
     }
 
     private static byte[] getIntToFourBytes(int input) {
         return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(input).array();
     }
 
-    public static byte[] enSCryptTime(String password, byte[] randomSalt, int logNFactor, int dkLen, byte secondsToRun, ProgressionUpdater progressionUpdater) throws Exception {
-        long startTime = System.currentTimeMillis();
+    /**
+     * Runs EnScrypt for a number of seconds, see {@link #enSCryptIterations}.
+     *
+     * @return  The iteration count as four bytes, followed by the key.
+     * @throws OperationCanceledException   If the signal was cancelled before the run completed.
+     */
+    public static byte[] enSCryptTime(String password, byte[] randomSalt, int logNFactor, int dkLen, byte secondsToRun, ProgressionUpdater progressionUpdater, CancellationSignal cancellationSignal) throws Exception {
         progressionUpdater.setMax(secondsToRun & 0xFF);
 
-        byte[] key = new byte[dkLen];
-        byte[] pwdBytes = password.getBytes();
-
-        Sodium.crypto_pwhash_scryptsalsa208sha256_ll(pwdBytes, pwdBytes.length, randomSalt, randomSalt.length, 1 << logNFactor, 256, 1, key, key.length);
-
-        int iterationCount = 1;
-        long time = System.currentTimeMillis() - startTime;
-        byte[] xorKey = Arrays.copyOf(key, key.length);
-        while(time < ((secondsToRun & 0xFF) * 1000)) {
-            Sodium.crypto_pwhash_scryptsalsa208sha256_ll(pwdBytes, pwdBytes.length, key, key.length, 1 << logNFactor, 256, 1, key, key.length);
-            xorKey = xor(key, xorKey);
-            time = System.currentTimeMillis() - startTime;
-            progressionUpdater.setTimeDone(time);
-            iterationCount++;
+        EnScrypt.TimedResult result;
+        try {
+            result = EnScrypt.time(SodiumCrypto.getInstance(), password.getBytes(), randomSalt, logNFactor, dkLen, secondsToRun & 0xFF,
+                    (iterationsDone, millisElapsed) -> {
+                        if(iterationsDone > 1) progressionUpdater.setTimeDone(millisElapsed);
+                    },
+                    cancellation(cancellationSignal));
+        } catch (EnScrypt.CanceledException e) {
+            throw new OperationCanceledException(e.getMessage());
         }
         progressionUpdater.incrementProgress();
 
-        return EncryptionUtils.combine(getIntToFourBytes(iterationCount), xorKey);
+        byte[] key = result.getKey();
+        try {
+            return EncryptionUtils.combine(getIntToFourBytes(result.getIterationCount()), key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    private static EnScrypt.Cancellation cancellation(CancellationSignal cancellationSignal) {
+        if(cancellationSignal == null) return null;
+        return cancellationSignal::isCanceled;
     }
 
 
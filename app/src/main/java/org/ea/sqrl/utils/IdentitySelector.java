@@ -1,7 +1,6 @@
 
 package org.ea.sqrl.utils;
 
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.support.v7.app.AlertDialog;
@@ -17,14 +16,17 @@ import android.widget.Toast;
 import org.ea.sqrl.R;
 import org.ea.sqrl.activites.identity.IdentitySettingsActivity;
 import org.ea.sqrl.activites.StartActivity;
+import org.ea.sqrl.activites.base.BaseActivity;
 import org.ea.sqrl.activites.create.RekeyIdentityActivity;
 import org.ea.sqrl.activites.identity.ChangePasswordActivity;
 import org.ea.sqrl.activites.identity.ExportOptionsActivity;
 import org.ea.sqrl.activites.identity.RenameActivity;
 import org.ea.sqrl.activites.identity.ResetPasswordActivity;
+import org.ea.sqrl.database.IdentityCatalog;
 import org.ea.sqrl.database.IdentityDBHelper;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * IdentitySelector aims to be the single source for switching identities within the app.
@@ -41,7 +43,7 @@ public class IdentitySelector {
     private static final String TAG = "IdentitySelector";
     private static final int ID_NAME_MAX_LEN = 30;
 
-    private final Context mContext;
+    private final BaseActivity mActivity;
     private ViewGroup mIdentitySelectorLayout;
     private boolean mEnableIdentityChange;
     private boolean mHideOnSingleIdentity;
@@ -49,6 +51,7 @@ public class IdentitySelector {
     private IdentityChangedListener mIdentityChangedListener = null;
     private Map<Long, String> mIdentities;
     private IdentityDBHelper mDbHelper = null;
+    private IdentityCatalog mCatalog = null;
     private ImageView mImgListIdentities = null;
     private ImageView mImgIdentityOptions = null;
     private TextView mTxtSelectedIdentityHeadline = null;
@@ -58,20 +61,20 @@ public class IdentitySelector {
     /**
      * Creates an IdentitySelector object.
      *
-     * @param context                The context of the caller.
+     * @param activity               The activity of the caller.
      * @param enableIdentityChange   Set to true if selecting another identity should be enabled, or to false otherwise.
      * @param enableIdentityOptions  Set to true if identity options should be enabled, or to false otherwise.
      *                               If enabled, an options icon will be displayed in the identity selector layout.
      * @param hideOnSingleIdentity   Set to true if the identity selector layout should be hidden if only one identity exists.
      */
-    public IdentitySelector(Context context, boolean enableIdentityChange,
+    public IdentitySelector(BaseActivity activity, boolean enableIdentityChange,
                             boolean enableIdentityOptions, boolean hideOnSingleIdentity) {
-        mContext = context;
+        mActivity = activity;
         mEnableIdentityChange = enableIdentityChange;
         mEnableIdentityOptions = enableIdentityOptions;
         mHideOnSingleIdentity = hideOnSingleIdentity;
-        mDbHelper = IdentityDBHelper.getInstance(mContext);
-        mIdentities = mDbHelper.getIdentities();
+        mDbHelper = IdentityDBHelper.getInstance(mActivity);
+        mCatalog = mDbHelper.getCatalog();
         mLastId = -1;
     }
 
@@ -97,19 +100,36 @@ public class IdentitySelector {
                 mTxtSelectedIdentityHeadline.getText() + ":"
         );
 
+        mCatalog.addCatalogChangedListener(mCatalogChangedListener);
         update();
     }
 
     /**
-     * Re-reads the identity database and updates the identity selector accordingly.
-     * This is useful when an "external" change has occurred, for example an addition,
-     * removal or renaming of an identity.
-     * It is generally a good idea to call this method in the onResume() event of an activity
-     * where an IdentitySelector is deployed.
+     * Stops listening for changes to the identities, call this in onDestroy() of the activity
+     * that registered the layout.
+     */
+    public void unregisterLayout() {
+        mCatalog.removeCatalogChangedListener(mCatalogChangedListener);
+    }
+
+    /**
+     * Re-reads the identity catalog and updates the identity selector accordingly.
+     * Additions, removals and renames are picked up automatically through the catalog, but
+     * the currently active identity is not, so it is still a good idea to call this method
+     * in the onResume() event of an activity where an IdentitySelector is deployed.
      */
     public void update() {
-        long currentId = SqrlApplication.getCurrentId(mContext);
-        String currentName = mDbHelper.getIdentityName(currentId);
+        /*
+         * The application loads the catalog off the main thread when it starts. Until it's
+         * there we show nothing, the catalog calls us again once it is loaded.
+         */
+        if (!mCatalog.isLoaded()) {
+            mIdentitySelectorLayout.setVisibility(View.GONE);
+            return;
+        }
+
+        long currentId = SqrlApplication.getCurrentId(mActivity);
+        String currentName = mCatalog.getIdentityName(currentId);
         if (currentName == null) currentName = "";
 
         if (currentName.length() > ID_NAME_MAX_LEN) {
@@ -119,7 +139,7 @@ public class IdentitySelector {
         ssCurrentName.setSpan(new UnderlineSpan(), 0, ssCurrentName.length(), 0);
         mTxtSelectedIdentity.setText(ssCurrentName);
         mLastId = currentId;
-        mIdentities = mDbHelper.getIdentities();
+        mIdentities = mCatalog.getIdentities();
 
         if (mHideOnSingleIdentity && mIdentities.size() < 2) {
             mIdentitySelectorLayout.setVisibility(View.GONE);
@@ -151,11 +171,11 @@ public class IdentitySelector {
     private void selectIdentityInternal(int index) {
         Long[] keyArray = mIdentities.keySet().toArray(new Long[mIdentities.size()]);
         long currentId = keyArray[index];
-        String currentName = mDbHelper.getIdentityName(currentId);
+        String currentName = mCatalog.getIdentityName(currentId);
 
         if (mLastId == currentId) return;
 
-        SqrlApplication.setCurrentId(mContext, currentId);
+        SqrlApplication.setCurrentId(mActivity, currentId);
 
         update();
 
@@ -179,16 +199,18 @@ public class IdentitySelector {
         DialogInterface.OnClickListener dialogClickListener = (dialog, which) -> {
             switch (which){
                 case DialogInterface.BUTTON_POSITIVE:
-                    long currentId = SqrlApplication.getCurrentId(mContext);
+                    long currentId = SqrlApplication.getCurrentId(mActivity);
                     if(currentId != 0) {
-                        mDbHelper.deleteIdentity(currentId);
-                        SqrlApplication.setCurrentId(mContext, -1);
-                        update();
-                        Toast.makeText(mContext, mContext.getResources().getString(R.string.main_identity_removed), Toast.LENGTH_SHORT);
-
-                        if(!mDbHelper.hasIdentities()) {
-                            mContext.startActivity(new Intent(mContext, StartActivity.class));
-                        }
+                        Future<Void> write = mDbHelper.deleteIdentityAsync(currentId);
+                        SqrlApplication.setCurrentId(mActivity, -1);
+                        mActivity.afterIdentityWrite(write, () -> {
+                            update();
+                            Toast.makeText(mActivity, mActivity.getResources().getString(R.string.main_identity_removed), Toast.LENGTH_SHORT).show();
+
+                            if(!mCatalog.hasIdentities()) {
+                                mActivity.startActivity(new Intent(mActivity, StartActivity.class));
+                            }
+                        });
                     }
                     break;
 
@@ -197,10 +219,9 @@ public class IdentitySelector {
             }
         };
 
-        String identityName = IdentityDBHelper.getInstance(mContext)
-                .getIdentityName(SqrlApplication.getCurrentId(mContext));
+        String identityName = mCatalog.getIdentityName(SqrlApplication.getCurrentId(mActivity));
 
-        android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(mContext);
+        android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(mActivity);
         builder.setTitle(identityName)
                 .setMessage(R.string.remove_identity_confirmation)
                 .setIcon(R.drawable.ic_delete_menuiconcolor_24dp)
@@ -209,12 +230,16 @@ public class IdentitySelector {
                 .show();
     }
 
+    private IdentityCatalog.CatalogChangedListener mCatalogChangedListener = () -> {
+        if (mIdentitySelectorLayout != null) update();
+    };
+
     private View.OnClickListener mOnListIdentitiesClickListener = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
-            AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(mContext);
+            AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(mActivity);
             dialogBuilder.setIcon(R.drawable.ic_sqrl_icon_vector_outline);
-            dialogBuilder.setTitle(mContext.getResources().getString(R.string.main_selected_identity));
+            dialogBuilder.setTitle(mActivity.getResources().getString(R.string.main_selected_identity));
             dialogBuilder.setSingleChoiceItems(mIdentities.values().toArray(new CharSequence[0]),
                     getIndexFromId(mLastId), (DialogInterface dialog, int item) -> {
                         selectIdentityInternal(item);
@@ -228,7 +253,7 @@ public class IdentitySelector {
     private View.OnClickListener mOnIdentitySettingsClickListener = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
-            PopupMenu popup = new PopupMenu(mContext, mImgIdentityOptions);
+            PopupMenu popup = new PopupMenu(mActivity, mImgIdentityOptions);
             Utils.enablePopupMenuIcons(popup);
             popup.getMenuInflater()
                     .inflate(R.menu.menu_id_management_options, popup.getMenu());
@@ -237,16 +262,16 @@ public class IdentitySelector {
                 switch (item.getItemId()) {
 
                     case R.id.action_idm_settings:
-                        mContext.startActivity(new Intent(mContext, IdentitySettingsActivity.class));
+                        mActivity.startActivity(new Intent(mActivity, IdentitySettingsActivity.class));
                         break;
                     case R.id.action_idm_rename:
-                        mContext.startActivity(new Intent(mContext, RenameActivity.class));
+                        mActivity.startActivity(new Intent(mActivity, RenameActivity.class));
                         break;
                     case R.id.action_idm_remove:
                         removeIdentity();
                         break;
                     case R.id.action_idm_export:
-                        mContext.startActivity(new Intent(mContext, ExportOptionsActivity.class));
+                        mActivity.startActivity(new Intent(mActivity, ExportOptionsActivity.class));
                         break;
                     case R.id.action_idm_password_options:
                         showPasswordOptionsMenu();
@@ -262,7 +287,7 @@ public class IdentitySelector {
     };
 
     private void showPasswordOptionsMenu() {
-        PopupMenu popup = new PopupMenu(mContext, mImgIdentityOptions);
+        PopupMenu popup = new PopupMenu(mActivity, mImgIdentityOptions);
         Utils.enablePopupMenuIcons(popup);
         popup.getMenuInflater()
                 .inflate(R.menu.menu_id_password_options, popup.getMenu());
@@ -271,13 +296,13 @@ public class IdentitySelector {
             switch (item.getItemId()) {
 
                 case R.id.action_idm_pw_change_password:
-                    mContext.startActivity(new Intent(mContext, ChangePasswordActivity.class));
+                    mActivity.startActivity(new Intent(mActivity, ChangePasswordActivity.class));
                     break;
                 case R.id.action_idm_pw_reset_password:
-                    mContext.startActivity(new Intent(mContext, ResetPasswordActivity.class));
+                    mActivity.startActivity(new Intent(mActivity, ResetPasswordActivity.class));
                     break;
                 case R.id.action_idm_pw_rekey:
-                    mContext.startActivity(new Intent(mContext, RekeyIdentityActivity.class));
+                    mActivity.startActivity(new Intent(mActivity, RekeyIdentityActivity.class));
                     break;
                 default:
                     break;
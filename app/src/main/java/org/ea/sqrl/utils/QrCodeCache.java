@@ -0,0 +1,124 @@
+package org.ea.sqrl.utils;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Keeps the QR codes of the latest exported identities, so showing the same export again after a
+ * rotation or a print preview relayout doesn't encode it all over again. Entries are keyed by the
+ * SHA-256 digest of the export data, so a changed identity never gets an old code. The rendered
+ * bitmaps are kept per scale next to the encoded code.
+ *
+ * The application drops the bitmaps when memory runs low or the UI is hidden, and everything once
+ * the app is in the background, so no export lingers in memory after the user has left the app.
+ * The print preview hides our UI while it is open, which is why the codes survive that.
+ */
+public class QrCodeCache {
+    private static final String TAG = "QrCodeCache";
+    private static final int MAX_ENTRIES = 2;
+
+    private static class Entry {
+        private final QrCode qrCode;
+        private final SparseArray<Bitmap> images = new SparseArray<>();
+
+        private Entry(QrCode qrCode) {
+            this.qrCode = qrCode;
+        }
+    }
+
+    private static QrCodeCache instance = null;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(MAX_ENTRIES + 1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private QrCodeCache() {}
+
+    public static synchronized QrCodeCache getInstance() {
+        if(instance == null) {
+            instance = new QrCodeCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the QR code for the export data, encoded with medium error correction the first time.
+     *
+     * @param data    Export data of an identity.
+     * @return        QR code of the data.
+     */
+    public synchronized QrCode getQrCode(byte[] data) {
+        return getEntry(data).qrCode;
+    }
+
+    /**
+     * Returns the QR code for the export data rendered without border into an RGB_565 bitmap,
+     * rendering it the first time it is asked for at this scale.
+     *
+     * @param data    Export data of an identity.
+     * @param scale   Number of pixels per module.
+     * @return        Bitmap of the QR code. It is shared, so it should not be changed or recycled.
+     */
+    public synchronized Bitmap getImage(byte[] data, int scale) {
+        Entry entry = getEntry(data);
+        Bitmap image = entry.images.get(scale);
+        if(image == null) {
+            image = QrCodeUtils.toImage(entry.qrCode, scale, 0, Bitmap.Config.RGB_565);
+            entry.images.put(scale, image);
+        }
+        return image;
+    }
+
+    /**
+     * Releases memory based on the level given to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     * Bitmaps are dropped as soon as memory runs low, and the codes as well in the background.
+     */
+    public synchronized void trimMemory(int level) {
+        if(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            clear();
+        } else if(level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            for(Entry entry : entries.values()) {
+                entry.images.clear();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private Entry getEntry(byte[] data) {
+        String key = digest(data);
+        Entry entry = entries.get(key);
+        if(entry == null) {
+            entry = new Entry(QrCode.encodeBinary(data, QrCode.Ecc.MEDIUM));
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            return EncryptionUtils.byte2hex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(TAG, e.getMessage(), e);
+            throw new IllegalStateException(e);
+        }
+    }
+}
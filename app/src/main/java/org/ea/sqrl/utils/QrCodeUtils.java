@@ -0,0 +1,78 @@
+package org.ea.sqrl.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Draws the QR codes made by the encoder in sqrl-core. The encoder knows nothing about Android,
+ * so it can be tested and benchmarked on a plain JVM, the bitmaps and canvases are handled here.
+ */
+public class QrCodeUtils {
+
+    /**
+     * Returns a new bitmap of the QR code. {@code RGB_565} takes half the memory of
+     * {@code ARGB_8888} and looks the same. {@code ALPHA_8} takes a quarter, with dark modules
+     * opaque and light modules transparent, so it is drawn in the color of the paint or view tint.
+     *
+     * @param qrCode    The QR code to draw.
+     * @param scale     Number of pixels per module, which must be positive.
+     * @param border    Number of border modules to add, which must be non-negative.
+     * @param config    Configuration of the new bitmap.
+     * @throws IllegalArgumentException if the scale or border is out of range
+     */
+    public static Bitmap toImage(QrCode qrCode, int scale, int border, Bitmap.Config config) {
+        int width = qrCode.getImageSize(scale, border);
+        Bitmap bitmap = Bitmap.createBitmap(width, width, config);
+        drawImage(qrCode, bitmap, scale, border);
+        return bitmap;
+    }
+
+    /**
+     * Draws the QR code into the top left corner of an existing bitmap, so a bitmap can be reused
+     * for several codes. The bitmap must be mutable and at least {@link QrCode#getImageSize(int, int)}
+     * pixels wide and high. Only a band of {@code scale} pixel rows is allocated, never a full
+     * pixel buffer.
+     *
+     * @throws IllegalArgumentException if the scale or border is out of range, or the bitmap is too small
+     */
+    public static void drawImage(QrCode qrCode, Bitmap bitmap, int scale, int border) {
+        int width = qrCode.getImageSize(scale, border);
+        if(bitmap.getWidth() < width || bitmap.getHeight() < width) {
+            throw new IllegalArgumentException("Bitmap too small");
+        }
+        int light = bitmap.getConfig() == Bitmap.Config.ALPHA_8 ? 0x00000000 : 0xFFFFFFFF;
+        int[] band = new int[width * scale];
+        for(int y = -border; y < qrCode.size + border; y++) {
+            qrCode.toPixelRow(y, scale, border, band, 0, 0xFF000000, light);
+            for(int i = 1; i < scale; i++) {
+                System.arraycopy(band, 0, band, i * width, width);
+            }
+            bitmap.setPixels(band, 0, width, 0, (y + border) * scale, width, scale);
+        }
+    }
+
+    /**
+     * Draws the QR code onto a canvas as vector shapes, with the top left module at (left, top).
+     * Every horizontal run of dark modules becomes one rectangle of a single path, so printed and
+     * PDF output stays sharp at any resolution without going through a bitmap.
+     *
+     * @param moduleSize    Width and height of a module in canvas units.
+     * @param paint         Paint to fill the dark modules with.
+     */
+    public static void draw(QrCode qrCode, Canvas canvas, float left, float top, float moduleSize, Paint paint) {
+        Path path = new Path();
+        for(int y = 0; y < qrCode.size; y++) {
+            for(int x = qrCode.findModule(y, 0, true); x < qrCode.size; ) {
+                int end = qrCode.findModule(y, x, false);
+                path.addRect(left + x * moduleSize, top + y * moduleSize,
+                        left + end * moduleSize, top + (y + 1) * moduleSize, Path.Direction.CW);
+                x = qrCode.findModule(y, end, true);
+            }
+        }
+        canvas.drawPath(path, paint);
+    }
+}
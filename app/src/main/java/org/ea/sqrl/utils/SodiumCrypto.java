@@ -0,0 +1,138 @@
+package org.ea.sqrl.utils;
+
+import android.os.Build;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.jni.Grc_aesgcm;
+import org.libsodium.jni.NaCl;
+import org.libsodium.jni.Sodium;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The SQRL primitives on Android. Everything but AES-GCM comes from libsodium, AES-GCM comes
+ * from the platform on Oreo and above and from the GRC implementation before that.
+ */
+public class SodiumCrypto implements SqrlCrypto {
+    private static SodiumCrypto instance = null;
+
+    private SodiumCrypto() {
+        Grc_aesgcm.gcm_initialize();
+        NaCl.sodium();
+    }
+
+    public static synchronized SodiumCrypto getInstance() {
+        if(instance == null) {
+            instance = new SodiumCrypto();
+        }
+        return instance;
+    }
+
+    @Override
+    public void scrypt(byte[] key, byte[] password, byte[] salt, int logNFactor) {
+        Sodium.crypto_pwhash_scryptsalsa208sha256_ll(password, password.length, salt, salt.length, 1 << logNFactor, 256, 1, key, key.length);
+    }
+
+    @Override
+    public void signSeedKeypair(byte[] publicKey, byte[] privateKey, byte[] seed) {
+        Sodium.crypto_sign_seed_keypair(publicKey, privateKey, seed);
+    }
+
+    @Override
+    public byte[] signDetached(byte[] message, byte[] privateKey) {
+        byte[] signedMessage = new byte[Sodium.crypto_sign_bytes() + message.length];
+        int[] signedMessageLen = new int[1];
+        Sodium.crypto_sign(signedMessage, signedMessageLen, message, message.length, privateKey);
+        return Arrays.copyOfRange(signedMessage, 0, Sodium.crypto_sign_bytes());
+    }
+
+    @Override
+    public boolean verifyDetached(byte[] signature, byte[] message, byte[] publicKey) {
+        return Sodium.crypto_sign_verify_detached(signature, message, message.length, publicKey) == 0;
+    }
+
+    @Override
+    public void scalarMultBase(byte[] result, byte[] scalar) {
+        Sodium.crypto_scalarmult_base(result, scalar);
+    }
+
+    @Override
+    public void scalarMult(byte[] result, byte[] scalar, byte[] point) {
+        Sodium.crypto_scalarmult(result, scalar, point);
+    }
+
+    @Override
+    public byte[] aesGcmEncrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] plainText) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try {
+                Cipher cipher = cipher(Cipher.ENCRYPT_MODE, key, iv, additionalData);
+                return cipher.doFinal(plainText);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] cipherText = new byte[plainText.length];
+        byte[] tag = new byte[GCM_TAG_BYTES];
+        int res;
+        synchronized (Grc_aesgcm.class) {
+            Grc_aesgcm.gcm_setkey(key, key.length);
+            res = Grc_aesgcm.gcm_encrypt_and_tag(
+                    iv, iv.length,
+                    additionalData, additionalData.length,
+                    plainText, cipherText, plainText.length,
+                    tag, tag.length
+            );
+            Grc_aesgcm.gcm_zero_ctx();
+        }
+        if(res == 0x55555555) throw new IllegalStateException("AES-GCM encryption failed");
+        return EncryptionUtils.combine(cipherText, tag);
+    }
+
+    @Override
+    public byte[] aesGcmDecrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] cipherText, byte[] tag) {
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try {
+                Cipher cipher = cipher(Cipher.DECRYPT_MODE, key, iv, additionalData);
+                cipher.update(cipherText);
+                return cipher.doFinal(tag);
+            } catch (AEADBadTagException badTag) {
+                return null;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] plainText = new byte[cipherText.length];
+        int res;
+        synchronized (Grc_aesgcm.class) {
+            Grc_aesgcm.gcm_setkey(key, key.length);
+            res = Grc_aesgcm.gcm_auth_decrypt(
+                    iv, iv.length,
+                    additionalData, additionalData.length,
+                    cipherText, plainText, cipherText.length,
+                    tag, tag.length
+            );
+            Grc_aesgcm.gcm_zero_ctx();
+        }
+        if(res == 0x55555555) return null;
+        return plainText;
+    }
+
+    private static Cipher cipher(int mode, byte[] key, byte[] iv, byte[] additionalData) throws GeneralSecurityException {
+        Key keySpec = new SecretKeySpec(key, "AES");
+        Cipher cipher = Cipher.getInstance("AES_256/GCM/NoPadding");
+        cipher.init(mode, keySpec, new GCMParameterSpec(128, iv));
+        if(additionalData.length > 0) {
+            cipher.updateAAD(additionalData);
+        }
+        return cipher;
+    }
+}
@@ -16,12 +16,12 @@ import org.ea.sqrl.activites.MainActivity;
 import org.ea.sqrl.activites.ClearQuickPassActivity;
 import org.ea.sqrl.activites.EnableQuickPassActivity;
 import org.ea.sqrl.activites.LoginActivity;
+import org.ea.sqrl.core.utils.SqrlLog;
 import org.ea.sqrl.database.IdentityDBHelper;
 import org.ea.sqrl.processors.EntropyHarvester;
 import org.ea.sqrl.processors.SQRLStorage;
 
 import java.util.Arrays;
-import java.util.Map;
 
 
 public class SqrlApplication extends Application {
@@ -37,9 +37,11 @@ public class SqrlApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
+        SqrlLog.setLogger(new AndroidLogger());
         AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
         configureShortcuts(getApplicationContext());
         setApplicationShortcuts(getApplicationContext());
+        IdentityDBHelper.getInstance(getApplicationContext()).loadCatalogAsync();
         try {
             long currentId = getCurrentId(getApplicationContext());
             if (currentId > 0) {
@@ -51,6 +53,18 @@ public class SqrlApplication extends Application {
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        QrCodeCache.getInstance().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        QrCodeCache.getInstance().clear();
+    }
+
     public static void setApplicationShortcuts(Context context) {
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             SQRLStorage sqrlStorage = SQRLStorage.getInstance(context);
@@ -142,10 +156,7 @@ public class SqrlApplication extends Application {
         IdentityDBHelper dbHelper = IdentityDBHelper.getInstance(context);
 
         if (id == -1) {
-            Map<Long,String> identities = dbHelper.getIdentities();
-            if (identities.size() > 0) {
-                id = identities.keySet().iterator().next();
-            }
+            id = dbHelper.getCatalog().getFirstId();
         }
 
         if (id == -1) return;
@@ -0,0 +1,116 @@
+package org.ea.sqrl;
+
+import org.ea.sqrl.processors.EntropyEstimator;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds the entropy estimator synthetic frames: noise should be credited, while still and
+ * stuck frames should fail the health tests and never be credited.
+ */
+public class EntropyEstimatorUnitTest {
+    private static final int FRAME_SIZE = 640 * 480 * 3 / 2;
+
+    @Test
+    public void testHealthTestCutoffs() {
+        EntropyEstimator estimator = new EntropyEstimator(EntropyEstimator.DEFAULT_SAMPLES_PER_FRAME, 1.0);
+        assertEquals(21, estimator.getRepetitionCountCutoff());
+        assertEquals(311, estimator.getAdaptiveProportionCutoff());
+
+        // Cutoffs for a window of 512 as listed in SP 800-90B
+        estimator = new EntropyEstimator();
+        assertEquals(41, estimator.getRepetitionCountCutoff());
+        assertEquals(410, estimator.getAdaptiveProportionCutoff());
+    }
+
+    @Test
+    public void testNoiseIsCredited() {
+        EntropyEstimator estimator = new EntropyEstimator();
+        Random random = new Random(1);
+
+        byte[] frame = new byte[FRAME_SIZE];
+        random.nextBytes(frame);
+        assertEquals(0, estimator.addFrame(frame), 0);
+
+        for (int i = 0; i < 20; i++) {
+            random.nextBytes(frame);
+            double credit = estimator.addFrame(frame);
+            assertTrue(credit > 0);
+            assertTrue(credit <= EntropyEstimator.DEFAULT_SAMPLES_PER_FRAME * EntropyEstimator.DEFAULT_CLAIMED_ENTROPY);
+        }
+        assertEquals(0, estimator.getHealthFailures());
+        assertFalse(estimator.isDegenerate());
+        assertTrue(estimator.getEntropyBits() > 0);
+    }
+
+    @Test
+    public void testStillFramesAreDegenerate() {
+        EntropyEstimator estimator = new EntropyEstimator();
+        byte[] frame = new byte[FRAME_SIZE];
+
+        for (int i = 0; i <= EntropyEstimator.DEGENERATE_FRAME_COUNT; i++) {
+            assertEquals(0, estimator.addFrame(frame), 0);
+        }
+        assertEquals(0, estimator.getEntropyBits(), 0);
+        assertEquals(EntropyEstimator.DEGENERATE_FRAME_COUNT, estimator.getHealthFailures());
+        assertTrue(estimator.isDegenerate());
+
+        estimator.reset();
+        assertFalse(estimator.isDegenerate());
+        assertEquals(0, estimator.getHealthFailures());
+    }
+
+    @Test
+    public void testDarkRegionIsNotDegenerate() {
+        EntropyEstimator estimator = new EntropyEstimator();
+        Random random = new Random(2);
+        byte[] noise = new byte[FRAME_SIZE / 2];
+
+        for (int i = 0; i < 10; i++) {
+            byte[] frame = new byte[FRAME_SIZE];
+            random.nextBytes(noise);
+            System.arraycopy(noise, 0, frame, FRAME_SIZE / 2, noise.length);
+            estimator.addFrame(frame);
+        }
+        assertEquals(0, estimator.getHealthFailures());
+        assertTrue(estimator.getEntropyBits() > 0);
+    }
+
+    @Test
+    public void testNewFrameSizeStartsOver() {
+        EntropyEstimator estimator = new EntropyEstimator();
+        Random random = new Random(3);
+
+        byte[] frame = new byte[FRAME_SIZE];
+        random.nextBytes(frame);
+        estimator.addFrame(frame);
+        byte[] smallFrame = new byte[FRAME_SIZE / 4];
+        random.nextBytes(smallFrame);
+        assertEquals(0, estimator.addFrame(smallFrame), 0);
+        random.nextBytes(smallFrame);
+        assertTrue(estimator.addFrame(smallFrame) > 0);
+    }
+
+    @Test
+    public void testDirectBufferMatchesArray() {
+        EntropyEstimator arrayEstimator = new EntropyEstimator();
+        EntropyEstimator bufferEstimator = new EntropyEstimator();
+        Random random = new Random(4);
+        byte[] frame = new byte[FRAME_SIZE];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME_SIZE + 16);
+
+        for (int i = 0; i < 5; i++) {
+            random.nextBytes(frame);
+            buffer.clear();
+            buffer.position(16);
+            buffer.put(frame);
+            buffer.position(16);
+            assertEquals(arrayEstimator.addFrame(frame), bufferEstimator.addFrame(buffer), 0);
+            assertEquals(16, buffer.position());
+        }
+    }
+}
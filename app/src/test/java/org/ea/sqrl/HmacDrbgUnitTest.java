@@ -0,0 +1,61 @@
+package org.ea.sqrl;
+
+import org.ea.sqrl.processors.HmacDrbg;
+import org.ea.sqrl.utils.EncryptionUtils;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks HMAC_DRBG (SHA-512) against vectors laid out like the NIST CAVP ones: instantiate,
+ * reseed, generate twice and compare the second output. Vectors without reseed entropy skip the
+ * reseed, like the CAVP no reseed vectors. The first vector is COUNT = 0 of the SHA-512 no
+ * reseed vectors without additional input, the others were made with this class and checked
+ * against the OpenSSL HMAC-DRBG.
+ */
+public class HmacDrbgUnitTest {
+    @Test
+    public void testHmacDrbgVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile(
+                "hmacdrbg-vectors.txt", true, false);
+
+        int vectorNumber = 1;
+        for (List<String> vector : vectors) {
+            byte[] expectedResult = EncryptionUtils.hex2Byte(vector.get(7));
+
+            HmacDrbg drbg = new HmacDrbg(EncryptionUtils.hex2Byte(vector.get(0)),
+                    EncryptionUtils.hex2Byte(vector.get(1)), EncryptionUtils.hex2Byte(vector.get(2)));
+            if (!vector.get(3).isEmpty()) {
+                drbg.reseed(EncryptionUtils.hex2Byte(vector.get(3)), EncryptionUtils.hex2Byte(vector.get(4)));
+            }
+            byte[] result = new byte[expectedResult.length];
+            drbg.generate(result, EncryptionUtils.hex2Byte(vector.get(5)));
+            drbg.generate(result, EncryptionUtils.hex2Byte(vector.get(6)));
+
+            assertArrayEquals("testHmacDrbgVectors / vector # " + vectorNumber +
+                    ": Output should match result in vector file", expectedResult, result);
+            assertEquals(3, drbg.getReseedCounter());
+
+            vectorNumber++;
+        }
+    }
+
+    @Test
+    public void testLongRequestsAreSplit() throws Exception {
+        byte[] seed = new byte[HmacDrbg.SECURITY_STRENGTH_BYTES];
+        byte[] nonce = new byte[16];
+        HmacDrbg drbg = new HmacDrbg(seed, nonce, null);
+
+        byte[] result = new byte[HmacDrbg.MAX_BYTES_PER_REQUEST * 2 + 10];
+        drbg.generate(result, null);
+        assertEquals(4, drbg.getReseedCounter());
+        assertFalse(drbg.needsReseed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShortSeedIsRejected() throws Exception {
+        new HmacDrbg(new byte[16], new byte[16], null);
+    }
+}
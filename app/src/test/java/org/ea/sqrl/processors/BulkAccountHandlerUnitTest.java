@@ -0,0 +1,91 @@
+package org.ea.sqrl.processors;
+
+import org.ea.sqrl.processors.BulkAccountHandler.Operation;
+import org.ea.sqrl.processors.BulkAccountHandler.Report;
+import org.ea.sqrl.processors.BulkAccountHandler.SiteResult;
+import org.ea.sqrl.processors.BulkAccountHandler.Status;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs bulk jobs against stubbed sites, which finish in the reverse order of the list, to check
+ * that the report keeps the order of the links and counts the results right.
+ */
+public class BulkAccountHandlerUnitTest {
+    private static final List<String> SITES = Arrays.asList(
+            "sqrl://done.example.com/sqrl?nut=1",
+            "sqrl://already.example.com/sqrl?nut=2",
+            "sqrl://missing.example.com/sqrl?nut=3",
+            "sqrl://failed.example.com/sqrl?nut=4",
+            "sqrl://crash.example.com/sqrl?nut=5",
+            "sqrl://done.example.com/sqrl?nut=6"
+    );
+
+    private static SiteResult stubSite(String sqrlUrl) {
+        try {
+            Thread.sleep(10 * (SITES.size() - SITES.indexOf(sqrlUrl)));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if(sqrlUrl.contains("//done.")) return new SiteResult(sqrlUrl, Status.DONE, null);
+        if(sqrlUrl.contains("//already.")) return new SiteResult(sqrlUrl, Status.ALREADY_DONE, null);
+        if(sqrlUrl.contains("//missing.")) return new SiteResult(sqrlUrl, Status.ACCOUNT_MISSING, null);
+        if(sqrlUrl.contains("//failed.")) return new SiteResult(sqrlUrl, Status.FAILED, "Login failed");
+        throw new IllegalStateException("Conversation broke");
+    }
+
+    @Test
+    public void testResultOrderAndCounts() throws Exception {
+        List<Thread> listenerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        Set<Integer> sitesDone = Collections.synchronizedSet(new HashSet<Integer>());
+
+        BulkAccountHandler handler = new BulkAccountHandler(
+                (sqrlUrl, operation) -> stubSite(sqrlUrl), SITES.size());
+        handler.setSiteDoneListener((result, done, total) -> {
+            listenerThreads.add(Thread.currentThread());
+            sitesDone.add(done);
+            assertEquals(SITES.size(), total);
+        });
+        Report report = handler.run(SITES, Operation.LOCK);
+
+        List<SiteResult> results = report.getResults();
+        assertEquals(SITES.size(), results.size());
+        for(int i = 0; i < SITES.size(); i++) {
+            assertEquals(SITES.get(i), results.get(i).getSqrlUrl());
+        }
+
+        assertEquals(Status.DONE, results.get(0).getStatus());
+        assertEquals(Status.ALREADY_DONE, results.get(1).getStatus());
+        assertEquals(Status.ACCOUNT_MISSING, results.get(2).getStatus());
+        assertEquals(Status.FAILED, results.get(3).getStatus());
+        assertEquals("Login failed", results.get(3).getErrorMessage());
+        assertEquals(Status.FAILED, results.get(4).getStatus());
+        assertEquals("Conversation broke", results.get(4).getErrorMessage());
+        assertEquals(Status.DONE, results.get(5).getStatus());
+
+        assertEquals(2, report.getCount(Status.DONE));
+        assertEquals(2, report.getCount(Status.FAILED));
+        assertEquals(3, report.getSuccessfulCount());
+
+        assertEquals(SITES.size() - 1, listenerThreads.size());
+        assertEquals(SITES.size() - 1, sitesDone.size());
+        assertFalse(listenerThreads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testEmptyJob() throws Exception {
+        BulkAccountHandler handler = new BulkAccountHandler(
+                (sqrlUrl, operation) -> stubSite(sqrlUrl), 2);
+        Report report = handler.run(Collections.<String>emptyList(), Operation.REMOVE);
+        assertTrue(report.getResults().isEmpty());
+        assertEquals(0, report.getSuccessfulCount());
+    }
+}
@@ -0,0 +1,70 @@
+package org.ea.sqrl.processors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the moving averages of the EnScrypt timing model and how they are mixed with the
+ * iterations of a running decryption.
+ */
+public class EnScryptTimingModelUnitTest {
+    @Test
+    public void testMovingAverage() {
+        EnScryptTimingModel model = new EnScryptTimingModel(null, null);
+        assertEquals(0, model.getIterationNanos(9));
+
+        model.addIteration(9, 1_000_000);
+        assertEquals(1_000_000, model.getIterationNanos(9));
+
+        model.addIteration(9, 2_000_000);
+        assertEquals(1_200_000, model.getIterationNanos(9));
+
+        for (int i = 0; i < 100; i++) {
+            model.addIteration(9, 3_000_000);
+        }
+        assertTrue(Math.abs(model.getIterationNanos(9) - 3_000_000) < 10);
+        assertEquals(0, model.getIterationNanos(10));
+    }
+
+    @Test
+    public void testKdfProfileFallback() {
+        KdfProfile profile = new KdfProfile(null);
+        EnScryptTimingModel model = new EnScryptTimingModel(null, profile);
+        assertEquals(0, model.getIterationNanos(9));
+
+        profile.addTimedRun(9, 100, 1000);
+        assertEquals(10_000_000, model.getIterationNanos(9));
+
+        model.addIteration(9, 1_000_000);
+        assertEquals(1_000_000, model.getIterationNanos(9));
+        assertEquals(0, model.getIterationNanos(10));
+    }
+
+    @Test
+    public void testIgnoresInvalidSamples() {
+        EnScryptTimingModel model = new EnScryptTimingModel(null, null);
+        model.addIteration(-1, 1_000_000);
+        model.addIteration(32, 1_000_000);
+        model.addIteration(9, 0);
+        assertEquals(0, model.getIterationNanos(-1));
+        assertEquals(0, model.getIterationNanos(32));
+        assertEquals(0, model.getIterationNanos(9));
+        model.save();
+    }
+
+    @Test
+    public void testEstimateIterationNanos() {
+        // Nothing known before the first iteration is done, then the warm up is all there is
+        assertEquals(0, EnScryptTimingModel.estimateIterationNanos(0, 0, 0, 0));
+        assertEquals(5_000_000, EnScryptTimingModel.estimateIterationNanos(0, 0, 0, 5_000_000));
+        assertEquals(2_000_000, EnScryptTimingModel.estimateIterationNanos(0, 4_000_000, 2, 5_000_000));
+
+        // The stored average is used from the start and the run takes over gradually
+        assertEquals(1_000_000, EnScryptTimingModel.estimateIterationNanos(1_000_000, 0, 0, 0));
+        assertEquals(1_500_000, EnScryptTimingModel.estimateIterationNanos(1_000_000,
+                2_000_000L * EnScryptTimingModel.PRIOR_WEIGHT, EnScryptTimingModel.PRIOR_WEIGHT, 5_000_000));
+        long late = EnScryptTimingModel.estimateIterationNanos(1_000_000, 2_000_000L * 1000, 1000, 5_000_000);
+        assertTrue(late > 1_990_000 && late < 2_000_000);
+    }
+}
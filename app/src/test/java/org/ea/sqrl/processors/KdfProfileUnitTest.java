@@ -0,0 +1,66 @@
+package org.ea.sqrl.processors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how calibration timings are summarized into a KDF profile and turned into iteration
+ * counts.
+ */
+public class KdfProfileUnitTest {
+    @Test
+    public void testSummarize() {
+        long[] nanos = new long[] {
+                50, 10, 12, 11, 10, 10, 10, 11, 12, 14, 15, 16, 20, 20, 20, 20, 20
+        };
+        KdfProfile.Entry entry = KdfProfile.summarize(nanos, nanos.length);
+        assertEquals(50, entry.coldNanos);
+        assertEquals(20, entry.sustainedNanos);
+
+        assertNull(KdfProfile.summarize(nanos, 1));
+        entry = KdfProfile.summarize(nanos, 2);
+        assertEquals(10, entry.sustainedNanos);
+    }
+
+    @Test
+    public void testIterationCount() {
+        assertEquals(0, KdfProfile.iterationCount(null, 5));
+
+        KdfProfile.Entry entry = new KdfProfile.Entry(500_000_000L, 100_000_000L);
+        assertEquals(46, KdfProfile.iterationCount(entry, 5));
+        assertEquals(1, KdfProfile.iterationCount(new KdfProfile.Entry(2_000_000_000L, 1), 1));
+        assertEquals(2397, KdfProfile.iterationCount(new KdfProfile.Entry(100_000_000L, 25_000_000L), 60));
+    }
+
+    @Test
+    public void testEntryParse() {
+        KdfProfile.Entry entry = KdfProfile.Entry.parse(new KdfProfile.Entry(3, 1).toString());
+        assertEquals(3, entry.coldNanos);
+        assertEquals(1, entry.sustainedNanos);
+
+        assertNull(KdfProfile.Entry.parse(null));
+        assertNull(KdfProfile.Entry.parse("1"));
+        assertNull(KdfProfile.Entry.parse("1,x"));
+        assertNull(KdfProfile.Entry.parse("1,2,3"));
+    }
+
+    @Test
+    public void testTimedRuns() {
+        KdfProfile profile = new KdfProfile(null);
+        assertFalse(profile.isCalibrated(9));
+        assertEquals(0, profile.getIterationCount(9, 5));
+
+        profile.addTimedRun(9, 1, 1000);
+        assertFalse(profile.isCalibrated(9));
+
+        profile.addTimedRun(9, 100, 1000);
+        assertTrue(profile.isCalibrated(9));
+        assertEquals(10_000_000, profile.getEntry(9).sustainedNanos);
+
+        profile.addTimedRun(9, 50, 1000);
+        assertEquals(13_000_000, profile.getEntry(9).sustainedNanos);
+        assertEquals(10_000_000, profile.getEntry(9).coldNanos);
+        assertFalse(profile.isCalibrated(10));
+    }
+}
@@ -0,0 +1,94 @@
+package org.ea.sqrl.benchmarks;
+
+import org.ea.sqrl.core.crypto.EnHash;
+import org.ea.sqrl.core.utils.Base56;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The encodings and hashes the app hands to sqrl-core, for a key and for the rescue block of an
+ * identity, which is what the textual identity shows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncodingBenchmark {
+    @Param({"32", "73"})
+    public int size;
+
+    private byte[] data;
+    private byte[] otherData;
+    private String base56;
+    private String base64;
+    private String hex;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(size);
+        data = new byte[size];
+        otherData = new byte[size];
+        random.nextBytes(data);
+        random.nextBytes(otherData);
+        base56 = Base56.encode(data);
+        base64 = Base64Url.encode(data);
+        hex = Bytes.toHex(data);
+    }
+
+    @Benchmark
+    public String encodeBase56() {
+        return Base56.encode(data);
+    }
+
+    @Benchmark
+    public byte[] decodeBase56() throws Exception {
+        return Base56.decode(base56);
+    }
+
+    @Benchmark
+    public int validateBase56() {
+        return Base56.validate(base56);
+    }
+
+    @Benchmark
+    public String encodeBase64Url() {
+        return Base64Url.encode(data);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64Url() {
+        return Base64Url.decode(base64);
+    }
+
+    @Benchmark
+    public byte[] enHash() {
+        return EnHash.hash(data);
+    }
+
+    @Benchmark
+    public byte[] xor() {
+        byte[] result = data.clone();
+        Bytes.xorInto(result, otherData);
+        return result;
+    }
+
+    @Benchmark
+    public String toHex() {
+        return Bytes.toHex(data);
+    }
+
+    @Benchmark
+    public byte[] fromHex() {
+        return Bytes.fromHex(hex);
+    }
+}
@@ -0,0 +1,84 @@
+package org.ea.sqrl.benchmarks;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.IdentityData;
+import org.ea.sqrl.core.utils.Base56;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing identities, which is what SQRLStorage.read and createSaveData do with the
+ * parser of sqrl-core. The identity is the test vector of IdentityDataUnitTest, with a password
+ * and a rescue block, and with four previous keys added for the largest identity there is. None
+ * of the blocks are decrypted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IdentityBenchmark {
+    private static final String TEST_IDENTITY = "7371726c646174617d0001002d00b51fd99559b887d106a8d877c70133bb20a12fa1a7c829b194db94f309c5000000f30104050f000d174cc6e7b70baa158aa4ce75e2f2b99a02a40e4beb2e5d16c2f03442bd3e932035419a63885a663125a600e5486c42b38f708c1094ced1ab0b0050137f6df449caf78581fec678408a804caf74f91c490002005528fc85e3e36866a85574146fe7776d09cf0000004a4e12277dd48366fc1f335dd37188bbcba02bc32a12aef0188f5e83593665518483d638b80051c2b4b013491eb06835";
+
+    @Param({"0", "4"})
+    public int previousKeys;
+
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+
+    private byte[] data;
+    private byte[] base64Data;
+    private IdentityData identity;
+
+    @Setup
+    public void setup() throws Exception {
+        identity = IdentityData.read(Bytes.fromHex(TEST_IDENTITY));
+        if(previousKeys > 0) {
+            Random random = new Random(previousKeys);
+            byte[] identityMasterKey = new byte[32];
+            random.nextBytes(identityMasterKey);
+            byte[][] keys = new byte[previousKeys][32];
+            for(byte[] key : keys) {
+                random.nextBytes(key);
+            }
+            identity.setPreviousKeysBlock(IdentityData.PreviousKeysBlock.encrypt(crypto, identityMasterKey, keys));
+        }
+        data = identity.toBytes();
+        String base64 = Base64Url.encode(Arrays.copyOfRange(data, IdentityData.HEADER_LENGTH, data.length));
+        base64Data = (IdentityData.HEADER_BASE64 + base64).getBytes("US-ASCII");
+    }
+
+    @Benchmark
+    public IdentityData read() throws Exception {
+        return IdentityData.read(data);
+    }
+
+    @Benchmark
+    public IdentityData readBase64() throws Exception {
+        return IdentityData.read(base64Data);
+    }
+
+    @Benchmark
+    public byte[] createSaveData() {
+        return identity.toBytes();
+    }
+
+    /**
+     * The rescue and previous keys blocks in base56, which SQRLStorage shows to verify the
+     * textual identity after every read.
+     */
+    @Benchmark
+    public String verifyingRecoveryBlock() {
+        return Base56.encode(identity.getTextualBytes());
+    }
+}
@@ -0,0 +1,111 @@
+package org.ea.sqrl.benchmarks;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.protocol.ClientParameters;
+import org.ea.sqrl.core.protocol.CryptDomain;
+import org.ea.sqrl.core.protocol.PostBody;
+import org.ea.sqrl.core.protocol.ServerResponse;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The requests CommunicationHandler builds and the responses it parses, for a login with both
+ * the current and a previous identity. The site keys are derived once up front, the app keeps
+ * them for the domain as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProtocolBenchmark {
+    private static final String SQRL_LINK = "sqrl://www.grc.com/sqrl?nut=Na2MOglf7NyyupQ8-dtj1g";
+
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+
+    private SiteKeys siteKeys;
+    private SiteKeys previousSiteKeys;
+    private byte[] secretIndex;
+    private byte[] serverUnlock;
+    private byte[] verifyUnlock;
+    private String client;
+    private String response;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(1);
+        byte[] identityMasterKey = new byte[32];
+        byte[] previousUnlockKey = new byte[32];
+        random.nextBytes(identityMasterKey);
+        random.nextBytes(previousUnlockKey);
+        byte[] domain = CryptDomain.fromSqrlLink(SQRL_LINK).getBytes();
+        siteKeys = SiteKeys.derive(crypto, identityMasterKey, domain);
+        previousSiteKeys = SiteKeys.derivePrevious(crypto, previousUnlockKey, domain);
+        secretIndex = siteKeys.secretIndex("sqrl-benchmark");
+
+        serverUnlock = new byte[32];
+        verifyUnlock = new byte[32];
+        random.nextBytes(serverUnlock);
+        random.nextBytes(verifyUnlock);
+
+        client = clientLogin();
+        response = Base64Url.encode(
+                "ver=1\r\n" +
+                "nut=Na2MOglf7NyyupQ8-dtj1g\r\n" +
+                "tif=5\r\n" +
+                "qry=/sqrl?nut=Na2MOglf7NyyupQ8-dtj1g\r\n" +
+                "suk=" + Base64Url.encode(serverUnlock) + "\r\n" +
+                "sin=0\r\n");
+    }
+
+    @Benchmark
+    public CryptDomain cryptDomain() throws Exception {
+        return CryptDomain.fromSqrlLink(SQRL_LINK);
+    }
+
+    @Benchmark
+    public String clientQuery() {
+        return new ClientParameters(ClientParameters.CMD_QUERY)
+                .options(false, false, false, false, true)
+                .secretIndex(secretIndex, null)
+                .identityKey(siteKeys.getPublicKey())
+                .previousIdentityKey(previousSiteKeys.getPublicKey())
+                .toString();
+    }
+
+    @Benchmark
+    public String clientLogin() {
+        return new ClientParameters(ClientParameters.CMD_IDENT)
+                .options(false, false, false, true, false)
+                .secretIndex(secretIndex, null)
+                .identityKey(siteKeys.getPublicKey())
+                .previousIdentityKey(previousSiteKeys.getPublicKey())
+                .unlockKeys(serverUnlock, verifyUnlock)
+                .toString();
+    }
+
+    @Benchmark
+    public String postBody() {
+        return new PostBody(client, response)
+                .identitySignature(crypto, siteKeys.getPrivateKey())
+                .previousIdentitySignature(crypto, previousSiteKeys.getPrivateKey())
+                .toString();
+    }
+
+    @Benchmark
+    public boolean serverResponse() {
+        ServerResponse parsed = ServerResponse.parse(response);
+        return parsed.isTifBitSet(ServerResponse.TIF_CURRENT_ID_MATCH)
+                && parsed.getQueryLink() != null
+                && parsed.getServerUnlockKey() != null;
+    }
+}
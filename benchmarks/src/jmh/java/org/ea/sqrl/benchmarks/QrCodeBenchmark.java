@@ -0,0 +1,60 @@
+package org.ea.sqrl.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.nayuki.qrcodegen.QrCode;
+
+/**
+ * Encoding the QR codes the app shows for an exported identity. One with a rescue block and a
+ * few previous keys is a couple of hundred bytes, the larger size is there to show how the
+ * encoder scales towards the highest versions. The medium error correction level is the one
+ * the app asks for. Turning the pixels into a bitmap needs the device, that is timed by the
+ * QrCodeUtilsBenchmark of the app.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QrCodeBenchmark {
+    private static final int SCALE = 4;
+
+    @Param({"64", "214", "1024"})
+    public int size;
+
+    private byte[] data;
+    private QrCode qrCode;
+    private int width;
+    private int[] pixels;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        qrCode = QrCode.encodeBinary(data, QrCode.Ecc.MEDIUM);
+        width = qrCode.getImageSize(SCALE, 0);
+        pixels = new int[width * width];
+    }
+
+    @Benchmark
+    public QrCode encodeBinary() {
+        return QrCode.encodeBinary(data, QrCode.Ecc.MEDIUM);
+    }
+
+    /**
+     * The pixels the app copies into its bitmaps, at the scale of the export screen.
+     */
+    @Benchmark
+    public int[] toPixels() {
+        qrCode.toPixels(SCALE, 0, pixels, 0, width, 0xFF000000, 0xFFFFFFFF);
+        return pixels;
+    }
+}
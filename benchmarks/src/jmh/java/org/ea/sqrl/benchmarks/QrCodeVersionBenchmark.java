@@ -0,0 +1,77 @@
+package org.ea.sqrl.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.nayuki.qrcodegen.QrCode;
+import io.nayuki.qrcodegen.QrSegment;
+
+/**
+ * Encoding a QR code of every version, filled up with as many bytes as it holds at the medium
+ * error correction level, to see where the encoder gets slow as the symbols grow. The iterations
+ * are a second each, so all forty versions are done in a few minutes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(time = 1)
+@Measurement(time = 1)
+public class QrCodeVersionBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        byte[] random = new byte[2953];
+        new Random(version).nextBytes(random);
+
+        int fits = 1;
+        int tooLong = random.length + 1;
+        while(tooLong - fits > 1) {
+            int length = (fits + tooLong) / 2;
+            if(fitsVersion(Arrays.copyOf(random, length))) {
+                fits = length;
+            } else {
+                tooLong = length;
+            }
+        }
+        data = Arrays.copyOf(random, fits);
+
+        if(QrCode.encodeBinary(data, QrCode.Ecc.MEDIUM).version != version) {
+            throw new IllegalStateException("Data of " + fits + " bytes is not version " + version);
+        }
+    }
+
+    private boolean fitsVersion(byte[] data) {
+        try {
+            QrCode.encodeSegments(Collections.singletonList(QrSegment.makeBytes(data)),
+                    QrCode.Ecc.MEDIUM, version, version, 0, false);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public QrCode encodeBinary() {
+        return QrCode.encodeBinary(data, QrCode.Ecc.MEDIUM);
+    }
+}
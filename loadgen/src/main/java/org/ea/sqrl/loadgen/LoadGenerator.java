@@ -0,0 +1,140 @@
+package org.ea.sqrl.loadgen;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+
+import java.io.PrintStream;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Logs synthetic identities in to a SQRL server at a set rate and reports how the server held
+ * up. The arrivals are open, a new login starts on time whether the earlier ones are done or
+ * not, so a slow server gives longer latencies rather than a lower rate. A fixed pool of
+ * workers runs the logins, and a login that finds every worker busy and the queue full is
+ * dropped and counted.
+ */
+public class LoadGenerator {
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final SqrlCrypto crypto;
+    private final LoadOptions options;
+    private final PrintStream out;
+
+    public LoadGenerator(SqrlCrypto crypto, LoadOptions options, PrintStream out) {
+        this.crypto = crypto;
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+
+        // The default keep-alive pool holds five connections, far too few to reuse under load.
+        System.setProperty("http.maxConnections", String.valueOf(options.concurrency));
+
+        SqrlCrypto crypto = new BouncyCastleCrypto();
+        StandInServer server = null;
+        try {
+            if(options.isLocal()) {
+                server = new StandInServer(crypto, options.localPort, Runtime.getRuntime().availableProcessors() * 2);
+                server.start();
+                System.out.println("Stand-in server on " + server.getLinkUrl());
+                if(options.serveOnly) {
+                    Thread.currentThread().join();
+                }
+                options.link = server.getLinkUrl();
+            }
+
+            new LoadGenerator(crypto, options, System.out).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if(server != null) server.stop();
+        }
+    }
+
+    public LoadReport run() throws InterruptedException {
+        LoadReport report = new LoadReport();
+        Random random = new SecureRandom();
+        out.println("Creating " + options.identities + " identities");
+        List<SyntheticIdentity> identities = SyntheticIdentity.create(crypto, options.identities, options.seed);
+        LoginFlow flow = new LoginFlow(crypto, options, report, random);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                options.concurrency, options.concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(options.concurrency));
+
+        out.printf("Starting logins against %s at %.1f/s for %d s%n", options.link, options.rate, options.durationSeconds);
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long nextProgress = startTime + PROGRESS_INTERVAL_NANOS;
+        long arrivalTime = startTime;
+        int next = 0;
+        while(arrivalTime < endTime) {
+            long now;
+            while((now = System.nanoTime()) < arrivalTime) {
+                LockSupport.parkNanos(arrivalTime - now);
+            }
+            if(now >= nextProgress) {
+                out.printf("%4d s: %d started, %d succeeded, %d failed, %d dropped%n",
+                        TimeUnit.NANOSECONDS.toSeconds(now - startTime), report.getStarted(),
+                        report.getSucceeded(), report.getFailed(), report.getDropped());
+                nextProgress += PROGRESS_INTERVAL_NANOS;
+            }
+
+            final SyntheticIdentity identity = identities.get(next++ % identities.size());
+            final long scheduledTime = arrivalTime;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flow.run(identity, scheduledTime);
+                    }
+                });
+                report.started();
+            } catch (RejectedExecutionException e) {
+                report.dropped();
+            }
+
+            double rate = options.rateAt((arrivalTime - startTime) / 1e9);
+            arrivalTime += interArrivalNanos(rate, random);
+        }
+
+        executor.shutdown();
+        long drainMillis = 2L * options.timeoutMillis + 1000;
+        if(!executor.awaitTermination(drainMillis, TimeUnit.MILLISECONDS)) {
+            out.println("Logins still running after " + drainMillis + " ms, not waiting for them");
+            executor.shutdownNow();
+        }
+
+        out.println();
+        report.print(out, (System.nanoTime() - startTime) / 1e9);
+        return report;
+    }
+
+    private long interArrivalNanos(double rate, Random random) {
+        double seconds = 1 / rate;
+        if(options.arrival == LoadOptions.Arrival.POISSON) {
+            seconds = -Math.log(1 - random.nextDouble()) / rate;
+        }
+        return (long)(seconds * 1e9);
+    }
+}
@@ -0,0 +1,130 @@
+package org.ea.sqrl.loadgen;
+
+/**
+ * The settings of a load run, from the command line.
+ */
+public class LoadOptions {
+    public enum Arrival { CONSTANT, POISSON }
+
+    /**
+     * A sqrl:// or qrl:// link to log in with, or an http(s) address that gives a new link for
+     * every login, like the page a browser would show the QR code on.
+     */
+    String link;
+    int identities = 100;
+    double rate = 10;
+    int rampSeconds = 0;
+    int durationSeconds = 60;
+    int concurrency = 50;
+    int timeoutMillis = 10000;
+    long seed = 1;
+    Arrival arrival = Arrival.CONSTANT;
+    boolean noiptest = true;
+    /**
+     * Port to run the stand-in server on, -1 when testing a real server.
+     */
+    int localPort = -1;
+    boolean serveOnly = false;
+
+    public static final String USAGE =
+            "Usage: loadgen [options] (--link <sqrl link or url> | --local)\n" +
+            "  --link <link>          sqrl:// link, or http(s) url that returns a new link per login\n" +
+            "  --local                start the stand-in server and test that\n" +
+            "  --serve <port>         only run the stand-in server\n" +
+            "  --port <port>          port of the stand-in server for --local, default any free port\n" +
+            "  --identities <n>       synthetic identities to log in with, default 100\n" +
+            "  --rate <n>             logins started per second, default 10\n" +
+            "  --ramp <seconds>       time to go from zero up to the full rate, default 0\n" +
+            "  --duration <seconds>   time to start new logins for, default 60\n" +
+            "  --arrival <kind>       constant or poisson spacing between logins, default constant\n" +
+            "  --concurrency <n>      logins running at the same time, default 50\n" +
+            "  --timeout <millis>     connect and read timeout of a request, default 10000\n" +
+            "  --seed <n>             seed of the identities, the same seed gives the same identities\n" +
+            "  --iptest               ask the server to check our IP address\n";
+
+    public static LoadOptions parse(String[] args) throws Exception {
+        LoadOptions options = new LoadOptions();
+        boolean local = false;
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--link":
+                    options.link = value(args, ++i, arg);
+                    break;
+                case "--local":
+                    local = true;
+                    break;
+                case "--serve":
+                    options.localPort = intValue(args, ++i, arg);
+                    options.serveOnly = true;
+                    break;
+                case "--port":
+                    options.localPort = intValue(args, ++i, arg);
+                    break;
+                case "--identities":
+                    options.identities = intValue(args, ++i, arg);
+                    break;
+                case "--rate":
+                    options.rate = Double.parseDouble(value(args, ++i, arg));
+                    break;
+                case "--ramp":
+                    options.rampSeconds = intValue(args, ++i, arg);
+                    break;
+                case "--duration":
+                    options.durationSeconds = intValue(args, ++i, arg);
+                    break;
+                case "--arrival":
+                    options.arrival = Arrival.valueOf(value(args, ++i, arg).toUpperCase());
+                    break;
+                case "--concurrency":
+                    options.concurrency = intValue(args, ++i, arg);
+                    break;
+                case "--timeout":
+                    options.timeoutMillis = intValue(args, ++i, arg);
+                    break;
+                case "--seed":
+                    options.seed = Long.parseLong(value(args, ++i, arg));
+                    break;
+                case "--iptest":
+                    options.noiptest = false;
+                    break;
+                default:
+                    throw new Exception("Unknown option " + arg);
+            }
+        }
+
+        if(local && options.localPort == -1) {
+            options.localPort = 0;
+        }
+        if(options.serveOnly) return options;
+        if(options.link == null && !local) {
+            throw new Exception("Either --link or --local is needed");
+        }
+        if(options.identities < 1 || options.concurrency < 1 || options.rate <= 0) {
+            throw new Exception("Identities, concurrency and rate have to be above zero");
+        }
+        return options;
+    }
+
+    /**
+     * @return  The logins per second to start at the given time of the run.
+     */
+    double rateAt(double elapsedSeconds) {
+        if(rampSeconds <= 0 || elapsedSeconds >= rampSeconds) return rate;
+        // Don't wait for ever on the very first login.
+        return Math.max(rate * elapsedSeconds / rampSeconds, Math.min(rate, 1.0));
+    }
+
+    boolean isLocal() {
+        return localPort != -1;
+    }
+
+    private static String value(String[] args, int i, String name) throws Exception {
+        if(i >= args.length) throw new Exception("Missing value for " + name);
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String name) throws Exception {
+        return Integer.parseInt(value(args, i, name));
+    }
+}
@@ -0,0 +1,205 @@
+package org.ea.sqrl.loadgen;
+
+import org.ea.sqrl.core.protocol.ServerResponse;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects what happened during a load run: the latency of every request and login, the
+ * transaction information flags the server sent back and the errors on our side.
+ */
+public class LoadReport {
+    public static final String PHASE_NUT = "nut";
+    public static final String PHASE_QUERY = "query";
+    public static final String PHASE_IDENT = "ident";
+    public static final String PHASE_LOGIN = "login";
+
+    private static final String[] TIF_NAMES = {
+            "current id match",
+            "previous id match",
+            "ip matched",
+            "sqrl disabled",
+            "function not supported",
+            "transient error",
+            "command failed",
+            "client failure",
+            "bad id association",
+            "superseded identity"
+    };
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final ConcurrentMap<String, Latencies> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLongArray> tifBits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong accountsCreated = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Latencies of one kind, kept whole so the percentiles are exact.
+     */
+    static class Latencies {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        synchronized void add(long nanos) {
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+
+        /**
+         * @return  The smallest value that at least the given percent of values are at or below.
+         */
+        static long percentile(long[] sorted, double percent) {
+            if(sorted.length == 0) return 0;
+            int rank = (int)Math.ceil(percent / 100 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+
+    public void started() {
+        started.incrementAndGet();
+    }
+
+    public void succeeded(boolean accountCreated) {
+        succeeded.incrementAndGet();
+        if(accountCreated) accountsCreated.incrementAndGet();
+    }
+
+    public void failed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * A login that couldn't start because all workers were busy and the queue was full.
+     */
+    public void dropped() {
+        dropped.incrementAndGet();
+    }
+
+    public void latency(String phase, long nanos) {
+        Latencies phaseLatencies = latencies.get(phase);
+        if(phaseLatencies == null) {
+            latencies.putIfAbsent(phase, new Latencies());
+            phaseLatencies = latencies.get(phase);
+        }
+        phaseLatencies.add(nanos);
+    }
+
+    public void response(String phase, ServerResponse response) {
+        if(!response.hasTif()) {
+            error(phase + ": no tif in response");
+            return;
+        }
+        AtomicLongArray bits = tifBits.get(phase);
+        if(bits == null) {
+            tifBits.putIfAbsent(phase, new AtomicLongArray(TIF_NAMES.length));
+            bits = tifBits.get(phase);
+        }
+        for(int k = 0; k < TIF_NAMES.length; k++) {
+            if(response.isTifBitSet(k)) bits.incrementAndGet(k);
+        }
+    }
+
+    public void error(String kind) {
+        AtomicLong count = errors.get(kind);
+        if(count == null) {
+            errors.putIfAbsent(kind, new AtomicLong());
+            count = errors.get(kind);
+        }
+        count.incrementAndGet();
+    }
+
+    public long getStarted() {
+        return started.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getAccountsCreated() {
+        return accountsCreated.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long[] getLatencies(String phase) {
+        Latencies phaseLatencies = latencies.get(phase);
+        return phaseLatencies != null ? phaseLatencies.sorted() : new long[0];
+    }
+
+    public long getTifCount(String phase, int k) {
+        AtomicLongArray bits = tifBits.get(phase);
+        return bits != null ? bits.get(k) : 0;
+    }
+
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> entry : errors.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public void print(PrintStream out, double elapsedSeconds) {
+        out.printf("Logins: %d started, %d succeeded (%d new accounts), %d failed, %d dropped in %.1f s%n",
+                started.get(), succeeded.get(), accountsCreated.get(), failed.get(), dropped.get(), elapsedSeconds);
+        out.printf("Throughput: %.1f logins/s%n", succeeded.get() / Math.max(elapsedSeconds, 0.001));
+
+        out.println();
+        out.printf("%-8s %8s %9s %9s %9s %9s %9s%n", "latency", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for(String phase : new String[] {PHASE_NUT, PHASE_QUERY, PHASE_IDENT, PHASE_LOGIN}) {
+            long[] sorted = getLatencies(phase);
+            if(sorted.length == 0) continue;
+            out.printf("%-8s %8d", phase, sorted.length);
+            for(double percent : PERCENTILES) {
+                out.printf(" %9.1f", Latencies.percentile(sorted, percent) / 1e6);
+            }
+            out.printf(" %9.1f%n", sorted[sorted.length - 1] / 1e6);
+        }
+
+        out.println();
+        out.println("Transaction information flags:");
+        for(String phase : new String[] {PHASE_QUERY, PHASE_IDENT}) {
+            AtomicLongArray bits = tifBits.get(phase);
+            if(bits == null) continue;
+            for(int k = 0; k < TIF_NAMES.length; k++) {
+                if(bits.get(k) == 0) continue;
+                out.printf("  %-6s 0x%03x %-24s %8d%n", phase, 1 << k, TIF_NAMES[k], bits.get(k));
+            }
+        }
+
+        Map<String, Long> errorCounts = getErrors();
+        if(!errorCounts.isEmpty()) {
+            out.println();
+            out.println("Errors:");
+            for(Map.Entry<String, Long> entry : errorCounts.entrySet()) {
+                out.printf("  %-40s %8d%n", entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.ea.sqrl.loadgen;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.identity.UnlockKeys;
+import org.ea.sqrl.core.protocol.ClientParameters;
+import org.ea.sqrl.core.protocol.CryptDomain;
+import org.ea.sqrl.core.protocol.PostBody;
+import org.ea.sqrl.core.protocol.ServerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One login of one identity, the way the app does it without a client provided session: a
+ * query to learn if the site knows us, then an ident that logs in, or creates the account with
+ * a new server unlock key and verify unlock key if it doesn't.
+ */
+public class LoginFlow {
+    private static final Pattern sqrlLinkPattern = Pattern.compile("s?qrl://[^\\s\"'<>]+");
+
+    private final SqrlCrypto crypto;
+    private final LoadOptions options;
+    private final LoadReport report;
+    private final Random random;
+
+    public LoginFlow(SqrlCrypto crypto, LoadOptions options, LoadReport report, Random random) {
+        this.crypto = crypto;
+        this.options = options;
+        this.report = report;
+        this.random = random;
+    }
+
+    /**
+     * A request the server answered with flags that end the login.
+     */
+    static class FailedResponseException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        FailedResponseException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @param arrivalTime   When the login was meant to start, in System.nanoTime. The login
+     *                      latency is counted from there, so time spent waiting for a free
+     *                      worker shows up instead of quietly lowering the rate.
+     */
+    public void run(SyntheticIdentity identity, long arrivalTime) {
+        String phase = LoadReport.PHASE_NUT;
+        try {
+            String sqrlLink = getSqrlLink();
+            CryptDomain domain = CryptDomain.fromSqrlLink(sqrlLink);
+            String baseUrl = (sqrlLink.startsWith("sqrl") ? "https://" : "http://") + domain.getCommunicationDomain();
+            SiteKeys siteKeys = identity.getSiteKeys(domain.getBytes());
+
+            phase = LoadReport.PHASE_QUERY;
+            ClientParameters query = new ClientParameters(ClientParameters.CMD_QUERY)
+                    .options(false, false, options.noiptest, false, false)
+                    .identityKey(siteKeys.getPublicKey());
+            ServerResponse queryResponse = post(phase, baseUrl + domain.getQueryLink(), query.toString(), sqrlLink, siteKeys);
+
+            phase = LoadReport.PHASE_IDENT;
+            boolean known = queryResponse.isTifBitSet(ServerResponse.TIF_CURRENT_ID_MATCH);
+            ClientParameters ident = new ClientParameters(ClientParameters.CMD_IDENT)
+                    .options(false, false, options.noiptest, false, false);
+            String secretIndex = queryResponse.getSecretIndex();
+            if(secretIndex != null) {
+                ident.secretIndex(siteKeys.secretIndex(secretIndex), null);
+            }
+            if(!known) {
+                UnlockKeys unlockKeys = identity.createUnlockKeys(random);
+                ident.unlockKeys(unlockKeys.getServerUnlock(), unlockKeys.getVerifyUnlock());
+                unlockKeys.clear();
+            }
+            ident.identityKey(siteKeys.getPublicKey());
+            post(phase, baseUrl + queryResponse.getQueryLink(), ident.toString(), queryResponse.getResponse(), siteKeys);
+
+            report.latency(LoadReport.PHASE_LOGIN, System.nanoTime() - arrivalTime);
+            report.succeeded(!known);
+        } catch (FailedResponseException e) {
+            report.failed();
+        } catch (SocketTimeoutException e) {
+            report.error(phase + ": timeout");
+            report.failed();
+        } catch (IOException e) {
+            report.error(phase + ": " + e.getMessage());
+            report.failed();
+        } catch (Exception e) {
+            report.error(phase + ": " + e.getClass().getSimpleName());
+            report.failed();
+        }
+    }
+
+    private String getSqrlLink() throws Exception {
+        if(!options.link.startsWith("http://") && !options.link.startsWith("https://")) {
+            return options.link;
+        }
+
+        long startTime = System.nanoTime();
+        String page = request(options.link, null);
+        report.latency(LoadReport.PHASE_NUT, System.nanoTime() - startTime);
+
+        Matcher matcher = sqrlLinkPattern.matcher(page);
+        if(!matcher.find()) {
+            throw new IOException("no SQRL link in page");
+        }
+        return matcher.group().replace("&amp;", "&");
+    }
+
+    private ServerResponse post(String phase, String url, String client, String server, SiteKeys siteKeys) throws Exception {
+        String body = new PostBody(client, server)
+                .identitySignature(crypto, siteKeys.getPrivateKey())
+                .toString();
+
+        long startTime = System.nanoTime();
+        String responseBody = request(url, body);
+        report.latency(phase, System.nanoTime() - startTime);
+
+        ServerResponse response = ServerResponse.parse(responseBody);
+        report.response(phase, response);
+        if(!response.hasTif() ||
+                response.isTifBitSet(ServerResponse.TIF_COMMAND_FAILED) ||
+                response.isTifBitSet(ServerResponse.TIF_CLIENT_FAILURE)) {
+            throw new FailedResponseException(phase + " failed with tif " + Integer.toHexString(response.getTif()));
+        }
+        return response;
+    }
+
+    /**
+     * @param data  Form to post, or null to get the page.
+     */
+    private String request(String url, String data) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            con.setConnectTimeout(options.timeoutMillis);
+            con.setReadTimeout(options.timeoutMillis);
+            if(data != null) {
+                byte[] bytes = data.getBytes("UTF-8");
+                con.setRequestMethod("POST");
+                con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                con.setFixedLengthStreamingMode(bytes.length);
+                con.setDoOutput(true);
+                OutputStream output = con.getOutputStream();
+                output.write(bytes);
+                output.close();
+            }
+
+            int responseCode = con.getResponseCode();
+            if(responseCode != 200) {
+                drain(con.getErrorStream());
+                throw new IOException("http " + responseCode);
+            }
+            return new String(drain(con.getInputStream()), "UTF-8").trim();
+        } catch (IOException e) {
+            // Don't hand a connection that just failed back to the keep-alive pool.
+            con.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the stream to the end and closes it, which lets the connection be reused.
+     */
+    private static byte[] drain(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if(input == null) return bytes.toByteArray();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,204 @@
+package org.ea.sqrl.loadgen;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.protocol.ServerResponse;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small SQRL server to test the load generator against, or to get a baseline of the client
+ * side before testing a real server. It hands out nuts, checks the identity signature of every
+ * request and keeps the accounts in memory. Nuts can only be used once, but there is no
+ * session, so nothing expires and there's no web page to log in to.
+ *
+ * GET  /nut.sqrl          A new qrl:// link to log in with.
+ * POST /cli.sqrl?nut=...  The SQRL requests.
+ */
+public class StandInServer {
+    private static final String NUT_PATH = "/nut.sqrl";
+    private static final String CLIENT_PATH = "/cli.sqrl";
+
+    private final SqrlCrypto crypto;
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentMap<String, Boolean> nuts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> accounts = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port      Port to listen on, zero for any free port.
+     * @param threads   Requests handled at the same time.
+     */
+    public StandInServer(SqrlCrypto crypto, int port, int threads) throws IOException {
+        /*
+         * The server writes the headers and the body of a response separately, without this
+         * Nagle holds the body back until the client's delayed ack, some 40 ms every request.
+         */
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.crypto = crypto;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(NUT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                drain(exchange.getRequestBody());
+                respond(exchange, "qrl://127.0.0.1:" + getPort() + CLIENT_PATH + "?nut=" + newNut());
+            }
+        });
+        server.createContext(CLIENT_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String form = new String(drain(exchange.getRequestBody()), "UTF-8");
+                respond(exchange, Base64Url.encode(handleRequest(exchange.getRequestURI().getRawQuery(), form)));
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getLinkUrl() {
+        return "http://127.0.0.1:" + getPort() + NUT_PATH;
+    }
+
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    String handleRequest(String query, String form) {
+        Map<String, String> queryParams = parseForm(query, "&");
+        String nut = queryParams.get("nut");
+        if(nut == null || nuts.remove(nut) == null) {
+            return response(bit(ServerResponse.TIF_TRANSIENT_ERROR) | bit(ServerResponse.TIF_COMMAND_FAILED));
+        }
+
+        int clientFailed = bit(ServerResponse.TIF_COMMAND_FAILED) | bit(ServerResponse.TIF_CLIENT_FAILURE);
+        Map<String, String> formParams = parseForm(form, "&");
+        String encodedClient = formParams.get("client");
+        String encodedServer = formParams.get("server");
+        String ids = formParams.get("ids");
+        if(encodedClient == null || encodedServer == null || ids == null) {
+            return response(clientFailed);
+        }
+
+        Map<String, String> client;
+        String idk;
+        try {
+            client = parseForm(Base64Url.decodeString(encodedClient), "\r\n");
+            idk = client.get("idk");
+            byte[] message = Bytes.combine(encodedClient.getBytes(), encodedServer.getBytes());
+            if(idk == null || !crypto.verifyDetached(Base64Url.decode(ids), message, Base64Url.decode(idk))) {
+                return response(clientFailed);
+            }
+        } catch (IllegalArgumentException e) {
+            return response(clientFailed);
+        }
+
+        // Everything comes from this machine.
+        int tif = bit(ServerResponse.TIF_IP_MATCHED);
+        boolean known = accounts.containsKey(idk);
+        String command = client.get("cmd");
+        if("query".equals(command)) {
+            if(known) tif |= bit(ServerResponse.TIF_CURRENT_ID_MATCH);
+        } else if("ident".equals(command)) {
+            if(known) {
+                tif |= bit(ServerResponse.TIF_CURRENT_ID_MATCH);
+            } else if(client.containsKey("suk") && client.containsKey("vuk")) {
+                accounts.putIfAbsent(idk, client.get("suk"));
+            } else {
+                tif |= clientFailed;
+            }
+        } else {
+            tif |= bit(ServerResponse.TIF_FUNCTION_NOT_SUPPORTED) | bit(ServerResponse.TIF_COMMAND_FAILED);
+        }
+        return response(tif);
+    }
+
+    private String response(int tif) {
+        String nut = newNut();
+        return "ver=1\r\n" +
+                "nut=" + nut + "\r\n" +
+                "tif=" + Integer.toHexString(tif).toUpperCase() + "\r\n" +
+                "qry=" + CLIENT_PATH + "?nut=" + nut + "\r\n";
+    }
+
+    private String newNut() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String nut = Base64Url.encode(bytes);
+        nuts.put(nut, Boolean.TRUE);
+        return nut;
+    }
+
+    private static int bit(int k) {
+        return 1 << k;
+    }
+
+    /**
+     * Everything the client sends is base64url, so there's nothing to URL decode.
+     */
+    private static Map<String, String> parseForm(String data, String separator) {
+        Map<String, String> params = new HashMap<>();
+        if(data == null) return params;
+        for(String param : data.split(separator)) {
+            int firstEqualSign = param.indexOf("=");
+            if(firstEqualSign == -1) continue;
+            params.put(param.substring(0, firstEqualSign), param.substring(firstEqualSign+1));
+        }
+        return params;
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(200, bytes.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    private static byte[] drain(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        input.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,65 @@
+package org.ea.sqrl.loadgen;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.IdentityKeys;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.identity.UnlockKeys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An identity that only lives in memory. It is made straight from a random identity unlock key,
+ * so no EnScrypt is run, and the site keys are derived once for every domain like the app does.
+ */
+public class SyntheticIdentity {
+    private final SqrlCrypto crypto;
+    private final IdentityKeys keys;
+    private final ConcurrentMap<String, SiteKeys> siteKeys = new ConcurrentHashMap<>();
+
+    private SyntheticIdentity(SqrlCrypto crypto, IdentityKeys keys) {
+        this.crypto = crypto;
+        this.keys = keys;
+    }
+
+    /**
+     * @param seed  The same seed gives the same identities, so a server already knows them the
+     *              second time around.
+     */
+    public static List<SyntheticIdentity> create(SqrlCrypto crypto, int count, long seed) {
+        Random random = new Random(seed);
+        List<SyntheticIdentity> identities = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            byte[] identityUnlockKey = new byte[32];
+            random.nextBytes(identityUnlockKey);
+            identities.add(new SyntheticIdentity(crypto, IdentityKeys.fromUnlockKey(crypto, identityUnlockKey, null)));
+        }
+        return identities;
+    }
+
+    public SiteKeys getSiteKeys(byte[] domain) {
+        String domainKey = new String(domain);
+        SiteKeys keys = siteKeys.get(domainKey);
+        if(keys == null) {
+            keys = this.keys.siteKeys(crypto, domain);
+            SiteKeys existing = siteKeys.putIfAbsent(domainKey, keys);
+            if(existing != null) {
+                keys.clear();
+                keys = existing;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @param random    Source of the random lock, which isn't kept.
+     */
+    public UnlockKeys createUnlockKeys(Random random) {
+        byte[] randomLock = new byte[32];
+        random.nextBytes(randomLock);
+        return keys.createUnlockKeys(crypto, randomLock);
+    }
+}
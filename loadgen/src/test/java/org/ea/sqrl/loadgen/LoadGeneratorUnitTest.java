@@ -0,0 +1,95 @@
+package org.ea.sqrl.loadgen;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.protocol.ServerResponse;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+public class LoadGeneratorUnitTest {
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+    private StandInServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StandInServer(crypto, 0, 4);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void testLoginsAgainstStandInServer() throws Exception {
+        LoadOptions options = LoadOptions.parse(new String[] {
+                "--link", server.getLinkUrl(),
+                "--identities", "5",
+                "--rate", "40",
+                "--duration", "1",
+                "--concurrency", "4"
+        });
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LoadReport report = new LoadGenerator(crypto, options, new PrintStream(output)).run();
+
+        assertTrue(report.getStarted() > 5);
+        assertEquals(report.getStarted(), report.getSucceeded());
+        assertEquals(0, report.getFailed());
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(5, server.getAccountCount());
+        assertTrue(report.getAccountsCreated() >= 5);
+
+        assertEquals(report.getSucceeded(), report.getLatencies(LoadReport.PHASE_LOGIN).length);
+        assertEquals(report.getSucceeded(), report.getLatencies(LoadReport.PHASE_IDENT).length);
+        assertEquals(report.getSucceeded(), report.getTifCount(LoadReport.PHASE_IDENT, ServerResponse.TIF_IP_MATCHED));
+        assertEquals(report.getSucceeded() - report.getAccountsCreated(),
+                report.getTifCount(LoadReport.PHASE_QUERY, ServerResponse.TIF_CURRENT_ID_MATCH));
+        assertTrue(output.toString().contains("p99 ms"));
+    }
+
+    @Test
+    public void testStandInServerRejectsBadRequests() {
+        ServerResponse noNut = ServerResponse.parse(Base64Url.encode(server.handleRequest("nut=unknown", "")));
+        assertTrue(noNut.isTifBitSet(ServerResponse.TIF_TRANSIENT_ERROR));
+        assertTrue(noNut.isTifBitSet(ServerResponse.TIF_COMMAND_FAILED));
+
+        String nut = noNut.getQueryLink().substring(noNut.getQueryLink().indexOf("nut=") + 4);
+        String client = Base64Url.encode("ver=1\r\ncmd=query\r\nidk=" + Base64Url.encode(new byte[32]) + "\r\n");
+        ServerResponse badSignature = ServerResponse.parse(Base64Url.encode(server.handleRequest(
+                "nut=" + nut, "client=" + client + "&server=abc&ids=" + Base64Url.encode(new byte[64]))));
+        assertTrue(badSignature.isTifBitSet(ServerResponse.TIF_CLIENT_FAILURE));
+
+        ServerResponse reusedNut = ServerResponse.parse(Base64Url.encode(server.handleRequest("nut=" + nut, "")));
+        assertTrue(reusedNut.isTifBitSet(ServerResponse.TIF_TRANSIENT_ERROR));
+    }
+
+    @Test
+    public void testPercentiles() {
+        long[] sorted = new long[100];
+        for(int i = 0; i < sorted.length; i++) {
+            sorted[i] = i + 1;
+        }
+        assertEquals(50, LoadReport.Latencies.percentile(sorted, 50));
+        assertEquals(99, LoadReport.Latencies.percentile(sorted, 99));
+        assertEquals(100, LoadReport.Latencies.percentile(sorted, 99.9));
+        assertEquals(1, LoadReport.Latencies.percentile(sorted, 0));
+        assertEquals(0, LoadReport.Latencies.percentile(new long[0], 50));
+    }
+
+    @Test
+    public void testRampUp() throws Exception {
+        LoadOptions options = LoadOptions.parse(new String[] {"--local", "--rate", "100", "--ramp", "10"});
+        assertEquals(1.0, options.rateAt(0), 0.001);
+        assertEquals(50.0, options.rateAt(5), 0.001);
+        assertEquals(100.0, options.rateAt(10), 0.001);
+        assertEquals(100.0, options.rateAt(60), 0.001);
+    }
+}
@@ -23,17 +23,20 @@
 
 package io.nayuki.qrcodegen;
 
-import java.util.BitSet;
+import java.util.Arrays;
 
 
 /**
- * An appendable sequence of bits (0's and 1's).
+ * An appendable sequence of bits (0's and 1's). The bits are packed big endian into 64-bit
+ * words, so appending and packing into bytes work on whole words instead of single bits.
  */
 public final class BitBuffer implements Cloneable {
 
 	/*---- Fields ----*/
 
-    private BitSet data;
+    // Bit i is stored in data[i / 64] at bit position 63 - i % 64. Bits at
+    // bitLength and above are always 0, so words can be copied as they are.
+    private long[] data;
 
     private int bitLength;
 
@@ -45,7 +48,7 @@ public final class BitBuffer implements Cloneable {
      * Constructs an empty bit buffer (length 0).
      */
     public BitBuffer() {
-        data = new BitSet();
+        data = new long[4];
         bitLength = 0;
     }
 
@@ -71,7 +74,7 @@ public final class BitBuffer implements Cloneable {
     public int getBit(int index) {
         if (index < 0 || index >= bitLength)
             throw new IndexOutOfBoundsException();
-        return data.get(index) ? 1 : 0;
+        return (int)(data[index >>> 6] >>> (63 - (index & 63))) & 1;
     }
 
 
@@ -82,8 +85,8 @@ public final class BitBuffer implements Cloneable {
      */
     public byte[] getBytes() {
         byte[] result = new byte[(bitLength + 7) / 8];
-        for (int i = 0; i < bitLength; i++)
-            result[i >>> 3] |= data.get(i) ? 1 << (7 - (i & 7)) : 0;
+        for (int i = 0; i < result.length; i++)  // Padding bits are already 0
+            result[i] = (byte)(data[i >>> 3] >>> (56 - ((i & 7) << 3)));
         return result;
     }
 
@@ -97,8 +100,25 @@ public final class BitBuffer implements Cloneable {
     public void appendBits(int val, int len) {
         if (len < 0 || len > 31 || val >>> len != 0)
             throw new IllegalArgumentException("Value out of range");
-        for (int i = len - 1; i >= 0; i--, bitLength++)  // Append bit by bit
-            data.set(bitLength, ((val >>> i) & 1) != 0);
+        appendWord(val, len);
+    }
+
+
+    /**
+     * Appends all the bytes of the specified array to this sequence, 8 bits per byte in big endian.
+     * @param bytes the bytes to append (not {@code null})
+     * @throws NullPointerException if the array is {@code null}
+     */
+    public void appendBytes(byte[] bytes) {
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {  // Append a whole word at a time
+            long word = 0;
+            for (int j = 0; j < 8; j++)
+                word = (word << 8) | (bytes[i + j] & 0xFF);
+            appendWord(word, 64);
+        }
+        for (; i < bytes.length; i++)
+            appendWord(bytes[i] & 0xFF, 8);
     }
 
 
@@ -109,8 +129,12 @@ public final class BitBuffer implements Cloneable {
      */
     public void appendData(QrSegment seg) {
         BitBuffer bb = seg.data;
-        for (int i = 0; i < bb.bitLength; i++, bitLength++)  // Append bit by bit
-            data.set(bitLength, bb.data.get(i));
+        int fullWords = bb.bitLength >>> 6;
+        for (int i = 0; i < fullWords; i++)  // Append word by word
+            appendWord(bb.data[i], 64);
+        int rem = bb.bitLength & 63;
+        if (rem > 0)
+            appendWord(bb.data[fullWords] >>> (64 - rem), rem);
     }
 
 
@@ -121,11 +145,31 @@ public final class BitBuffer implements Cloneable {
     public BitBuffer clone() {
         try {
             BitBuffer result = (BitBuffer)super.clone();
-            result.data = (BitSet)result.data.clone();
+            result.data = result.data.clone();
             return result;
         } catch (CloneNotSupportedException e) {
             throw new AssertionError(e);
         }
     }
 
-}
\ No newline at end of file
+
+    // Appends the len low bits of val, where 0 <= len <= 64 and all higher bits of val are 0.
+    private void appendWord(long val, int len) {
+        if (len == 0)
+            return;
+        int needed = (bitLength + len + 63) >>> 6;
+        if (needed > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, needed));
+
+        int index = bitLength >>> 6;
+        int free = 64 - (bitLength & 63);  // Unused bits in the last word
+        if (len <= free)
+            data[index] |= val << (free - len);
+        else {
+            data[index] |= val >>> (len - free);
+            data[index + 1] = val << (64 - (len - free));
+        }
+        bitLength += len;
+    }
+
+}
@@ -23,11 +23,14 @@
 
 package io.nayuki.qrcodegen;
 
-import android.graphics.Bitmap;
-
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -165,9 +168,16 @@ public final class QrCode {
      * (mask = -1), the resulting object will still have a mask value between 0 and 7. */
     public final int mask;
 
-    // Private grids of modules/pixels (conceptually immutable)
-    private boolean[][] modules;     // The modules of this QR Code symbol (false = white, true = black)
-    private boolean[][] isFunction;  // Indicates function modules that are not subjected to masking
+    // Private grids of modules/pixels (conceptually immutable). Every row is packed into rowWords
+    // 64-bit words, where module x of row y is bit x % 64 of word y * rowWords + x / 64.
+    private final int rowWords;
+    private long[] modules;     // The modules of this QR Code symbol (0 = white, 1 = black)
+    private long[] isFunction;  // Indicates function modules that are not subjected to masking
+
+    // The same two grids transposed, so columns can be scored a word at a time as well.
+    // Only needed while the mask is chosen in the constructor.
+    private long[] columns;
+    private long[] isFunctionColumn;
 	
 	
 	
@@ -193,14 +203,19 @@ public final class QrCode {
         version = ver;
         size = ver * 4 + 17;
         errorCorrectionLevel = ecl;
-        modules = new boolean[size][size];  // Entirely white grid
-        isFunction = new boolean[size][size];
+        rowWords = (size + 63) >>> 6;
+        modules = new long[size * rowWords];  // Entirely white grid
+        isFunction = newFunctionGrid();
+        columns = new long[size * rowWords];
+        isFunctionColumn = newFunctionGrid();
 
         // Draw function patterns, draw all codewords, do masking
         drawFunctionPatterns();
         byte[] allCodewords = appendErrorCorrection(dataCodewords);
         drawCodewords(allCodewords);
         this.mask = handleConstructorMasking(mask);
+        columns = null;
+        isFunctionColumn = null;
     }
 	
 	
@@ -216,37 +231,50 @@ public final class QrCode {
      * @return the module's color, which is either false (white) or true (black)
      */
     public boolean getModule(int x, int y) {
-        return 0 <= x && x < size && 0 <= y && y < size && modules[y][x];
+        return 0 <= x && x < size && 0 <= y && y < size && getBit(modules, x, y);
     }
 
 
     /**
-     * Returns a new image object representing this QR Code, with the specified module scale and number
-     * of border modules. For example, the arguments scale=10, border=4 means to pad the QR Code symbol
-     * with 4 white border modules on all four edges, then use 10*10 pixels to represent each module.
-     * The resulting image only contains the hex colors 000000 and FFFFFF.
+     * Writes this QR Code as pixels into a caller supplied buffer, with the specified module scale and
+     * number of border modules. Runs of modules of the same color are filled at once.
      * @param scale the module scale factor, which must be positive
      * @param border the number of border modules to add, which must be non-negative
-     * @return an image representing this QR Code, with padding and scaling
-     * @throws IllegalArgumentException if the scale or border is out of range
+     * @param pixels the buffer to write into, which must hold {@link #getImageSize(int, int)} rows
+     * @param offset the index of the top left pixel in the buffer
+     * @param stride the number of entries between the starts of two pixel rows in the buffer
+     * @param dark the value to write for dark modules
+     * @param light the value to write for light modules and the border
+     * @throws IllegalArgumentException if the scale or border is out of range, or the stride is too small
+     * @throws ArrayIndexOutOfBoundsException if the buffer is too small
      */
-    public Bitmap toImage(int scale, int border) {
-        int width = (size + border * 2) * scale;
+    public void toPixels(int scale, int border, int[] pixels, int offset, int stride, int dark, int light) {
+        int width = getImageSize(scale, border);
+        if (stride < width)
+            throw new IllegalArgumentException("Stride too small");
+        for (int y = -border, row = offset; y < size + border; y++) {
+            toPixelRow(y, scale, border, pixels, row, dark, light);
+            for (int i = 1; i < scale; i++)
+                System.arraycopy(pixels, row, pixels, row + i * stride, width);
+            row += scale * stride;
+        }
+    }
 
 
-        int w = width;
-        int h = width;
-        int[] pixels = new int[w * h];
-        for (int y = 0; y < h; y++) {
-            int offset = y * w;
-            for (int x = 0; x < w; x++) {
-                boolean val = getModule(x / scale - border, y / scale - border);
-                pixels[offset + x] = val ? 0xFF000000 : 0xFFFFFFFF;
-            }
-        }
-        Bitmap bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-        bitmap.setPixels(pixels, 0, width, 0, 0, w, h);
-        return bitmap;
+    /**
+     * Returns the width and height in pixels of an image of this QR Code with the specified module
+     * scale and number of border modules.
+     * @param scale the module scale factor, which must be positive
+     * @param border the number of border modules to add, which must be non-negative
+     * @return the width and height of the image
+     * @throws IllegalArgumentException if the scale or border is out of range
+     */
+    public int getImageSize(int scale, int border) {
+        if (scale <= 0 || border < 0)
+            throw new IllegalArgumentException("Value out of range");
+        if (border > Integer.MAX_VALUE / 2 || size + border * 2L > Integer.MAX_VALUE / scale)
+            throw new IllegalArgumentException("Scale or border too large");
+        return (size + border * 2) * scale;
     }
 
 
@@ -269,24 +297,72 @@ public final class QrCode {
         sb.append("\t<rect width=\"100%\" height=\"100%\" fill=\"#FFFFFF\"/>\n");
         sb.append("\t<path d=\"");
         boolean head = true;
-        for (int y = -border; y < size + border; y++) {
-            for (int x = -border; x < size + border; x++) {
-                if (getModule(x, y)) {
-                    if (head)
-                        head = false;
-                    else
-                        sb.append(" ");
-                    sb.append(String.format(Locale.US, "M%d,%dh1v1h-1z", x + border, y + border));
-                }
+        for (int y = 0; y < size; y++) {
+            // One rectangle per horizontal run of dark modules
+            for (int x = findModule(y, 0, true); x < size; ) {
+                int end = findModule(y, x, false);
+                if (head)
+                    head = false;
+                else
+                    sb.append(' ');
+                sb.append('M').append(x + border).append(',').append(y + border)
+                        .append('h').append(end - x).append("v1h-").append(end - x).append('z');
+                x = findModule(y, end, true);
             }
         }
         sb.append("\" fill=\"#000000\"/>\n");
         sb.append("</svg>\n");
         return sb.toString();
     }
-	
-	
-	
+
+
+    /**
+     * Writes one pixel row of module row y into a caller supplied buffer, so an image can be drawn a
+     * band at a time. Only the first of the {@code scale} pixel rows of the module row is written.
+     * @param y the y coordinate of the module row, which is negative or at least size in the border
+     * @param scale the module scale factor, which must be positive
+     * @param border the number of border modules to add, which must be non-negative
+     * @param pixels the buffer to write into
+     * @param offset the index of the leftmost pixel in the buffer
+     * @param dark the value to write for dark modules
+     * @param light the value to write for light modules and the border
+     * @throws ArrayIndexOutOfBoundsException if the buffer is too small
+     */
+    public void toPixelRow(int y, int scale, int border, int[] pixels, int offset, int dark, int light) {
+        int width = (size + border * 2) * scale;
+        Arrays.fill(pixels, offset, offset + width, light);
+        if (y < 0 || y >= size)
+            return;
+        for (int x = findModule(y, 0, true); x < size; ) {
+            int end = findModule(y, x, false);
+            Arrays.fill(pixels, offset + (x + border) * scale, offset + (end + border) * scale, dark);
+            x = findModule(y, end, true);
+        }
+    }
+
+
+    /**
+     * Returns the first x coordinate from the given one in row y whose module has the given color, so
+     * runs of modules can be drawn at once without asking for every module.
+     * @param y the y coordinate of the row, where 0 is the top edge
+     * @param from the x coordinate to start at
+     * @param dark the color to look for, true for black
+     * @return the x coordinate of the module, or size if there is none
+     */
+    public int findModule(int y, int from, boolean dark) {
+        int off = y * rowWords;
+        for (int j = from >>> 6; j < rowWords; j++) {
+            long word = dark ? modules[off + j] : ~modules[off + j];  // Padding bits count as light
+            if (j == from >>> 6)
+                word &= -1L << from;
+            if (word != 0)
+                return Math.min((j << 6) + Long.numberOfTrailingZeros(word), size);
+        }
+        return size;
+    }
+
+
+
 	/*---- Private helper methods for constructor: Drawing function modules ----*/
 
     private void drawFunctionPatterns() {
@@ -322,6 +398,13 @@ public final class QrCode {
     // Draws two copies of the format bits (with its own error correction code)
     // based on the given mask and this object's error correction level field.
     private void drawFormatBits(int mask) {
+        drawFormatBits(mask, modules, columns);
+    }
+
+
+    // Draws the format bits for the given mask into the given row and column grids. When these are not
+    // the grids of this symbol, nothing of this symbol is changed, so masks can be scored on copies.
+    private void drawFormatBits(int mask, long[] rows, long[] cols) {
         // Calculate error correction code and pack bits
         int data = errorCorrectionLevel.formatBits << 3 | mask;  // errCorrLvl is uint2, mask is uint3
         int rem = data;
@@ -334,19 +417,19 @@ public final class QrCode {
 
         // Draw first copy
         for (int i = 0; i <= 5; i++)
-            setFunctionModule(8, i, ((data >>> i) & 1) != 0);
-        setFunctionModule(8, 7, ((data >>> 6) & 1) != 0);
-        setFunctionModule(8, 8, ((data >>> 7) & 1) != 0);
-        setFunctionModule(7, 8, ((data >>> 8) & 1) != 0);
+            setFormatModule(rows, cols, 8, i, ((data >>> i) & 1) != 0);
+        setFormatModule(rows, cols, 8, 7, ((data >>> 6) & 1) != 0);
+        setFormatModule(rows, cols, 8, 8, ((data >>> 7) & 1) != 0);
+        setFormatModule(rows, cols, 7, 8, ((data >>> 8) & 1) != 0);
         for (int i = 9; i < 15; i++)
-            setFunctionModule(14 - i, 8, ((data >>> i) & 1) != 0);
+            setFormatModule(rows, cols, 14 - i, 8, ((data >>> i) & 1) != 0);
 
         // Draw second copy
         for (int i = 0; i <= 7; i++)
-            setFunctionModule(size - 1 - i, 8, ((data >>> i) & 1) != 0);
+            setFormatModule(rows, cols, size - 1 - i, 8, ((data >>> i) & 1) != 0);
         for (int i = 8; i < 15; i++)
-            setFunctionModule(8, size - 15 + i, ((data >>> i) & 1) != 0);
-        setFunctionModule(8, size - 8, true);
+            setFormatModule(rows, cols, 8, size - 15 + i, ((data >>> i) & 1) != 0);
+        setFormatModule(rows, cols, 8, size - 8, true);
     }
 
 
@@ -399,8 +482,54 @@ public final class QrCode {
     // Sets the color of a module and marks it as a function module.
     // Only used by the constructor. Coordinates must be in range.
     private void setFunctionModule(int x, int y, boolean isBlack) {
-        modules[y][x] = isBlack;
-        isFunction[y][x] = true;
+        setModule(x, y, isBlack);
+        setBit(isFunction, x, y, true);
+        setBit(isFunctionColumn, y, x, true);
+    }
+
+
+    // Sets the color of a format module in the given grids, and marks it as a function module
+    // when they are the grids of this symbol. Coordinates must be in range.
+    private void setFormatModule(long[] rows, long[] cols, int x, int y, boolean isBlack) {
+        if (rows == modules) {
+            setFunctionModule(x, y, isBlack);
+        } else {
+            setBit(rows, x, y, isBlack);
+            setBit(cols, y, x, isBlack);
+        }
+    }
+
+
+    // Sets the color of a module in both the row and the column grid. Coordinates must be in range.
+    private void setModule(int x, int y, boolean isBlack) {
+        setBit(modules, x, y, isBlack);
+        setBit(columns, y, x, isBlack);
+    }
+
+
+    // Returns a new function grid, where the padding bits past the end of every row are marked as function
+    // modules. That way masks never touch them, and they stay 0 in the module grids.
+    private long[] newFunctionGrid() {
+        long[] result = new long[size * rowWords];
+        if ((size & 63) != 0) {
+            for (int y = 0; y < size; y++)
+                result[y * rowWords + rowWords - 1] = -1L << (size & 63);
+        }
+        return result;
+    }
+
+
+    private boolean getBit(long[] grid, int x, int y) {
+        return ((grid[y * rowWords + (x >>> 6)] >>> x) & 1) != 0;
+    }
+
+
+    private void setBit(long[] grid, int x, int y, boolean value) {
+        int i = y * rowWords + (x >>> 6);
+        if (value)
+            grid[i] |= 1L << x;
+        else
+            grid[i] &= ~(1L << x);
     }
 	
 	
@@ -419,28 +548,24 @@ public final class QrCode {
         int numShortBlocks = numBlocks - rawCodewords % numBlocks;
         int shortBlockLen = rawCodewords / numBlocks;
 
-        // Split data into blocks and append ECC to each block
-        byte[][] blocks = new byte[numBlocks][];
-        ReedSolomonGenerator rs = new ReedSolomonGenerator(blockEccLen);
-        for (int i = 0, k = 0; i < numBlocks; i++) {
-            byte[] dat = Arrays.copyOfRange(data, k, k + shortBlockLen - blockEccLen + (i < numShortBlocks ? 0 : 1));
-            byte[] block = Arrays.copyOf(dat, shortBlockLen + 1);
-            k += dat.length;
-            byte[] ecc = rs.getRemainder(dat);
-            System.arraycopy(ecc, 0, block, block.length - blockEccLen, ecc.length);
-            blocks[i] = block;
-        }
-
-        // Interleave (not concatenate) the bytes from every block into a single sequence
+        // Split data into blocks, compute the ECC of every block and write both straight into
+        // their interleaved (not concatenated) positions. Long blocks have one more data byte,
+        // which comes after the data bytes of all the blocks in the interleaved sequence.
         byte[] result = new byte[rawCodewords];
-        for (int i = 0, k = 0; i < blocks[0].length; i++) {
-            for (int j = 0; j < blocks.length; j++) {
-                // Skip the padding byte in short blocks
-                if (i != shortBlockLen - blockEccLen || j >= numShortBlocks) {
-                    result[k] = blocks[j][i];
-                    k++;
-                }
-            }
+        byte[] ecc = new byte[blockEccLen];
+        ReedSolomonGenerator rs = ReedSolomonGenerator.forDegree(blockEccLen);
+        int shortDataLen = shortBlockLen - blockEccLen;
+        int eccStart = shortDataLen * numBlocks + (numBlocks - numShortBlocks);
+        for (int i = 0, k = 0; i < numBlocks; i++) {
+            int datLen = shortDataLen + (i < numShortBlocks ? 0 : 1);
+            for (int j = 0; j < shortDataLen; j++)
+                result[j * numBlocks + i] = data[k + j];
+            if (i >= numShortBlocks)
+                result[shortDataLen * numBlocks + i - numShortBlocks] = data[k + shortDataLen];
+            rs.getRemainder(data, k, datLen, ecc);
+            k += datLen;
+            for (int j = 0; j < blockEccLen; j++)
+                result[eccStart + j * numBlocks + i] = ecc[j];
         }
         return result;
     }
@@ -462,8 +587,8 @@ public final class QrCode {
                     int x = right - j;  // Actual x coordinate
                     boolean upward = ((right + 1) & 2) == 0;
                     int y = upward ? size - 1 - vert : vert;  // Actual y coordinate
-                    if (!isFunction[y][x] && i < data.length * 8) {
-                        modules[y][x] = ((data[i >>> 3] >>> (7 - (i & 7))) & 1) != 0;
+                    if (!getBit(isFunction, x, y) && i < data.length * 8) {
+                        setModule(x, y, ((data[i >>> 3] >>> (7 - (i & 7))) & 1) != 0);
                         i++;
                     }
                     // If there are any remainder bits (0 to 7), they are already
@@ -476,29 +601,22 @@ public final class QrCode {
     }
 
 
-    // XORs the data modules in this QR Code with the given mask pattern. Due to XOR's mathematical
-    // properties, calling applyMask(m) twice with the same value is equivalent to no change at all.
-    // This means it is possible to apply a mask, undo it, and try another mask. Note that a final
+    // XORs the data modules in this QR Code with the given mask pattern. Note that a final
     // well-formed QR Code symbol needs exactly one mask applied (not zero, not two, etc.).
     private void applyMask(int mask) {
         if (mask < 0 || mask > 7)
             throw new IllegalArgumentException("Mask value out of range");
-        for (int y = 0; y < size; y++) {
-            for (int x = 0; x < size; x++) {
-                boolean invert;
-                switch (mask) {
-                    case 0:  invert = (x + y) % 2 == 0;                    break;
-                    case 1:  invert = y % 2 == 0;                          break;
-                    case 2:  invert = x % 3 == 0;                          break;
-                    case 3:  invert = (x + y) % 3 == 0;                    break;
-                    case 4:  invert = (x / 3 + y / 2) % 2 == 0;            break;
-                    case 5:  invert = x * y % 2 + x * y % 3 == 0;          break;
-                    case 6:  invert = (x * y % 2 + x * y % 3) % 2 == 0;    break;
-                    case 7:  invert = ((x + y) % 2 + x * y % 3) % 2 == 0;  break;
-                    default:  throw new AssertionError();
-                }
-                modules[y][x] ^= invert & !isFunction[y][x];
-            }
+        applyMask(modules, modules, isFunction, MASK_ROWS[mask]);
+    }
+
+
+    // Writes every row of the source grid XORed with the mask pattern for that row into the target grid,
+    // leaving function modules alone. The target may be the source grid itself.
+    private void applyMask(long[] target, long[] source, long[] function, long[][] patterns) {
+        for (int y = 0, i = 0; y < size; y++) {
+            long[] pattern = patterns[y % MASK_PERIOD];
+            for (int j = 0; j < rowWords; j++, i++)
+                target[i] = source[i] ^ (pattern[j] & ~function[i]);
         }
     }
 
@@ -507,19 +625,8 @@ public final class QrCode {
     // method is called. The given argument is the requested mask, which is -1 for auto or 0 to 7 for fixed.
     // This method applies and returns the actual mask chosen, from 0 to 7.
     private int handleConstructorMasking(int mask) {
-        if (mask == -1) {  // Automatically choose best mask
-            int minPenalty = Integer.MAX_VALUE;
-            for (int i = 0; i < 8; i++) {
-                drawFormatBits(i);
-                applyMask(i);
-                int penalty = getPenaltyScore();
-                if (penalty < minPenalty) {
-                    mask = i;
-                    minPenalty = penalty;
-                }
-                applyMask(i);  // Undoes the mask due to XOR
-            }
-        }
+        if (mask == -1)  // Automatically choose best mask
+            mask = chooseMask();
         if (mask < 0 || mask > 7)
             throw new AssertionError();
         drawFormatBits(mask);  // Overwrite old format bits
@@ -528,91 +635,199 @@ public final class QrCode {
     }
 
 
-    // Calculates and returns the penalty score based on state of this QR Code's current modules.
-    // This is used by the automatic mask choice algorithm to find the mask pattern that yields the lowest score.
-    private int getPenaltyScore() {
-        int result = 0;
-
-        // Adjacent modules in row having same color
-        for (int y = 0; y < size; y++) {
-            boolean colorX = false;
-            for (int x = 0, runX = 0; x < size; x++) {
-                if (x == 0 || modules[y][x] != colorX) {
-                    colorX = modules[y][x];
-                    runX = 1;
-                } else {
-                    runX++;
-                    if (runX == 5)
-                        result += PENALTY_N1;
-                    else if (runX > 5)
-                        result++;
-                }
+    // Returns the mask with the lowest penalty score, the lowest mask number on a tie. Every mask is scored
+    // on its own masked copy of the grids, so the masks of large symbols can be scored in parallel.
+    private int chooseMask() {
+        int[] penalties = new int[8];
+        List<Future<Integer>> futures = new ArrayList<>();
+        ExecutorService executor = size >= PARALLEL_MASK_MIN_SIZE ? getMaskExecutor() : null;
+        if (executor != null) {
+            for (int i = 1; i < 8; i++) {
+                final int mask = i;
+                futures.add(executor.submit(() -> getPenaltyScore(mask)));
             }
         }
-        // Adjacent modules in column having same color
-        for (int x = 0; x < size; x++) {
-            boolean colorY = false;
-            for (int y = 0, runY = 0; y < size; y++) {
-                if (y == 0 || modules[y][x] != colorY) {
-                    colorY = modules[y][x];
-                    runY = 1;
-                } else {
-                    runY++;
-                    if (runY == 5)
-                        result += PENALTY_N1;
-                    else if (runY > 5)
-                        result++;
-                }
+
+        // The calling thread scores mask 0, and all the masks if there are no other threads
+        penalties[0] = getPenaltyScore(0);
+        for (int i = 1; i < 8; i++) {
+            if (futures.isEmpty()) {
+                penalties[i] = getPenaltyScore(i);
+                continue;
+            }
+            try {
+                penalties[i] = futures.get(i - 1).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                penalties[i] = getPenaltyScore(i);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
             }
         }
 
-        // 2*2 blocks of modules having same color
-        for (int y = 0; y < size - 1; y++) {
-            for (int x = 0; x < size - 1; x++) {
-                boolean color = modules[y][x];
-                if (  color == modules[y][x + 1] &&
-                        color == modules[y + 1][x] &&
-                        color == modules[y + 1][x + 1])
-                    result += PENALTY_N2;
-            }
+        int result = 0;
+        for (int i = 1; i < 8; i++) {
+            if (penalties[i] < penalties[result])
+                result = i;
         }
+        return result;
+    }
 
-        // Finder-like pattern in rows
-        for (int y = 0; y < size; y++) {
-            for (int x = 0, bits = 0; x < size; x++) {
-                bits = ((bits << 1) & 0x7FF) | (modules[y][x] ? 1 : 0);
-                if (x >= 10 && (bits == 0x05D || bits == 0x5D0))  // Needs 11 bits accumulated
-                    result += PENALTY_N3;
-            }
+
+    // Returns the penalty score this QR Code would have with the given mask, without changing it.
+    private int getPenaltyScore(int mask) {
+        long[] rows = new long[modules.length];
+        long[] cols = new long[columns.length];
+        applyMask(rows, modules, isFunction, MASK_ROWS[mask]);
+        applyMask(cols, columns, isFunctionColumn, MASK_COLUMNS[mask]);
+        drawFormatBits(mask, rows, cols);
+        return getPenaltyScore(rows, cols);
+    }
+
+
+    // Calculates and returns the penalty score of the given row grid and its transposed column grid.
+    // This is used by the automatic mask choice algorithm to find the mask pattern that yields the lowest score.
+    private int getPenaltyScore(long[] rows, long[] cols) {
+        int result = 0;
+
+        // Adjacent modules in row and column having same color, and finder-like patterns in rows and columns
+        int finderLike = 0;
+        for (int i = 0; i < size; i++) {
+            int off = i * rowWords;
+            result += getRunPenalty(rows, off, rowWords, size);
+            result += getRunPenalty(cols, off, rowWords, size);
+            finderLike += getFinderLikeCount(rows, off, rowWords, size);
+            finderLike += getFinderLikeCount(cols, off, rowWords, size);
         }
-        // Finder-like pattern in columns
-        for (int x = 0; x < size; x++) {
-            for (int y = 0, bits = 0; y < size; y++) {
-                bits = ((bits << 1) & 0x7FF) | (modules[y][x] ? 1 : 0);
-                if (y >= 10 && (bits == 0x05D || bits == 0x5D0))  // Needs 11 bits accumulated
-                    result += PENALTY_N3;
+        result += finderLike * PENALTY_N3;
+
+        // 2*2 blocks of modules having same color, compared 64 blocks at a time
+        for (int y = 0; y < size - 1; y++) {
+            int off = y * rowWords;
+            for (int j = 0; j < rowWords; j++) {
+                int pos = j << 6;
+                long a = rows[off + j];
+                long b = rows[off + rowWords + j];
+                long same = ~(a ^ getBits(rows, off, rowWords, pos + 1))
+                        & ~(b ^ getBits(rows, off + rowWords, rowWords, pos + 1))
+                        & ~(a ^ b);
+                int blocks = size - 1 - pos;  // Blocks starting in this word
+                if (blocks < 64)
+                    same &= (1L << blocks) - 1;
+                result += Long.bitCount(same) * PENALTY_N2;
             }
         }
 
         // Balance of black and white modules
         int black = 0;
-        for (boolean[] row : modules) {
-            for (boolean color : row) {
-                if (color)
-                    black++;
-            }
-        }
+        for (long word : rows)
+            black += Long.bitCount(word);
         int total = size * size;
         // Find smallest k such that (45-5k)% <= dark/total <= (55+5k)%
         for (int k = 0; black*20 < (9-k)*total || black*20 > (11+k)*total; k++)
             result += PENALTY_N4;
         return result;
     }
-	
-	
-	
+
+
+    // Returns the penalty for runs of 5 or more modules of the same color in one packed row,
+    // found by walking the positions where the color changes.
+    private static int getRunPenalty(long[] grid, int off, int rowWords, int size) {
+        int result = 0;
+        int runStart = 0;
+        for (int j = 0; j < rowWords; j++) {
+            long word = grid[off + j];
+            long previous = (word << 1) | (j > 0 ? grid[off + j - 1] >>> 63 : word & 1);
+            long changes = word ^ previous;  // Bit x is set when module x differs from module x - 1
+            int pos = j << 6;
+            if (size - pos < 64)
+                changes &= (1L << (size - pos)) - 1;
+            while (changes != 0) {
+                int x = pos + Long.numberOfTrailingZeros(changes);
+                result += getRunPenalty(x - runStart);
+                runStart = x;
+                changes &= changes - 1;
+            }
+        }
+        return result + getRunPenalty(size - runStart);
+    }
+
+
+    private static int getRunPenalty(int runLength) {
+        return runLength >= 5 ? PENALTY_N1 + runLength - 5 : 0;
+    }
+
+
+    // Returns the number of 1:1:3:1:1 finder-like patterns with 4 white modules on either side
+    // in one packed row, testing the 11-module windows at 64 start positions at a time.
+    private static int getFinderLikeCount(long[] grid, int off, int rowWords, int size) {
+        int result = 0;
+        for (int start = 0; start + 11 <= size; start += 64) {
+            long before = -1L;  // Windows matching 0x05D, light side first
+            long after = -1L;   // Windows matching 0x5D0, light side last
+            for (int k = 0; k < 11; k++) {
+                long bits = getBits(grid, off, rowWords, start + k);
+                before &= ((0x05D >>> (10 - k)) & 1) != 0 ? bits : ~bits;
+                after &= ((0x5D0 >>> (10 - k)) & 1) != 0 ? bits : ~bits;
+            }
+            int windows = size - 10 - start;
+            if (windows < 64) {
+                before &= (1L << windows) - 1;
+                after &= (1L << windows) - 1;
+            }
+            result += Long.bitCount(before) + Long.bitCount(after);
+        }
+        return result;
+    }
+
+
+    // Returns the 64 modules of a packed row starting at module pos, with 0s past the end of the row.
+    private static long getBits(long[] grid, int off, int rowWords, int pos) {
+        int j = pos >>> 6;
+        int shift = pos & 63;
+        long result = j < rowWords ? grid[off + j] >>> shift : 0;
+        if (shift != 0 && j + 1 < rowWords)
+            result |= grid[off + j + 1] << (64 - shift);
+        return result;
+    }
+
+
+
 	/*---- Private static helper functions ----*/
 
+    // Returns the executor for scoring masks in parallel, or null when there is only one core.
+    private static synchronized ExecutorService getMaskExecutor() {
+        if (!maskExecutorChecked) {
+            maskExecutorChecked = true;
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), 8) - 1;
+            if (threads > 0) {
+                maskExecutor = Executors.newFixedThreadPool(threads, r -> {
+                    Thread thread = new Thread(r, "QrMask");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return maskExecutor;
+    }
+
+
+    // Returns whether the given mask pattern inverts the module at (x, y).
+    private static boolean isMasked(int mask, int x, int y) {
+        switch (mask) {
+            case 0:  return (x + y) % 2 == 0;
+            case 1:  return y % 2 == 0;
+            case 2:  return x % 3 == 0;
+            case 3:  return (x + y) % 3 == 0;
+            case 4:  return (x / 3 + y / 2) % 2 == 0;
+            case 5:  return x * y % 2 + x * y % 3 == 0;
+            case 6:  return (x * y % 2 + x * y % 3) % 2 == 0;
+            case 7:  return ((x + y) % 2 + x * y % 3) % 2 == 0;
+            default:  throw new AssertionError();
+        }
+    }
+
+
     // Returns a set of positions of the alignment patterns in ascending order. These positions are
     // used on both the x and y axes. Each value in the resulting array is in the range [0, 177).
     // This stateless pure function could be implemented as table of 40 variable-length lists of unsigned bytes.
@@ -684,6 +899,35 @@ public final class QrCode {
     private static final int PENALTY_N3 = 40;
     private static final int PENALTY_N4 = 10;
 
+    // Masks of symbols at least this size (version 10) are scored in parallel when there is more than one core.
+    private static final int PARALLEL_MASK_MIN_SIZE = 57;
+
+    // Shared daemon threads for scoring masks, created the first time a large symbol is encoded.
+    private static ExecutorService maskExecutor;
+    private static boolean maskExecutorChecked;
+
+    // The mask patterns repeat every 12 rows and columns. MASK_ROWS[m][y % 12] is the packed row of
+    // modules that mask m inverts in row y, MASK_COLUMNS[m][x % 12] the same for column x.
+    private static final int MASK_PERIOD = 12;
+    private static final long[][][] MASK_ROWS = new long[8][MASK_PERIOD][];
+    private static final long[][][] MASK_COLUMNS = new long[8][MASK_PERIOD][];
+
+    static {
+        int words = (MAX_VERSION * 4 + 17 + 63) >>> 6;
+        for (int mask = 0; mask < 8; mask++) {
+            for (int i = 0; i < MASK_PERIOD; i++) {
+                MASK_ROWS[mask][i] = new long[words];
+                MASK_COLUMNS[mask][i] = new long[words];
+                for (int j = 0; j < words * 64; j++) {
+                    if (isMasked(mask, j, i))
+                        MASK_ROWS[mask][i][j >>> 6] |= 1L << j;
+                    if (isMasked(mask, i, j))
+                        MASK_COLUMNS[mask][i][j >>> 6] |= 1L << j;
+                }
+            }
+        }
+    }
+
 
     private static final byte[][] ECC_CODEWORDS_PER_BLOCK = {
             // Version: (note that index 0 is for padding, and is set to an illegal value)
@@ -732,25 +976,52 @@ public final class QrCode {
      * Computes the Reed-Solomon error correction codewords for a sequence of data codewords
      * at a given degree. Objects are immutable, and the state only depends on the degree.
      * This class exists because each data block in a QR Code shares the same the divisor polynomial.
+     * Generators are cached per degree, and all field arithmetic goes through log/antilog tables.
      */
     private static final class ReedSolomonGenerator {
-		
-		/*-- Immutable field --*/
+
+        /*-- Field tables --*/
+
+        // EXP_TABLE[i] = 0x02^i in GF(2^8/0x11D), repeated so the sum of two logarithms never
+        // needs a modulo. LOG_TABLE[0] points past the repeated part into zeros, which makes
+        // any product with zero come out as zero without a branch.
+        private static final int LOG_OF_ZERO = 512;
+        private static final byte[] EXP_TABLE = new byte[LOG_OF_ZERO * 2 + 1];
+        private static final int[] LOG_TABLE = new int[256];
+
+        static {
+            int x = 1;
+            for (int i = 0; i < 255; i++) {
+                EXP_TABLE[i] = (byte)x;
+                EXP_TABLE[i + 255] = (byte)x;
+                LOG_TABLE[x] = i;
+                x = (x << 1) ^ ((x >>> 7) * 0x11D);
+            }
+            LOG_TABLE[0] = LOG_OF_ZERO;
+        }
+
+        private static final ReedSolomonGenerator[] GENERATORS = new ReedSolomonGenerator[256];
+
+
+        /*-- Immutable fields --*/
 
         // Coefficients of the divisor polynomial, stored from highest to lowest power, excluding the leading term which
         // is always 1. For example the polynomial x^3 + 255x^2 + 8x + 93 is stored as the uint8 array {255, 8, 93}.
         private final byte[] coefficients;
-		
-		
-		/*-- Constructor --*/
+
+        // The logarithm of every coefficient, so multiplying by one is a single table lookup.
+        private final int[] coefficientLogs;
+
+
+        /*-- Constructor --*/
 
         /**
-         * Creates a Reed-Solomon ECC generator for the specified degree. This could be implemented
-         * as a lookup table over all possible parameter values, instead of as an algorithm.
+         * Creates a Reed-Solomon ECC generator for the specified degree. Use {@link #forDegree(int)}
+         * to get a cached one instead.
          * @param degree the divisor polynomial degree, which must be between 1 and 255
          * @throws IllegalArgumentException if degree &lt; 1 or degree > 255
          */
-        public ReedSolomonGenerator(int degree) {
+        private ReedSolomonGenerator(int degree) {
             if (degree < 1 || degree > 255)
                 throw new IllegalArgumentException("Degree out of range");
 
@@ -771,10 +1042,28 @@ public final class QrCode {
                 }
                 root = multiply(root, 0x02);
             }
+
+            coefficientLogs = new int[degree];
+            for (int i = 0; i < degree; i++)
+                coefficientLogs[i] = LOG_TABLE[coefficients[i] & 0xFF];
+        }
+
+
+        /*-- Methods --*/
+
+        /**
+         * Returns the generator for the specified degree, creating it the first time it's asked for.
+         * @param degree the divisor polynomial degree, which must be between 1 and 255
+         * @throws IllegalArgumentException if degree &lt; 1 or degree > 255
+         */
+        public static synchronized ReedSolomonGenerator forDegree(int degree) {
+            if (degree < 1 || degree > 255)
+                throw new IllegalArgumentException("Degree out of range");
+            if (GENERATORS[degree] == null)
+                GENERATORS[degree] = new ReedSolomonGenerator(degree);
+            return GENERATORS[degree];
         }
-		
-		
-		/*-- Method --*/
+
 
         /**
          * Computes and returns the Reed-Solomon error correction codewords for the specified
@@ -785,37 +1074,40 @@ public final class QrCode {
          * @throws NullPointerException if the data is {@code null}
          */
         public byte[] getRemainder(byte[] data) {
-            // Compute the remainder by performing polynomial division
             byte[] result = new byte[coefficients.length];
-            for (byte b : data) {
-                int factor = (b ^ result[0]) & 0xFF;
-                System.arraycopy(result, 1, result, 0, result.length - 1);
-                result[result.length - 1] = 0;
-                for (int i = 0; i < result.length; i++)
-                    result[i] ^= multiply(coefficients[i] & 0xFF, factor);
-            }
+            getRemainder(data, 0, data.length, result);
             return result;
         }
-		
-		
-		/*-- Static function --*/
+
+
+        /**
+         * Computes the Reed-Solomon error correction codewords for len data codewords starting
+         * at off, and writes them into result, which must be as long as the degree.
+         */
+        public void getRemainder(byte[] data, int off, int len, byte[] result) {
+            // Compute the remainder by performing polynomial division
+            int degree = coefficients.length;
+            Arrays.fill(result, (byte)0);
+            for (int k = off; k < off + len; k++) {
+                int logFactor = LOG_TABLE[(data[k] ^ result[0]) & 0xFF];
+                System.arraycopy(result, 1, result, 0, degree - 1);
+                result[degree - 1] = 0;
+                if (logFactor == LOG_OF_ZERO)
+                    continue;
+                for (int i = 0; i < degree; i++)
+                    result[i] ^= EXP_TABLE[coefficientLogs[i] + logFactor];
+            }
+        }
+
+
+        /*-- Static function --*/
 
         // Returns the product of the two given field elements modulo GF(2^8/0x11D). The arguments and result
-        // are unsigned 8-bit integers. This could be implemented as a lookup table of 256*256 entries of uint8.
+        // are unsigned 8-bit integers.
         private static int multiply(int x, int y) {
-            if (x >>> 8 != 0 || y >>> 8 != 0)
-                throw new IllegalArgumentException("Byte out of range");
-            // Russian peasant multiplication
-            int z = 0;
-            for (int i = 7; i >= 0; i--) {
-                z = (z << 1) ^ ((z >>> 7) * 0x11D);
-                z ^= ((y >>> i) & 1) * x;
-            }
-            if (z >>> 8 != 0)
-                throw new AssertionError();
-            return z;
+            return EXP_TABLE[LOG_TABLE[x] + LOG_TABLE[y]] & 0xFF;
         }
 
     }
 
-}
\ No newline at end of file
+}
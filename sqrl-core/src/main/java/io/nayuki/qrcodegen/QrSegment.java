@@ -47,8 +47,7 @@ public final class QrSegment {
      */
     public static QrSegment makeBytes(byte[] data) {
         BitBuffer bb = new BitBuffer();
-        for (byte b : data)
-            bb.appendBits(b & 0xFF, 8);
+        bb.appendBytes(data);
         return new QrSegment(Mode.BYTE, data.length, bb);
     }
 
@@ -0,0 +1,140 @@
+package org.ea.sqrl.core.crypto;
+
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.bouncycastle.math.ec.rfc7748.X25519;
+import org.bouncycastle.math.ec.rfc8032.Ed25519;
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * SqrlCrypto in pure Java, for running the client logic on a plain JVM. Needs the Bouncy Castle
+ * provider jar on the class path, the JDK itself has neither scrypt nor Ed25519 before Java 15.
+ */
+public class BouncyCastleCrypto implements SqrlCrypto {
+    private static final int SCRYPT_R = 256;
+    private static final int SCRYPT_P = 1;
+
+    /**
+     * The encodings of the points of order 1, 2, 4 and 8, with the sign bit left out, including
+     * the ones with y written as y + p. The same list libsodium refuses as keys and as R of a
+     * signature, so a forged signature made from one of them checks out on neither side.
+     */
+    private static final byte[][] SMALL_ORDER_POINTS = {
+            Bytes.fromHex("0000000000000000000000000000000000000000000000000000000000000000"),
+            Bytes.fromHex("0100000000000000000000000000000000000000000000000000000000000000"),
+            Bytes.fromHex("26e8958fc2b227b045c3f489f2ef98f0d5dfac05d3c63339b13802886d53fc05"),
+            Bytes.fromHex("c7176a703d4dd84fba3c0b760d10670f2a2053fa2c39ccc64ec7fd7792ac037a"),
+            Bytes.fromHex("ecffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f"),
+            Bytes.fromHex("edffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f"),
+            Bytes.fromHex("eeffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f")
+    };
+
+    static {
+        Ed25519.precompute();
+    }
+
+    @Override
+    public void scrypt(byte[] key, byte[] password, byte[] salt, int logNFactor) {
+        byte[] result = SCrypt.generate(password, salt, 1 << logNFactor, SCRYPT_R, SCRYPT_P, key.length);
+        System.arraycopy(result, 0, key, 0, key.length);
+        Bytes.clear(result);
+    }
+
+    @Override
+    public void signSeedKeypair(byte[] publicKey, byte[] privateKey, byte[] seed) {
+        Ed25519.generatePublicKey(seed, 0, publicKey, 0);
+        System.arraycopy(seed, 0, privateKey, 0, Ed25519.SECRET_KEY_SIZE);
+        System.arraycopy(publicKey, 0, privateKey, Ed25519.SECRET_KEY_SIZE, Ed25519.PUBLIC_KEY_SIZE);
+    }
+
+    @Override
+    public byte[] signDetached(byte[] message, byte[] privateKey) {
+        byte[] signature = new byte[Ed25519.SIGNATURE_SIZE];
+        Ed25519.sign(privateKey, 0, message, 0, message.length, signature, 0);
+        return signature;
+    }
+
+    @Override
+    public boolean verifyDetached(byte[] signature, byte[] message, byte[] publicKey) {
+        if(signature.length != Ed25519.SIGNATURE_SIZE || publicKey.length != Ed25519.PUBLIC_KEY_SIZE) {
+            return false;
+        }
+        // Older Bouncy Castle versions take these, libsodium never does.
+        if(!isCanonical(publicKey) || hasSmallOrder(publicKey) || hasSmallOrder(signature)) {
+            return false;
+        }
+        return Ed25519.verify(signature, 0, publicKey, 0, message, 0, message.length);
+    }
+
+    /**
+     * @param point     A point, only the first 32 bytes are looked at.
+     */
+    static boolean hasSmallOrder(byte[] point) {
+        for(byte[] smallOrderPoint : SMALL_ORDER_POINTS) {
+            boolean same = (point[31] & 0x7f) == smallOrderPoint[31];
+            for(int i = 0; same && i < 31; i++) {
+                same = point[i] == smallOrderPoint[i];
+            }
+            if(same) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return  False if y, without the sign bit, is p or more.
+     */
+    static boolean isCanonical(byte[] point) {
+        if((point[31] & 0x7f) != 0x7f) return true;
+        for(int i = 30; i > 0; i--) {
+            if(point[i] != (byte)0xff) return true;
+        }
+        return (point[0] & 0xff) < 0xed;
+    }
+
+    @Override
+    public void scalarMultBase(byte[] result, byte[] scalar) {
+        X25519.scalarMultBase(scalar, 0, result, 0);
+    }
+
+    @Override
+    public void scalarMult(byte[] result, byte[] scalar, byte[] point) {
+        X25519.scalarMult(scalar, 0, point, 0, result, 0);
+    }
+
+    @Override
+    public byte[] aesGcmEncrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] plainText) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+                    new GCMParameterSpec(GCM_TAG_BYTES * 8, iv));
+            if(additionalData != null) cipher.updateAAD(additionalData);
+            return cipher.doFinal(plainText);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public byte[] aesGcmDecrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] cipherText, byte[] tag) {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                    new GCMParameterSpec(GCM_TAG_BYTES * 8, iv));
+            if(additionalData != null) cipher.updateAAD(additionalData);
+            byte[] input = Arrays.copyOf(cipherText, cipherText.length + tag.length);
+            System.arraycopy(tag, 0, input, cipherText.length, tag.length);
+            return cipher.doFinal(input);
+        } catch (AEADBadTagException e) {
+            return null;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.ea.sqrl.core.crypto;
+
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * EnHash, sixteen chained SHA-256 runs XOR'ed together.
+ */
+public final class EnHash {
+    private static final int ROUNDS = 16;
+
+    private EnHash() {}
+
+    public static byte[] hash(byte[] bytesToHash) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(bytesToHash);
+        byte[] xorKey = hash.clone();
+        for(int i = 1; i < ROUNDS; i++) {
+            hash = digest.digest(hash);
+            Bytes.xorInto(xorKey, hash);
+        }
+        return xorKey;
+    }
+}
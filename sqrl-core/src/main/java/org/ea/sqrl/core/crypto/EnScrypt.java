@@ -0,0 +1,141 @@
+package org.ea.sqrl.core.crypto;
+
+import org.ea.sqrl.core.utils.Bytes;
+import org.ea.sqrl.core.utils.SqrlLog;
+
+/**
+ * EnScrypt, the password based key derivation of SQRL. Every iteration runs scrypt with the
+ * password and the previous result as salt, and the results of all iterations are XOR'ed into
+ * the key.
+ *
+ * The cancellation is checked before every iteration, so a cancelled run stops within one
+ * iteration. The password and intermediate keys are wiped whether the run completes or not.
+ */
+public final class EnScrypt {
+    private static final String TAG = "EnScrypt";
+
+    /**
+     * Told about the progress of a run, on the thread running it.
+     */
+    public interface Listener {
+        void onIteration(int iterationsDone, long millisElapsed);
+    }
+
+    public interface Cancellation {
+        boolean isCanceled();
+    }
+
+    public static class CanceledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CanceledException() {
+            super("EnScrypt was cancelled");
+        }
+    }
+
+    private static final Listener NO_LISTENER = (iterationsDone, millisElapsed) -> {};
+
+    /**
+     * The key of a run by time, with the number of iterations it took.
+     */
+    public static class TimedResult {
+        private final byte[] key;
+        private final int iterationCount;
+
+        TimedResult(byte[] key, int iterationCount) {
+            this.key = key;
+            this.iterationCount = iterationCount;
+        }
+
+        public byte[] getKey() {
+            return key;
+        }
+
+        public int getIterationCount() {
+            return iterationCount;
+        }
+    }
+
+    private EnScrypt() {}
+
+    /**
+     * Runs EnScrypt for a number of iterations.
+     *
+     * @param listener      Told after every iteration, or null.
+     * @param cancellation  Checked before every iteration, or null.
+     * @throws CanceledException    If cancelled before the run completed.
+     */
+    public static byte[] iterations(SqrlCrypto crypto, byte[] password, byte[] salt, int logNFactor, int dkLen, int iterationCount, Listener listener, Cancellation cancellation) {
+        if(listener == null) listener = NO_LISTENER;
+        long startTime = System.currentTimeMillis();
+
+        byte[] key = new byte[dkLen];
+        byte[] xorKey = new byte[dkLen];
+        boolean completed = false;
+        try {
+            throwIfCanceled(cancellation);
+            crypto.scrypt(key, password, salt, logNFactor);
+            Bytes.xorInto(xorKey, key);
+            listener.onIteration(1, System.currentTimeMillis() - startTime);
+
+            for(int i = 1; i < iterationCount; i++) {
+                throwIfCanceled(cancellation);
+                crypto.scrypt(key, password, key, logNFactor);
+                Bytes.xorInto(xorKey, key);
+                listener.onIteration(i + 1, System.currentTimeMillis() - startTime);
+            }
+            completed = true;
+            return xorKey;
+        } finally {
+            Bytes.clear(password);
+            Bytes.clear(key);
+            if(!completed) Bytes.clear(xorKey);
+        }
+    }
+
+    /**
+     * Runs EnScrypt for at least a number of seconds, and always at least one iteration.
+     *
+     * @param listener      Told after every iteration, or null.
+     * @param cancellation  Checked before every iteration, or null.
+     * @throws CanceledException    If cancelled before the run completed.
+     */
+    public static TimedResult time(SqrlCrypto crypto, byte[] password, byte[] salt, int logNFactor, int dkLen, int secondsToRun, Listener listener, Cancellation cancellation) {
+        if(listener == null) listener = NO_LISTENER;
+        long startTime = System.currentTimeMillis();
+
+        byte[] key = new byte[dkLen];
+        byte[] xorKey = new byte[dkLen];
+        boolean completed = false;
+        try {
+            throwIfCanceled(cancellation);
+            crypto.scrypt(key, password, salt, logNFactor);
+            Bytes.xorInto(xorKey, key);
+
+            int iterationCount = 1;
+            long time = System.currentTimeMillis() - startTime;
+            listener.onIteration(iterationCount, time);
+            while(time < secondsToRun * 1000L) {
+                throwIfCanceled(cancellation);
+                crypto.scrypt(key, password, key, logNFactor);
+                Bytes.xorInto(xorKey, key);
+                iterationCount++;
+                time = System.currentTimeMillis() - startTime;
+                listener.onIteration(iterationCount, time);
+            }
+            completed = true;
+            SqrlLog.d(TAG, "Ran " + iterationCount + " iterations in " + time + " ms");
+            return new TimedResult(xorKey, iterationCount);
+        } finally {
+            Bytes.clear(password);
+            Bytes.clear(key);
+            if(!completed) Bytes.clear(xorKey);
+        }
+    }
+
+    private static void throwIfCanceled(Cancellation cancellation) {
+        if(cancellation != null && cancellation.isCanceled()) {
+            throw new CanceledException();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.ea.sqrl.core.crypto;
+
+/**
+ * The primitives SQRL is built from. The app implements them with libsodium and its own
+ * AES-GCM, which are native code that only exists on Android, and {@link BouncyCastleCrypto}
+ * implements them on a plain JVM. Keys and signatures have the libsodium layout, so a private
+ * signing key is the seed followed by the public key.
+ */
+public interface SqrlCrypto {
+    int SIGN_PUBLIC_KEY_BYTES = 32;
+    int SIGN_PRIVATE_KEY_BYTES = 64;
+    int SIGNATURE_BYTES = 64;
+    int SCALAR_BYTES = 32;
+    int GCM_TAG_BYTES = 16;
+
+    /**
+     * One scrypt run with r = 256 and p = 1, as used by EnScrypt.
+     *
+     * @param key       Output, filled with key.length bytes. May be the same array as salt.
+     */
+    void scrypt(byte[] key, byte[] password, byte[] salt, int logNFactor);
+
+    /**
+     * Creates the Ed25519 key pair of a seed.
+     */
+    void signSeedKeypair(byte[] publicKey, byte[] privateKey, byte[] seed);
+
+    /**
+     * @return  The Ed25519 signature of the message, without the message.
+     */
+    byte[] signDetached(byte[] message, byte[] privateKey);
+
+    /**
+     * @return  True if the signature of the message was made with the private key of the
+     *          public key.
+     */
+    boolean verifyDetached(byte[] signature, byte[] message, byte[] publicKey);
+
+    /**
+     * Curve25519 public key of a secret scalar.
+     */
+    void scalarMultBase(byte[] result, byte[] scalar);
+
+    /**
+     * Curve25519 Diffie-Hellman of a secret scalar and a public point.
+     */
+    void scalarMult(byte[] result, byte[] scalar, byte[] point);
+
+    /**
+     * @return  The cipher text followed by the tag.
+     */
+    byte[] aesGcmEncrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] plainText);
+
+    /**
+     * @return  The plain text, or null if the tag doesn't match.
+     */
+    byte[] aesGcmDecrypt(byte[] key, byte[] iv, byte[] additionalData, byte[] cipherText, byte[] tag);
+}
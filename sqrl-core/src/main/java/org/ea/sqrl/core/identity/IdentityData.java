@@ -0,0 +1,452 @@
+package org.ea.sqrl.core.identity;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A SQRL identity in the S4 storage format: the "sqrldata" header followed by up to three
+ * blocks. Each block starts with its length and type, followed by plain text that is
+ * authenticated by the AES-GCM tag at the end of it.
+ *
+ * - Type 1, the password block, holds the identity master and lock keys, encrypted with a key
+ *   derived from the password.
+ * - Type 2, the rescue block, holds the identity unlock key, encrypted with a key derived from
+ *   the rescue code.
+ * - Type 3, the previous keys block, holds up to four earlier identity unlock keys, encrypted
+ *   with the identity master key.
+ *
+ * The blocks are immutable. Encrypting creates a new block, which replaces the old one.
+ */
+public class IdentityData {
+    public static final String HEADER = "sqrldata";
+    public static final String HEADER_BASE64 = "SQRLDATA";
+    public static final int HEADER_LENGTH = 8;
+
+    private static final int PASSWORD_PBKDF = 1;
+    private static final int RESCUECODE_PBKDF = 2;
+    private static final int PREVIOUS_IDENTITY_KEYS = 3;
+    private static final int KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 12;
+    private static final int SALT_LENGTH = 16;
+    private static final int TAG_LENGTH = SqrlCrypto.GCM_TAG_BYTES;
+
+    private PasswordBlock passwordBlock;
+    private RescueBlock rescueBlock;
+    private PreviousKeysBlock previousKeysBlock;
+
+    /**
+     * Reads an identity in the binary format, or the base64url one with the upper case header.
+     *
+     * @throws Exception    If the identity is damaged or has a block we don't know.
+     */
+    public static IdentityData read(byte[] input) throws Exception {
+        if(input.length < HEADER_LENGTH) throw new Exception("Incorrect header");
+        String header = new String(input, 0, HEADER_LENGTH, "US-ASCII");
+        if(HEADER_BASE64.equals(header)) {
+            input = decodeBase64(input);
+            header = HEADER;
+        }
+        if(!HEADER.equals(header)) throw new Exception("Incorrect header");
+
+        IdentityData identity = new IdentityData();
+        int readOffset = HEADER_LENGTH;
+        while(input.length > readOffset + 2) {
+            int len = Bytes.readShort(input, readOffset);
+            if(len < 4 || readOffset + len > input.length) {
+                throw new Exception(
+                        "Incorrect length of block offset " + readOffset + " len " + len + " input len " + input.length
+                );
+            }
+            identity.handleBlock(Arrays.copyOfRange(input, readOffset, readOffset + len));
+            readOffset += len;
+        }
+        return identity;
+    }
+
+    /**
+     * The base64url format allows for CR, LF, TAB and SPACE anywhere in the data, the decoder
+     * skips them.
+     */
+    private static byte[] decodeBase64(byte[] input) throws Exception {
+        String data = new String(input, HEADER_LENGTH, input.length - HEADER_LENGTH, "US-ASCII");
+        byte[] decoded;
+        try {
+            decoded = Base64Url.decode(data);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Invalid base64 identity format");
+        }
+        if(decoded.length < 1) throw new Exception("Invalid base64 identity format");
+        return Bytes.combine(HEADER.getBytes("US-ASCII"), decoded);
+    }
+
+    private void handleBlock(byte[] block) throws Exception {
+        int type = Bytes.readShort(block, 2);
+        switch (type) {
+            case PASSWORD_PBKDF:
+                passwordBlock = new PasswordBlock(block);
+                break;
+            case RESCUECODE_PBKDF:
+                rescueBlock = new RescueBlock(block);
+                break;
+            case PREVIOUS_IDENTITY_KEYS:
+                previousKeysBlock = new PreviousKeysBlock(block);
+                break;
+            default:
+                throw new Exception("Unknown type " + type);
+        }
+    }
+
+    /**
+     * @return  The identity in the binary format, with the blocks in the order of their types.
+     */
+    public byte[] toBytes() {
+        return toBytes(true);
+    }
+
+    /**
+     * @param withPasswordBlock     False to leave out the password block, like the textual
+     *                              identity and the exports without a password do.
+     */
+    public byte[] toBytes(boolean withPasswordBlock) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        out.write(HEADER.getBytes(), 0, HEADER_LENGTH);
+        if(withPasswordBlock && passwordBlock != null) {
+            out.write(passwordBlock.data, 0, passwordBlock.data.length);
+        }
+        if(rescueBlock != null) {
+            out.write(rescueBlock.data, 0, rescueBlock.data.length);
+        }
+        if(previousKeysBlock != null && previousKeysBlock.getKeyCount() > 0) {
+            out.write(previousKeysBlock.data, 0, previousKeysBlock.data.length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return  The rescue and previous keys blocks, which is what the textual identity encodes.
+     */
+    public byte[] getTextualBytes() {
+        byte[] data = toBytes(false);
+        return Arrays.copyOfRange(data, HEADER_LENGTH, data.length);
+    }
+
+    public PasswordBlock getPasswordBlock() {
+        return passwordBlock;
+    }
+
+    public void setPasswordBlock(PasswordBlock passwordBlock) {
+        this.passwordBlock = passwordBlock;
+    }
+
+    public RescueBlock getRescueBlock() {
+        return rescueBlock;
+    }
+
+    public void setRescueBlock(RescueBlock rescueBlock) {
+        this.rescueBlock = rescueBlock;
+    }
+
+    public PreviousKeysBlock getPreviousKeysBlock() {
+        return previousKeysBlock;
+    }
+
+    public void setPreviousKeysBlock(PreviousKeysBlock previousKeysBlock) {
+        this.previousKeysBlock = previousKeysBlock;
+    }
+
+    private static byte[] header(int length, int type) {
+        return Bytes.combine(Bytes.shortBytes(length), Bytes.shortBytes(type));
+    }
+
+    private static void requireLength(byte[] block, int length) throws Exception {
+        if(block.length < length) {
+            throw new Exception("Block of type " + Bytes.readShort(block, 2) + " is too short");
+        }
+    }
+
+    /**
+     * Type 1, the identity master and lock keys encrypted with the password.
+     */
+    public static class PasswordBlock {
+        public static final int LENGTH = 125;
+        public static final int PLAINTEXT_LENGTH = 45;
+
+        private final byte[] data;
+
+        /**
+         * Wraps a block as it is stored, from its length up to and including the tag.
+         *
+         * @throws Exception    If the block is too short.
+         */
+        public PasswordBlock(byte[] data) throws Exception {
+            requireLength(data, LENGTH);
+            this.data = data;
+        }
+
+        /**
+         * Creates a password block with the keys encrypted under a key made by EnScrypt.
+         *
+         * @param identityKeys  The identity master key followed by the identity lock key.
+         */
+        public static PasswordBlock encrypt(SqrlCrypto crypto, byte[] key, byte[] identityKeys,
+                                            byte[] initializationVector, byte[] salt, int logNFactor,
+                                            int iterationCount, int optionFlags, int hintLength,
+                                            int passwordVerifySeconds, int idleTimeoutMinutes) {
+            byte[] plaintext = header(LENGTH, PASSWORD_PBKDF);
+            plaintext = Bytes.combine(plaintext, Bytes.shortBytes(PLAINTEXT_LENGTH));
+            plaintext = Bytes.combine(plaintext, initializationVector);
+            plaintext = Bytes.combine(plaintext, salt);
+            plaintext = Bytes.combine(plaintext, (byte) logNFactor);
+            plaintext = Bytes.combine(plaintext, Bytes.intBytes(iterationCount));
+            plaintext = Bytes.combine(plaintext, Bytes.shortBytes(optionFlags));
+            plaintext = Bytes.combine(plaintext, (byte) hintLength);
+            plaintext = Bytes.combine(plaintext, (byte) passwordVerifySeconds);
+            plaintext = Bytes.combine(plaintext, Bytes.shortBytes(idleTimeoutMinutes));
+
+            byte[] encrypted = crypto.aesGcmEncrypt(key, initializationVector, plaintext, identityKeys);
+            try {
+                return new PasswordBlock(Bytes.combine(plaintext, encrypted));
+            } catch (Exception e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * @return  The identity master key followed by the identity lock key, or null if the
+         *          key is wrong.
+         */
+        public byte[] decrypt(SqrlCrypto crypto, byte[] key) {
+            return crypto.aesGcmDecrypt(key, getInitializationVector(), getPlaintext(),
+                    Arrays.copyOfRange(data, 45, 109), Arrays.copyOfRange(data, 109, 125));
+        }
+
+        /**
+         * @return  The authenticated plain text at the start of the block.
+         */
+        public byte[] getPlaintext() {
+            return Arrays.copyOfRange(data, 0, getPlaintextLength());
+        }
+
+        public int getPlaintextLength() {
+            return Bytes.readShort(data, 4);
+        }
+
+        public byte[] getInitializationVector() {
+            return Arrays.copyOfRange(data, 6, 6 + IV_LENGTH);
+        }
+
+        public byte[] getSalt() {
+            return Arrays.copyOfRange(data, 18, 18 + SALT_LENGTH);
+        }
+
+        public int getLogNFactor() {
+            return data[34];
+        }
+
+        public int getIterationCount() {
+            return Bytes.readInt(data, 35);
+        }
+
+        public int getOptionFlags() {
+            return Bytes.readShort(data, 39);
+        }
+
+        public int getHintLength() {
+            return data[41] & 0xFF;
+        }
+
+        public int getPasswordVerifySeconds() {
+            return data[42] & 0xFF;
+        }
+
+        public int getIdleTimeoutMinutes() {
+            return Bytes.readShort(data, 43);
+        }
+
+        public byte[] getIdentityMasterKeyEncrypted() {
+            return Arrays.copyOfRange(data, 45, 45 + KEY_LENGTH);
+        }
+
+        public byte[] getIdentityLockKeyEncrypted() {
+            return Arrays.copyOfRange(data, 77, 77 + KEY_LENGTH);
+        }
+
+        public byte[] getVerificationTag() {
+            return Arrays.copyOfRange(data, 109, 109 + TAG_LENGTH);
+        }
+
+        public byte[] toBytes() {
+            return data.clone();
+        }
+    }
+
+    /**
+     * Type 2, the identity unlock key encrypted with the rescue code.
+     */
+    public static class RescueBlock {
+        public static final int LENGTH = 73;
+        public static final int PLAINTEXT_LENGTH = 25;
+
+        private final byte[] data;
+
+        /**
+         * Wraps a block as it is stored, from its length up to and including the tag.
+         *
+         * @throws Exception    If the block is too short.
+         */
+        public RescueBlock(byte[] data) throws Exception {
+            requireLength(data, LENGTH);
+            this.data = data;
+        }
+
+        public static RescueBlock encrypt(SqrlCrypto crypto, byte[] key, byte[] identityUnlockKey,
+                                          byte[] salt, int logNFactor, int iterationCount) {
+            byte[] plaintext = header(LENGTH, RESCUECODE_PBKDF);
+            plaintext = Bytes.combine(plaintext, salt);
+            plaintext = Bytes.combine(plaintext, (byte) logNFactor);
+            plaintext = Bytes.combine(plaintext, Bytes.intBytes(iterationCount));
+
+            byte[] encrypted = crypto.aesGcmEncrypt(key, new byte[IV_LENGTH], plaintext, identityUnlockKey);
+            try {
+                return new RescueBlock(Bytes.combine(plaintext, encrypted));
+            } catch (Exception e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * @return  The identity unlock key, or null if the key is wrong.
+         */
+        public byte[] decrypt(SqrlCrypto crypto, byte[] key) {
+            return crypto.aesGcmDecrypt(key, new byte[IV_LENGTH], getPlaintext(),
+                    getIdentityUnlockKeyEncrypted(), getVerificationTag());
+        }
+
+        public byte[] getPlaintext() {
+            return Arrays.copyOfRange(data, 0, PLAINTEXT_LENGTH);
+        }
+
+        public byte[] getSalt() {
+            return Arrays.copyOfRange(data, 4, 4 + SALT_LENGTH);
+        }
+
+        public int getLogNFactor() {
+            return data[20];
+        }
+
+        public int getIterationCount() {
+            return Bytes.readInt(data, 21);
+        }
+
+        public byte[] getIdentityUnlockKeyEncrypted() {
+            return Arrays.copyOfRange(data, 25, 25 + KEY_LENGTH);
+        }
+
+        public byte[] getVerificationTag() {
+            return Arrays.copyOfRange(data, 57, 57 + TAG_LENGTH);
+        }
+
+        public byte[] toBytes() {
+            return data.clone();
+        }
+    }
+
+    /**
+     * Type 3, up to four earlier identity unlock keys, the newest first, encrypted with the
+     * identity master key.
+     */
+    public static class PreviousKeysBlock {
+        public static final int PLAINTEXT_LENGTH = 6;
+        public static final int MAX_KEYS = 4;
+
+        private final byte[] data;
+
+        /**
+         * Wraps a block as it is stored, from its length up to and including the tag.
+         *
+         * @throws Exception    If the block is too short.
+         */
+        public PreviousKeysBlock(byte[] data) throws Exception {
+            requireLength(data, PLAINTEXT_LENGTH);
+            int count = Bytes.readShort(data, 4);
+            if(count > MAX_KEYS) throw new Exception("Incorrect number of previous keys " + count);
+            requireLength(data, length(count));
+            this.data = data;
+        }
+
+        private static int length(int count) {
+            return PLAINTEXT_LENGTH + count * KEY_LENGTH + TAG_LENGTH;
+        }
+
+        /**
+         * @param previousKeys  One to four identity unlock keys, the newest first.
+         */
+        public static PreviousKeysBlock encrypt(SqrlCrypto crypto, byte[] identityMasterKey, byte[][] previousKeys) {
+            if(previousKeys.length < 1 || previousKeys.length > MAX_KEYS) {
+                throw new IllegalArgumentException("Incorrect number of previous keys " + previousKeys.length);
+            }
+            byte[] plaintext = header(length(previousKeys.length), PREVIOUS_IDENTITY_KEYS);
+            plaintext = Bytes.combine(plaintext, Bytes.shortBytes(previousKeys.length));
+
+            byte[] keys = new byte[0];
+            for(byte[] key : previousKeys) {
+                keys = Bytes.combine(keys, key);
+            }
+            byte[] encrypted = crypto.aesGcmEncrypt(identityMasterKey, new byte[IV_LENGTH], plaintext, keys);
+            Bytes.clear(keys);
+            try {
+                return new PreviousKeysBlock(Bytes.combine(plaintext, encrypted));
+            } catch (Exception e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * @return  The previous identity unlock keys, the newest first, or null if the identity
+         *          master key is wrong.
+         */
+        public byte[][] decrypt(SqrlCrypto crypto, byte[] identityMasterKey) {
+            int count = getKeyCount();
+            byte[] keys = crypto.aesGcmDecrypt(identityMasterKey, new byte[IV_LENGTH], getPlaintext(),
+                    Arrays.copyOfRange(data, PLAINTEXT_LENGTH, PLAINTEXT_LENGTH + count * KEY_LENGTH),
+                    getVerificationTag());
+            if(keys == null) return null;
+
+            byte[][] result = new byte[count][];
+            for(int i = 0; i < count; i++) {
+                result[i] = Arrays.copyOfRange(keys, i * KEY_LENGTH, (i + 1) * KEY_LENGTH);
+            }
+            Bytes.clear(keys);
+            return result;
+        }
+
+        public byte[] getPlaintext() {
+            return Arrays.copyOfRange(data, 0, PLAINTEXT_LENGTH);
+        }
+
+        public int getKeyCount() {
+            return Bytes.readShort(data, 4);
+        }
+
+        /**
+         * @param index     Zero for the newest key.
+         */
+        public byte[] getKeyEncrypted(int index) {
+            int start = PLAINTEXT_LENGTH + index * KEY_LENGTH;
+            return Arrays.copyOfRange(data, start, start + KEY_LENGTH);
+        }
+
+        public byte[] getVerificationTag() {
+            int start = PLAINTEXT_LENGTH + getKeyCount() * KEY_LENGTH;
+            return Arrays.copyOfRange(data, start, start + TAG_LENGTH);
+        }
+
+        public byte[] toBytes() {
+            return data.clone();
+        }
+    }
+}
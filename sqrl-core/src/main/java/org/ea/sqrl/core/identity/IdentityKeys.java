@@ -0,0 +1,221 @@
+package org.ea.sqrl.core.identity;
+
+import org.ea.sqrl.core.crypto.EnHash;
+import org.ea.sqrl.core.crypto.EnScrypt;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The secret keys of an unlocked identity.
+ *
+ * - The identity unlock key (IUK) is only known after unlocking with the rescue code.
+ * - The identity master key (IMK), the EnHash of the IUK, is what the site keys come from.
+ * - The identity lock key (ILK), the public key of the IUK, goes to every site.
+ * - The previous identity unlock keys, the newest first, let sites still know us after a rekey.
+ */
+public class IdentityKeys {
+    public static final int DEFAULT_LOG_N_FACTOR = 9;
+    public static final int DEFAULT_OPTION_FLAGS = 0x1f3;
+    public static final int DEFAULT_HINT_LENGTH = 4;
+    public static final int DEFAULT_PASSWORD_VERIFY_SECONDS = 5;
+    public static final int DEFAULT_IDLE_TIMEOUT_MINUTES = 5;
+    private static final int RESCUE_CODE_DIGITS = 24;
+
+    private final byte[] identityUnlockKey;
+    private final byte[] identityMasterKey;
+    private final byte[] identityLockKey;
+    private final byte[][] previousUnlockKeys;
+
+    private IdentityKeys(byte[] identityUnlockKey, byte[] identityMasterKey, byte[] identityLockKey, byte[][] previousUnlockKeys) {
+        this.identityUnlockKey = identityUnlockKey;
+        this.identityMasterKey = identityMasterKey;
+        this.identityLockKey = identityLockKey;
+        this.previousUnlockKeys = previousUnlockKeys != null ? previousUnlockKeys : new byte[0][];
+    }
+
+    /**
+     * @param identityUnlockKey     32 random bytes for a new identity, or the key of a rescued one.
+     * @param previousUnlockKeys    The previous identity unlock keys, the newest first, or null.
+     */
+    public static IdentityKeys fromUnlockKey(SqrlCrypto crypto, byte[] identityUnlockKey, byte[][] previousUnlockKeys) {
+        byte[] identityLockKey = new byte[SqrlCrypto.SCALAR_BYTES];
+        crypto.scalarMultBase(identityLockKey, identityUnlockKey);
+        return new IdentityKeys(identityUnlockKey.clone(), EnHash.hash(identityUnlockKey), identityLockKey, previousUnlockKeys);
+    }
+
+    /**
+     * Unlocks the password block and the previous keys with it.
+     *
+     * @return  The keys, without the identity unlock key, or null if the password is wrong.
+     * @throws Exception    If the identity has no password block or the previous keys don't
+     *                      belong to it.
+     */
+    public static IdentityKeys unlock(SqrlCrypto crypto, IdentityData identity, String password,
+                                      EnScrypt.Listener listener, EnScrypt.Cancellation cancellation) throws Exception {
+        IdentityData.PasswordBlock block = identity.getPasswordBlock();
+        if(block == null) throw new Exception("No password block");
+
+        byte[] key = EnScrypt.iterations(crypto, Bytes.utf8(password), block.getSalt(), block.getLogNFactor(),
+                32, block.getIterationCount(), listener, cancellation);
+        byte[] keys = block.decrypt(crypto, key);
+        Bytes.clear(key);
+        if(keys == null) return null;
+
+        byte[] identityMasterKey = Arrays.copyOfRange(keys, 0, 32);
+        byte[] identityLockKey = Arrays.copyOfRange(keys, 32, 64);
+        Bytes.clear(keys);
+        return new IdentityKeys(null, identityMasterKey, identityLockKey,
+                decryptPreviousKeys(crypto, identity, identityMasterKey));
+    }
+
+    /**
+     * Unlocks the rescue block, which gives back all of the keys.
+     *
+     * @param rescueCode    The 24 digits, with or without dashes.
+     * @return              The keys, or null if the rescue code is wrong.
+     * @throws Exception    If the identity has no rescue block or the previous keys don't
+     *                      belong to it.
+     */
+    public static IdentityKeys rescue(SqrlCrypto crypto, IdentityData identity, String rescueCode,
+                                      EnScrypt.Listener listener, EnScrypt.Cancellation cancellation) throws Exception {
+        IdentityData.RescueBlock block = identity.getRescueBlock();
+        if(block == null) throw new Exception("No rescue block");
+
+        byte[] key = EnScrypt.iterations(crypto, Bytes.utf8(rescueCode.replaceAll("-", "")), block.getSalt(),
+                block.getLogNFactor(), 32, block.getIterationCount(), listener, cancellation);
+        byte[] identityUnlockKey = block.decrypt(crypto, key);
+        Bytes.clear(key);
+        if(identityUnlockKey == null) return null;
+
+        byte[] identityMasterKey = EnHash.hash(identityUnlockKey);
+        byte[] identityLockKey = new byte[SqrlCrypto.SCALAR_BYTES];
+        crypto.scalarMultBase(identityLockKey, identityUnlockKey);
+        return new IdentityKeys(identityUnlockKey, identityMasterKey, identityLockKey,
+                decryptPreviousKeys(crypto, identity, identityMasterKey));
+    }
+
+    private static byte[][] decryptPreviousKeys(SqrlCrypto crypto, IdentityData identity, byte[] identityMasterKey) throws Exception {
+        IdentityData.PreviousKeysBlock block = identity.getPreviousKeysBlock();
+        if(block == null || block.getKeyCount() == 0) return null;
+
+        byte[][] previousKeys = block.decrypt(crypto, identityMasterKey);
+        if(previousKeys == null) throw new Exception("Previous keys don't belong to the identity");
+        return previousKeys;
+    }
+
+    /**
+     * Stores the keys as a new identity with fixed iteration counts, so every identity made
+     * with the same counts takes the same time to unlock, whatever machine made it.
+     *
+     * @param random    Source of the salts and initialization vector.
+     * @param rescueCode        Rescue code to encrypt the identity unlock key with, or null to
+     *                          leave the rescue block out.
+     */
+    public IdentityData store(SqrlCrypto crypto, Random random, String password, int passwordIterations,
+                              String rescueCode, int rescueIterations) {
+        IdentityData identity = new IdentityData();
+
+        byte[] salt = new byte[16];
+        byte[] initializationVector = new byte[12];
+        random.nextBytes(salt);
+        random.nextBytes(initializationVector);
+        byte[] key = EnScrypt.iterations(crypto, Bytes.utf8(password), salt, DEFAULT_LOG_N_FACTOR, 32,
+                passwordIterations, null, null);
+        byte[] identityKeys = Bytes.combine(identityMasterKey, identityLockKey);
+        identity.setPasswordBlock(IdentityData.PasswordBlock.encrypt(crypto, key, identityKeys,
+                initializationVector, salt, DEFAULT_LOG_N_FACTOR, passwordIterations,
+                DEFAULT_OPTION_FLAGS, DEFAULT_HINT_LENGTH, DEFAULT_PASSWORD_VERIFY_SECONDS,
+                DEFAULT_IDLE_TIMEOUT_MINUTES));
+        Bytes.clear(key);
+        Bytes.clear(identityKeys);
+
+        if(rescueCode != null && identityUnlockKey != null) {
+            byte[] rescueSalt = new byte[16];
+            random.nextBytes(rescueSalt);
+            byte[] rescueKey = EnScrypt.iterations(crypto, Bytes.utf8(rescueCode.replaceAll("-", "")),
+                    rescueSalt, DEFAULT_LOG_N_FACTOR, 32, rescueIterations, null, null);
+            identity.setRescueBlock(IdentityData.RescueBlock.encrypt(crypto, rescueKey, identityUnlockKey,
+                    rescueSalt, DEFAULT_LOG_N_FACTOR, rescueIterations));
+            Bytes.clear(rescueKey);
+        }
+
+        if(previousUnlockKeys.length > 0) {
+            identity.setPreviousKeysBlock(IdentityData.PreviousKeysBlock.encrypt(
+                    crypto, identityMasterKey, previousUnlockKeys));
+        }
+        return identity;
+    }
+
+    /**
+     * Quoted is the documentation: "At identity creation time, the system obtains 32-bytes
+     * (256-bits) of entropy. It then performs successive 32-byte long division by 10 until it
+     * has extracted 24 division remainder bytes, each with a value of 0 to 9."
+     *
+     * The last 24 digits of the number in radix 10 are the same as dividing it by 10, 24 times.
+     *
+     * @param entropy   32 random bytes.
+     * @return          The 24 digits of the rescue code, without dashes.
+     */
+    public static String rescueCode(byte[] entropy) {
+        String digits = new BigInteger(1, entropy).toString(10);
+        while(digits.length() < RESCUE_CODE_DIGITS) {
+            digits = "0" + digits;
+        }
+        return digits.substring(digits.length() - RESCUE_CODE_DIGITS);
+    }
+
+    public SiteKeys siteKeys(SqrlCrypto crypto, byte[] domain) {
+        return SiteKeys.derive(crypto, identityMasterKey, domain);
+    }
+
+    /**
+     * @param index     Zero for the newest previous identity.
+     */
+    public SiteKeys previousSiteKeys(SqrlCrypto crypto, byte[] domain, int index) {
+        return SiteKeys.derivePrevious(crypto, previousUnlockKeys[index], domain);
+    }
+
+    /**
+     * @param randomLock    32 random bytes, which are wiped.
+     */
+    public UnlockKeys createUnlockKeys(SqrlCrypto crypto, byte[] randomLock) {
+        return UnlockKeys.create(crypto, identityLockKey, randomLock);
+    }
+
+    public boolean hasUnlockKey() {
+        return identityUnlockKey != null;
+    }
+
+    public byte[] getIdentityUnlockKey() {
+        return identityUnlockKey != null ? identityUnlockKey.clone() : null;
+    }
+
+    public byte[] getIdentityMasterKey() {
+        return identityMasterKey.clone();
+    }
+
+    public byte[] getIdentityLockKey() {
+        return identityLockKey.clone();
+    }
+
+    public int getPreviousKeyCount() {
+        return previousUnlockKeys.length;
+    }
+
+    public byte[] getPreviousUnlockKey(int index) {
+        return previousUnlockKeys[index].clone();
+    }
+
+    public void clear() {
+        Bytes.clear(identityUnlockKey);
+        Bytes.clear(identityMasterKey);
+        Bytes.clear(identityLockKey);
+        for(byte[] key : previousUnlockKeys) {
+            Bytes.clear(key);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.ea.sqrl.core.identity;
+
+import org.ea.sqrl.core.crypto.EnHash;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The keys of an identity for a single site. The HMAC of the crypt domain under the identity
+ * master key is the seed of the Ed25519 key pair the site knows us by, and the EnHash of that
+ * seed is the key of the secret index.
+ */
+public class SiteKeys {
+    private final byte[] publicKey = new byte[SqrlCrypto.SIGN_PUBLIC_KEY_BYTES];
+    private final byte[] privateKey = new byte[SqrlCrypto.SIGN_PRIVATE_KEY_BYTES];
+    private final byte[] secretIndexKey;
+
+    private SiteKeys(SqrlCrypto crypto, byte[] seed) {
+        crypto.signSeedKeypair(publicKey, privateKey, seed);
+        secretIndexKey = EnHash.hash(seed);
+    }
+
+    /**
+     * @param identityMasterKey     The current identity master key.
+     * @param domain                The crypt domain of the site.
+     */
+    public static SiteKeys derive(SqrlCrypto crypto, byte[] identityMasterKey, byte[] domain) {
+        byte[] seed = hmacSha256(identityMasterKey, domain);
+        try {
+            return new SiteKeys(crypto, seed);
+        } finally {
+            Bytes.clear(seed);
+        }
+    }
+
+    /**
+     * The keys of a previous identity, which the site may still know us by.
+     *
+     * @param previousUnlockKey     One of the previous identity unlock keys.
+     */
+    public static SiteKeys derivePrevious(SqrlCrypto crypto, byte[] previousUnlockKey, byte[] domain) {
+        byte[] previousMasterKey = EnHash.hash(previousUnlockKey);
+        try {
+            return derive(crypto, previousMasterKey, domain);
+        } finally {
+            Bytes.clear(previousMasterKey);
+        }
+    }
+
+    public byte[] getPublicKey() {
+        return publicKey.clone();
+    }
+
+    public byte[] getPrivateKey() {
+        return privateKey.clone();
+    }
+
+    public byte[] sign(SqrlCrypto crypto, byte[] message) {
+        return crypto.signDetached(message, privateKey);
+    }
+
+    /**
+     * @param secretIndex   The secret index asked for by the site.
+     * @return              What the site stores for it, the same every time for this identity.
+     */
+    public byte[] secretIndex(String secretIndex) {
+        return hmacSha256(secretIndexKey, Bytes.utf8(secretIndex));
+    }
+
+    public void clear() {
+        Bytes.clear(publicKey);
+        Bytes.clear(privateKey);
+        Bytes.clear(secretIndexKey);
+    }
+
+    public static byte[] hmacSha256(byte[] key, byte[] data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
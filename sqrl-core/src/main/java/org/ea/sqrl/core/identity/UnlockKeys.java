@@ -0,0 +1,68 @@
+package org.ea.sqrl.core.identity;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.utils.Bytes;
+
+/**
+ * Server unlock key and verify unlock key for a new account, and the key that later proves we
+ * hold the identity unlock key.
+ *
+ * VerifyUnlock := SignPublic( DHKA( IdentityLock, RandomLock ))
+ * ServerUnlock := MakePublic( RandomLock )
+ * UnlockRequestSigning := SignPrivate( DHKA( ServerUnlock, IdentityUnlock ))
+ */
+public class UnlockKeys {
+    private final byte[] serverUnlock = new byte[SqrlCrypto.SCALAR_BYTES];
+    private final byte[] verifyUnlock = new byte[SqrlCrypto.SIGN_PUBLIC_KEY_BYTES];
+
+    private UnlockKeys() {}
+
+    /**
+     * @param identityLockKey   The public identity lock key.
+     * @param randomLock        32 random bytes, which are wiped. Only the two keys made from it
+     *                          are ever sent to the server.
+     */
+    public static UnlockKeys create(SqrlCrypto crypto, byte[] identityLockKey, byte[] randomLock) {
+        byte[] bytesToSign = new byte[SqrlCrypto.SCALAR_BYTES];
+        byte[] notImportant = new byte[SqrlCrypto.SIGN_PRIVATE_KEY_BYTES];
+        UnlockKeys keys = new UnlockKeys();
+        try {
+            crypto.scalarMultBase(keys.serverUnlock, randomLock);
+            crypto.scalarMult(bytesToSign, randomLock, identityLockKey);
+            crypto.signSeedKeypair(keys.verifyUnlock, notImportant, bytesToSign);
+            return keys;
+        } finally {
+            Bytes.clear(randomLock);
+            Bytes.clear(bytesToSign);
+            Bytes.clear(notImportant);
+        }
+    }
+
+    /**
+     * @param identityUnlockKey     The identity unlock key, or the previous one the site knows.
+     * @param serverUnlockKey       The server unlock key the site sent back.
+     * @return                      The private key for the unlock request signature.
+     */
+    public static byte[] requestSigningKey(SqrlCrypto crypto, byte[] identityUnlockKey, byte[] serverUnlockKey) {
+        byte[] bytesToSign = new byte[SqrlCrypto.SCALAR_BYTES];
+        byte[] notImportant = new byte[SqrlCrypto.SIGN_PUBLIC_KEY_BYTES];
+        byte[] unlockRequestSign = new byte[SqrlCrypto.SIGN_PRIVATE_KEY_BYTES];
+        crypto.scalarMult(bytesToSign, identityUnlockKey, serverUnlockKey);
+        crypto.signSeedKeypair(notImportant, unlockRequestSign, bytesToSign);
+        Bytes.clear(bytesToSign);
+        return unlockRequestSign;
+    }
+
+    public byte[] getServerUnlock() {
+        return serverUnlock.clone();
+    }
+
+    public byte[] getVerifyUnlock() {
+        return verifyUnlock.clone();
+    }
+
+    public void clear() {
+        Bytes.clear(serverUnlock);
+        Bytes.clear(verifyUnlock);
+    }
+}
@@ -0,0 +1,99 @@
+package org.ea.sqrl.core.protocol;
+
+import org.ea.sqrl.core.utils.Base64Url;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The client parameter of a request, one name=value line for every parameter. The lines are
+ * written in the order they are added, so a request looks the same whoever builds it.
+ */
+public class ClientParameters {
+    public static final String CMD_QUERY = "query";
+    public static final String CMD_IDENT = "ident";
+    public static final String CMD_DISABLE = "disable";
+    public static final String CMD_ENABLE = "enable";
+    public static final String CMD_REMOVE = "remove";
+
+    private final StringBuilder sb = new StringBuilder();
+
+    public ClientParameters(String command) {
+        add("ver", "1");
+        add("cmd", command);
+    }
+
+    /**
+     * @param button    The button picked for the question of the last response, or null.
+     */
+    public ClientParameters button(String button) {
+        if(button != null) add("btn", button);
+        return this;
+    }
+
+    public ClientParameters options(boolean hardlock, boolean sqrlOnly, boolean noiptest,
+                                    boolean clientProvidedSession, boolean requestServerUnlockKey) {
+        List<String> options = new ArrayList<>();
+        if(hardlock) {
+            options.add("hardlock");
+        }
+        if(sqrlOnly) {
+            options.add("sqrlonly");
+        }
+        if(noiptest) {
+            options.add("noiptest");
+        }
+        if(clientProvidedSession) {
+            options.add("cps");
+        }
+        if(requestServerUnlockKey) {
+            options.add("suk");
+        }
+        if(options.isEmpty()) return this;
+
+        StringBuilder value = new StringBuilder();
+        for(String s : options) {
+            if(value.length() > 0) {
+                value.append("~");
+            }
+            value.append(s);
+        }
+        add("opt", value.toString());
+        return this;
+    }
+
+    /**
+     * @param secretIndex           The secret index for the current identity, or null.
+     * @param previousSecretIndex   The secret index for the previous identity, or null.
+     */
+    public ClientParameters secretIndex(byte[] secretIndex, byte[] previousSecretIndex) {
+        if(secretIndex != null) add("ins", Base64Url.encode(secretIndex));
+        if(previousSecretIndex != null) add("pins", Base64Url.encode(previousSecretIndex));
+        return this;
+    }
+
+    public ClientParameters identityKey(byte[] publicKey) {
+        add("idk", Base64Url.encode(publicKey));
+        return this;
+    }
+
+    public ClientParameters previousIdentityKey(byte[] publicKey) {
+        add("pidk", Base64Url.encode(publicKey));
+        return this;
+    }
+
+    public ClientParameters unlockKeys(byte[] serverUnlock, byte[] verifyUnlock) {
+        add("suk", Base64Url.encode(serverUnlock));
+        add("vuk", Base64Url.encode(verifyUnlock));
+        return this;
+    }
+
+    private void add(String name, String value) {
+        sb.append(name).append("=").append(value).append("\r\n");
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
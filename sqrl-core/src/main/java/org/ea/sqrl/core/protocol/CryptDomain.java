@@ -0,0 +1,106 @@
+package org.ea.sqrl.core.protocol;
+
+import org.ea.sqrl.core.utils.Bytes;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The domain the site keys are made for. That is the host of the SQRL link in lower case,
+ * without user info and port, followed by as much of the path as the x parameter asks for and
+ * the alternative id, if any.
+ */
+public class CryptDomain {
+    public static final Pattern sqrlPattern = Pattern.compile("^s*qrl://([^?/]+)(.*)$");
+    private static final Pattern sqrlQueryPattern = Pattern.compile("^([^?]+)\\?.*x=([0-9]+).*$");
+
+    private final String communicationDomain;
+    private final String queryLink;
+    private final byte[] domain;
+
+    private CryptDomain(String communicationDomain, String queryLink, byte[] domain) {
+        this.communicationDomain = communicationDomain;
+        this.queryLink = queryLink;
+        this.domain = domain;
+    }
+
+    /**
+     * @param sqrlLink  A sqrl:// or qrl:// link, as scanned or clicked.
+     */
+    public static CryptDomain fromSqrlLink(String sqrlLink) throws Exception {
+        Matcher matcher = sqrlPattern.matcher(sqrlLink);
+        if(!matcher.matches()) {
+            throw new Exception("Incorrect SQRL link " + sqrlLink);
+        }
+        return create(matcher.group(1), matcher.group(2));
+    }
+
+    /**
+     * @param communicationDomain   The host of the link, with user info and port if any.
+     * @param queryLink             The path and query of the link.
+     */
+    public static CryptDomain create(String communicationDomain, String queryLink) throws Exception {
+        String domain = communicationDomain;
+        int atSignIndex = domain.indexOf("@");
+        int portColon = domain.indexOf(":");
+        if (atSignIndex != -1) {
+            domain = domain.substring(atSignIndex + 1);
+            portColon = domain.indexOf(":");
+        }
+        if (portColon != -1) {
+            domain = domain.substring(0, portColon);
+        }
+
+        atSignIndex = domain.indexOf("@");
+        portColon = domain.indexOf(":");
+        if (atSignIndex != -1 || portColon != -1) {
+            throw new Exception("Incorrect cryptDomain " + domain);
+        }
+
+        byte[] cryptDomain = domain.toLowerCase(Locale.ROOT).getBytes();
+
+        Matcher queryMatcher = sqrlQueryPattern.matcher(queryLink);
+        if(queryMatcher.find()) {
+            String path = queryMatcher.group(1);
+            int sizeOfPath = getInteger(queryMatcher.group(2));
+            sizeOfPath = sizeOfPath < path.length() ? sizeOfPath : path.length();
+            if(sizeOfPath > 0) {
+                cryptDomain = Bytes.combine(cryptDomain, path.substring(0, sizeOfPath).getBytes());
+            }
+        }
+        return new CryptDomain(communicationDomain, queryLink, cryptDomain);
+    }
+
+    /**
+     * @return  The domain followed by a zero byte and the letters and digits of the id, or the
+     *          same domain if there is no alternative id.
+     */
+    public CryptDomain withAlternativeId(String alternativeId) {
+        if(alternativeId == null || alternativeId.isEmpty()) return this;
+
+        byte[] cryptDomain = Bytes.combine(domain, (byte)0);
+        cryptDomain = Bytes.combine(cryptDomain, alternativeId.replaceAll("[^A-Za-z0-9]", "").getBytes());
+        return new CryptDomain(communicationDomain, queryLink, cryptDomain);
+    }
+
+    public String getCommunicationDomain() {
+        return communicationDomain;
+    }
+
+    public String getQueryLink() {
+        return queryLink;
+    }
+
+    public byte[] getBytes() {
+        return domain.clone();
+    }
+
+    private static int getInteger(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.ea.sqrl.core.protocol;
+
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+
+/**
+ * The form posted to the server. Every signature is made over the encoded client parameter
+ * followed by the encoded server parameter, exactly as they are sent.
+ */
+public class PostBody {
+    private final byte[] message;
+    private final StringBuilder sb = new StringBuilder();
+
+    /**
+     * @param client    The client parameters.
+     * @param server    The SQRL link for the first request, after that the server parameter
+     *                  of the last response, both as they came.
+     */
+    public PostBody(String client, String server) {
+        String encodedClient = Base64Url.encode(client);
+        String encodedServer = Base64Url.encode(server);
+        this.message = Bytes.combine(encodedClient.getBytes(), encodedServer.getBytes());
+
+        sb.append("client=").append(encodedClient);
+        sb.append("&server=").append(encodedServer);
+    }
+
+    public PostBody identitySignature(SqrlCrypto crypto, byte[] privateKey) {
+        return sign(crypto, "ids", privateKey);
+    }
+
+    public PostBody previousIdentitySignature(SqrlCrypto crypto, byte[] privateKey) {
+        return sign(crypto, "pids", privateKey);
+    }
+
+    public PostBody unlockRequestSignature(SqrlCrypto crypto, byte[] privateKey) {
+        return sign(crypto, "urs", privateKey);
+    }
+
+    private PostBody sign(SqrlCrypto crypto, String name, byte[] privateKey) {
+        sb.append("&").append(name).append("=");
+        sb.append(Base64Url.encode(crypto.signDetached(message, privateKey)));
+        return this;
+    }
+
+    /**
+     * @return  The bytes the signatures are made over.
+     */
+    public byte[] getMessage() {
+        return message.clone();
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package org.ea.sqrl.core.protocol;
+
+import org.ea.sqrl.core.utils.Base64Url;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A response from the server, the name=value lines of the base64url encoded body.
+ */
+public class ServerResponse {
+    public static final int TIF_CURRENT_ID_MATCH = 0;
+    public static final int TIF_PREVIOUS_ID_MATCH = 1;
+    public static final int TIF_IP_MATCHED = 2;
+    public static final int TIF_SQRL_DISABLED = 3;
+    public static final int TIF_FUNCTION_NOT_SUPPORTED = 4;
+    public static final int TIF_TRANSIENT_ERROR = 5;
+    public static final int TIF_COMMAND_FAILED = 6;
+    public static final int TIF_CLIENT_FAILURE = 7;
+    public static final int TIF_BAD_ID_ASSOCIATION = 8;
+    public static final int TIF_SUPERSEDED_IDENTITY = 9;
+
+    private final String response;
+    private final Map<String, String> params;
+
+    private ServerResponse(String response, Map<String, String> params) {
+        this.response = response;
+        this.params = params;
+    }
+
+    /**
+     * @param body  The body as it came from the server.
+     */
+    public static ServerResponse parse(String body) {
+        String response = Base64Url.decodeString(body);
+        Map<String, String> params = new HashMap<>();
+        for(String param : response.split("\r\n")) {
+            int firstEqualSign = param.indexOf("=");
+            if(firstEqualSign == -1) continue;
+            params.put(param.substring(0, firstEqualSign), param.substring(firstEqualSign+1));
+        }
+        return new ServerResponse(response, params);
+    }
+
+    /**
+     * @return  A response without any parameters, as before the first request.
+     */
+    public static ServerResponse empty() {
+        return new ServerResponse("", new HashMap<String, String>());
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    /**
+     * @return  All parameters of the response, which can't be changed.
+     */
+    public Map<String, String> getParameters() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    public boolean has(String name) {
+        return params.containsKey(name);
+    }
+
+    /**
+     * @return  The value of the parameter, or null if the server didn't send it.
+     */
+    public String get(String name) {
+        return params.get(name);
+    }
+
+    public boolean hasTif() {
+        return params.containsKey("tif");
+    }
+
+    /**
+     * @return  The transaction information flags, or -1 if the server didn't send them.
+     */
+    public int getTif() {
+        if(!params.containsKey("tif")) return -1;
+        return Integer.parseInt(params.get("tif"), 16);
+    }
+
+    public boolean isTifBitSet(int k) {
+        if(!params.containsKey("tif")) return false;
+        return (getTif() & 1 << k) != 0;
+    }
+
+    /**
+     * @return  The server parameter for the next request.
+     */
+    public String getQueryLink() {
+        return params.containsKey("qry") ? params.get("qry") : "";
+    }
+
+    public String getSecretIndex() {
+        return params.get("sin");
+    }
+
+    public boolean hasServerUnlockKey() {
+        return params.containsKey("suk") && !params.get("suk").isEmpty();
+    }
+
+    /**
+     * @return  The server unlock key, or 32 zero bytes if the server didn't send it.
+     */
+    public byte[] getServerUnlockKey() {
+        if(!params.containsKey("suk")) {
+            return new byte[32];
+        }
+        return Base64Url.decode(params.get("suk"));
+    }
+
+    public boolean hasAskQuestion() {
+        return params.containsKey("ask") && !params.get("ask").isEmpty();
+    }
+
+    public String getAskQuestion() {
+        return params.get("ask");
+    }
+
+    public boolean hasCPSUrl() {
+        return params.containsKey("url");
+    }
+
+    public String getCPSUrl() {
+        return params.get("url");
+    }
+}
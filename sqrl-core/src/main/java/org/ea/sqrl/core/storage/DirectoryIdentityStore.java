@@ -0,0 +1,113 @@
+package org.ea.sqrl.core.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps every identity in a .sqrl file of its own, named by its id, the same files other
+ * clients import and export.
+ */
+public class DirectoryIdentityStore implements IdentityStore {
+    private static final String EXTENSION = ".sqrl";
+
+    private final File directory;
+
+    public DirectoryIdentityStore(File directory) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        File[] files = directory.listFiles();
+        if(files == null) throw new IOException("Could not list " + directory);
+
+        List<String> ids = new ArrayList<>();
+        for(File file : files) {
+            String name = file.getName();
+            if(file.isFile() && name.endsWith(EXTENSION)) {
+                ids.add(name.substring(0, name.length() - EXTENSION.length()));
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Override
+    public byte[] load(String id) throws IOException {
+        File file = file(id);
+        if(!file.isFile()) return null;
+
+        try (InputStream input = new FileInputStream(file)) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while((read = input.read(buffer)) != -1) {
+                data.write(buffer, 0, read);
+            }
+            return data.toByteArray();
+        }
+    }
+
+    /**
+     * The id is the next free number, so a directory filled by a batch job lists in the order
+     * it was filled.
+     */
+    @Override
+    public synchronized String add(byte[] data) throws IOException {
+        int next = list().size();
+        while(file(String.valueOf(next)).exists()) {
+            next++;
+        }
+        String id = String.valueOf(next);
+        write(file(id), data);
+        return id;
+    }
+
+    @Override
+    public void update(String id, byte[] data) throws IOException {
+        File file = file(id);
+        if(!file.isFile()) throw new IOException("No identity " + id);
+        write(file, data);
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        File file = file(id);
+        if(file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so an identity is never left half written.
+     */
+    private void write(File file, byte[] data) throws IOException {
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (OutputStream output = new FileOutputStream(temp)) {
+            output.write(data);
+        }
+        if(!temp.renameTo(file)) {
+            if(!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    private File file(String id) throws IOException {
+        if(id.isEmpty() || id.contains("/") || id.contains("\\") || id.startsWith(".")) {
+            throw new IOException("Invalid identity id " + id);
+        }
+        return new File(directory, id + EXTENSION);
+    }
+}
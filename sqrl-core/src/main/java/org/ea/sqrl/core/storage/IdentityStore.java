@@ -0,0 +1,26 @@
+package org.ea.sqrl.core.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where identities are kept, as the bytes of their S4 format. The app keeps them in its
+ * database, tools on a server keep them in a directory.
+ */
+public interface IdentityStore {
+    List<String> list() throws IOException;
+
+    /**
+     * @return  The identity data, or null if there is no identity with the id.
+     */
+    byte[] load(String id) throws IOException;
+
+    /**
+     * @return  The id of the new identity.
+     */
+    String add(byte[] data) throws IOException;
+
+    void update(String id, byte[] data) throws IOException;
+
+    void delete(String id) throws IOException;
+}
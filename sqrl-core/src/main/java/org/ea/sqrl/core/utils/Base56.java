@@ -0,0 +1,150 @@
+package org.ea.sqrl.core.utils;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The base56 encoding of the textual identity, with the least significant byte first.
+ *
+ * The string contains rows that each are 20 chars long. The first 19 characters come from the
+ * base56 encoded byte stream and the last one is a checksum. So we take the 19 characters of the
+ * line plus a zero based line number as our 20th character and then use a SHA-256 message digest
+ * in order to get the bytes that we reverse and modulus with 56 in order to get the last
+ * character of the line.
+ */
+public final class Base56 {
+    private static final String ALPHABET = "23456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnpqrstuvwxyz";
+    private static final int BASE_INT = 56;
+    private static final int CHARS_PER_LINE = 19;
+    private static final BigInteger BASE = BigInteger.valueOf(BASE_INT);
+
+    private Base56() {}
+
+    /**
+     * @param data  Input data, which is left as it is.
+     * @return      String of base56 encoded with checksum for each line.
+     */
+    public static String encode(byte[] data) {
+        final int expectedLength = (int) Math.ceil((data.length*8)/(Math.log(BASE_INT)/Math.log(2)));
+
+        BigInteger largeNum = new BigInteger(1, reverse(data.clone()));
+        StringBuilder result = new StringBuilder(expectedLength + expectedLength / CHARS_PER_LINE + 1);
+        int charsOnLine = 0;
+        byte line = 0;
+        MessageDigest md = sha256();
+        for(int totalLength = 0; totalLength < expectedLength; totalLength++) {
+            if(charsOnLine == CHARS_PER_LINE) {
+                result.append(checkChar(md, line));
+                line++;
+                charsOnLine = 0;
+            }
+
+            char c;
+            if(largeNum.signum() == 0) {
+                // pad with "zero"
+                c = ALPHABET.charAt(0);
+            } else {
+                BigInteger[] res = largeNum.divideAndRemainder(BASE);
+                largeNum = res[0];
+                c = ALPHABET.charAt(res[1].intValue());
+            }
+            result.append(c);
+            md.update((byte) c);
+            charsOnLine++;
+        }
+        result.append(checkChar(md, line));
+        return result.toString();
+    }
+
+    /**
+     * @param encodedString     Base56 string without any white space.
+     * @return                  The decoded data.
+     * @throws Exception        If the check character of a line is wrong, the message is the line
+     *                          number followed by a one, as the app always reported it.
+     */
+    public static byte[] decode(String encodedString) throws Exception {
+        MessageDigest md = sha256();
+        int charIndexPerLine = 0;
+        int charsRead = 0;
+        byte line = 0;
+        BigInteger largeNum = BigInteger.ZERO;
+        int encodedStringLen = encodedString.length();
+        for(int i = 0; i < encodedStringLen; i++) {
+            char c = encodedString.charAt(i);
+            if(
+                charIndexPerLine == CHARS_PER_LINE ||
+                encodedStringLen - 1 == charsRead + line
+            ) {
+                if(c != checkChar(md, line)) {
+                    throw new Exception("" + line + 1);
+                }
+                line++;
+                charIndexPerLine = 0;
+            } else {
+                BigInteger newVal = BigInteger.valueOf(ALPHABET.indexOf(c)).multiply(BASE.pow(charsRead));
+                largeNum = largeNum.add(newVal);
+                md.update((byte) c);
+                charIndexPerLine++;
+                charsRead++;
+            }
+        }
+        byte[] largeBytes = reverse(largeNum.toByteArray());
+        final int expectedNumberOfBytes = (int)((encodedStringLen - line)*(Math.log(BASE_INT)/Math.log(2))/8);
+        return Arrays.copyOf(largeBytes, expectedNumberOfBytes);
+    }
+
+    /**
+     * @param cleanTextIdentity     Base56 string without any white space.
+     * @return                      The first line with a wrong check character, or -1 if all are right.
+     */
+    public static int validate(String cleanTextIdentity) {
+        MessageDigest md = sha256();
+        int i = 0;
+        int n = 0;
+        byte line = 0;
+        int encodedStringLen = cleanTextIdentity.length();
+        for(int index = 0; index < encodedStringLen; index++) {
+            char c = cleanTextIdentity.charAt(index);
+            if(i == CHARS_PER_LINE || encodedStringLen - 1 == n + line) {
+                if(c != checkChar(md, line)) {
+                    return line;
+                }
+                line++;
+                i = 0;
+            } else {
+                md.update((byte) c);
+                i++;
+                n++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finishes the checksum of a line and resets the digest for the next one.
+     */
+    private static char checkChar(MessageDigest md, byte line) {
+        md.update(line);
+        byte[] checksum = reverse(md.digest());
+        return ALPHABET.charAt(new BigInteger(1, checksum).mod(BASE).intValue());
+    }
+
+    private static byte[] reverse(byte[] data) {
+        for(int i = 0; i < data.length / 2; i++) {
+            byte temp = data[i];
+            data[i] = data[data.length - i - 1];
+            data[data.length - i - 1] = temp;
+        }
+        return data;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
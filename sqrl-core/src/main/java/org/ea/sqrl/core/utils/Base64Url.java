@@ -0,0 +1,97 @@
+package org.ea.sqrl.core.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * The base64url encoding SQRL uses everywhere, without padding or line breaks. It works like the
+ * Android decoder in URL safe mode: padding and any character outside the alphabet, like the
+ * white space the spec allows in identities, are skipped.
+ */
+public final class Base64Url {
+    private static final char[] ENCODE =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int[] DECODE = new int[128];
+
+    static {
+        for(int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        for(int i = 0; i < ENCODE.length; i++) {
+            DECODE[ENCODE[i]] = i;
+        }
+    }
+
+    private Base64Url() {}
+
+    public static String encode(byte[] data) {
+        char[] result = new char[(data.length * 4 + 2) / 3];
+        int out = 0;
+        int i = 0;
+        for(; i + 2 < data.length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            result[out++] = ENCODE[bits >> 18];
+            result[out++] = ENCODE[(bits >> 12) & 0x3f];
+            result[out++] = ENCODE[(bits >> 6) & 0x3f];
+            result[out++] = ENCODE[bits & 0x3f];
+        }
+        if(data.length - i == 2) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8;
+            result[out++] = ENCODE[bits >> 18];
+            result[out++] = ENCODE[(bits >> 12) & 0x3f];
+            result[out] = ENCODE[(bits >> 6) & 0x3f];
+        } else if(data.length - i == 1) {
+            int bits = (data[i] & 0xff) << 16;
+            result[out++] = ENCODE[bits >> 18];
+            result[out] = ENCODE[(bits >> 12) & 0x3f];
+        }
+        return new String(result);
+    }
+
+    public static String encode(String text) {
+        return encode(Bytes.utf8(text));
+    }
+
+    /**
+     * @throws IllegalArgumentException If the data ends with a single character, which can't be
+     *                                  any number of whole bytes.
+     */
+    public static byte[] decode(CharSequence data) {
+        byte[] result = new byte[data.length() * 3 / 4];
+        int out = 0;
+        int bits = 0;
+        int count = 0;
+        for(int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if(c == '=') break;
+            int value = c < DECODE.length ? DECODE[c] : -1;
+            if(value < 0) continue;
+
+            bits = bits << 6 | value;
+            if(++count == 4) {
+                result[out++] = (byte) (bits >> 16);
+                result[out++] = (byte) (bits >> 8);
+                result[out++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if(count == 1) {
+            throw new IllegalArgumentException("Bad base64url data");
+        } else if(count == 2) {
+            result[out++] = (byte) (bits >> 4);
+        } else if(count == 3) {
+            result[out++] = (byte) (bits >> 10);
+            result[out++] = (byte) (bits >> 2);
+        }
+        return out == result.length ? result : Arrays.copyOf(result, out);
+    }
+
+    public static String decodeString(CharSequence data) {
+        try {
+            return new String(decode(data), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
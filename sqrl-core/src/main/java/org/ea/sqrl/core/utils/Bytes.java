@@ -0,0 +1,100 @@
+package org.ea.sqrl.core.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Byte array helpers used all over the protocol. Integers in SQRL structures are little endian.
+ */
+public final class Bytes {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Bytes() {}
+
+    public static byte[] combine(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    public static byte[] combine(byte[] a, byte b) {
+        byte[] result = Arrays.copyOf(a, a.length + 1);
+        result[a.length] = b;
+        return result;
+    }
+
+    /**
+     * XOR's b into target, without allocating a new array.
+     *
+     * @throws IllegalArgumentException If the lengths of target and b are not equal.
+     */
+    public static void xorInto(byte[] target, byte[] b) {
+        if(target.length != b.length) {
+            throw new IllegalArgumentException(
+                    "The byte arrays to be XOR'ed need to have the same length!");
+        }
+        for(int i = 0; i < target.length; i++) {
+            target[i] ^= b[i];
+        }
+    }
+
+    public static String toHex(byte[] data) {
+        char[] result = new char[data.length * 2];
+        for(int i = 0; i < data.length; i++) {
+            result[i * 2] = HEX[(data[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX[data[i] & 0xF];
+        }
+        return new String(result);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the string isn't hex digits.
+     */
+    public static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for(int i = 0; i < result.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if(high < 0 || low < 0) {
+                throw new IllegalArgumentException("Not a hex string");
+            }
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    public static int readShort(byte[] input, int offset) {
+        return (input[offset] & 0xff) | ((input[offset + 1] & 0xff) << 8);
+    }
+
+    public static int readInt(byte[] input, int offset) {
+        return (input[offset] & 0xff) | ((input[offset + 1] & 0xff) << 8) |
+                ((input[offset + 2] & 0xff) << 16) | ((input[offset + 3] & 0xff) << 24);
+    }
+
+    public static byte[] shortBytes(int value) {
+        return new byte[] {(byte) value, (byte) (value >> 8)};
+    }
+
+    public static byte[] intBytes(int value) {
+        return new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)};
+    }
+
+    public static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Wipes key material. Does nothing for null.
+     */
+    public static void clear(byte[] data) {
+        if(data != null) {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package org.ea.sqrl.core.utils;
+
+/**
+ * Where the core logs to. The app sends it to the Android log, on a plain JVM it goes to
+ * standard error unless something else is set with {@link SqrlLog#setLogger(Logger)}.
+ */
+public interface Logger {
+    void d(String tag, String message);
+    void e(String tag, String message, Throwable throwable);
+}
@@ -0,0 +1,40 @@
+package org.ea.sqrl.core.utils;
+
+/**
+ * Logging of the core, called like android.util.Log so code reads the same on both sides.
+ */
+public final class SqrlLog {
+    private static final Logger STANDARD_ERROR = new Logger() {
+        @Override
+        public void d(String tag, String message) {
+            System.err.println(tag + ": " + message);
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            System.err.println(tag + ": " + message);
+            if(throwable != null) {
+                throwable.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Logger logger = STANDARD_ERROR;
+
+    private SqrlLog() {}
+
+    /**
+     * @param newLogger     Logger to use from now on, or null for standard error.
+     */
+    public static void setLogger(Logger newLogger) {
+        logger = newLogger != null ? newLogger : STANDARD_ERROR;
+    }
+
+    public static void d(String tag, String message) {
+        logger.d(tag, message);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        logger.e(tag, message, throwable);
+    }
+}
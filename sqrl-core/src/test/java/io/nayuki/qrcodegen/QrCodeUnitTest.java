@@ -0,0 +1,139 @@
+package io.nayuki.qrcodegen;
+
+import org.ea.sqrl.TestHelper;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the QR encoder against symbols produced by the original encoder, so changes to the
+ * error correction, masking or module layout can't silently change what we print and show.
+ * Every vector is one version and error correction level filled with generated data, and the
+ * expected output is the chosen mask and a digest over all modules.
+ */
+public class QrCodeUnitTest {
+    @Test
+    public void testEncodeVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile(
+                "qrcode-vectors.txt", true, false);
+
+        assertEquals("All versions and levels should have a vector", 40 * 4, vectors.size());
+        for (List<String> vector : vectors) {
+            int version = Integer.parseInt(vector.get(0));
+            QrCode.Ecc ecl = QrCode.Ecc.valueOf(vector.get(1));
+            QrCode qr = encode(version, ecl);
+
+            String name = "Version " + version + " / " + ecl;
+            assertEquals(name + ": Mask should match vector file",
+                    Integer.parseInt(vector.get(2)), qr.mask);
+            assertEquals(name + ": Modules should match vector file",
+                    vector.get(3), moduleDigest(qr));
+        }
+    }
+
+    @Test
+    public void testBitBufferAcrossWords() {
+        byte[] bytes = new byte[37];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 73 + 5);
+        }
+
+        // Start at an odd bit position so every word boundary is crossed in the middle of a value.
+        BitBuffer bb = new BitBuffer();
+        bb.appendBits(5, 3);
+        bb.appendBytes(bytes);
+        BitBuffer segment = new BitBuffer();
+        segment.appendBits(0x1ABCD, 17);
+        bb.appendData(new QrSegment(QrSegment.Mode.BYTE, 0, segment));
+
+        assertEquals(3 + bytes.length * 8 + 17, bb.bitLength());
+        int index = 0;
+        for (int i = 2; i >= 0; i--) {
+            assertEquals((5 >>> i) & 1, bb.getBit(index++));
+        }
+        for (byte b : bytes) {
+            for (int i = 7; i >= 0; i--) {
+                assertEquals((b >>> i) & 1, bb.getBit(index++));
+            }
+        }
+        for (int i = 16; i >= 0; i--) {
+            assertEquals((0x1ABCD >>> i) & 1, bb.getBit(index++));
+        }
+
+        byte[] packed = bb.getBytes();
+        assertEquals((bb.bitLength() + 7) / 8, packed.length);
+        for (int i = 0; i < bb.bitLength(); i++) {
+            assertEquals("Bit " + i, bb.getBit(i), (packed[i >>> 3] >>> (7 - (i & 7))) & 1);
+        }
+    }
+
+    @Test
+    public void testPixelsMatchModules() {
+        for (int version : new int[] {1, 7, 27, 28, 40}) {
+            QrCode qr = encode(version, QrCode.Ecc.MEDIUM);
+            int scale = 3;
+            int border = 2;
+            int width = qr.getImageSize(scale, border);
+            int stride = width + 5;
+            int[] pixels = new int[stride * width + 1];
+            pixels[pixels.length - 1] = 7;
+            qr.toPixels(scale, border, pixels, 1, stride, 1, 2);
+
+            for (int y = 0; y < width; y++) {
+                for (int x = 0; x < width; x++) {
+                    int expected = qr.getModule(x / scale - border, y / scale - border) ? 1 : 2;
+                    assertEquals("Version " + version + " pixel " + x + "," + y,
+                            expected, pixels[1 + y * stride + x]);
+                }
+            }
+            assertEquals("Pixels past the last row should be left alone", 7, pixels[pixels.length - 1]);
+        }
+    }
+
+    @Test
+    public void testSvgPathMatchesModules() {
+        QrCode qr = encode(40, QrCode.Ecc.LOW);
+        int border = 4;
+        String svg = qr.toSvgString(border);
+        String path = svg.substring(svg.indexOf(" d=\"") + 4, svg.indexOf("\" fill=\"#000000\""));
+
+        boolean[][] covered = new boolean[qr.size][qr.size];
+        for (String rect : path.split(" ")) {
+            String[] parts = rect.substring(1, rect.length() - 1).split("[,hv]");
+            int x = Integer.parseInt(parts[0]) - border;
+            int y = Integer.parseInt(parts[1]) - border;
+            int length = Integer.parseInt(parts[2]);
+            for (int i = 0; i < length; i++) {
+                assertFalse("Modules should only be covered once", covered[y][x + i]);
+                covered[y][x + i] = true;
+            }
+        }
+        for (int y = 0; y < qr.size; y++) {
+            for (int x = 0; x < qr.size; x++) {
+                assertEquals("Module " + x + "," + y, qr.getModule(x, y), covered[y][x]);
+            }
+        }
+    }
+
+    private static QrCode encode(int version, QrCode.Ecc ecl) {
+        byte[] data = new byte[QrCode.getNumDataCodewords(version, ecl)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + version * 7 + ecl.ordinal());
+        }
+        return new QrCode(version, ecl, data, -1);
+    }
+
+    private static String moduleDigest(QrCode qr) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (int y = 0; y < qr.size; y++) {
+            for (int x = 0; x < qr.size; x++) {
+                md.update((byte) (qr.getModule(x, y) ? 1 : 0));
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(md.digest());
+    }
+}
@@ -0,0 +1,60 @@
+package org.ea.sqrl.core;
+
+import org.ea.sqrl.TestHelper;
+import org.ea.sqrl.core.utils.Base56;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncodingUnitTest {
+    @Test
+    public void testBase56Vectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("base56-full-format-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            byte[] input = Bytes.fromHex(vector.get(1));
+            String expectedResult = vector.get(2).replace(" ", "").replace("\\n", "");
+
+            String encoded = Base56.encode(input);
+
+            assertEquals("encode / vector # " + vectorNumber, expectedResult, encoded);
+            assertArrayEquals("decode / vector # " + vectorNumber, input, Base56.decode(encoded));
+            assertEquals("validate / vector # " + vectorNumber, -1, Base56.validate(encoded));
+            assertArrayEquals("base64url / vector # " + vectorNumber,
+                    input, Base64Url.decode(vector.get(0)));
+            assertEquals("base64url / vector # " + vectorNumber, vector.get(0), Base64Url.encode(input));
+
+            vectorNumber++;
+        }
+    }
+
+    @Test
+    public void testBase56BadCheckCharacter() {
+        final String testIdentity = "KKUtzSvTsNiNDdPQZdqCpZJCwzCdyQh6kk9vU7wRg6trU6cP6xVqLvNAff4iNv2PW8sw3tYcu7CaxQ5trcTCeB7WbaeDjxTbh6VEiNNPNBd";
+        assertEquals(-1, Base56.validate(testIdentity));
+
+        String broken = testIdentity.substring(0, 19) + (testIdentity.charAt(19) == '2' ? '3' : '2') + testIdentity.substring(20);
+        assertEquals(0, Base56.validate(broken));
+        try {
+            Base56.decode(broken);
+            fail("Decoding should fail on a wrong check character");
+        } catch (Exception e) {
+            assertEquals("01", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBase64UrlPadding() {
+        assertEquals("", Base64Url.encode(new byte[0]));
+        assertEquals("AQ", Base64Url.encode(new byte[] {1}));
+        assertEquals("AQI", Base64Url.encode(new byte[] {1, 2}));
+        assertArrayEquals(new byte[] {1, 2}, Base64Url.decode("AQI="));
+        assertArrayEquals(new byte[] {1, 2}, Base64Url.decode("AQ\r\nI"));
+        assertEquals("ver=1\r\n", Base64Url.decodeString(Base64Url.encode("ver=1\r\n")));
+    }
+}
@@ -0,0 +1,111 @@
+package org.ea.sqrl.core;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.IdentityData;
+import org.ea.sqrl.core.identity.IdentityKeys;
+import org.ea.sqrl.core.utils.Bytes;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IdentityDataUnitTest {
+    private static final String TEST_IDENTITY = "7371726c646174617d0001002d00b51fd99559b887d106a8d877c70133bb20a12fa1a7c829b194db94f309c5000000f30104050f000d174cc6e7b70baa158aa4ce75e2f2b99a02a40e4beb2e5d16c2f03442bd3e932035419a63885a663125a600e5486c42b38f708c1094ced1ab0b0050137f6df449caf78581fec678408a804caf74f91c490002005528fc85e3e36866a85574146fe7776d09cf0000004a4e12277dd48366fc1f335dd37188bbcba02bc32a12aef0188f5e83593665518483d638b80051c2b4b013491eb06835";
+    private static final String TEST_PASSWORD = "Testing1234";
+    private static final String TEST_RESCUE_CODE = "7276-0587-2230-1119-8559-3839";
+
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+
+    @Test
+    public void testReadAndWrite() throws Exception {
+        byte[] data = Bytes.fromHex(TEST_IDENTITY);
+        IdentityData identity = IdentityData.read(data);
+
+        assertNotNull(identity.getPasswordBlock());
+        assertNotNull(identity.getRescueBlock());
+        assertNull(identity.getPreviousKeysBlock());
+        assertEquals(0x1f3, identity.getPasswordBlock().getOptionFlags());
+        assertArrayEquals(data, identity.toBytes());
+
+        IdentityData textual = IdentityData.read(Bytes.combine(IdentityData.HEADER.getBytes(), identity.getTextualBytes()));
+        assertNull(textual.getPasswordBlock());
+        assertArrayEquals(identity.toBytes(false), textual.toBytes());
+    }
+
+    @Test
+    public void testWrapStoredBlocks() throws Exception {
+        byte[] data = Bytes.fromHex(TEST_IDENTITY);
+        IdentityData read = IdentityData.read(data);
+
+        IdentityData identity = new IdentityData();
+        identity.setPasswordBlock(new IdentityData.PasswordBlock(read.getPasswordBlock().toBytes()));
+        identity.setRescueBlock(new IdentityData.RescueBlock(read.getRescueBlock().toBytes()));
+        assertArrayEquals(data, identity.toBytes());
+
+        try {
+            new IdentityData.RescueBlock(read.getRescueBlock().getPlaintext());
+            fail("A rescue block without the key should not be accepted");
+        } catch (Exception e) {
+            assertEquals("Block of type 2 is too short", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBadIdentity() {
+        byte[] data = Bytes.fromHex(TEST_IDENTITY);
+        data[0] = 'x';
+        try {
+            IdentityData.read(data);
+            fail("Reading should fail on a wrong header");
+        } catch (Exception e) {
+            assertEquals("Incorrect header", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnlockAndRescue() throws Exception {
+        IdentityData identity = IdentityData.read(Bytes.fromHex(TEST_IDENTITY));
+
+        assertNull(IdentityKeys.unlock(crypto, identity, "Testing12345", null, null));
+
+        IdentityKeys unlocked = IdentityKeys.unlock(crypto, identity, TEST_PASSWORD, null, null);
+        assertNotNull(unlocked);
+        assertFalse(unlocked.hasUnlockKey());
+
+        IdentityKeys rescued = IdentityKeys.rescue(crypto, identity, TEST_RESCUE_CODE, null, null);
+        assertNotNull(rescued);
+        assertTrue(rescued.hasUnlockKey());
+        assertArrayEquals(rescued.getIdentityMasterKey(), unlocked.getIdentityMasterKey());
+        assertArrayEquals(rescued.getIdentityLockKey(), unlocked.getIdentityLockKey());
+    }
+
+    @Test
+    public void testStoreWithPreviousKeys() throws Exception {
+        Random random = new Random(1);
+        byte[] identityUnlockKey = new byte[32];
+        byte[] previousUnlockKey = new byte[32];
+        byte[] rescueEntropy = new byte[32];
+        random.nextBytes(identityUnlockKey);
+        random.nextBytes(previousUnlockKey);
+        random.nextBytes(rescueEntropy);
+        String rescueCode = IdentityKeys.rescueCode(rescueEntropy);
+        assertEquals(24, rescueCode.length());
+
+        IdentityKeys keys = IdentityKeys.fromUnlockKey(crypto, identityUnlockKey, new byte[][] {previousUnlockKey});
+        IdentityData identity = IdentityData.read(keys.store(crypto, random, "password", 1, rescueCode, 1).toBytes());
+
+        IdentityKeys unlocked = IdentityKeys.unlock(crypto, identity, "password", null, null);
+        assertArrayEquals(keys.getIdentityMasterKey(), unlocked.getIdentityMasterKey());
+        assertEquals(1, unlocked.getPreviousKeyCount());
+        assertArrayEquals(previousUnlockKey, unlocked.getPreviousUnlockKey(0));
+
+        IdentityKeys rescued = IdentityKeys.rescue(crypto, identity, rescueCode, null, null);
+        assertArrayEquals(identityUnlockKey, rescued.getIdentityUnlockKey());
+
+        byte[] domain = Bytes.utf8("example.com");
+        assertArrayEquals(unlocked.previousSiteKeys(crypto, domain, 0).getPublicKey(),
+                IdentityKeys.fromUnlockKey(crypto, previousUnlockKey, null).siteKeys(crypto, domain).getPublicKey());
+    }
+}
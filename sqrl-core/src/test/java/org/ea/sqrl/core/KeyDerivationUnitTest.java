@@ -0,0 +1,169 @@
+package org.ea.sqrl.core;
+
+import org.ea.sqrl.TestHelper;
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.EnHash;
+import org.ea.sqrl.core.crypto.EnScrypt;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.IdentityKeys;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.identity.UnlockKeys;
+import org.ea.sqrl.core.protocol.CryptDomain;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeyDerivationUnitTest {
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+
+    @Test
+    public void testEnHashVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("enhash-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            assertArrayEquals("vector # " + vectorNumber,
+                    Base64Url.decode(vector.get(1)), EnHash.hash(Base64Url.decode(vector.get(0))));
+            vectorNumber++;
+        }
+    }
+
+    @Test
+    public void testEnScryptVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("enscrypt-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            int iterations = Integer.parseInt(vector.get(2));
+            if(iterations <= 2) {
+                byte[] result = EnScrypt.iterations(crypto, Bytes.utf8(vector.get(0)),
+                        Bytes.utf8(vector.get(1)), 9, 32, iterations, null, null);
+                assertEquals("vector # " + vectorNumber, vector.get(4), Bytes.toHex(result));
+            }
+            vectorNumber++;
+        }
+    }
+
+    @Test(expected = EnScrypt.CanceledException.class)
+    public void testEnScryptCancel() {
+        final int[] done = new int[1];
+        EnScrypt.iterations(crypto, Bytes.utf8("password"), new byte[16], 9, 32, 100,
+                (iterationsDone, millisElapsed) -> done[0] = iterationsDone,
+                () -> done[0] >= 2);
+    }
+
+    @Test
+    public void testEnScryptCancelFromAnotherThread() throws Exception {
+        final byte[][] scryptKey = new byte[1][];
+        SqrlCrypto recordingCrypto = new BouncyCastleCrypto() {
+            @Override
+            public void scrypt(byte[] key, byte[] password, byte[] salt, int logNFactor) {
+                scryptKey[0] = key;
+                super.scrypt(key, password, salt, logNFactor);
+            }
+        };
+        final byte[] password = Bytes.utf8("password");
+        final AtomicBoolean canceled = new AtomicBoolean();
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(2);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<byte[]> run = executor.submit(() -> EnScrypt.iterations(recordingCrypto, password, new byte[16], 9, 32, 1000,
+                (iterationsDone, millisElapsed) -> {
+                    done.set(iterationsDone);
+                    running.countDown();
+                },
+                canceled::get));
+        running.await();
+        canceled.set(true);
+
+        try {
+            run.get();
+            fail("A cancelled run shouldn't give a key");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EnScrypt.CanceledException);
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(done.get() < 1000);
+        assertArrayEquals(new byte[password.length], password);
+        assertArrayEquals(new byte[32], scryptKey[0]);
+    }
+
+    @Test
+    public void testIdentityVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("identity-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            IdentityKeys keys = IdentityKeys.fromUnlockKey(crypto, Base64Url.decode(vector.get(0)), null);
+            assertArrayEquals("ILK / vector # " + vectorNumber,
+                    Base64Url.decode(vector.get(1)), keys.getIdentityLockKey());
+            assertArrayEquals("IMK / vector # " + vectorNumber,
+                    Base64Url.decode(vector.get(2)), keys.getIdentityMasterKey());
+
+            CryptDomain domain = cryptDomain(vector.get(3)).withAlternativeId(vector.get(4));
+            SiteKeys siteKeys = keys.siteKeys(crypto, domain.getBytes());
+            assertEquals("IDK / vector # " + vectorNumber, vector.get(5), Base64Url.encode(siteKeys.getPublicKey()));
+
+            vectorNumber++;
+        }
+    }
+
+    @Test
+    public void testSecretIndexVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("ins-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            SiteKeys siteKeys = SiteKeys.derive(crypto, Base64Url.decode(vector.get(0)), cryptDomain(vector.get(1)).getBytes());
+            assertEquals("vector # " + vectorNumber, vector.get(3), Base64Url.encode(siteKeys.secretIndex(vector.get(2))));
+            vectorNumber++;
+        }
+    }
+
+    @Test
+    public void testIdentityLockVectors() throws Exception {
+        List<List<String>> vectors = TestHelper.parseVectorCsvFile("identity-lock-vectors.txt", true, true);
+
+        int vectorNumber = 1;
+        for (List<String> vector: vectors) {
+            byte[] identityUnlockKey = Bytes.fromHex(vector.get(0));
+            IdentityKeys keys = IdentityKeys.fromUnlockKey(crypto, identityUnlockKey, null);
+            assertEquals("ILK / vector # " + vectorNumber, vector.get(1), Bytes.toHex(keys.getIdentityLockKey()));
+
+            UnlockKeys unlockKeys = keys.createUnlockKeys(crypto, Bytes.fromHex(vector.get(2)));
+            assertEquals("SUK / vector # " + vectorNumber, vector.get(3), Bytes.toHex(unlockKeys.getServerUnlock()));
+            assertEquals("VUK / vector # " + vectorNumber, vector.get(5), Bytes.toHex(unlockKeys.getVerifyUnlock()));
+
+            byte[] requestSigningKey = UnlockKeys.requestSigningKey(crypto, identityUnlockKey, unlockKeys.getServerUnlock());
+            assertEquals("URS / vector # " + vectorNumber, vector.get(5), Bytes.toHex(requestSigningKey).substring(64));
+
+            vectorNumber++;
+        }
+    }
+
+    /**
+     * The domains in the vector files include the part of the path that belongs to the crypt
+     * domain, which a SQRL link gives with the x parameter.
+     */
+    private static CryptDomain cryptDomain(String domain) throws Exception {
+        int pathStart = domain.indexOf('/');
+        if(pathStart == -1) {
+            return CryptDomain.fromSqrlLink("sqrl://" + domain + "/sqrl?nut=0");
+        }
+        String path = domain.substring(pathStart);
+        return CryptDomain.fromSqrlLink("sqrl://" + domain.substring(0, pathStart) + path + "?nut=0&x=" + path.length());
+    }
+}
@@ -0,0 +1,103 @@
+package org.ea.sqrl.core;
+
+import org.ea.sqrl.core.crypto.BouncyCastleCrypto;
+import org.ea.sqrl.core.crypto.SqrlCrypto;
+import org.ea.sqrl.core.identity.SiteKeys;
+import org.ea.sqrl.core.protocol.ClientParameters;
+import org.ea.sqrl.core.protocol.CryptDomain;
+import org.ea.sqrl.core.protocol.PostBody;
+import org.ea.sqrl.core.protocol.ServerResponse;
+import org.ea.sqrl.core.utils.Base64Url;
+import org.ea.sqrl.core.utils.Bytes;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProtocolUnitTest {
+    private final SqrlCrypto crypto = new BouncyCastleCrypto();
+
+    @Test
+    public void testCryptDomain() throws Exception {
+        assertEquals("www.grc.com", new String(CryptDomain.fromSqrlLink(
+                "sqrl://www.GRC.com/sqrl?nut=Na2MOglf7NyyupQ8-dtj1g").getBytes()));
+        assertEquals("www.grc.com/sqrl", new String(CryptDomain.fromSqrlLink(
+                "sqrl://www.grc.com/sqrl?x=5&nut=Na2MOglf7NyyupQ8-dtj1g").getBytes()));
+        assertEquals("example.com", new String(CryptDomain.fromSqrlLink(
+                "qrl://user@example.com:8080/cli.sqrl?nut=abc").getBytes()));
+        assertEquals("example.com\0Personal", new String(CryptDomain.create("example.com", "/cli.sqrl?nut=abc")
+                .withAlternativeId("Per-so nal").getBytes()));
+
+        try {
+            CryptDomain.fromSqrlLink("https://example.com/");
+            fail("Only SQRL links have a crypt domain");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().startsWith("Incorrect SQRL link"));
+        }
+    }
+
+    @Test
+    public void testClientParameters() {
+        String client = new ClientParameters(ClientParameters.CMD_QUERY)
+                .button(null)
+                .options(false, true, true, false, true)
+                .identityKey(new byte[] {1, 2, 3})
+                .toString();
+        assertEquals("ver=1\r\ncmd=query\r\nopt=sqrlonly~noiptest~suk\r\nidk=AQID\r\n", client);
+    }
+
+    @Test
+    public void testSignedPostBody() throws Exception {
+        SiteKeys siteKeys = SiteKeys.derive(crypto, new byte[32], Bytes.utf8("example.com"));
+        String client = new ClientParameters(ClientParameters.CMD_QUERY).identityKey(siteKeys.getPublicKey()).toString();
+        String server = "sqrl://example.com/cli.sqrl?nut=abc";
+
+        String body = new PostBody(client, server).identitySignature(crypto, siteKeys.getPrivateKey()).toString();
+        String[] params = body.split("&");
+        assertEquals(3, params.length);
+        assertEquals(client, Base64Url.decodeString(params[0].substring("client=".length())));
+        assertEquals(server, Base64Url.decodeString(params[1].substring("server=".length())));
+
+        byte[] signature = Base64Url.decode(params[2].substring("ids=".length()));
+        byte[] message = Bytes.utf8(params[0].substring("client=".length()) + params[1].substring("server=".length()));
+        assertTrue(crypto.verifyDetached(signature, message, siteKeys.getPublicKey()));
+        assertFalse(crypto.verifyDetached(signature, Bytes.utf8("other"), siteKeys.getPublicKey()));
+    }
+
+    @Test
+    public void testSmallOrderSignatures() {
+        byte[] message = Bytes.utf8("client=abc&server=def");
+
+        // The all zero key and signature check out with some Bouncy Castle versions.
+        assertFalse(crypto.verifyDetached(new byte[64], message, new byte[32]));
+
+        // The neutral element as key and R, with S zero, holds for every message.
+        byte[] neutral = new byte[32];
+        neutral[0] = 1;
+        byte[] signature = new byte[64];
+        signature[0] = 1;
+        assertFalse(crypto.verifyDetached(signature, message, neutral));
+
+        // A good key with a small order R, and a small order key written with y + p.
+        SiteKeys siteKeys = SiteKeys.derive(crypto, new byte[32], Bytes.utf8("example.com"));
+        assertFalse(crypto.verifyDetached(signature, message, siteKeys.getPublicKey()));
+        byte[] nonCanonical = Bytes.fromHex("eeffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f");
+        assertFalse(crypto.verifyDetached(siteKeys.sign(crypto, message), message, nonCanonical));
+    }
+
+    @Test
+    public void testServerResponse() {
+        ServerResponse response = ServerResponse.parse(Base64Url.encode(
+                "ver=1\r\nnut=abc\r\ntif=C5\r\nqry=/cli.sqrl?nut=abc\r\nsin=0\r\n"));
+        assertEquals(0xc5, response.getTif());
+        assertTrue(response.isTifBitSet(ServerResponse.TIF_CURRENT_ID_MATCH));
+        assertTrue(response.isTifBitSet(ServerResponse.TIF_IP_MATCHED));
+        assertFalse(response.isTifBitSet(ServerResponse.TIF_PREVIOUS_ID_MATCH));
+        assertTrue(response.isTifBitSet(ServerResponse.TIF_CLIENT_FAILURE));
+        assertEquals("/cli.sqrl?nut=abc", response.getQueryLink());
+        assertEquals("0", response.getSecretIndex());
+        assertFalse(response.hasServerUnlockKey());
+
+        assertEquals(-1, ServerResponse.empty().getTif());
+        assertFalse(ServerResponse.empty().isTifBitSet(ServerResponse.TIF_CURRENT_ID_MATCH));
+    }
+}